@@ -0,0 +1,86 @@
+package com.farpost.benchmarks;
+
+import com.farpost.Analyzer;
+import com.farpost.AnalyzerMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полный прогон {@link Analyzer#run()} по синтетическому логу заданного размера и доли отказов.
+ * Лог генерируется один раз на набор параметров во временный файл; вывод инцидентов отбрасывается.
+ * Параметр {@code metrics} включает {@link AnalyzerMetrics}, чтобы видеть цену сбора метрик.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class AnalyzerBenchmark {
+    private static final double AVAILABILITY_THRESHOLD = 99.9;
+
+    @Param({"1000000", "10000000"})
+    public long lines;
+
+    @Param({"0.001", "0.05", "0.5"})
+    public double failureRatio;
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private Path logFile;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("synthetic-access", ".log");
+        new SyntheticLogGenerator(42, failureRatio).writeTo(logFile, lines);
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        Files.deleteIfExists(logFile);
+    }
+
+    @Benchmark
+    public void stream() throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(logFile), 1 << 16)) {
+            run(new Analyzer(in, AVAILABILITY_THRESHOLD, SyntheticLogGenerator.SLOW_RESPONSE_THRESHOLD_MS));
+        }
+    }
+
+    @Benchmark
+    public void mappedFile() throws IOException {
+        run(new Analyzer(logFile, AVAILABILITY_THRESHOLD, SyntheticLogGenerator.SLOW_RESPONSE_THRESHOLD_MS));
+    }
+
+    private void run(Analyzer analyzer) throws IOException {
+        if (metrics) {
+            analyzer.setMetrics(new AnalyzerMetrics());
+        }
+        analyzer.run();
+    }
+}
@@ -0,0 +1,116 @@
+package com.farpost.benchmarks;
+
+import com.farpost.LogParser;
+import com.farpost.StreamLineReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтение и разбор строк потока: прежний {@code BufferedReader.readLine} с декодированием всего потока
+ * против {@link StreamLineReader}, который декодирует только строки с байтами вне ASCII.
+ * Параметр {@code utf8Ratio} - доля строк с UTF-8 в user-agent. Результат - время на строку.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LineReaderBenchmark {
+    private static final int LINES = 100_000;
+    private static final byte[] UTF8_AGENT = "\"Мобильный клиент/2.0 (Android; ru)\"".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"0", "0.01", "0.2"})
+    public double utf8Ratio;
+
+    private final LogParser parser = new LogParser();
+    private byte[] log;
+    private int parsed;
+
+    @Setup
+    public void setUp() {
+        byte[] ascii = new SyntheticLogGenerator(42, 0.05).generate(LINES);
+        // Заменяет user-agent (последнее поле в кавычках) в случайных строках на UTF-8
+        Random random = new Random(7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(ascii.length + LINES);
+        int lineStart = 0;
+        for (int i = 0; i < ascii.length; i++) {
+            if (ascii[i] != '\n') {
+                continue;
+            }
+            int agentEnd = lastIndexOf(ascii, '"', lineStart, i);
+            int agentStart = lastIndexOf(ascii, '"', lineStart, agentEnd);
+            if (agentStart >= 0 && random.nextDouble() < utf8Ratio) {
+                out.write(ascii, lineStart, agentStart - lineStart);
+                out.write(UTF8_AGENT, 0, UTF8_AGENT.length);
+                out.write(ascii, agentEnd + 1, i + 1 - (agentEnd + 1));
+            } else {
+                out.write(ascii, lineStart, i + 1 - lineStart);
+            }
+            lineStart = i + 1;
+        }
+        log = out.toByteArray();
+    }
+
+    private static int lastIndexOf(byte[] bytes, char c, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int bufferedReader() throws IOException {
+        parsed = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(log), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (parser.parseLine(line)) {
+                    parsed++;
+                }
+            }
+        }
+        return parsed;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int streamLineReader() throws IOException {
+        parsed = 0;
+        new StreamLineReader(new ByteArrayInputStream(log)).forEachLine(
+                (buf, from, to) -> {
+                    if (parser.parseLine(buf, from, to)) {
+                        parsed++;
+                    }
+                },
+                (line, byteLength) -> {
+                    if (parser.parseLine(line)) {
+                        parsed++;
+                    }
+                });
+        return parsed;
+    }
+}
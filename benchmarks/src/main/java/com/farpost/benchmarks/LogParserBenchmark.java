@@ -0,0 +1,140 @@
+package com.farpost.benchmarks;
+
+import com.farpost.LogParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность разбора одной строки: корректные строки, некорректные строки и строки с длинным URL.
+ * Результат - время на строку.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LogParserBenchmark {
+    private static final int LINES = 1024;
+
+    private final LogParser parser = new LogParser();
+
+    private Lines valid;
+    private Lines malformed;
+    private Lines longUrl;
+    private String[] validStrings;
+
+    /**
+     * Строки, уложенные подряд в один буфер, и их границы.
+     */
+    private static final class Lines {
+        final ByteBuffer buffer;
+        final int[] starts;
+        final int[] ends;
+
+        Lines(byte[] log) {
+            buffer = ByteBuffer.wrap(log);
+            starts = new int[LINES];
+            ends = new int[LINES];
+            int line = 0;
+            int start = 0;
+            for (int i = 0; i < log.length && line < LINES; i++) {
+                if (log[i] == '\n') {
+                    starts[line] = start;
+                    ends[line] = i;
+                    line++;
+                    start = i + 1;
+                }
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        byte[] log = new SyntheticLogGenerator(42, 0.05).generate(LINES);
+        valid = new Lines(log);
+        longUrl = new Lines(new SyntheticLogGenerator(42, 0.05, 50, 2000).generate(LINES));
+        malformed = new Lines(corrupt(log));
+        validStrings = new String(log, StandardCharsets.US_ASCII).split("\n");
+    }
+
+    // Портит в каждой строке одно поле: дату, код ответа, время ответа или кавычку запроса
+    private static byte[] corrupt(byte[] log) {
+        byte[] corrupted = log.clone();
+        Random random = new Random(7);
+        int lineStart = 0;
+        for (int i = 0; i < corrupted.length; i++) {
+            if (corrupted[i] != '\n') {
+                continue;
+            }
+            int lineLength = i - lineStart;
+            switch (random.nextInt(4)) {
+                case 0:
+                    corrupted[lineStart + 22] = '-'; // разделитель даты
+                    break;
+                case 1:
+                    corrupted[i - 40] = 'X'; // поле ближе к концу строки
+                    break;
+                case 2:
+                    corrupted[lineStart + lineLength / 2] = '"'; // лишняя кавычка в запросе
+                    break;
+                default:
+                    corrupted[lineStart + 5] = ' '; // лишний пробел в адресе
+                    break;
+            }
+            lineStart = i + 1;
+        }
+        return corrupted;
+    }
+
+    private int parseAll(Lines lines) {
+        int parsed = 0;
+        for (int i = 0; i < LINES; i++) {
+            if (parser.parseLine(lines.buffer, lines.starts[i], lines.ends[i])) {
+                parsed++;
+            }
+        }
+        return parsed;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int validLines() {
+        return parseAll(valid);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int malformedLines() {
+        return parseAll(malformed);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int longUrlLines() {
+        return parseAll(longUrl);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void validStringLines(Blackhole blackhole) {
+        for (String line : validStrings) {
+            blackhole.consume(parser.parse(line, SyntheticLogGenerator.SLOW_RESPONSE_THRESHOLD_MS));
+        }
+    }
+}
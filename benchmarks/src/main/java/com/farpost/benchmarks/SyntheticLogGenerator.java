@@ -0,0 +1,121 @@
+package com.farpost.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Детерминированный генератор access-лога в формате поставляемого {@code access.log}.
+ * <p>
+ * При одинаковых параметрах и seed генерируется побайтно одинаковый лог, поэтому результаты
+ * бенчмарков воспроизводимы без исходных логов.
+ * Отказы распределены равномерно: половина - коды 5xx, половина - медленные ответы
+ * (дольше {@link #SLOW_RESPONSE_THRESHOLD_MS} мс).
+ */
+public final class SyntheticLogGenerator {
+    // Порог времени ответа, относительно которого генерируются медленные запросы; его же используют бенчмарки
+    public static final long SLOW_RESPONSE_THRESHOLD_MS = 45;
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy:HH:mm:ss");
+    private static final LocalDateTime START_TIME = LocalDateTime.of(2017, 6, 14, 16, 47, 2);
+    private static final int[] SERVER_ERRORS = {500, 502, 503, 504};
+
+    private final long seed;
+    private final double failureRatio;
+    private final int linesPerSecond;
+    private final int extraUrlLength;
+
+    /**
+     * @param seed           начальное значение генератора случайных чисел
+     * @param failureRatio   доля отказов от 0 до 1
+     * @param linesPerSecond сколько строк приходится на одну секунду лога
+     * @param extraUrlLength сколько символов добавить к URL запроса (для проверки длинных строк)
+     */
+    public SyntheticLogGenerator(long seed, double failureRatio, int linesPerSecond, int extraUrlLength) {
+        this.seed = seed;
+        this.failureRatio = failureRatio;
+        this.linesPerSecond = linesPerSecond;
+        this.extraUrlLength = extraUrlLength;
+    }
+
+    public SyntheticLogGenerator(long seed, double failureRatio) {
+        this(seed, failureRatio, 50, 0);
+    }
+
+    public void write(OutputStream out, long lines) throws IOException {
+        Random random = new Random(seed);
+        StringBuilder line = new StringBuilder(256);
+        String urlPadding = "&q=" + "x".repeat(extraUrlLength);
+        String timestamp = null;
+        long currentSecond = -1;
+
+        for (long i = 0; i < lines; i++) {
+            long second = i / linesPerSecond;
+            if (second != currentSecond) {
+                currentSecond = second;
+                timestamp = START_TIME.plusSeconds(second).format(TIMESTAMP_FORMATTER);
+            }
+
+            int status = 200;
+            double responseTime = 1 + random.nextDouble() * (SLOW_RESPONSE_THRESHOLD_MS - 2);
+            if (random.nextDouble() < failureRatio) {
+                if (random.nextBoolean()) {
+                    status = SERVER_ERRORS[random.nextInt(SERVER_ERRORS.length)];
+                } else {
+                    responseTime = SLOW_RESPONSE_THRESHOLD_MS + 1 + random.nextDouble() * 500;
+                }
+            }
+
+            line.setLength(0);
+            line.append("192.168.32.").append(1 + random.nextInt(254))
+                    .append(" - - [").append(timestamp).append(" +1000] \"PUT /rest/v1.4/documents?zone=default&_rid=")
+                    .append(Integer.toHexString(random.nextInt()));
+            if (extraUrlLength > 0) {
+                line.append(urlPadding);
+            }
+            line.append(" HTTP/1.1\" ").append(status).append(" 2 ")
+                    .append(String.format(Locale.ROOT, "%.6f", responseTime))
+                    .append(" \"-\" \"@list-item-updater\" prio:0\n");
+            out.write(line.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    public byte[] generate(int lines) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(lines * 160);
+        try {
+            write(out, lines);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public void writeTo(Path file, long lines) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20)) {
+            write(out, lines);
+        }
+    }
+
+    /**
+     * Генерация лога для офлайн-экспериментов:
+     * {@code java -cp benchmarks.jar com.farpost.benchmarks.SyntheticLogGenerator <файл> <строк> [доля_отказов] [seed]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Использование: SyntheticLogGenerator <файл> <строк> [доля_отказов] [seed]");
+            System.exit(1);
+        }
+        double failureRatio = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        new SyntheticLogGenerator(seed, failureRatio).writeTo(Paths.get(args[0]), Long.parseLong(args[1]));
+    }
+}
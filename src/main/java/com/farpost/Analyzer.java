@@ -1,164 +1,715 @@
 package com.farpost;
 
-import com.farpost.model.LogEntry;
-
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Optional;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
 
 public class Analyzer {
-    // Размер окна для анализа текущей доступности в секундах.
+    // Размер окна для анализа текущей доступности в секундах, если не задан через setWindow.
     private static final int ANALYSIS_WINDOW_SECONDS = 1;
-
-    private static final DateTimeFormatter OUTPUT_TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
+    // "FPCKPT" и версия формата контрольной точки 1
+    private static final long CHECKPOINT_MAGIC = 0x4650434b50540001L;
+    // Пора ли сохранять контрольную точку, проверяется на каждой такой строке; степень двойки - проверка маской
+    private static final int CHECKPOINT_CHECK_LINES = 64 * 1024;
 
     private final InputStream logStream;
+    private final List<Path> logFiles;
+    private final int parallelism;
     private final double availabilityThreshold;
     private final long responseTimeThresholdMs;
     private final LogParser parser;
 
-    // Переменная для отслеживания времени окончания последнего выведенного инцидента.
-    // Нужна только для гарантии, что в выводе не будет перекрывающихся интервалов.
-    private LocalDateTime lastPrintedIncidentEndTime = null;
+    // Вывод инцидентов; буфер отдаётся в stdout в конце анализа и в режиме слежения, когда нет новых строк
+    private IncidentWriter incidentWriter;
+
+    // Поиск инцидентов по окну: текущий интервал и windowSeconds секунд перед ним по интервалам bucketSeconds секунд.
+    // Пересоздаётся при смене окна и включении процентилей
+    private int windowSeconds = ANALYSIS_WINDOW_SECONDS;
+    private int bucketSeconds = 1;
+    private WindowIncidentDetector windowDetector;
+
+    // Время ответа в текущем инциденте и во всём логе для процентилей; null - не считается
+    private LatencyHistogram incidentLatency;
+    private LatencyHistogram logLatency;
+
+    // Перебор сетки порогов вместо одного анализа; null - выключен
+    private ThresholdSweep sweep;
+
+    // Поиск инцидентов по отдельным ключам вместо общего; null - группировка выключена
+    private GroupKey groupKey;
+    private KeyedIncidentDetector keyedDetector;
+    private int maxGroupKeys;
+    private long keyMemoryBytes;
+    // Номер ключа KeyedIncidentDetector для каждого файла при слиянии с инцидентами по узлам
+    private int[] sourceKeyIds;
+
+    // Поиск инцидентов другим детектором вместо окна; null - окно
+    private IncidentDetector detector;
+
+    // Слияние файлов по времени вместо чтения подряд
+    private boolean mergeFiles = false;
+    private boolean mergePerSource = false;
+
+    // Чтение строк потока при последовательном анализе
+    private LineReaderMode lineReaderMode = LineReaderMode.BYTES;
+
+    // Переупорядочивание записей с допуском опоздания; null - записи обрабатываются в порядке лога
+    private ReorderBuffer reorderBuffer;
 
+    // Счётчики для наблюдения за работой; null - не собираются.
+    // Строки копятся в простых полях и переносятся в metrics на каждой строке из выборки времени
+    private AnalyzerMetrics metrics;
+    private long pendingLines = 0;
+    private long pendingRejectedLines = 0;
+    private long pendingBytes = 0;
+
+    // Анализируются только записи с секундами в этих границах включительно
+    private long fromSecond = Long.MIN_VALUE;
+    private long toSecond = Long.MAX_VALUE;
+
+    // Контрольные точки для продолжения после перезапуска; null - не сохраняются
+    private Checkpointer checkpointer;
+    private long checkpointLines = 0;
+
+    /**
+     * Анализ потока; сжатый gzip поток распознаётся и распаковывается автоматически.
+     */
     public Analyzer(InputStream logStream, double availabilityThreshold, long responseTimeThresholdMs) {
+        this(logStream, null, 1, availabilityThreshold, responseTimeThresholdMs);
+    }
+
+    /**
+     * Анализ потока конвейером: чтение, разбор в {@code parallelism} потоков и анализ идут одновременно
+     * ({@link PipelinedLogReader}). Результат совпадает с последовательным анализом.
+     */
+    public Analyzer(InputStream logStream, int parallelism, double availabilityThreshold, long responseTimeThresholdMs) {
+        this(logStream, null, parallelism, availabilityThreshold, responseTimeThresholdMs);
+    }
+
+    /**
+     * Анализ файла через отображение в память вместо чтения из потока.
+     */
+    public Analyzer(Path logFile, double availabilityThreshold, long responseTimeThresholdMs) {
+        this(null, List.of(logFile), 1, availabilityThreshold, responseTimeThresholdMs);
+    }
+
+    /**
+     * Анализ файла с разбором в {@code parallelism} потоков. Результат совпадает с последовательным анализом.
+     */
+    public Analyzer(Path logFile, int parallelism, double availabilityThreshold, long responseTimeThresholdMs) {
+        this(null, List.of(logFile), parallelism, availabilityThreshold, responseTimeThresholdMs);
+    }
+
+    /**
+     * Анализ серии файлов как одного лога: состояние окна и инцидента переносится из файла в файл,
+     * поэтому инцидент на стыке файлов не разрывается. Файлы обрабатываются в переданном порядке.
+     */
+    public Analyzer(List<Path> logFiles, int parallelism, double availabilityThreshold, long responseTimeThresholdMs) {
+        this(null, List.copyOf(logFiles), parallelism, availabilityThreshold, responseTimeThresholdMs);
+    }
+
+    /**
+     * Анализатор без собственного источника: строки подаются извне через {@link #processLine},
+     * состояние сохраняется между вызовами. Используется в режиме слежения за файлом и для анализа по индексу.
+     */
+    public Analyzer(double availabilityThreshold, long responseTimeThresholdMs) {
+        this(null, null, 1, availabilityThreshold, responseTimeThresholdMs);
+    }
+
+    private Analyzer(InputStream logStream, List<Path> logFiles, int parallelism,
+                     double availabilityThreshold, long responseTimeThresholdMs) {
         this.logStream = logStream;
+        this.logFiles = logFiles;
+        this.parallelism = parallelism;
         this.availabilityThreshold = availabilityThreshold;
         this.responseTimeThresholdMs = responseTimeThresholdMs;
         this.parser = new LogParser();
+        this.incidentWriter = new IncidentWriter(System.out, IncidentFormat.TEXT);
+        this.windowDetector = createWindowDetector();
     }
 
-    public void run() throws IOException {
-        boolean isIncidentActive = false;
-        LocalDateTime incidentStartTime = null; // Фактическое время начала текущего инцидента
-        LocalDateTime lastProcessedEntryTime = null; // Время последней записи, обработанной из лога
+    /**
+     * Задаёт формат вывода инцидентов в stdout; по умолчанию - текст, как раньше.
+     */
+    public void setIncidentFormat(IncidentFormat format) {
+        this.incidentWriter = new IncidentWriter(System.out, format);
+        if (keyedDetector != null) {
+            keyedDetector.setWriter(incidentWriter);
+        }
+    }
 
-        long totalRequestsInIncident = 0;
-        long failedRequestsInIncident = 0;
+    /**
+     * Задаёт окно анализа: текущий интервал и {@code windowSeconds} секунд перед ним, время делится на интервалы
+     * по {@code bucketSeconds} секунд ({@link SlidingWindow}). Стоимость записи не зависит от длины окна, память -
+     * от числа запросов; крупные интервалы уменьшают память и время поиска начала инцидента на длинном окне.
+     * Инциденты по ключам или узлам и процентили по инцидентам, если они уже включены, переводятся на новое окно.
+     *
+     * @throws IllegalArgumentException если длина окна не кратна длине интервала
+     */
+    public void setWindow(int windowSeconds, int bucketSeconds) {
+        this.windowSeconds = windowSeconds;
+        this.bucketSeconds = bucketSeconds;
+        this.windowDetector = createWindowDetector();
+        if (keyedDetector != null) {
+            createKeyedDetector();
+        }
+    }
 
-        Deque<LogEntry> window = new ArrayDeque<>();
-        long failuresInWindow = 0;
+    /**
+     * Включает поиск инцидентов отдельно для каждого значения {@code groupKey} вместо общего.
+     * Каждый инцидент выводится с ключом в конце строки. Ключей учитывается не больше {@code maxKeys},
+     * остальные объединяются в {@link KeyedIncidentDetector#OVERFLOW_KEY}.
+     * Разбор в несколько потоков при группировке не используется.
+     */
+    public void setGrouping(GroupKey groupKey, int maxKeys) {
+        setGrouping(groupKey, maxKeys, 0);
+    }
 
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(logStream))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Optional<LogEntry> entryOpt = parser.parse(line, responseTimeThresholdMs);
-                if (entryOpt.isEmpty()) {
-                    continue; // Пропускаем некорректные строки
-                }
-                LogEntry currentEntry = entryOpt.get();
-                lastProcessedEntryTime = currentEntry.getTimestamp();
+    /**
+     * То же, но ключи со своим состоянием занимают не больше {@code keyMemoryBytes} байт вне кучи
+     * (0 - без ограничения): при нехватке вытесняются ключи, записи которых приходили давнее всех.
+     */
+    public void setGrouping(GroupKey groupKey, int maxKeys, long keyMemoryBytes) {
+        this.groupKey = groupKey;
+        this.maxGroupKeys = maxKeys;
+        this.keyMemoryBytes = keyMemoryBytes;
+        createKeyedDetector();
+    }
 
-                // 1. Обновляем скользящее окно
-                window.addLast(currentEntry);
-                if (currentEntry.isFailure()) {
-                    failuresInWindow++;
-                }
+    /**
+     * Включает процентили времени ответа: {@code perIncident} - p50/p95/p99 в конце строки каждого инцидента,
+     * {@code wholeLog} - итоговая строка с процентилями по всему логу. Время ответа не хранится построчно,
+     * память не зависит от размера лога. Разбор в несколько потоков при этом не используется.
+     */
+    public void setLatencyPercentiles(boolean perIncident, boolean wholeLog) {
+        if (perIncident) {
+            incidentLatency = new LatencyHistogram();
+            windowDetector = createWindowDetector();
+        }
+        if (wholeLog) {
+            logLatency = new LatencyHistogram();
+        }
+    }
 
-                // 2. Удаляем старые записи из окна и обновляем счетчик отказов в окне
-                LocalDateTime windowStartBoundary = currentEntry.getTimestamp().minusSeconds(ANALYSIS_WINDOW_SECONDS);
-                while (!window.isEmpty() && window.getFirst().getTimestamp().isBefore(windowStartBoundary)) {
-                    if (window.removeFirst().isFailure()) {
-                        failuresInWindow--;
-                    }
+    /**
+     * Вместо поиска инцидентов с порогами конструктора перебирает все пары порогов из сетки за один проход
+     * и в конце выводит таблицу итогов по парам. Разбор в несколько потоков при этом не используется.
+     */
+    public void setThresholdSweep(double[] availabilityThresholds, long[] responseTimeThresholdsMs) {
+        this.sweep = new ThresholdSweep(windowSeconds, bucketSeconds, availabilityThresholds, responseTimeThresholdsMs);
+    }
+
+    /**
+     * Анализирует файлы как логи разных узлов, пишущих одновременно: записи сливаются по времени
+     * ({@link MergedLogReader}), и доступность считается по объединению. При {@code perSource} инциденты
+     * дополнительно ищутся по каждому файлу отдельно и выводятся с путём файла в конце строки.
+     * Процентили, группировка и перебор порогов при слиянии недоступны.
+     */
+    public void setMerge(boolean perSource) {
+        this.mergeFiles = true;
+        this.mergePerSource = perSource;
+        if (perSource) {
+            createKeyedDetector();
+        }
+    }
+
+    // Детектор окна под текущие окно и процентили; инциденты выводятся, как у getIncidentListener
+    private WindowIncidentDetector createWindowDetector() {
+        return new WindowIncidentDetector(availabilityThreshold, responseTimeThresholdMs, windowSeconds, bucketSeconds,
+                incidentLatency, this::writeIncident);
+    }
+
+    /**
+     * Создаёт детектор по ключам под текущее окно: для группировки или для узлов при слиянии.
+     */
+    private void createKeyedDetector() {
+        if (mergePerSource) {
+            keyedDetector = new KeyedIncidentDetector(windowSeconds, bucketSeconds, logFiles.size(), availabilityThreshold);
+            sourceKeyIds = new int[logFiles.size()];
+            for (int source = 0; source < logFiles.size(); source++) {
+                sourceKeyIds[source] = keyedDetector.keyId(logFiles.get(source).toString());
+            }
+        } else {
+            keyedDetector = new KeyedIncidentDetector(windowSeconds, bucketSeconds, maxGroupKeys, keyMemoryBytes,
+                    availabilityThreshold);
+        }
+        keyedDetector.setWriter(incidentWriter);
+    }
+
+    /**
+     * Передаёт записи лога детектору вместо поиска по окну, например {@link EwmaIncidentDetector}. Детектор
+     * создаётся со слушателем {@link #getIncidentListener()}, чтобы инциденты выводились, как обычно.
+     * Группировка, процентили, перебор порогов, допуск опоздания и контрольные точки с детектором недоступны.
+     */
+    public void setDetector(IncidentDetector detector) {
+        this.detector = detector;
+    }
+
+    /**
+     * Слушатель, который выводит инциденты детектора в формате вывода анализатора.
+     */
+    public IncidentListener getIncidentListener() {
+        return this::writeIncident;
+    }
+
+    private void writeIncident(long startSecond, long endSecond, long requests, long failures,
+                               long worstSecond, double worstAvailability) {
+        // Процентили считает только детектор окна анализатора, у других детекторов incidentLatency - null
+        incidentWriter.write(startSecond, endSecond, requests, failures, worstSecond, worstAvailability,
+                incidentLatency, null, false);
+        if (metrics != null) {
+            metrics.incidentReported();
+        }
+    }
+
+    /**
+     * Допускает нарушение порядка времени в логе до {@code latenessSeconds} секунд: записи копятся в
+     * {@link ReorderBuffer} и анализируются по возрастанию времени, когда водяной знак прошёл их секунду.
+     * Инциденты выводятся с задержкой на допуск. Записи, опоздавшие больше допуска, не учитываются,
+     * а считаются отдельно и выводятся в конце в stderr.
+     */
+    public void setLateness(int latenessSeconds) {
+        this.reorderBuffer = new ReorderBuffer(latenessSeconds, this::processOrderedRecord);
+    }
+
+    /**
+     * Задаёт чтение строк потока при последовательном анализе; по умолчанию - по байтам ({@link StreamLineReader}).
+     * {@link LineReaderMode#CHARS} - прежнее чтение через {@code BufferedReader} в кодировке платформы, для сравнения.
+     */
+    public void setLineReaderMode(LineReaderMode mode) {
+        this.lineReaderMode = mode;
+    }
+
+    /**
+     * Включает сбор метрик: строки, байты, отброшенные строки, инциденты, размер окна, время разбора и анализа.
+     */
+    public void setMetrics(AnalyzerMetrics metrics) {
+        this.metrics = metrics;
+        metrics.setWindowRequests(() -> windowDetector.getWindowRequests());
+    }
+
+    /**
+     * Включает контрольные точки: состояние окна и инцидента периодически сохраняется вместе со смещением
+     * в файле лога, а при запуске анализ продолжается с сохранённого смещения, если лог тот же (тот же inode
+     * и то же начало файла) и настройки анализа совпадают. Вывод после продолжения такой же, как у анализа
+     * без перерыва с этого места; инциденты, выведенные после последней точки до остановки, выводятся повторно.
+     * Работает для одного несжатого файла и в режиме слежения; процентили, группировка, перебор порогов
+     * и допуск опоздания с контрольными точками недоступны.
+     */
+    public void setCheckpoint(Checkpointer checkpointer) {
+        this.checkpointer = checkpointer;
+    }
+
+    /**
+     * Анализ всего источника. Если чтение прервалось ошибкой, уже найденные инциденты всё равно выводятся.
+     */
+    public void run() throws IOException {
+        try {
+            if (mergeFiles) {
+                new MergedLogReader(logFiles, responseTimeThresholdMs).forEachRecord(this::processMergedRecord);
+            } else if (logFiles != null) {
+                for (Path logFile : logFiles) {
+                    processFile(logFile);
                 }
+            } else {
+                processStream(logStream);
+            }
+            finish();
+        } finally {
+            incidentWriter.flush();
+        }
+    }
 
-                // 3. Вычисляем текущую доступность на основе данных в окне
-                double currentAvailability = calculateAvailability(window.size(), failuresInWindow);
-
-                // 4. Логика состояний инцидента
-                if (isIncidentActive) {
-                    // Мы находимся в активном инциденте
-                    totalRequestsInIncident++;
-                    if (currentEntry.isFailure()) {
-                        failedRequestsInIncident++;
-                    }
-
-                    // Проверяем, не закончился ли инцидент (доступность в окне восстановилась)
-                    if (currentAvailability >= availabilityThreshold) {
-                        // Инцидент завершился. Выводим его.
-                        printIncident(incidentStartTime, currentEntry.getTimestamp(), totalRequestsInIncident, failedRequestsInIncident);
-                        isIncidentActive = false;
-                        // Сбрасываем счетчики для следующего инцидента
-                        totalRequestsInIncident = 0;
-                        failedRequestsInIncident = 0;
-                        incidentStartTime = null;
-                    }
-                } else {
-                    // Мы не в инциденте, проверяем, не начался ли он
-                    if (currentAvailability < availabilityThreshold && !window.isEmpty()) {
-                        // Инцидент начался.
-                        isIncidentActive = true;
-
-                        // Начало инцидента - это самая ранняя запись в текущем окне,
-                        // которая привела к падению доступности.
-                        // Используем currentEntry.getTimestamp() для начала нового инцидента,
-                        // если lastPrintedIncidentEndTime ещё не установлено или текущая запись
-                        // идёт после него. Это предотвращает старт нового инцидента раньше, чем
-                        // закончился предыдущий в выводе
-                        incidentStartTime = currentEntry.getTimestamp().minusSeconds(ANALYSIS_WINDOW_SECONDS - 1); // Начало окна, которое вызвало падение
-                        if (lastPrintedIncidentEndTime != null && incidentStartTime.isBefore(lastPrintedIncidentEndTime)) {
-                            incidentStartTime = lastPrintedIncidentEndTime; // Принудительно начинаем после предыдущего
-                        }
+    /**
+     * Анализ по индексу лога ({@link LogIndex}) вместо разбора текста. Индекс хранит строки в порядке лога,
+     * поэтому записи и инциденты те же, что при построчном анализе с теми же {@code -u} и {@code -t}.
+     * Группировка, процентили и перебор порогов по индексу недоступны.
+     */
+    public void runOverIndex(Path indexFile) throws IOException {
+        try {
+            LogIndex.forEachRecord(indexFile, responseTimeThresholdMs, this::processRecord);
+            finish();
+        } finally {
+            incidentWriter.flush();
+        }
+    }
+
+    /**
+     * Анализ только диапазона байтов {@code [start, end)} единственного несжатого файла лога, например кандидата
+     * из {@link LogSampler}. Обе границы должны совпадать с началом строки
+     * или концом файла, как у диапазонов кандидатов. Инциденты ищутся так же, как при анализе всего файла, но окно начинается пустым
+     * с начала диапазона.
+     */
+    public void runOverRange(long start, long end) throws IOException {
+        try (FileChannel channel = FileChannel.open(logFiles.get(0), StandardOpenOption.READ)) {
+            MappedLogReader.forEachLine(channel, start, Math.min(end, channel.size()),
+                    MappedLogReader.DEFAULT_REGION_SIZE, this::processLine);
+            finish();
+        } finally {
+            incidentWriter.flush();
+        }
+    }
+
+    /**
+     * Анализ только записей с {@code fromSecond} по {@code toSecond} включительно единственного несжатого файла
+     * лога. Начало и конец диапазона ищутся в файле двоичным поиском по времени ({@link LogSeeker}), читается
+     * только диапазон с запасом в {@code slackSeconds} с каждой стороны для строк не по порядку времени; записи
+     * вне границ в запасе пропускаются. Окно начинается пустым с {@code fromSecond}.
+     */
+    public void runOverTimeRange(long fromSecond, long toSecond, int slackSeconds) throws IOException {
+        long[] range;
+        try (FileChannel channel = FileChannel.open(logFiles.get(0), StandardOpenOption.READ)) {
+            range = new LogSeeker(channel).findRange(fromSecond, toSecond, slackSeconds);
+        }
+        this.fromSecond = fromSecond;
+        this.toSecond = toSecond;
+        runOverRange(range[0], range[1]);
+    }
+
+    /**
+     * Завершает анализ: выводит незавершённый инцидент и итоги. Для анализатора без собственного источника
+     * вызывается, когда строк больше не будет.
+     */
+    void finish() {
+        flushLineMetrics();
+        if (reorderBuffer != null) {
+            reorderBuffer.flush();
+            if (reorderBuffer.getLateCount() > 0) {
+                System.err.println("Не учтено записей, опоздавших больше допуска: " + reorderBuffer.getLateCount());
+            }
+        }
+        if (keyedDetector != null) {
+            keyedDetector.finish();
+        }
+        if (detector != null) {
+            detector.finish();
+        }
+        // Таблица перебора и итог по логу - текст для человека: при JSONL и CSV они идут в stderr с точкой
+        // в дробях, чтобы не портить машиночитаемый вывод инцидентов
+        boolean isTextOutput = incidentWriter.getFormat() == IncidentFormat.TEXT;
+        PrintStream reportOut = isTextOutput ? System.out : System.err;
+        Locale reportLocale = isTextOutput ? Locale.getDefault(Locale.Category.FORMAT) : Locale.ROOT;
+        if (sweep != null) {
+            sweep.finish();
+            incidentWriter.flush();
+            sweep.printTable(reportOut, reportLocale);
+        }
+        // После обработки всех строк, если инцидент еще активен, закрываем его
+        windowDetector.finish();
+        incidentWriter.flush();
+        if (logLatency != null) {
+            reportOut.printf(reportLocale, "Весь лог: %d запросов, p50=%.1f p95=%.1f p99=%.1f%n",
+                    logLatency.getCount(),
+                    logLatency.getValueAtQuantile(0.50),
+                    logLatency.getValueAtQuantile(0.95),
+                    logLatency.getValueAtQuantile(0.99)
+            );
+        }
+    }
 
-                        // Инициализируем счетчики инцидента на основе записей в окне,
-                        // которые относятся к новому инциденту (начиная с incidentStartTime).
-                        totalRequestsInIncident = 0;
-                        failedRequestsInIncident = 0;
-                        for (LogEntry entryInWindow : window) {
-                            if (!entryInWindow.getTimestamp().isBefore(incidentStartTime)) {
-                                totalRequestsInIncident++;
-                                if (entryInWindow.isFailure()) {
-                                    failedRequestsInIncident++;
-                                }
-                            }
+    private void processFile(Path logFile) throws IOException {
+        if (checkpointer != null) {
+            processFileWithCheckpoints(logFile);
+        } else if (CompressedLogInput.isCompressed(logFile)) {
+            // Сжатый файл не отобразить в память: распаковываем в отдельном потоке и читаем как поток
+            processStream(Files.newInputStream(logFile));
+        } else if (parallelism > 1 && canParseInParallel()) {
+            ParallelLogReader reader = new ParallelLogReader(logFile, parallelism, responseTimeThresholdMs);
+            reader.setMetrics(metrics);
+            reader.forEachRecord(this::processRecord);
+        } else {
+            new MappedLogReader(logFile).forEachLine(this::processLine);
+        }
+    }
+
+    private void processFileWithCheckpoints(Path logFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            String fileKey = LogFollower.fileKey(logFile).toString();
+            long start = restoreCheckpoint(channel, fileKey, false);
+            long end = channel.size();
+            MappedLogReader.forEachLine(channel, start, end, MappedLogReader.DEFAULT_REGION_SIZE,
+                    (buf, from, to, nextLineOffset) -> {
+                        processLine(buf, from, to);
+                        if ((++checkpointLines & (CHECKPOINT_CHECK_LINES - 1)) == 0 && checkpointer.isDue()) {
+                            saveCheckpoint(channel, fileKey, nextLineOffset);
                         }
-                    }
+                    });
+            // Состояние до вывода незавершённого инцидента в finish: дописанный лог продолжится с конца файла
+            saveCheckpoint(channel, fileKey, end);
+        }
+    }
+
+    private void processStream(InputStream in) throws IOException {
+        if (parallelism > 1 && canParseInParallel()) {
+            try (InputStream decoded = CompressedLogInput.decompressIfNeeded(in)) {
+                PipelinedLogReader reader = new PipelinedLogReader(decoded, parallelism, responseTimeThresholdMs);
+                reader.setMetrics(metrics);
+                reader.forEachRecord(this::processRecord);
+            }
+            return;
+        }
+        InputStream decoded = CompressedLogInput.decompressIfNeeded(in);
+        if (lineReaderMode == LineReaderMode.BYTES) {
+            try (InputStream bytes = decoded) {
+                new StreamLineReader(bytes).forEachLine(this::processLine, this::processDecodedLine);
+            }
+            return;
+        }
+        if (metrics != null) {
+            // Длина строки в символах не равна длине в байтах, поэтому байты считаются на уровне потока
+            decoded = metrics.countBytes(decoded);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(decoded))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Байты потока считаются в countBytes
+                if (metrics != null && (++pendingLines & (AnalyzerMetrics.TIMING_SAMPLE - 1)) == 0) {
+                    long parseStart = System.nanoTime();
+                    processTimedLine(parser.parseLine(line), parseStart);
+                } else if (parser.parseLine(line)) {
+                    processParsedLine();
+                } else {
+                    pendingRejectedLines++;
                 }
             }
         }
-        // После обработки всех строк, если инцидент еще активен, закрываем его
-        if (isIncidentActive && lastProcessedEntryTime != null) {
-            printIncident(incidentStartTime, lastProcessedEntryTime, totalRequestsInIncident, failedRequestsInIncident);
+    }
+
+    void processLine(ByteBuffer buf, int from, int to) {
+        // Счётчики строк - простые поля, в metrics они переносятся только на строках из выборки времени
+        pendingBytes += to - from + 1;
+        if (metrics != null && (++pendingLines & (AnalyzerMetrics.TIMING_SAMPLE - 1)) == 0) {
+            long parseStart = System.nanoTime();
+            processTimedLine(parser.parseLine(buf, from, to), parseStart);
+        } else if (parser.parseLine(buf, from, to)) {
+            processParsedLine();
+        } else {
+            // Некорректные строки пропускаем
+            pendingRejectedLines++;
+        }
+    }
+
+    // Строка с байтами вне ASCII из StreamLineReader: разбирается строковым путём, как при чтении через BufferedReader
+    private void processDecodedLine(String line, int byteLength) {
+        pendingBytes += byteLength + 1;
+        if (metrics != null && (++pendingLines & (AnalyzerMetrics.TIMING_SAMPLE - 1)) == 0) {
+            long parseStart = System.nanoTime();
+            processTimedLine(parser.parseLine(line), parseStart);
+        } else if (parser.parseLine(line)) {
+            processParsedLine();
+        } else {
+            pendingRejectedLines++;
+        }
+    }
+
+    // Строка из выборки: время разбора и анализа умножается на шаг выборки, счётчики переносятся в metrics
+    private void processTimedLine(boolean parsed, long parseStart) {
+        long parseEnd = System.nanoTime();
+        if (parsed) {
+            processParsedLine();
+        } else {
+            pendingRejectedLines++;
+        }
+        metrics.addParseNanos((parseEnd - parseStart) * AnalyzerMetrics.TIMING_SAMPLE);
+        metrics.addAnalyzeNanos((System.nanoTime() - parseEnd) * AnalyzerMetrics.TIMING_SAMPLE);
+        flushLineMetrics();
+    }
+
+    private void flushLineMetrics() {
+        if (metrics != null && pendingLines > 0) {
+            metrics.addLines(pendingLines, pendingRejectedLines, pendingBytes);
+            pendingLines = 0;
+            pendingRejectedLines = 0;
+            pendingBytes = 0;
         }
     }
 
-    private double calculateAvailability(long total, long failures) {
-        if (total == 0) return 100.0;
-        return 100.0 * (total - failures) / total;
+    // Записи из потоков разбора содержат только время и признак отказа для порога конструктора
+    private boolean canParseInParallel() {
+        return groupKey == null && incidentLatency == null && logLatency == null && sweep == null && detector == null;
     }
 
-    private void printIncident(LocalDateTime start, LocalDateTime end, long total, long failures) {
-        // Проверяем, что инцидент имеет логичное начало и конец.
-        if (start == null || end == null) {
+    private void processParsedLine() {
+        if (parser.getEpochSecond() < fromSecond || parser.getEpochSecond() > toSecond) {
             return;
         }
+        if (logLatency != null) {
+            logLatency.record(parser.getResponseTime());
+        }
+        if (sweep != null) {
+            sweep.add(parser.getEpochSecond(), parser.getStatusCode(), parser.getResponseTime());
+            return;
+        }
+        if (detector != null) {
+            detector.onRecord(parser.getEpochSecond(), parser.getResponseTime(), parser.getStatusCode());
+            return;
+        }
+        if (groupKey != null) {
+            int keyId = keyedDetector.keyId(parser, groupKey);
+            keyedDetector.add(keyId, parser.getEpochSecond(), parser.isFailure(responseTimeThresholdMs));
+            return;
+        }
+        processRecord(parser.getEpochSecond(), parser.isFailure(responseTimeThresholdMs), parser.getResponseTime());
+    }
+
+    private void processMergedRecord(int source, long epochSecond, boolean isFailure) {
+        processRecord(epochSecond, isFailure, 0);
+        if (keyedDetector != null) {
+            keyedDetector.add(sourceKeyIds[source], epochSecond, isFailure);
+        }
+    }
+
+    private void processRecord(long epochSecond, boolean isFailure) {
+        processRecord(epochSecond, isFailure, 0);
+    }
+
+    private void processRecord(long epochSecond, boolean isFailure, double responseTimeMs) {
+        if (reorderBuffer == null) {
+            processOrderedRecord(epochSecond, isFailure, responseTimeMs);
+        } else if (!reorderBuffer.add(epochSecond, isFailure, responseTimeMs) && metrics != null) {
+            metrics.lateRecord();
+        }
+    }
+
+    private void processOrderedRecord(long epochSecond, boolean isFailure, double responseTimeMs) {
+        windowDetector.add(epochSecond, isFailure, responseTimeMs);
+    }
+
+    /**
+     * То же, что processRecord, но для всех записей секунды сразу. Секунды должны идти по возрастанию.
+     */
+    void processSecond(long epochSecond, long total, long failures) {
+        windowDetector.addSecond(epochSecond, total, failures);
+    }
 
-        // Если начало инцидента раньше или равно времени окончания предыдущего выведенного инцидента,
-        // корректируем начало, чтобы избежать перекрытий в выводе.
-        if (lastPrintedIncidentEndTime != null && start.isBefore(lastPrintedIncidentEndTime)) {
-            start = lastPrintedIncidentEndTime;
+    /**
+     * Сообщает об инциденте, который длится дольше {@code timeoutMs} и ещё не завершился,
+     * строкой с пометкой "open". О каждом инциденте сообщается не больше одного раза;
+     * по завершении он выводится обычной строкой.
+     */
+    void reportOpenIncident(long nowMillis, long timeoutMs) {
+        // Вызывается, когда новых строк нет: самое время отдать накопленные счётчики и вывод
+        flushLineMetrics();
+        incidentWriter.flush();
+        if (windowDetector.reportOpenIncident(incidentWriter, nowMillis, timeoutMs)) {
+            incidentWriter.flush();
         }
+    }
+
+    /**
+     * Записывает незавершённый инцидент, если он есть, строкой с пометкой "open".
+     */
+    void writeOpenIncident(IncidentWriter writer) {
+        windowDetector.writeOpenIncident(writer);
+    }
+
+    boolean hasCheckpoint() {
+        return checkpointer != null;
+    }
+
+    boolean isCheckpointDue() {
+        return checkpointer != null && checkpointer.isDue();
+    }
 
-        // Дополнительная проверка, чтобы не выводить инциденты нулевой или отрицательной продолжительности
-        if (!start.isBefore(end)) {
+    /**
+     * Снимает состояние анализа после строки, которая кончается перед {@code offset}, и передаёт его на запись.
+     * Вывод сбрасывается до снимка: иначе инциденты, которые состояние считает выведенными, могли бы остаться
+     * в буфере при падении.
+     */
+    void saveCheckpoint(FileChannel channel, String fileKey, long offset) {
+        incidentWriter.flush();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(CHECKPOINT_MAGIC);
+            out.writeInt(windowSeconds);
+            out.writeInt(bucketSeconds);
+            out.writeDouble(availabilityThreshold);
+            out.writeLong(responseTimeThresholdMs);
+            int fingerprintLength = (int) Math.min(LogIndex.FINGERPRINT_LENGTH, offset);
+            out.writeUTF(fileKey);
+            out.writeInt(fingerprintLength);
+            out.writeLong(LogIndex.fingerprint(channel, fingerprintLength));
+            out.writeLong(offset);
+
+            windowDetector.writeTo(out);
+        } catch (IOException e) {
+            // Не анализ, а только очередная контрольная точка: следующая попытка будет через интервал
+            System.err.println("Ошибка сохранения контрольной точки: " + e.getMessage());
             return;
         }
+        checkpointer.save(bytes.toByteArray());
+    }
 
-        double finalAvailability = calculateAvailability(total, failures);
+    /**
+     * Восстанавливает состояние из контрольной точки, если она есть и сохранена с теми же настройками.
+     * Если файл лога не тот, что при сохранении, состояние восстанавливается только при {@code continueInOtherFile}
+     * (ротация в режиме слежения), и чтение идёт с начала файла.
+     *
+     * @return смещение, с которого продолжать чтение файла
+     */
+    long restoreCheckpoint(FileChannel channel, String fileKey, boolean continueInOtherFile) throws IOException {
+        byte[] snapshot = checkpointer.load();
+        if (snapshot == null) {
+            return 0;
+        }
+        // Сначала всё читается в новый детектор: повреждённая точка не должна испортить состояние
+        WindowIncidentDetector restoredDetector = createWindowDetector();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot))) {
+            if (in.readLong() != CHECKPOINT_MAGIC) {
+                System.err.println("Файл контрольной точки другого формата, анализ с начала лога");
+                return 0;
+            }
+            int savedWindowSeconds = in.readInt();
+            int savedBucketSeconds = in.readInt();
+            double savedAvailabilityThreshold = in.readDouble();
+            long savedResponseTimeThresholdMs = in.readLong();
+            if (savedWindowSeconds != windowSeconds || savedBucketSeconds != bucketSeconds
+                    || savedAvailabilityThreshold != availabilityThreshold
+                    || savedResponseTimeThresholdMs != responseTimeThresholdMs) {
+                System.err.println("Контрольная точка сохранена с другими настройками анализа, анализ с начала лога");
+                return 0;
+            }
+            String savedFileKey = in.readUTF();
+            int fingerprintLength = in.readInt();
+            long fingerprint = in.readLong();
+            long offset = in.readLong();
+            boolean sameFile = savedFileKey.equals(fileKey) && offset <= channel.size()
+                    && fingerprint == LogIndex.fingerprint(channel, fingerprintLength);
+            if (!sameFile && !continueInOtherFile) {
+                System.err.println("Лог изменился после контрольной точки, анализ с начала лога");
+                return 0;
+            }
+
+            restoredDetector.readFrom(in);
+            windowDetector = restoredDetector;
+            return sameFile ? offset : 0;
+        } catch (IOException e) {
+            System.err.println("Контрольная точка повреждена (" + e + "), анализ с начала лога");
+            return 0;
+        }
+    }
+
+    /**
+     * Доступность по текущему окну в процентах.
+     */
+    double getWindowAvailability() {
+        return windowDetector.getWindowAvailability();
+    }
 
-        System.out.printf("%s %s %.1f%n",
-                start.format(OUTPUT_TIME_FORMATTER),
-                end.format(OUTPUT_TIME_FORMATTER),
-                finalAvailability
-        );
-        // Обновляем время окончания последнего успешно выведенного инцидента
-        lastPrintedIncidentEndTime = end;
+    long getWindowRequests() {
+        return windowDetector.getWindowRequests();
     }
-}
\ No newline at end of file
+}
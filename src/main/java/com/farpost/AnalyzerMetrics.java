@@ -0,0 +1,238 @@
+package com.farpost;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Счётчики работы анализатора: строки, байты, отброшенные строки, инциденты, размер окна и время разбора
+ * и анализа.
+ * <p>
+ * Счётчики на {@link LongAdder}, поэтому потоки разбора увеличивают их без общей блокировки и без борьбы за
+ * одну строку кэша. Время меряется грубо: в последовательном режиме по каждой {@link #TIMING_SAMPLE}-й строке
+ * с умножением на шаг выборки, при параллельном разборе по кускам целиком. При параллельном разборе время
+ * разбора суммируется по всем потокам и может быть больше общего времени работы.
+ * <p>
+ * Снаружи метрики видны как периодическая строка в stderr ({@link #startReporting}), как MBean
+ * {@link #OBJECT_NAME} и как файл в текстовом формате Prometheus ({@link #writePrometheus}).
+ */
+public final class AnalyzerMetrics implements AnalyzerMetricsMBean {
+    public static final String OBJECT_NAME = "com.farpost:type=AnalyzerMetrics";
+    // Время меряется на каждой такой строке; степень двойки, чтобы проверка была одной маской
+    static final int TIMING_SAMPLE = 64;
+
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder rejectedLines = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder incidents = new LongAdder();
+    private final LongAdder lateRecords = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder analyzeNanos = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    // Размер окна читается из потока анализа без синхронизации: значение приблизительное
+    private volatile LongSupplier windowRequests = () -> 0;
+    private ScheduledExecutorService reporter;
+
+    /**
+     * Учитывает сразу пачку строк: потоки разбора копят счётчики в локальных переменных и переносят их сюда
+     * по куску или по выборке строк, а не на каждой строке.
+     */
+    public void addLines(long lineCount, long rejectedCount, long byteCount) {
+        lines.add(lineCount);
+        rejectedLines.add(rejectedCount);
+        bytes.add(byteCount);
+    }
+
+    public void addParseNanos(long nanos) {
+        parseNanos.add(nanos);
+    }
+
+    public void addAnalyzeNanos(long nanos) {
+        analyzeNanos.add(nanos);
+    }
+
+    public void incidentReported() {
+        incidents.increment();
+    }
+
+    /**
+     * Запись опоздала больше допуска ({@link ReorderBuffer}) и не учтена.
+     */
+    public void lateRecord() {
+        lateRecords.increment();
+    }
+
+    /**
+     * Сразу {@code count} записей опоздали больше допуска и не учтены.
+     */
+    public void lateRecords(long count) {
+        lateRecords.add(count);
+    }
+
+    void setWindowRequests(LongSupplier windowRequests) {
+        this.windowRequests = windowRequests;
+    }
+
+    /**
+     * Поток, который считает прочитанные из {@code in} байты. Строки такого потока учитываются
+     * через {@link #addLines} с нулевым числом байт.
+     */
+    public InputStream countBytes(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytes.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    bytes.add(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    @Override
+    public long getLines() {
+        return lines.sum();
+    }
+
+    @Override
+    public long getRejectedLines() {
+        return rejectedLines.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getIncidents() {
+        return incidents.sum();
+    }
+
+    @Override
+    public long getLateRecords() {
+        return lateRecords.sum();
+    }
+
+    @Override
+    public long getWindowRequests() {
+        return windowRequests.getAsLong();
+    }
+
+    @Override
+    public double getLinesPerSecond() {
+        return getLines() / elapsedSeconds();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return getBytes() / elapsedSeconds();
+    }
+
+    @Override
+    public double getParseSeconds() {
+        return parseNanos.sum() / 1e9;
+    }
+
+    @Override
+    public double getAnalyzeSeconds() {
+        return analyzeNanos.sum() / 1e9;
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+    }
+
+    public void registerMBean() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Раз в {@code periodSeconds} секунд пишет строку статистики в {@code out} из фонового потока.
+     */
+    public synchronized void startReporting(PrintStream out, long periodSeconds) {
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> out.println(formatStats()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    String formatStats() {
+        return String.format(Locale.ROOT,
+                "Статистика: строк %d (%.0f/с), %.1f МБ (%.1f МБ/с), отброшено %d, опоздало %d, инцидентов %d, в окне %d, "
+                        + "разбор %.2f с, анализ %.2f с",
+                getLines(), getLinesPerSecond(),
+                getBytes() / 1e6, getBytesPerSecond() / 1e6,
+                getRejectedLines(), getLateRecords(), getIncidents(), getWindowRequests(),
+                getParseSeconds(), getAnalyzeSeconds()
+        );
+    }
+
+    /**
+     * Пишет метрики в текстовом формате Prometheus. Файл заменяется атомарно, поэтому сборщик
+     * (например, textfile collector у node_exporter) не увидит его недописанным.
+     */
+    public void writePrometheus(Path file) throws IOException {
+        StringBuilder text = new StringBuilder();
+        appendMetric(text, "lines_total", "counter", "Прочитано строк лога", getLines());
+        appendMetric(text, "rejected_lines_total", "counter", "Строк, не разобранных как запись лога", getRejectedLines());
+        appendMetric(text, "bytes_total", "counter", "Прочитано байт лога", getBytes());
+        appendMetric(text, "late_records_total", "counter", "Записей, опоздавших больше допуска", getLateRecords());
+        appendMetric(text, "incidents_total", "counter", "Выведено инцидентов", getIncidents());
+        appendMetric(text, "window_requests", "gauge", "Запросов в скользящем окне", getWindowRequests());
+        appendMetric(text, "parse_seconds_total", "counter", "Время разбора строк", getParseSeconds());
+        appendMetric(text, "analyze_seconds_total", "counter", "Время анализа записей", getAnalyzeSeconds());
+        appendMetric(text, "uptime_seconds", "gauge", "Время работы анализатора", elapsedSeconds());
+
+        Path absolute = file.toAbsolutePath();
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        Files.write(temp, text.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void appendMetric(StringBuilder text, String name, String type, String help, double value) {
+        String fullName = "farpost_analyzer_" + name;
+        text.append("# HELP ").append(fullName).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(fullName).append(' ').append(type).append('\n');
+        text.append(fullName).append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            text.append((long) value);
+        } else {
+            text.append(value);
+        }
+        text.append('\n');
+    }
+}
@@ -0,0 +1,30 @@
+package com.farpost;
+
+/**
+ * Метрики анализатора для JMX (jconsole, VisualVM и т. п.), объект {@link AnalyzerMetrics#OBJECT_NAME}.
+ */
+public interface AnalyzerMetricsMBean {
+    long getLines();
+
+    /**
+     * Строки, которые не разобраны как запись лога: {@link LogParser#parseLine} вернул {@code false},
+     * а {@link LogParser#parse} вернул бы пустой результат.
+     */
+    long getRejectedLines();
+
+    long getBytes();
+
+    long getLateRecords();
+
+    long getIncidents();
+
+    long getWindowRequests();
+
+    double getLinesPerSecond();
+
+    double getBytesPerSecond();
+
+    double getParseSeconds();
+
+    double getAnalyzeSeconds();
+}
@@ -0,0 +1,153 @@
+package com.farpost;
+
+/**
+ * Поиск инцидентов по скорости расхода бюджета ошибок (SLO) в двух окнах.
+ * <p>
+ * Порог доступности - цель SLO, бюджет ошибок - допустимая доля отказов {@code 1 - порог / 100}. Скорость расхода
+ * в окне - доля отказов в нём, делённая на бюджет: при скорости 1 бюджет тратится ровно к концу периода SLO.
+ * Инцидент идёт, пока скорость больше {@code burnRate} и в длинном, и в коротком окне: длинное окно не даёт
+ * поднимать тревогу из-за короткого всплеска, а короткое - быстро завершает инцидент, когда отказы прекратились,
+ * хотя в длинном окне их ещё много. Например, для SLO на 30 дней скорость 14,4 в окнах 1 час и 5 минут - это
+ * 2% месячного бюджета за час.
+ * <p>
+ * Окна оцениваются, когда секунда завершена: пришла запись более поздней секунды или отметка времени
+ * ({@link #onTick}). Начало инцидента - начало короткого окна, в котором скорость превысила порог, но не раньше
+ * первой записи и конца предыдущего инцидента; конец - секунда, на которой скорость в одном из окон стала
+ * не больше порога.
+ */
+public final class BurnRateIncidentDetector implements IncidentDetector {
+    private final long responseTimeThresholdMs;
+    private final int shortWindowSeconds;
+    // Доля отказов, при которой бюджет расходуется со скоростью burnRate
+    private final double failureRateLimit;
+    private final SlidingWindow longWindow;
+    private final SlidingWindow shortWindow;
+    private final IncidentListener listener;
+
+    // Секунда, которая ещё заполняется, и её запросы
+    private long currentSecond = Long.MIN_VALUE;
+    private long secondTotal = 0;
+    private long secondFailures = 0;
+    private long firstSecond = Long.MIN_VALUE;
+    private long lastCompletedSecond = Long.MIN_VALUE;
+
+    private boolean isIncidentActive = false;
+    private long incidentStartSecond = 0;
+    private long lastReportedEndSecond = Long.MIN_VALUE;
+    private long totalRequestsInIncident = 0;
+    private long failedRequestsInIncident = 0;
+    private long incidentWorstSecond = Long.MIN_VALUE;
+    private double incidentWorstAvailability = Double.MAX_VALUE;
+
+    /**
+     * @param availabilityThreshold цель SLO в процентах
+     * @param longWindowSeconds     длинное окно, как {@link SlidingWindow}: текущая секунда и столько секунд перед ней
+     * @param shortWindowSeconds    короткое окно, не длиннее длинного
+     * @param burnRate              во сколько раз быстрее равномерного должен расходоваться бюджет
+     */
+    public BurnRateIncidentDetector(double availabilityThreshold, long responseTimeThresholdMs,
+                                    int longWindowSeconds, int shortWindowSeconds, double burnRate,
+                                    IncidentListener listener) {
+        if (shortWindowSeconds < 1 || shortWindowSeconds > longWindowSeconds) {
+            throw new IllegalArgumentException("Короткое окно " + shortWindowSeconds
+                    + " с должно быть от 1 с до длинного окна " + longWindowSeconds + " с");
+        }
+        this.responseTimeThresholdMs = responseTimeThresholdMs;
+        this.shortWindowSeconds = shortWindowSeconds;
+        this.failureRateLimit = burnRate * (100.0 - availabilityThreshold) / 100.0;
+        this.longWindow = new SlidingWindow(longWindowSeconds, 1, false);
+        this.shortWindow = new SlidingWindow(shortWindowSeconds, 1, false);
+        this.listener = listener;
+    }
+
+    @Override
+    public void onRecord(long epochSecond, double latencyMs, int status) {
+        if (epochSecond > currentSecond) {
+            completeSecond();
+            currentSecond = epochSecond;
+        }
+        secondTotal++;
+        if (LogParser.isFailure(status, latencyMs, responseTimeThresholdMs)) {
+            secondFailures++;
+        }
+    }
+
+    @Override
+    public void onTick(long epochSecond) {
+        if (epochSecond > currentSecond) {
+            completeSecond();
+        }
+    }
+
+    @Override
+    public void finish() {
+        completeSecond();
+        if (isIncidentActive) {
+            report(lastCompletedSecond);
+            isIncidentActive = false;
+        }
+    }
+
+    private void completeSecond() {
+        if (secondTotal == 0) {
+            return;
+        }
+        if (firstSecond == Long.MIN_VALUE) {
+            firstSecond = currentSecond;
+        }
+        longWindow.addSecond(currentSecond, secondTotal, secondFailures);
+        shortWindow.addSecond(currentSecond, secondTotal, secondFailures);
+        lastCompletedSecond = currentSecond;
+        // Без запаса бюджета (порог 100%) любой отказ - превышение
+        boolean isBurning = isOverLimit(longWindow) && isOverLimit(shortWindow);
+
+        if (isIncidentActive) {
+            totalRequestsInIncident += secondTotal;
+            failedRequestsInIncident += secondFailures;
+            checkWorstSecond(currentSecond);
+            if (!isBurning) {
+                report(currentSecond);
+                isIncidentActive = false;
+            }
+        } else if (isBurning) {
+            isIncidentActive = true;
+            // Короткое окно в начале записей захватывает время, когда их ещё не было
+            incidentStartSecond = Math.max(Math.max(currentSecond - (shortWindowSeconds - 1), firstSecond),
+                    lastReportedEndSecond);
+            totalRequestsInIncident = shortWindow.getTotalSince(incidentStartSecond);
+            failedRequestsInIncident = shortWindow.getFailuresSince(incidentStartSecond);
+            incidentWorstSecond = Long.MIN_VALUE;
+            incidentWorstAvailability = Double.MAX_VALUE;
+            for (long second = incidentStartSecond; second <= currentSecond; second++) {
+                checkWorstSecond(second);
+            }
+        }
+        secondTotal = 0;
+        secondFailures = 0;
+    }
+
+    private boolean isOverLimit(SlidingWindow window) {
+        return window.getTotal() > 0 && (double) window.getFailures() / window.getTotal() > failureRateLimit;
+    }
+
+    private void checkWorstSecond(long epochSecond) {
+        long total = shortWindow.getTotalAt(epochSecond);
+        if (total > 0) {
+            double availability = 100.0 * (total - shortWindow.getFailuresAt(epochSecond)) / total;
+            if (availability < incidentWorstAvailability) {
+                incidentWorstAvailability = availability;
+                incidentWorstSecond = epochSecond;
+            }
+        }
+    }
+
+    private void report(long endSecond) {
+        // Инциденты нулевой длительности не выводятся, как в Analyzer
+        if (incidentStartSecond >= endSecond) {
+            return;
+        }
+        listener.onIncident(incidentStartSecond, endSecond, totalRequestsInIncident, failedRequestsInIncident,
+                incidentWorstSecond, incidentWorstAvailability);
+        lastReportedEndSecond = endSecond;
+    }
+}
@@ -0,0 +1,104 @@
+package com.farpost;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Периодическое сохранение состояния анализа в небольшой файл, чтобы после падения или перезапуска
+ * продолжить с места остановки, а не с начала лога.
+ * <p>
+ * Содержимое контрольной точки готовит {@link Analyzer}: это короткий снимок окна и инцидента, он снимается
+ * в потоке анализа за время, не зависящее от размера лога. Запись на диск идёт в отдельном потоке: анализ
+ * её не ждёт. Если предыдущая запись ещё идёт, сохраняется только последний снимок. Файл пишется рядом
+ * во временный и заменяется атомарно, поэтому прерванная запись оставляет предыдущую контрольную точку целой.
+ */
+public final class Checkpointer implements AutoCloseable {
+    private final Path file;
+    private final long intervalNanos;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "checkpoint-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Снимок, ещё не взятый потоком записи
+    private final AtomicReference<byte[]> pending = new AtomicReference<>();
+    private long lastSaveNanos = System.nanoTime();
+
+    /**
+     * @param intervalMs как часто сохранять состояние; 0 - при каждой проверке
+     */
+    public Checkpointer(Path file, long intervalMs) {
+        this.file = file.toAbsolutePath();
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+    }
+
+    /**
+     * Прошёл ли интервал с последнего сохранения. Вызывается из потока анализа.
+     */
+    boolean isDue() {
+        return System.nanoTime() - lastSaveNanos >= intervalNanos;
+    }
+
+    /**
+     * Передаёт снимок на запись и сразу возвращается.
+     */
+    void save(byte[] snapshot) {
+        lastSaveNanos = System.nanoTime();
+        if (pending.getAndSet(snapshot) == null) {
+            writer.execute(this::writePending);
+        }
+    }
+
+    /**
+     * Последняя сохранённая контрольная точка; null, если её нет.
+     */
+    byte[] load() throws IOException {
+        try {
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Дожидается записи последнего переданного снимка.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writePending() {
+        byte[] snapshot = pending.getAndSet(null);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.wrap(snapshot);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                // Без сброса на диск после сбоя питания под новым именем мог бы оказаться пустой файл
+                channel.force(false);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Ошибка сохранения контрольной точки: " + e.getMessage());
+        }
+    }
+}
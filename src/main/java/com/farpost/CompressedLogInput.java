@@ -0,0 +1,60 @@
+package com.farpost;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Распознавание сжатого лога по сигнатуре в начале данных.
+ * <p>
+ * gzip распаковывается в отдельном потоке через {@link PipelinedInputStream}, поэтому распаковка
+ * идёт одновременно с разбором строк. Сжатые файлы нельзя отобразить в память, они всегда читаются потоком.
+ */
+public final class CompressedLogInput {
+    private static final int SOURCE_BUFFER_SIZE = 64 * 1024;
+    private static final int SIGNATURE_LENGTH = 4;
+
+    private CompressedLogInput() {
+    }
+
+    /**
+     * Возвращает поток с распакованными данными, если {@code in} сжат, иначе данные {@code in} без изменений.
+     */
+    public static InputStream decompressIfNeeded(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, SOURCE_BUFFER_SIZE);
+        buffered.mark(SIGNATURE_LENGTH);
+        byte[] signature = buffered.readNBytes(SIGNATURE_LENGTH);
+        buffered.reset();
+
+        if (isGzip(signature)) {
+            // GZIPInputStream читает и несколько склеенных gzip-файлов подряд, как zcat
+            return new PipelinedInputStream(new GZIPInputStream(buffered, SOURCE_BUFFER_SIZE), "log-decompressor");
+        }
+        if (isZstd(signature)) {
+            throw new IOException("сжатие zstd не поддерживается, используйте: zstd -dc <файл> | java -jar analyze.jar ...");
+        }
+        return buffered;
+    }
+
+    /**
+     * Сжат ли файл. Пустой или короткий файл считается несжатым.
+     */
+    public static boolean isCompressed(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] signature = in.readNBytes(SIGNATURE_LENGTH);
+            return isGzip(signature) || isZstd(signature);
+        }
+    }
+
+    private static boolean isGzip(byte[] signature) {
+        return signature.length >= 2 && (signature[0] & 0xFF) == 0x1F && (signature[1] & 0xFF) == 0x8B;
+    }
+
+    private static boolean isZstd(byte[] signature) {
+        return signature.length >= 4 && (signature[0] & 0xFF) == 0x28 && (signature[1] & 0xFF) == 0xB5
+                && (signature[2] & 0xFF) == 0x2F && (signature[3] & 0xFF) == 0xFD;
+    }
+}
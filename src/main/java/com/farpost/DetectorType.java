@@ -0,0 +1,28 @@
+package com.farpost;
+
+import java.util.Locale;
+
+/**
+ * Как ищутся инциденты.
+ */
+public enum DetectorType {
+    // Доступность в скользящем окне ниже порога, WindowIncidentDetector - им же ищет и сам Analyzer
+    WINDOW,
+    // Экспоненциально взвешенная доступность ниже порога, EwmaIncidentDetector
+    EWMA,
+    // Бюджет ошибок тратится быстрее заданного в длинном и коротком окне, BurnRateIncidentDetector
+    BURN_RATE;
+
+    /**
+     * Детектор по имени из командной строки ("window", "ewma", "burn-rate") без учёта регистра,
+     * {@code null} для неизвестного имени.
+     */
+    public static DetectorType fromName(String name) {
+        for (DetectorType type : values()) {
+            if (type.name().equals(name.toUpperCase(Locale.ROOT).replace('-', '_'))) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
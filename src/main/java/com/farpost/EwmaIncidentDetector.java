@@ -0,0 +1,134 @@
+package com.farpost;
+
+/**
+ * Поиск инцидентов по экспоненциально взвешенной доступности вместо окна фиксированной длины.
+ * <p>
+ * Запросы и отказы каждой завершённой секунды добавляются к взвешенным суммам, а прежние суммы при этом
+ * умножаются на коэффициент затухания: вес секунды уменьшается вдвое за {@code halfLifeSeconds}. Доступность -
+ * доля успешных запросов во взвешенных суммах, то есть среднее по запросам, а не по секундам, и секунды
+ * без запросов её не меняют. Короткий всплеск отказов сглаживается, а затяжная деградация замечается, даже если
+ * ни в одном окне фиксированной длины доступность не падает ниже порога. Состояние - несколько чисел,
+ * независимо от периода полураспада.
+ * <p>
+ * Доступность оценивается, когда секунда завершена: пришла запись более поздней секунды или отметка времени
+ * ({@link #onTick}). Инцидент начинается с секунды, на которой взвешенная доступность стала ниже порога,
+ * и кончается на секунде, на которой она восстановилась.
+ */
+public final class EwmaIncidentDetector implements IncidentDetector {
+    private final double availabilityThreshold;
+    private final long responseTimeThresholdMs;
+    // Во сколько раз уменьшается вес за секунду
+    private final double decayPerSecond;
+    private final IncidentListener listener;
+
+    // Секунда, которая ещё заполняется, и её запросы
+    private long currentSecond = Long.MIN_VALUE;
+    private long secondTotal = 0;
+    private long secondFailures = 0;
+
+    // Взвешенные суммы по завершённым секундам
+    private long lastCompletedSecond = Long.MIN_VALUE;
+    private double weightedTotal = 0;
+    private double weightedFailures = 0;
+
+    private boolean isIncidentActive = false;
+    private long incidentStartSecond = 0;
+    private long lastReportedEndSecond = Long.MIN_VALUE;
+    private long totalRequestsInIncident = 0;
+    private long failedRequestsInIncident = 0;
+    private long incidentWorstSecond = Long.MIN_VALUE;
+    private double incidentWorstAvailability = Double.MAX_VALUE;
+
+    /**
+     * @param halfLifeSeconds за сколько секунд вес секунды уменьшается вдвое
+     */
+    public EwmaIncidentDetector(double availabilityThreshold, long responseTimeThresholdMs, int halfLifeSeconds,
+                                IncidentListener listener) {
+        if (halfLifeSeconds < 1) {
+            throw new IllegalArgumentException("Период полураспада должен быть не меньше секунды: " + halfLifeSeconds);
+        }
+        this.availabilityThreshold = availabilityThreshold;
+        this.responseTimeThresholdMs = responseTimeThresholdMs;
+        this.decayPerSecond = Math.pow(0.5, 1.0 / halfLifeSeconds);
+        this.listener = listener;
+    }
+
+    @Override
+    public void onRecord(long epochSecond, double latencyMs, int status) {
+        if (epochSecond > currentSecond) {
+            completeSecond();
+            currentSecond = epochSecond;
+        }
+        secondTotal++;
+        if (LogParser.isFailure(status, latencyMs, responseTimeThresholdMs)) {
+            secondFailures++;
+        }
+    }
+
+    @Override
+    public void onTick(long epochSecond) {
+        if (epochSecond > currentSecond) {
+            completeSecond();
+        }
+    }
+
+    @Override
+    public void finish() {
+        completeSecond();
+        if (isIncidentActive) {
+            report(lastCompletedSecond);
+            isIncidentActive = false;
+        }
+    }
+
+    private void completeSecond() {
+        if (secondTotal == 0) {
+            return;
+        }
+        // Запросы, опоздавшие в уже завершённую секунду, добавляются к ней без затухания
+        double decay = lastCompletedSecond == Long.MIN_VALUE
+                ? 0 : Math.pow(decayPerSecond, currentSecond - lastCompletedSecond);
+        weightedTotal = weightedTotal * decay + secondTotal;
+        weightedFailures = weightedFailures * decay + secondFailures;
+        lastCompletedSecond = currentSecond;
+        double availability = 100.0 * (weightedTotal - weightedFailures) / weightedTotal;
+
+        if (isIncidentActive) {
+            totalRequestsInIncident += secondTotal;
+            failedRequestsInIncident += secondFailures;
+            checkWorstSecond();
+            if (availability >= availabilityThreshold) {
+                report(currentSecond);
+                isIncidentActive = false;
+            }
+        } else if (availability < availabilityThreshold) {
+            isIncidentActive = true;
+            incidentStartSecond = Math.max(currentSecond, lastReportedEndSecond);
+            totalRequestsInIncident = secondTotal;
+            failedRequestsInIncident = secondFailures;
+            incidentWorstSecond = Long.MIN_VALUE;
+            incidentWorstAvailability = Double.MAX_VALUE;
+            checkWorstSecond();
+        }
+        secondTotal = 0;
+        secondFailures = 0;
+    }
+
+    private void checkWorstSecond() {
+        double availability = 100.0 * (secondTotal - secondFailures) / secondTotal;
+        if (availability < incidentWorstAvailability) {
+            incidentWorstAvailability = availability;
+            incidentWorstSecond = currentSecond;
+        }
+    }
+
+    private void report(long endSecond) {
+        // Инциденты нулевой длительности не выводятся, как в Analyzer
+        if (incidentStartSecond >= endSecond) {
+            return;
+        }
+        listener.onIncident(incidentStartSecond, endSecond, totalRequestsInIncident, failedRequestsInIncident,
+                incidentWorstSecond, incidentWorstAvailability);
+        lastReportedEndSecond = endSecond;
+    }
+}
@@ -0,0 +1,29 @@
+package com.farpost;
+
+import java.util.Locale;
+
+/**
+ * Поле строки лога, по которому группируются запросы при поиске инцидентов по отдельным ключам.
+ */
+public enum GroupKey {
+    // Путь запроса без строки параметров: /rest/v1.4/documents
+    PATH,
+    // HTTP-метод: GET, PUT...
+    METHOD,
+    // Адрес клиента
+    CLIENT,
+    // User-Agent: @list-item-updater
+    AGENT;
+
+    /**
+     * Ключ по имени из командной строки без учёта регистра, {@code null} для неизвестного имени.
+     */
+    public static GroupKey fromName(String name) {
+        for (GroupKey key : values()) {
+            if (key.name().equals(name.toUpperCase(Locale.ROOT))) {
+                return key;
+            }
+        }
+        return null;
+    }
+}
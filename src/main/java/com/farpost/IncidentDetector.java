@@ -0,0 +1,30 @@
+package com.farpost;
+
+/**
+ * Поиск инцидентов по записям, которые передаёт вызывающий код: без чтения лога, разбора и вывода, поэтому
+ * детектор можно встроить в свой сервис. Найденные инциденты получает {@link IncidentListener}, заданный
+ * при создании детектора.
+ * <p>
+ * Аргументы - только примитивы, и реализации не создают объектов на запись. Детектор однопоточный: вызовы
+ * должны идти из одного потока или под внешней блокировкой. Время - секунды лога, как у
+ * {@link LogParser#getEpochSecond()}; записи должны идти по возрастанию времени, запись раньше уже учтённых
+ * секунд учитывается вместе с ними.
+ */
+public interface IncidentDetector {
+    /**
+     * Учитывает запрос: время, время ответа в миллисекундах и HTTP-код. Отказ - код 5xx или время ответа
+     * больше порога, как у {@link LogParser#isFailure(long)}.
+     */
+    void onRecord(long epochSecond, double latencyMs, int status);
+
+    /**
+     * Сообщает, что записей раньше {@code epochSecond} больше не будет, например по таймеру, когда запросов нет.
+     * Детекторы, которые оценивают доступность по завершённым секундам, оценивают накопленные.
+     */
+    void onTick(long epochSecond);
+
+    /**
+     * Записей больше не будет: незавершённый инцидент передаётся слушателю с концом на последней записи.
+     */
+    void finish();
+}
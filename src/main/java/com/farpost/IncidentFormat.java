@@ -0,0 +1,27 @@
+package com.farpost;
+
+import java.util.Locale;
+
+/**
+ * Формат вывода инцидентов.
+ */
+public enum IncidentFormat {
+    // Строка "начало конец доступность" со временем HH:mm:ss, как раньше
+    TEXT,
+    // Объект JSON на строку с полным временем, длительностью, счётчиками и худшим интервалом
+    JSONL,
+    // Те же поля, что в JSONL, в CSV с заголовком
+    CSV;
+
+    /**
+     * Формат по имени из командной строки без учёта регистра, {@code null} для неизвестного имени.
+     */
+    public static IncidentFormat fromName(String name) {
+        for (IncidentFormat format : values()) {
+            if (format.name().equals(name.toUpperCase(Locale.ROOT))) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
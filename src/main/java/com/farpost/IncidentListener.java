@@ -0,0 +1,17 @@
+package com.farpost;
+
+/**
+ * Получает найденные инциденты от {@link IncidentDetector}. Инциденты одного детектора приходят по порядку времени
+ * и не перекрываются.
+ */
+@FunctionalInterface
+public interface IncidentListener {
+    /**
+     * @param requests          запросов в инциденте
+     * @param failures          из них отказов
+     * @param worstSecond       начало интервала с наименьшей доступностью, {@link Long#MIN_VALUE} - неизвестно
+     * @param worstAvailability доступность в этом интервале в процентах
+     */
+    void onIncident(long startSecond, long endSecond, long requests, long failures,
+                    long worstSecond, double worstAvailability);
+}
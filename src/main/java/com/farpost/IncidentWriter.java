@@ -0,0 +1,425 @@
+package com.farpost;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Вывод инцидентов в одном из форматов {@link IncidentFormat} через собственный буфер.
+ * <p>
+ * Строка кодируется прямо в байты буфера: числа, время и ключ пишутся без {@link java.util.Formatter},
+ * промежуточных строк и объектов, а в поток буфер уходит целиком, когда заполнится, или по {@link #flush()}.
+ * Поэтому вывод миллионов инцидентов при группировке не упирается ни в форматирование, ни в синхронизацию
+ * {@link java.io.PrintStream} на каждой строке.
+ * <p>
+ * Текстовый формат совпадает с прежним выводом через {@code printf}: время HH:mm:ss, доступность с одним знаком
+ * после разделителя локали по умолчанию, округление половины вверх. В JSONL и CSV время полное, в формате ISO
+ * без смещения - как в строке лога, разделитель всегда точка, доступность с тремя знаками.
+ */
+public final class IncidentWriter implements Flushable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Наибольшая длина числа или времени в байтах; перед их записью в буфере оставляется столько места
+    private static final int MAX_FIELD_LENGTH = 32;
+    private static final byte[] TEXT_LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    static final String CSV_HEADER =
+            "start,end,duration_s,requests,failures,availability,worst_second,worst_availability,p50,p95,p99,key,open";
+
+    private final OutputStream out;
+    private final IncidentFormat format;
+    // Разделитель дробной части в текстовом формате, как у printf
+    private final byte textDecimalSeparator;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+
+    public IncidentWriter(OutputStream out, IncidentFormat format) {
+        this.out = out;
+        this.format = format;
+        char separator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+        this.textDecimalSeparator = separator < 0x80 ? (byte) separator : (byte) '.';
+        if (format == IncidentFormat.CSV) {
+            putAscii(CSV_HEADER);
+            put((byte) '\n');
+        }
+    }
+
+    public IncidentFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Записывает инцидент в буфер.
+     *
+     * @param worstSecond       начало интервала окна с наименьшей доступностью, {@link Long#MIN_VALUE} - неизвестно
+     * @param latency           время ответа запросов инцидента, {@code null} - процентили не выводятся
+     * @param key               ключ группировки, {@code null} - общий инцидент
+     * @param open              инцидент ещё не завершился
+     */
+    public void write(long startSecond, long endSecond, long total, long failures,
+                      long worstSecond, double worstAvailability, LatencyHistogram latency, String key, boolean open) {
+        byte[] keyBytes = key == null ? null : key.getBytes(StandardCharsets.UTF_8);
+        write(startSecond, endSecond, total, failures, worstSecond, worstAvailability, latency,
+                keyBytes, keyBytes == null ? 0 : keyBytes.length, open);
+    }
+
+    /**
+     * То же, но ключ - первые {@code keyLength} байт {@code key} в UTF-8, например из {@link OffHeapKeyTable#copyKey}:
+     * ключ не декодируется в строку. Неверные последовательности UTF-8 выводятся как U+FFFD, как при декодировании.
+     */
+    public void write(long startSecond, long endSecond, long total, long failures, long worstSecond,
+                      double worstAvailability, LatencyHistogram latency, byte[] key, int keyLength, boolean open) {
+        double availability = total == 0 ? 100.0 : 100.0 * (total - failures) / total;
+        switch (format) {
+            case TEXT:
+                writeText(startSecond, endSecond, availability, latency, key, keyLength, open);
+                break;
+            case JSONL:
+                writeJson(startSecond, endSecond, total, failures, availability, worstSecond, worstAvailability,
+                        latency, key, keyLength, open);
+                break;
+            case CSV:
+                writeCsv(startSecond, endSecond, total, failures, availability, worstSecond, worstAvailability,
+                        latency, key, keyLength, open);
+                break;
+            default:
+                throw new IllegalStateException("Неизвестный формат: " + format);
+        }
+    }
+
+    private void writeText(long startSecond, long endSecond, double availability,
+                           LatencyHistogram latency, byte[] key, int keyLength, boolean open) {
+        putTime(startSecond);
+        put((byte) ' ');
+        putTime(endSecond);
+        put((byte) ' ');
+        putDecimal(availability, 1, textDecimalSeparator);
+        if (latency != null) {
+            putAscii(" p50=");
+            putDecimal(latency.getValueAtQuantile(0.50), 1, textDecimalSeparator);
+            putAscii(" p95=");
+            putDecimal(latency.getValueAtQuantile(0.95), 1, textDecimalSeparator);
+            putAscii(" p99=");
+            putDecimal(latency.getValueAtQuantile(0.99), 1, textDecimalSeparator);
+        }
+        if (key != null) {
+            // Ключ последним: user-agent может содержать пробелы
+            put((byte) ' ');
+            putUtf8(key, keyLength, false);
+        }
+        if (open) {
+            putAscii(" open");
+        }
+        for (byte b : TEXT_LINE_SEPARATOR) {
+            put(b);
+        }
+    }
+
+    private void writeJson(long startSecond, long endSecond, long total, long failures, double availability,
+                           long worstSecond, double worstAvailability, LatencyHistogram latency,
+                           byte[] key, int keyLength, boolean open) {
+        putAscii("{\"start\":\"");
+        putDateTime(startSecond);
+        putAscii("\",\"end\":\"");
+        putDateTime(endSecond);
+        putAscii("\",\"duration_s\":");
+        putLong(endSecond - startSecond);
+        putAscii(",\"requests\":");
+        putLong(total);
+        putAscii(",\"failures\":");
+        putLong(failures);
+        putAscii(",\"availability\":");
+        putDecimal(availability, 3, (byte) '.');
+        if (worstSecond != Long.MIN_VALUE) {
+            putAscii(",\"worst_second\":\"");
+            putDateTime(worstSecond);
+            putAscii("\",\"worst_availability\":");
+            putDecimal(worstAvailability, 3, (byte) '.');
+        }
+        if (latency != null) {
+            putAscii(",\"p50\":");
+            putDecimal(latency.getValueAtQuantile(0.50), 1, (byte) '.');
+            putAscii(",\"p95\":");
+            putDecimal(latency.getValueAtQuantile(0.95), 1, (byte) '.');
+            putAscii(",\"p99\":");
+            putDecimal(latency.getValueAtQuantile(0.99), 1, (byte) '.');
+        }
+        if (key != null) {
+            putAscii(",\"key\":\"");
+            putUtf8(key, keyLength, true);
+            put((byte) '"');
+        }
+        if (open) {
+            putAscii(",\"open\":true");
+        }
+        putAscii("}\n");
+    }
+
+    private void writeCsv(long startSecond, long endSecond, long total, long failures, double availability,
+                          long worstSecond, double worstAvailability, LatencyHistogram latency,
+                          byte[] key, int keyLength, boolean open) {
+        putDateTime(startSecond);
+        put((byte) ',');
+        putDateTime(endSecond);
+        put((byte) ',');
+        putLong(endSecond - startSecond);
+        put((byte) ',');
+        putLong(total);
+        put((byte) ',');
+        putLong(failures);
+        put((byte) ',');
+        putDecimal(availability, 3, (byte) '.');
+        put((byte) ',');
+        if (worstSecond != Long.MIN_VALUE) {
+            putDateTime(worstSecond);
+            put((byte) ',');
+            putDecimal(worstAvailability, 3, (byte) '.');
+        } else {
+            put((byte) ',');
+        }
+        put((byte) ',');
+        if (latency != null) {
+            putDecimal(latency.getValueAtQuantile(0.50), 1, (byte) '.');
+            put((byte) ',');
+            putDecimal(latency.getValueAtQuantile(0.95), 1, (byte) '.');
+            put((byte) ',');
+            putDecimal(latency.getValueAtQuantile(0.99), 1, (byte) '.');
+        } else {
+            putAscii(",,");
+        }
+        put((byte) ',');
+        if (key != null) {
+            putCsvField(key, keyLength);
+        }
+        put((byte) ',');
+        putAscii(open ? "true" : "false");
+        put((byte) '\n');
+    }
+
+    /**
+     * Отдаёт накопленные строки в поток.
+     */
+    @Override
+    public void flush() {
+        try {
+            flushBuffer();
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void ensure(int length) {
+        if (buffer.length - position < length) {
+            try {
+                flushBuffer();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void put(byte b) {
+        if (position == buffer.length) {
+            ensure(1);
+        }
+        buffer[position++] = b;
+    }
+
+    private void putAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            put((byte) s.charAt(i));
+        }
+    }
+
+    private void putLong(long value) {
+        ensure(MAX_FIELD_LENGTH);
+        if (value < 0) {
+            buffer[position++] = '-';
+            if (value == Long.MIN_VALUE) {
+                // -Long.MIN_VALUE не помещается в long
+                putAscii("9223372036854775808");
+                return;
+            }
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position = end;
+    }
+
+    private void putDigits(long value, int width) {
+        for (int i = position + width - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position += width;
+    }
+
+    /**
+     * Неотрицательное число с {@code decimals} знаками после разделителя, как {@code %.Nf}: половина округляется
+     * вверх по кратчайшему десятичному представлению числа ({@link Double#toString}). Вдали от половины хватает
+     * округления произведения; вблизи неё, где двоичная погрешность может перевесить, считается через BigDecimal.
+     */
+    private void putDecimal(double value, int decimals, byte separator) {
+        long scale = decimals == 1 ? 10 : 1000;
+        double scaled = value * scale;
+        long units = (long) Math.floor(scaled + 0.5);
+        if (Math.abs(scaled - Math.floor(scaled) - 0.5) < 1e-6) {
+            units = BigDecimal.valueOf(value).setScale(decimals, RoundingMode.HALF_UP).unscaledValue().longValue();
+        }
+        putLong(units / scale);
+        ensure(MAX_FIELD_LENGTH);
+        buffer[position++] = separator;
+        putDigits(units % scale, decimals);
+    }
+
+    // HH:mm:ss
+    private void putTime(long epochSecond) {
+        ensure(MAX_FIELD_LENGTH);
+        int secondOfDay = (int) Math.floorMod(epochSecond, 86400L);
+        putDigits(secondOfDay / 3600, 2);
+        buffer[position++] = ':';
+        putDigits(secondOfDay / 60 % 60, 2);
+        buffer[position++] = ':';
+        putDigits(secondOfDay % 60, 2);
+    }
+
+    // yyyy-MM-ddTHH:mm:ss
+    private void putDateTime(long epochSecond) {
+        ensure(MAX_FIELD_LENGTH);
+        // Дата по номеру дня от 1970-01-01 (алгоритм civil_from_days Говарда Хиннанта)
+        long days = Math.floorDiv(epochSecond, 86400L) + 719468;
+        long era = Math.floorDiv(days, 146097);
+        long dayOfEra = days - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        long month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            putLong(year);
+        } else {
+            putDigits(year, 4);
+        }
+        buffer[position++] = '-';
+        putDigits(month, 2);
+        buffer[position++] = '-';
+        putDigits(day, 2);
+        buffer[position++] = 'T';
+        putTime(epochSecond);
+    }
+
+    private void putCsvField(byte[] key, int length) {
+        boolean quote = false;
+        for (int i = 0; i < length && !quote; i++) {
+            byte b = key[i];
+            quote = b == ',' || b == '"' || b == '\n' || b == '\r';
+        }
+        if (!quote) {
+            putUtf8(key, length, false);
+            return;
+        }
+        put((byte) '"');
+        putUtf8(key, length, false, true);
+        put((byte) '"');
+    }
+
+    private void putUtf8(byte[] key, int length, boolean jsonEscape) {
+        putUtf8(key, length, jsonEscape, false);
+    }
+
+    // Байты UTF-8 как есть, для JSON с экранированием, для CSV с удвоением кавычек; байты ASCII не встречаются
+    // внутри многобайтных последовательностей, поэтому экранируются по одному
+    private void putUtf8(byte[] key, int length, boolean jsonEscape, boolean csvQuotes) {
+        for (int i = 0; i < length; ) {
+            int b = key[i] & 0xFF;
+            if (b < 0x80) {
+                if (jsonEscape && (b == '"' || b == '\\' || b < 0x20)) {
+                    put((byte) '\\');
+                    if (b == '"' || b == '\\') {
+                        put((byte) b);
+                    } else {
+                        putAscii("u00");
+                        put(HEX_DIGITS[b >> 4]);
+                        put(HEX_DIGITS[b & 0xF]);
+                    }
+                } else {
+                    if (csvQuotes && b == '"') {
+                        put((byte) '"');
+                    }
+                    put((byte) b);
+                }
+                i++;
+                continue;
+            }
+            int sequence = utf8SequenceLength(key, i, length);
+            if (sequence > 0) {
+                for (int end = i + sequence; i < end; i++) {
+                    put(key[i]);
+                }
+            } else {
+                // Неверная последовательность заменяется целиком, как у декодера UTF-8 в String
+                put((byte) 0xEF);
+                put((byte) 0xBF);
+                put((byte) 0xBD);
+                i -= sequence;
+            }
+        }
+    }
+
+    /**
+     * Длина верной последовательности UTF-8 с позиции {@code i}, иначе минус длина её наибольшего верного начала
+     * (не меньше одного байта) - столько байт заменяется одним U+FFFD.
+     */
+    private static int utf8SequenceLength(byte[] key, int i, int length) {
+        int b = key[i] & 0xFF;
+        int sequence;
+        // Допустимый диапазон второго байта: исключает избыточные кодировки, суррогаты и коды больше U+10FFFF
+        int low = 0x80;
+        int high = 0xBF;
+        if (b >= 0xC2 && b <= 0xDF) {
+            sequence = 2;
+        } else if (b >= 0xE0 && b <= 0xEF) {
+            sequence = 3;
+            low = b == 0xE0 ? 0xA0 : 0x80;
+            high = b == 0xED ? 0x9F : 0xBF;
+        } else if (b >= 0xF0 && b <= 0xF4) {
+            sequence = 4;
+            low = b == 0xF0 ? 0x90 : 0x80;
+            high = b == 0xF4 ? 0x8F : 0xBF;
+        } else {
+            return -1;
+        }
+        for (int k = 1; k < sequence; k++) {
+            if (i + k >= length) {
+                return -k;
+            }
+            int c = key[i + k] & 0xFF;
+            if (c < (k == 1 ? low : 0x80) || c > (k == 1 ? high : 0xBF)) {
+                return -k;
+            }
+        }
+        return sequence;
+    }
+}
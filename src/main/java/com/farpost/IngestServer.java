@@ -0,0 +1,349 @@
+package com.farpost;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Встроенный HTTP-сервер, принимающий строки лога от сервисов вместо чтения файлов.
+ * <p>
+ * {@code POST /ingest} - тело из строк лога через {@code \n}, можно сжатое ({@code Content-Encoding: gzip}).
+ * Строка длиннее {@link #MAX_LINE_LENGTH} байт или тело больше {@link #setMaxBodyBytes предела} (после распаковки)
+ * отклоняются ответом 413; строки тела до превышения уже учтены.
+ * Каждый запрос обрабатывается в своём виртуальном потоке: строки разбираются прямо из буфера тела,
+ * записи подряд идущих одинаковых секунд складываются локально и добавляются в общие
+ * {@link ShardedSecondCounters} одной блокировкой полосы на секунду. Поэтому запросы многих клиентов разбираются
+ * параллельно и почти не ждут друг друга, а тысячи одновременных соединений стоят тысячи виртуальных потоков,
+ * а не потоков ОС.
+ * <p>
+ * Секунды, которые прошёл водяной знак (самая поздняя секунда минус допуск опоздания), по возрастанию
+ * передаются в {@link Analyzer} как при анализе по индексу: инцидент ищется по секундам целиком, строки одной
+ * секунды от разных клиентов не упорядочены. Инциденты выводятся в stdout, как обычно. Если строк нет дольше
+ * допуска, отдаются все накопленные секунды.
+ * <p>
+ * {@code GET /status} - JSON с доступностью по текущему окну, числом запросов в нём, счётчиками строк
+ * и незавершёнными инцидентами.
+ */
+public class IngestServer {
+    static final String INGEST_PATH = "/ingest";
+    static final String STATUS_PATH = "/status";
+
+    // Очередь соединений, ещё не принятых сервером
+    private static final int BACKLOG = 4096;
+    private static final int BODY_BUFFER_SIZE = 64 * 1024;
+    // Строка лога не длиннее буфера тела: буфер не растёт на теле без переводов строк
+    static final int MAX_LINE_LENGTH = BODY_BUFFER_SIZE;
+    static final long DEFAULT_MAX_BODY_BYTES = 64L * 1024 * 1024;
+    private static final long TICK_MILLIS = 1000;
+
+    private final Analyzer analyzer;
+    private final long responseTimeThresholdMs;
+    private final int latenessSeconds;
+    private final long openIncidentTimeoutMs;
+    private final ShardedSecondCounters counters;
+    // Analyzer однопоточный: секунды, статус и незавершённые инциденты - под этой блокировкой
+    private final ReentrantLock analyzerLock = new ReentrantLock();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ingest-ticker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder rejectedLines = new LongAdder();
+    private volatile long lastIngestMillis = System.currentTimeMillis();
+    private volatile boolean hasPendingSeconds = false;
+
+    // Счётчики для наблюдения за работой; null - не собираются
+    private AnalyzerMetrics metrics;
+    private long maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+
+    /**
+     * @param analyzer               анализатор без собственного источника, настроенный заранее (окно, формат вывода)
+     * @param latenessSeconds        на сколько секунд строки разных клиентов могут опаздывать друг относительно друга
+     * @param openIncidentTimeoutMs  через сколько незавершённый инцидент выводится с пометкой "open"
+     */
+    public IngestServer(InetSocketAddress address, Analyzer analyzer, long responseTimeThresholdMs,
+                        int latenessSeconds, long openIncidentTimeoutMs) throws IOException {
+        this.analyzer = analyzer;
+        this.responseTimeThresholdMs = responseTimeThresholdMs;
+        this.latenessSeconds = latenessSeconds;
+        this.openIncidentTimeoutMs = openIncidentTimeoutMs;
+        this.counters = new ShardedSecondCounters(latenessSeconds, this::analyzeSecond);
+        this.server = HttpServer.create(address, BACKLOG);
+        server.createContext(INGEST_PATH, this::handleIngest);
+        server.createContext(STATUS_PATH, this::handleStatus);
+        server.setExecutor(executor);
+    }
+
+    public void setMetrics(AnalyzerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Наибольший размер тела одного запроса в байтах; для сжатого тела - после распаковки.
+     */
+    public void setMaxBodyBytes(long maxBodyBytes) {
+        if (maxBodyBytes <= 0) {
+            throw new IllegalArgumentException("Размер тела должен быть положительным: " + maxBodyBytes);
+        }
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    public void start() {
+        server.start();
+        ticker.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Останавливает приём, отдаёт анализатору все накопленные секунды и завершает анализ.
+     */
+    public void stop() {
+        server.stop(0);
+        ticker.shutdownNow();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        counters.flush();
+        analyzerLock.lock();
+        try {
+            analyzer.finish();
+        } finally {
+            analyzerLock.unlock();
+        }
+        if (counters.getLateCount() > 0) {
+            System.err.println("Не учтено записей, опоздавших больше допуска: " + counters.getLateCount());
+        }
+    }
+
+    private void analyzeSecond(long epochSecond, long total, long failures) {
+        analyzerLock.lock();
+        try {
+            analyzer.processSecond(epochSecond, total, failures);
+        } finally {
+            analyzerLock.unlock();
+        }
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            if (hasPendingSeconds && now - lastIngestMillis > Math.max(TICK_MILLIS, latenessSeconds * 1000L)) {
+                // Клиенты молчат дольше допуска: опоздавших строк уже не ждём
+                hasPendingSeconds = false;
+                counters.flush();
+            } else {
+                counters.releaseReady();
+            }
+            analyzerLock.lock();
+            try {
+                analyzer.reportOpenIncident(now, openIncidentTimeoutMs);
+            } finally {
+                analyzerLock.unlock();
+            }
+        } catch (RuntimeException e) {
+            // Исключение отменило бы все следующие запуски
+            System.err.println("Ошибка анализа: " + e);
+        }
+    }
+
+    private void handleIngest(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                send(exchange, 405, "{\"error\":\"method not allowed\"}\n");
+                return;
+            }
+            String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (contentLength != null && contentLength.length() < 19 && Long.parseLong(contentLength) > maxBodyBytes) {
+                send(exchange, 413, "{\"error\":\"body too large\"}\n");
+                return;
+            }
+            boolean gzip = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            BatchParser batch = new BatchParser();
+            try {
+                // Заголовок gzip читается уже в конструкторе: битое тело - тоже ошибка запроса
+                InputStream body = exchange.getRequestBody();
+                batch.parse(gzip ? new GZIPInputStream(body, BODY_BUFFER_SIZE) : body);
+            } catch (RequestTooLargeException e) {
+                countBatch(batch);
+                send(exchange, 413, "{\"error\":\"" + e.getMessage() + "\"}\n");
+                return;
+            } catch (IOException e) {
+                send(exchange, 400, "{\"error\":\"" + e.getClass().getSimpleName() + "\"}\n");
+                return;
+            }
+            countBatch(batch);
+            send(exchange, 200, "{\"accepted\":" + (batch.lines - batch.rejected - batch.late)
+                    + ",\"rejected\":" + batch.rejected + ",\"late\":" + batch.late + "}\n");
+        }
+    }
+
+    private void countBatch(BatchParser batch) {
+        lines.add(batch.lines);
+        rejectedLines.add(batch.rejected);
+        if (metrics != null) {
+            metrics.addLines(batch.lines, batch.rejected, batch.bytes);
+            metrics.lateRecords(batch.late);
+        }
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                send(exchange, 405, "{\"error\":\"method not allowed\"}\n");
+                return;
+            }
+            ByteArrayOutputStream openIncidents = new ByteArrayOutputStream();
+            IncidentWriter writer = new IncidentWriter(openIncidents, IncidentFormat.JSONL);
+            double availability;
+            long windowRequests;
+            analyzerLock.lock();
+            try {
+                availability = analyzer.getWindowAvailability();
+                windowRequests = analyzer.getWindowRequests();
+                analyzer.writeOpenIncident(writer);
+            } finally {
+                analyzerLock.unlock();
+            }
+            writer.flush();
+            String incidents = openIncidents.toString(StandardCharsets.UTF_8).trim().replace("\n", ",");
+            send(exchange, 200, String.format(Locale.ROOT,
+                    "{\"availability\":%.3f,\"window_requests\":%d,\"lines\":%d,\"rejected_lines\":%d,"
+                            + "\"late_records\":%d,\"open_incidents\":[%s]}%n",
+                    availability, windowRequests, lines.sum(), rejectedLines.sum(), counters.getLateCount(), incidents));
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Разбор тела одного запроса: строки режутся в буфере, записи одной секунды подряд копятся локально.
+     */
+    private final class BatchParser {
+        private final LogParser parser = new LogParser();
+        private long lines = 0;
+        private long rejected = 0;
+        private long late = 0;
+        private long bytes = 0;
+
+        private long second = Long.MIN_VALUE;
+        private long secondTotal = 0;
+        private long secondFailures = 0;
+
+        void parse(InputStream body) throws IOException {
+            byte[] buf = new byte[BODY_BUFFER_SIZE];
+            ByteBuffer view = ByteBuffer.wrap(buf);
+            int filled = 0;
+            long bodyBytes = 0;
+            try {
+                while (true) {
+                    int read = body.read(buf, filled, buf.length - filled);
+                    if (read < 0) {
+                        break;
+                    }
+                    bodyBytes += read;
+                    if (bodyBytes > maxBodyBytes) {
+                        throw new RequestTooLargeException("body too large");
+                    }
+                    filled += read;
+                    int lineStart = 0;
+                    for (int i = filled - read; i < filled; i++) {
+                        if (buf[i] == '\n') {
+                            line(view, lineStart, i);
+                            lineStart = i + 1;
+                        }
+                    }
+                    // Незавершённая строка переносится в начало буфера; заняла весь буфер - слишком длинная
+                    System.arraycopy(buf, lineStart, buf, 0, filled - lineStart);
+                    filled -= lineStart;
+                    if (filled == MAX_LINE_LENGTH) {
+                        throw new RequestTooLargeException("line too long");
+                    }
+                }
+                if (filled > 0) {
+                    line(view, 0, filled);
+                }
+            } finally {
+                flushSecond();
+                if (lines > 0) {
+                    lastIngestMillis = System.currentTimeMillis();
+                    hasPendingSeconds = true;
+                }
+            }
+        }
+
+        private void line(ByteBuffer buf, int from, int to) {
+            lines++;
+            bytes += to - from + 1;
+            if (to > from && buf.get(to - 1) == '\r') {
+                to--;
+            }
+            if (!parser.parseLine(buf, from, to)) {
+                rejected++;
+                return;
+            }
+            long epochSecond = parser.getEpochSecond();
+            if (epochSecond != second) {
+                flushSecond();
+                second = epochSecond;
+            }
+            secondTotal++;
+            if (parser.isFailure(responseTimeThresholdMs)) {
+                secondFailures++;
+            }
+        }
+
+        private void flushSecond() {
+            if (secondTotal > 0 && !counters.add(second, secondTotal, secondFailures)) {
+                late += secondTotal;
+            }
+            secondTotal = 0;
+            secondFailures = 0;
+        }
+    }
+
+    /**
+     * Тело запроса или строка в нём больше допустимого.
+     */
+    private static final class RequestTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RequestTooLargeException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.farpost;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Независимый поиск инцидентов для каждого значения ключа группировки (пути, клиента и т.п.) за один проход.
+ * <p>
+ * Для каждого ключа работает та же логика, что и в {@link Analyzer}: скользящее окно по интервалам времени,
+ * как в {@link SlidingWindow}, и состояние инцидента {@link WindowIncidentState}. Ключи и их состояние хранятся
+ * вне кучи в {@link OffHeapKeyTable}, а состояние инцидента на время шага загружается в общий для всех ключей объект,
+ * поэтому при миллионах ключей не растут ни куча, ни паузы сборщика мусора, а поиск ключа разобранной строки
+ * ({@link #keyId(LogParser, GroupKey)}) не создаёт объектов.
+ * <p>
+ * Число ключей ограничено {@code maxKeys}: запросы с новыми ключами сверх лимита учитываются в общем
+ * ключе {@link #OVERFLOW_KEY}. Кроме того, можно задать бюджет памяти: когда он исчерпан, новый ключ вытесняет
+ * ключ, записи которого приходили давнее всех. Незавершённый инцидент вытесняемого ключа выводится, как в конце
+ * лога, а если ключ встретится снова, его окно начинается заново.
+ */
+public class KeyedIncidentDetector {
+    public static final String OVERFLOW_KEY = "(other)";
+
+    private static final byte[] OVERFLOW_KEY_BYTES = OVERFLOW_KEY.getBytes(StandardCharsets.UTF_8);
+    private static final long OVERFLOW_KEY_HASH = OffHeapKeyTable.hash(OVERFLOW_KEY_BYTES, OVERFLOW_KEY_BYTES.length);
+
+    // Состояние ключа в значении записи таблицы: смещения полей
+    private static final int NEWEST_BUCKET = 0;
+    private static final int WINDOW_TOTAL = 8;
+    private static final int WINDOW_FAILURES = 16;
+    // Состояние инцидента ключа, см. WindowIncidentState.store
+    private static final int STATE = 24;
+    // Скользящее окно: ячейка slot занимает SLOT_BYTES байт с SLOTS + slot * SLOT_BYTES - интервал, запросы, отказы
+    private static final int SLOTS = STATE + WindowIncidentState.BYTES;
+    private static final int SLOT_BYTES = 16;
+    private static final int SLOT_TOTAL = 8;
+    private static final int SLOT_FAILURES = 12;
+
+    private final int bucketSeconds;
+    // Число интервалов в окне, не считая текущего
+    private final int windowBuckets;
+    private final int slots;
+    private final int maxKeys;
+
+    private final OffHeapKeyTable table;
+    // Окно и состояние инцидента ключа, с которым идёт шаг
+    private final KeyWindow keyWindow = new KeyWindow();
+    private final WindowIncidentState state;
+    private int stateId;
+    private int overflowId = -1;
+    // Ключ разобранной строки, переиспользуется между вызовами
+    private byte[] keyBuffer = new byte[256];
+    // Ключ выводимого инцидента: отдельно от keyBuffer, потому что ключ вытесняется, пока в keyBuffer новый ключ
+    private byte[] incidentKeyBuffer = new byte[256];
+
+    private IncidentWriter writer = new IncidentWriter(System.out, IncidentFormat.TEXT);
+
+    public KeyedIncidentDetector(int windowSeconds, int maxKeys, double availabilityThreshold) {
+        this(windowSeconds, 1, maxKeys, availabilityThreshold);
+    }
+
+    /**
+     * Поиск с окном из интервалов по {@code bucketSeconds} секунд, как в {@link SlidingWindow}.
+     */
+    public KeyedIncidentDetector(int windowSeconds, int bucketSeconds, int maxKeys, double availabilityThreshold) {
+        this(windowSeconds, bucketSeconds, maxKeys, 0, availabilityThreshold);
+    }
+
+    /**
+     * Поиск, при котором ключи со своим состоянием занимают не больше {@code memoryBudgetBytes} байт
+     * (0 - без ограничения, кроме {@code maxKeys}); при нехватке вытесняются самые давние ключи.
+     */
+    public KeyedIncidentDetector(int windowSeconds, int bucketSeconds, int maxKeys, long memoryBudgetBytes,
+                                 double availabilityThreshold) {
+        if (bucketSeconds < 1 || windowSeconds < bucketSeconds || windowSeconds % bucketSeconds != 0) {
+            throw new IllegalArgumentException("Длина окна " + windowSeconds
+                    + " с должна быть кратна длине интервала " + bucketSeconds + " с");
+        }
+        this.bucketSeconds = bucketSeconds;
+        this.windowBuckets = windowSeconds / bucketSeconds;
+        this.slots = windowBuckets + 1;
+        this.maxKeys = maxKeys;
+        this.state = new WindowIncidentState(keyWindow, windowSeconds, bucketSeconds, availabilityThreshold,
+                this::writeIncident);
+        // Общему ключу нужна ещё одна запись
+        int maxEntries = maxKeys == Integer.MAX_VALUE ? maxKeys : maxKeys + 1;
+        this.table = new OffHeapKeyTable(SLOTS + slots * SLOT_BYTES, maxEntries, memoryBudgetBytes, this::evict);
+    }
+
+    /**
+     * Номер ключа; новый ключ сверх лимита получает номер общего ключа {@link #OVERFLOW_KEY}.
+     */
+    public int keyId(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return keyId(bytes, bytes.length);
+    }
+
+    /**
+     * Номер ключа группировки последней разобранной строки; в отличие от {@link #keyId(String)}, не создаёт объектов.
+     */
+    public int keyId(LogParser parser, GroupKey groupKey) {
+        int length = parser.copyGroupKey(groupKey, keyBuffer);
+        if (length > keyBuffer.length) {
+            keyBuffer = new byte[Math.max(length, keyBuffer.length * 2)];
+            parser.copyGroupKey(groupKey, keyBuffer);
+        }
+        return keyId(keyBuffer, length);
+    }
+
+    private int keyId(byte[] key, int length) {
+        long hash = OffHeapKeyTable.hash(key, length);
+        int id = table.find(key, length, hash);
+        if (id >= 0) {
+            return id;
+        }
+        if (table.size() - (overflowId >= 0 ? 1 : 0) >= maxKeys) {
+            if (overflowId < 0) {
+                overflowId = newKey(OVERFLOW_KEY_BYTES, OVERFLOW_KEY_BYTES.length, OVERFLOW_KEY_HASH);
+            } else {
+                table.find(OVERFLOW_KEY_BYTES, OVERFLOW_KEY_BYTES.length, OVERFLOW_KEY_HASH);
+            }
+            return overflowId;
+        }
+        return newKey(key, length, hash);
+    }
+
+    /**
+     * Задаёт вывод инцидентов; по умолчанию - текст в stdout.
+     */
+    public void setWriter(IncidentWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Число ключей в памяти, включая общий.
+     */
+    public int getKeyCount() {
+        return table.size();
+    }
+
+    /**
+     * Сколько раз ключ вытеснялся из-за нехватки бюджета памяти.
+     */
+    public long getEvictedKeyCount() {
+        return table.getEvictionCount();
+    }
+
+    public void add(int id, long epochSecond, boolean isFailure) {
+        // Окно и состояние ключа читаются прямо из буфера записи, без поиска куска таблицы на каждом поле
+        ByteBuffer entry = table.valueBuffer(id);
+        int base = table.valueOffset(id);
+        keyWindow.select(entry, base);
+        loadState(id, entry, base);
+        state.beforeAdd(epochSecond);
+        keyWindow.add(epochSecond, isFailure);
+        state.afterAdd(epochSecond, 1, isFailure ? 1 : 0);
+        state.store(entry, base + STATE);
+    }
+
+    /**
+     * Выводит незавершённые к концу лога инциденты в порядке появления ключей.
+     */
+    public void finish() {
+        // Номер записи вытесненного ключа переходит к новому, поэтому порядок появления - по порядковому номеру ключа
+        int activeCount = 0;
+        long[] active = new long[table.size()];
+        for (int id = 0; id < table.getIdLimit(); id++) {
+            if (table.isUsed(id)) {
+                loadState(id, table.valueBuffer(id), table.valueOffset(id));
+                if (state.isIncidentActive()) {
+                    active[activeCount++] = table.getSequence(id) << OffHeapKeyTable.ID_BITS | id;
+                }
+            }
+        }
+        Arrays.sort(active, 0, activeCount);
+        for (int i = 0; i < activeCount; i++) {
+            finishKey((int) (active[i] & ((1 << OffHeapKeyTable.ID_BITS) - 1)));
+        }
+        writer.flush();
+    }
+
+    private int newKey(byte[] key, int length, long hash) {
+        int id = table.add(key, length, hash);
+        ByteBuffer entry = table.valueBuffer(id);
+        int base = table.valueOffset(id);
+        entry.putLong(base + NEWEST_BUCKET, Long.MIN_VALUE);
+        for (int slot = 0; slot < slots; slot++) {
+            entry.putLong(base + SLOTS + slot * SLOT_BYTES, Long.MIN_VALUE);
+        }
+        state.reset();
+        state.store(entry, base + STATE);
+        return id;
+    }
+
+    // Ключ вытесняется из таблицы: его незавершённый инцидент выводится, как в конце лога
+    private void evict(int id) {
+        if (id == overflowId) {
+            overflowId = -1;
+        }
+        finishKey(id);
+    }
+
+    private void finishKey(int id) {
+        ByteBuffer entry = table.valueBuffer(id);
+        int base = table.valueOffset(id);
+        keyWindow.select(entry, base);
+        loadState(id, entry, base);
+        state.finish();
+        state.store(entry, base + STATE);
+    }
+
+    // Загружает состояние ключа id в state; слушатель state выводит инциденты с ключом stateId
+    private void loadState(int id, ByteBuffer entry, int base) {
+        state.load(entry, base + STATE);
+        stateId = id;
+    }
+
+    private void writeIncident(long startSecond, long endSecond, long total, long failures,
+                               long worstSecond, double worstAvailability) {
+        int length = table.copyKey(stateId, incidentKeyBuffer);
+        if (length > incidentKeyBuffer.length) {
+            incidentKeyBuffer = new byte[Math.max(length, incidentKeyBuffer.length * 2)];
+            table.copyKey(stateId, incidentKeyBuffer);
+        }
+        writer.write(startSecond, endSecond, total, failures, worstSecond, worstAvailability, null,
+                incidentKeyBuffer, length, false);
+    }
+
+    // Смещение ячейки окна для интервала bucket
+    private int slotOffset(long bucket) {
+        return SLOTS + (int) Math.floorMod(bucket, (long) slots) * SLOT_BYTES;
+    }
+
+    /**
+     * Окно ключа в буфере записи таблицы, выбранное {@link #select}: то же, что {@link SlidingWindow},
+     * без времени ответа.
+     */
+    private final class KeyWindow implements WindowCounts {
+        private ByteBuffer entry;
+        private int base;
+
+        void select(ByteBuffer entry, int base) {
+            this.entry = entry;
+            this.base = base;
+        }
+
+        // То же, что SlidingWindow.add
+        void add(long epochSecond, boolean isFailure) {
+            long bucket = Math.floorDiv(epochSecond, bucketSeconds);
+            long newestBucket = entry.getLong(base + NEWEST_BUCKET);
+            if (bucket > newestBucket) {
+                // Новые интервалы занимают ровно те ячейки, интервалы которых вышли за окно
+                long newIntervals = newestBucket == Long.MIN_VALUE ? slots : Math.min(bucket - newestBucket, slots);
+                for (long b = bucket - newIntervals + 1; b <= bucket; b++) {
+                    int slot = slotOffset(b);
+                    if (entry.getLong(base + slot) != Long.MIN_VALUE) {
+                        entry.putLong(base + WINDOW_TOTAL,
+                                entry.getLong(base + WINDOW_TOTAL) - entry.getInt(base + slot + SLOT_TOTAL));
+                        entry.putLong(base + WINDOW_FAILURES,
+                                entry.getLong(base + WINDOW_FAILURES) - entry.getInt(base + slot + SLOT_FAILURES));
+                        entry.putInt(base + slot + SLOT_TOTAL, 0);
+                        entry.putInt(base + slot + SLOT_FAILURES, 0);
+                        entry.putLong(base + slot, Long.MIN_VALUE);
+                    }
+                }
+                entry.putLong(base + NEWEST_BUCKET, bucket);
+            } else if (bucket < newestBucket - windowBuckets) {
+                bucket = newestBucket;
+            }
+            int slot = slotOffset(bucket);
+            entry.putLong(base + slot, bucket);
+            entry.putInt(base + slot + SLOT_TOTAL, entry.getInt(base + slot + SLOT_TOTAL) + 1);
+            entry.putLong(base + WINDOW_TOTAL, entry.getLong(base + WINDOW_TOTAL) + 1);
+            if (isFailure) {
+                entry.putInt(base + slot + SLOT_FAILURES, entry.getInt(base + slot + SLOT_FAILURES) + 1);
+                entry.putLong(base + WINDOW_FAILURES, entry.getLong(base + WINDOW_FAILURES) + 1);
+            }
+        }
+
+        @Override
+        public long getTotal() {
+            return entry.getLong(base + WINDOW_TOTAL);
+        }
+
+        @Override
+        public long getFailures() {
+            return entry.getLong(base + WINDOW_FAILURES);
+        }
+
+        @Override
+        public long getTotalAt(long epochSecond) {
+            return countAt(epochSecond, SLOT_TOTAL);
+        }
+
+        @Override
+        public long getFailuresAt(long epochSecond) {
+            return countAt(epochSecond, SLOT_FAILURES);
+        }
+
+        @Override
+        public long bucketStart(long epochSecond) {
+            return Math.floorDiv(epochSecond, bucketSeconds) * bucketSeconds;
+        }
+
+        @Override
+        public boolean isSameBucket(long epochSecond, long otherEpochSecond) {
+            return Math.floorDiv(epochSecond, bucketSeconds) == Math.floorDiv(otherEpochSecond, bucketSeconds);
+        }
+
+        @Override
+        public long getTotalSince(long epochSecond) {
+            return countSince(epochSecond, SLOT_TOTAL);
+        }
+
+        @Override
+        public long getFailuresSince(long epochSecond) {
+            return countSince(epochSecond, SLOT_FAILURES);
+        }
+
+        // Счётчик field ячейки интервала секунды epochSecond; 0, если интервала нет в окне
+        private long countAt(long epochSecond, int field) {
+            long bucket = Math.floorDiv(epochSecond, bucketSeconds);
+            int slot = slotOffset(bucket);
+            return entry.getLong(base + slot) == bucket ? entry.getInt(base + slot + field) : 0;
+        }
+
+        // Сумма счётчика field по ячейкам окна начиная с интервала секунды epochSecond
+        private long countSince(long epochSecond, int field) {
+            long fromBucket = Math.floorDiv(epochSecond, bucketSeconds);
+            long sum = 0;
+            for (int slot = SLOTS; slot < SLOTS + slots * SLOT_BYTES; slot += SLOT_BYTES) {
+                if (entry.getLong(base + slot) >= fromBucket) {
+                    sum += entry.getInt(base + slot + field);
+                }
+            }
+            return sum;
+        }
+    }
+}
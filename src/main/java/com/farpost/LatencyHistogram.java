@@ -0,0 +1,94 @@
+package com.farpost;
+
+import java.util.Arrays;
+
+/**
+ * Гистограмма времени ответа с логарифмически-линейными корзинами, как в HdrHistogram.
+ * <p>
+ * Значения хранятся в микросекундах: до {@code 2 * SUB_BUCKET_HALF} мкс корзины шириной 1 мкс, дальше каждая
+ * степень двойки делится на {@code SUB_BUCKET_HALF} равных корзин. Процентиль возвращается серединой корзины,
+ * поэтому относительная погрешность не больше {@code 1 / (2 * SUB_BUCKET_HALF)}, то есть 0,8%. Размер массива фиксирован,
+ * запись не создаёт объектов, гистограммы складываются без потерь.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    // Значения больше ~12 суток считаются равными максимуму
+    private static final int MAX_VALUE_BITS = 40;
+    private static final long MAX_VALUE_MICROS = (1L << MAX_VALUE_BITS) - 1;
+    private static final int BUCKETS = bucketIndex(MAX_VALUE_MICROS) + 1;
+
+    private final long[] counts = new long[BUCKETS];
+    private long totalCount = 0;
+
+    /**
+     * Учитывает время ответа в миллисекундах. Отрицательные значения и NaN учитываются как ноль.
+     */
+    public void record(double responseTimeMs) {
+        long micros;
+        if (!(responseTimeMs > 0)) {
+            micros = 0;
+        } else if (responseTimeMs >= MAX_VALUE_MICROS / 1000.0) {
+            micros = MAX_VALUE_MICROS;
+        } else {
+            micros = (long) (responseTimeMs * 1000);
+        }
+        counts[bucketIndex(micros)]++;
+        totalCount++;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+    }
+
+    public void reset() {
+        if (totalCount > 0) {
+            Arrays.fill(counts, 0);
+            totalCount = 0;
+        }
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    /**
+     * Время ответа в миллисекундах, не больше которого у доли {@code quantile} запросов (середина корзины).
+     * Для пустой гистограммы 0.
+     */
+    public double getValueAtQuantile(double quantile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bucketMiddleMicros(i) / 1000.0;
+            }
+        }
+        return bucketMiddleMicros(BUCKETS - 1) / 1000.0;
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int) micros;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(micros)) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF + (int) (micros >>> shift);
+    }
+
+    private static double bucketMiddleMicros(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_HALF) / SUB_BUCKET_HALF;
+        long low = (long) (index - shift * SUB_BUCKET_HALF) << shift;
+        return low + ((1L << shift) - 1) / 2.0;
+    }
+}
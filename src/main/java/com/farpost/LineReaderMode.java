@@ -0,0 +1,25 @@
+package com.farpost;
+
+import java.util.Locale;
+
+/**
+ * Как читаются строки потока при последовательном анализе.
+ */
+public enum LineReaderMode {
+    // StreamLineReader: строки ASCII разбираются из байтов, остальные декодируются как UTF-8
+    BYTES,
+    // BufferedReader.readLine в кодировке платформы, как раньше
+    CHARS;
+
+    /**
+     * Режим по имени из командной строки без учёта регистра, {@code null} для неизвестного имени.
+     */
+    public static LineReaderMode fromName(String name) {
+        for (LineReaderMode mode : values()) {
+            if (mode.name().equals(name.toUpperCase(Locale.ROOT))) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
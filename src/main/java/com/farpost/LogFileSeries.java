@@ -0,0 +1,144 @@
+package com.farpost;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Серия ротированных файлов лога: каталог или glob-шаблон имени файла, например {@code /var/log/nginx/access.log*}.
+ * <p>
+ * Файлы упорядочиваются по времени первой корректной строки, а не по имени: у logrotate
+ * {@code access.log.10.gz} старше {@code access.log.2.gz}, и номер растёт к прошлому.
+ * Файлы без корректных строк в начале идут в конце в порядке имён.
+ */
+public final class LogFileSeries {
+    // Сколько строк в начале файла просматривается в поисках времени
+    private static final int MAX_PROBE_LINES = 1000;
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private LogFileSeries() {
+    }
+
+    /**
+     * Является ли {@code spec} серией файлов, а не одним файлом.
+     */
+    public static boolean isSeries(String spec) {
+        return isGlob(fileNamePart(spec)) || Files.isDirectory(Paths.get(spec));
+    }
+
+    /**
+     * Находит файлы серии и упорядочивает их по времени. Одиночный файл возвращается как есть.
+     */
+    public static List<Path> resolve(String spec) throws IOException {
+        List<Path> files = new ArrayList<>();
+        String name = fileNamePart(spec);
+        if (isGlob(name)) {
+            // Шаблон допускается только в имени файла, каталог указывается явно
+            String directory = spec.substring(0, spec.length() - name.length());
+            collect(Paths.get(directory.isEmpty() ? "." : directory), name, files);
+        } else if (Files.isDirectory(Paths.get(spec))) {
+            collect(Paths.get(spec), "*", files);
+        } else {
+            return List.of(Paths.get(spec));
+        }
+        return orderByTime(files);
+    }
+
+    /**
+     * Файлы без повторов в исходном порядке: один и тот же файл, указанный по-разному (например, явно и через
+     * шаблон), остаётся один раз.
+     */
+    public static List<Path> distinct(List<Path> files) throws IOException {
+        Set<Path> seen = new HashSet<>();
+        List<Path> result = new ArrayList<>(files.size());
+        for (Path file : files) {
+            if (seen.add(file.toRealPath())) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    static List<Path> orderByTime(List<Path> files) throws IOException {
+        List<Path> timed = new ArrayList<>();
+        List<Path> untimed = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        for (Path file : files) {
+            long firstSecond = firstEpochSecond(file);
+            if (firstSecond == Long.MIN_VALUE) {
+                untimed.add(file);
+            } else {
+                timed.add(file);
+                times.add(firstSecond);
+            }
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < timed.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.<Integer>comparingLong(times::get).thenComparing(timed::get));
+        untimed.sort(Comparator.naturalOrder());
+
+        List<Path> result = new ArrayList<>(files.size());
+        for (int index : order) {
+            result.add(timed.get(index));
+        }
+        result.addAll(untimed);
+        return result;
+    }
+
+    /**
+     * Время первой корректной строки файла в секундах эпохи или {@code Long.MIN_VALUE}, если её нет.
+     */
+    static long firstEpochSecond(Path file) throws IOException {
+        LogParser parser = new LogParser();
+        // Нужны только первые строки, а StreamLineReader читает поток до конца
+        try (InputStream in = CompressedLogInput.decompressIfNeeded(Files.newInputStream(file));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            for (int i = 0; i < MAX_PROBE_LINES && (line = reader.readLine()) != null; i++) {
+                if (parser.parseLine(line)) {
+                    return parser.getEpochSecond();
+                }
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static void collect(Path directory, String glob, List<Path> files) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+    }
+
+    private static String fileNamePart(String spec) {
+        int separator = Math.max(spec.lastIndexOf('/'), spec.lastIndexOf(File.separatorChar));
+        return spec.substring(separator + 1);
+    }
+
+    private static boolean isGlob(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(name.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
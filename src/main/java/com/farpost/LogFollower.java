@@ -0,0 +1,210 @@
+package com.farpost;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Слежение за растущим файлом лога, как {@code tail -F}.
+ * <p>
+ * Новые строки подаются в {@link Analyzer}, состояние которого сохраняется между чтениями, поэтому
+ * инцидент выводится сразу, как только доступность восстановилась. Ротация обрабатывается в обоих
+ * вариантах logrotate: при переименовании старый файл дочитывается до конца и открывается новый,
+ * при усечении чтение начинается с начала файла.
+ * <p>
+ * Файл опрашивается с адаптивной паузой: пока данные идут, паузы нет, при простое она растёт до
+ * {@link #MAX_POLL_INTERVAL_MS}, что ограничивает задержку от записи строки до её обработки.
+ * <p>
+ * Если у анализатора включены контрольные точки ({@link Analyzer#setCheckpoint}), состояние сохраняется
+ * по ходу чтения и при простое, а после перезапуска чтение продолжается с сохранённого места.
+ */
+public class LogFollower {
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final long MIN_POLL_INTERVAL_MS = 5;
+    private static final long MAX_POLL_INTERVAL_MS = 200;
+
+    private final Path path;
+    private final Analyzer analyzer;
+    private final long openIncidentTimeoutMs;
+
+    private volatile boolean stopped = false;
+    // Контрольная точка анализатора проверяется при первом открытии файла
+    private boolean isFirstOpen = true;
+
+    private FileChannel channel;
+    private Object fileKey;
+    private long position;
+    private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    public LogFollower(Path path, Analyzer analyzer, long openIncidentTimeoutMs) {
+        this.path = path;
+        this.analyzer = analyzer;
+        this.openIncidentTimeoutMs = openIncidentTimeoutMs;
+    }
+
+    /**
+     * Следит за файлом, пока не будет вызван {@link #stop()} или поток не будет прерван.
+     */
+    public void run() throws IOException {
+        long pollIntervalMs = MIN_POLL_INTERVAL_MS;
+        try {
+            while (!stopped && !Thread.currentThread().isInterrupted()) {
+                if (channel == null && !tryOpen()) {
+                    pollIntervalMs = idle(pollIntervalMs);
+                    continue;
+                }
+                if (readAvailable()) {
+                    pollIntervalMs = MIN_POLL_INTERVAL_MS;
+                    continue;
+                }
+                if (checkRotation()) {
+                    continue;
+                }
+                pollIntervalMs = idle(pollIntervalMs);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    private long idle(long pollIntervalMs) throws IOException {
+        analyzer.reportOpenIncident(System.currentTimeMillis(), openIncidentTimeoutMs);
+        saveCheckpointIfDue();
+        try {
+            Thread.sleep(pollIntervalMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Math.min(MAX_POLL_INTERVAL_MS, pollIntervalMs * 2);
+    }
+
+    private boolean tryOpen() throws IOException {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            fileKey = readFileKey();
+            position = 0;
+            buffer.clear();
+            if (isFirstOpen && analyzer.hasCheckpoint()) {
+                // Если файл сменился ротацией, пока анализатор не работал, состояние продолжается с начала нового
+                position = analyzer.restoreCheckpoint(channel, fileKey.toString(), true);
+            }
+            isFirstOpen = false;
+            return true;
+        } catch (NoSuchFileException e) {
+            // Файл ещё не создан или ротация в процессе
+            return false;
+        }
+    }
+
+    /**
+     * Читает всё, что появилось в файле, и подаёт завершённые строки анализатору.
+     *
+     * @return были ли прочитаны новые данные
+     */
+    private boolean readAvailable() throws IOException {
+        boolean readAny = false;
+        int read;
+        while ((read = channel.read(buffer, position)) > 0) {
+            position += read;
+            readAny = true;
+            processCompleteLines();
+            saveCheckpointIfDue();
+            if (!buffer.hasRemaining()) {
+                // Строка не помещается в буфер целиком: увеличиваем его
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        return readAny;
+    }
+
+    // Обрабатывает строки в буфере до последнего перевода строки, незавершённый хвост переносит в начало
+    private void processCompleteLines() {
+        int limit = buffer.position();
+        int lineStart = 0;
+        for (int i = 0; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                int lineEnd = (i > lineStart && buffer.get(i - 1) == '\r') ? i - 1 : i;
+                analyzer.processLine(buffer, lineStart, lineEnd);
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart > 0) {
+            buffer.flip();
+            buffer.position(lineStart);
+            buffer.compact();
+        }
+    }
+
+    // Незавершённая строка в буфере ещё не обработана: продолжать нужно с её начала
+    private void saveCheckpointIfDue() throws IOException {
+        if (channel != null && analyzer.isCheckpointDue()) {
+            analyzer.saveCheckpoint(channel, fileKey.toString(), position - buffer.position());
+        }
+    }
+
+    /**
+     * Проверяет, не был ли файл переименован или усечён.
+     *
+     * @return нужно ли сразу продолжить чтение
+     */
+    private boolean checkRotation() throws IOException {
+        if (channel.size() < position) {
+            // Усечение (copytruncate): начинаем с начала, незавершённую строку отбрасываем
+            position = 0;
+            buffer.clear();
+            return true;
+        }
+        Object currentKey;
+        try {
+            currentKey = readFileKey();
+        } catch (NoSuchFileException e) {
+            // Старый файл переименован, новый ещё не создан: продолжаем ждать
+            return false;
+        }
+        if (!Objects.equals(currentKey, fileKey)) {
+            // Переименование (create): пишущий процесс мог дописать в старый файл уже после последнего чтения,
+            // пока не открыл новый, поэтому старый файл дочитывается ещё раз
+            readAvailable();
+            // Последняя строка старого файла может быть без перевода строки
+            if (buffer.position() > 0) {
+                analyzer.processLine(buffer, 0, buffer.position());
+            }
+            close();
+            return tryOpen();
+        }
+        return false;
+    }
+
+    private Object readFileKey() throws IOException {
+        return fileKey(path);
+    }
+
+    /**
+     * Ключ файла (устройство и inode), по которому отличается новый файл под тем же именем.
+     */
+    static Object fileKey(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        // Если файловая система не даёт ключ файла, ротацию через переименование отличаем по времени создания
+        return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+    }
+
+    private void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
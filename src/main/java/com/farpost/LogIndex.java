@@ -0,0 +1,406 @@
+package com.farpost;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Индекс лога по секундам: лог разбирается один раз, после чего анализ с любыми {@code -u} и {@code -t}
+ * идёт по индексу без разбора текста.
+ * <p>
+ * Для каждой секунды хранятся её строки в порядке лога: у строки с ответом 5xx - код 0, у остальных - корзина
+ * времени ответа {@code ceil(время)} мс плюс один. Для целого порога {@code t} запрос медленный ровно тогда,
+ * когда его корзина больше {@code t}, поэтому для любых {@code -u} и {@code -t} восстанавливается та же
+ * последовательность отказов, что и при разборе лога, и анализ по индексу ({@link #forEachRecord}) даёт те же
+ * инциденты, что построчный. Числа кодируются varint, время секунды - разностью с предыдущей записью.
+ * <p>
+ * Формат файла: заголовок {@link #HEADER_SIZE} байт (сигнатура, длина и хеш начала лога для проверки, что лог
+ * тот же, сколько байт лога проиндексировано, последняя секунда и длина индекса), затем записи секунд
+ * в порядке лога. Заголовок пишется после записей, поэтому прерванное обновление не портит индекс.
+ * Когда лог дописывается, индекс дополняется с места остановки; последняя незавершённая строка
+ * не индексируется до следующего обновления. Сжатый лог дописываться не может и индексируется заново целиком.
+ */
+public final class LogIndex {
+    public static final String FILE_SUFFIX = ".idx";
+
+    // "FPIDX" и версия формата 2: строки секунды по порядку; индекс версии 1 с гистограммой секунды
+    // не восстанавливает порядок строк и перестраивается заново
+    private static final long MAGIC = 0x4650494458000002L;
+    static final int HEADER_SIZE = 48;
+    // Сколько байт начала лога хешируется для проверки, что это тот же лог
+    static final int FINGERPRINT_LENGTH = 4096;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Получает очередную строку индекса в порядке лога: её секунду и то, отказ ли она при заданном пороге.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void onRecord(long epochSecond, boolean isFailure);
+    }
+
+    /**
+     * Получает итоги очередной секунды индекса: число запросов и отказов для заданного порога времени ответа.
+     */
+    @FunctionalInterface
+    public interface SecondHandler {
+        void onSecond(long epochSecond, long total, long failures);
+    }
+
+    private LogIndex() {
+    }
+
+    /**
+     * Создаёт или дополняет индекс лога.
+     *
+     * @return сколько байт лога проиндексировано за этот вызов
+     */
+    public static long update(Path logFile, Path indexFile) throws IOException {
+        boolean compressed = CompressedLogInput.isCompressed(logFile);
+        try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.READ);
+             FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE)) {
+            long logSize = log.size();
+            Header header = readHeader(index);
+            boolean sameLog = header != null && logSize >= header.sourceOffset
+                    && fingerprint(log, header.fingerprintLength) == header.fingerprint;
+
+            long start = 0;
+            Writer writer;
+            if (sameLog && compressed && logSize == header.sourceOffset) {
+                return 0;
+            }
+            if (sameLog && !compressed) {
+                start = header.sourceOffset;
+                index.truncate(header.indexLength);
+                writer = new Writer(index, header.indexLength, header.lastSecond);
+            } else {
+                index.truncate(0);
+                writer = new Writer(index, HEADER_SIZE, 0);
+            }
+
+            long end;
+            LogParser parser = new LogParser();
+            if (compressed) {
+                try (InputStream in = CompressedLogInput.decompressIfNeeded(Files.newInputStream(logFile))) {
+                    new StreamLineReader(in).forEachLine(
+                            (buf, from, to) -> addRecord(writer, parser, parser.parseLine(buf, from, to)),
+                            (line, byteLength) -> addRecord(writer, parser, parser.parseLine(line)));
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                end = logSize;
+            } else {
+                end = lastLineEnd(log, start, logSize);
+                try {
+                    MappedLogReader.forEachLine(log, start, end, MappedLogReader.DEFAULT_REGION_SIZE,
+                            (buf, from, to) -> addRecord(writer, parser, parser.parseLine(buf, from, to)));
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+            writer.finish();
+            index.force(false);
+
+            int fingerprintLength = (int) Math.min(FINGERPRINT_LENGTH, end);
+            writeHeader(index, new Header(fingerprintLength, fingerprint(log, fingerprintLength),
+                    end, writer.lastSecond, writer.position));
+            index.force(false);
+            return end - start;
+        }
+    }
+
+    /**
+     * Обходит строки индекса в порядке лога: та же последовательность записей, что при разборе лога.
+     */
+    public static void forEachRecord(Path indexFile, long responseTimeThresholdMs, RecordHandler handler)
+            throws IOException {
+        ByteBuffer buf = mapBody(indexFile);
+        long second = 0;
+        while (buf.hasRemaining()) {
+            second += zigZagDecode(readVarLong(buf));
+            long lines = readVarLong(buf);
+            for (long i = 0; i < lines; i++) {
+                handler.onRecord(second, isFailure(readVarLong(buf), responseTimeThresholdMs));
+            }
+        }
+    }
+
+    /**
+     * Обходит секунды индекса в порядке лога. Соседние записи одной секунды объединяются.
+     */
+    public static void forEachSecond(Path indexFile, long responseTimeThresholdMs, SecondHandler handler) throws IOException {
+        ByteBuffer buf = mapBody(indexFile);
+        long second = 0;
+        boolean hasPending = false;
+        long pendingSecond = 0;
+        long pendingTotal = 0;
+        long pendingFailures = 0;
+        while (buf.hasRemaining()) {
+            second += zigZagDecode(readVarLong(buf));
+            long total = readVarLong(buf);
+            long failures = 0;
+            for (long i = 0; i < total; i++) {
+                if (isFailure(readVarLong(buf), responseTimeThresholdMs)) {
+                    failures++;
+                }
+            }
+
+            if (hasPending && second == pendingSecond) {
+                pendingTotal += total;
+                pendingFailures += failures;
+                continue;
+            }
+            if (hasPending) {
+                handler.onSecond(pendingSecond, pendingTotal, pendingFailures);
+            }
+            hasPending = true;
+            pendingSecond = second;
+            pendingTotal = total;
+            pendingFailures = failures;
+        }
+        if (hasPending) {
+            handler.onSecond(pendingSecond, pendingTotal, pendingFailures);
+        }
+    }
+
+    // Добавляет в индекс разобранную строку; обработчик строк передаёт ошибку записи непроверяемой
+    private static void addRecord(Writer writer, LogParser parser, boolean parsed) {
+        if (parsed) {
+            try {
+                writer.add(parser.getEpochSecond(), parser.getStatusCode(), parser.getResponseTime());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Код строки: 0 - ответ 5xx, иначе корзина времени ответа плюс один
+    private static boolean isFailure(long code, long responseTimeThresholdMs) {
+        return code == 0 || code - 1 > responseTimeThresholdMs;
+    }
+
+    private static ByteBuffer mapBody(Path indexFile) throws IOException {
+        try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            Header header = readHeader(index);
+            if (header == null) {
+                throw new IOException("файл не является индексом лога этой версии, создайте его заново: " + indexFile);
+            }
+            long bodyLength = header.indexLength - HEADER_SIZE;
+            if (bodyLength > Integer.MAX_VALUE) {
+                throw new IOException("индекс больше 2 ГБ, разбейте лог на части: " + indexFile);
+            }
+            // Отображение остаётся доступным и после закрытия канала
+            return index.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, bodyLength);
+        }
+    }
+
+    /**
+     * Корзина времени ответа: {@code ceil(время)}, для неположительных значений и NaN - 0.
+     * Для целого {@code t >= 0} условие {@code время > t} равносильно {@code корзина > t}.
+     */
+    static int responseTimeBucket(double responseTimeMs) {
+        if (!(responseTimeMs > 0)) {
+            return 0;
+        }
+        if (responseTimeMs >= Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.ceil(responseTimeMs);
+    }
+
+    // Позиция после последнего перевода строки в [start, size) или start, если строк нет
+    private static long lastLineEnd(FileChannel channel, long start, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        long chunkEnd = size;
+        while (chunkEnd > start) {
+            long chunkStart = Math.max(start, chunkEnd - buf.capacity());
+            buf.clear().limit((int) (chunkEnd - chunkStart));
+            while (buf.hasRemaining() && channel.read(buf, chunkStart + buf.position()) >= 0) {
+                // читаем фрагмент целиком
+            }
+            for (int i = buf.position() - 1; i >= 0; i--) {
+                if (buf.get(i) == '\n') {
+                    return chunkStart + i + 1;
+                }
+            }
+            chunkEnd = chunkStart;
+        }
+        return start;
+    }
+
+    // FNV-1a по первым length байтам
+    static long fingerprint(FileChannel channel, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining() && channel.read(buf, buf.position()) >= 0) {
+            // читаем начало файла целиком
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < buf.position(); i++) {
+            hash ^= buf.get(i) & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static Header readHeader(FileChannel index) throws IOException {
+        if (index.size() < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        while (buf.hasRemaining() && index.read(buf, buf.position()) >= 0) {
+            // читаем заголовок целиком
+        }
+        buf.flip();
+        if (buf.getLong() != MAGIC) {
+            return null;
+        }
+        Header header = new Header(buf.getInt(), buf.getLong(), buf.getLong(), buf.getLong(), buf.getLong());
+        buf.getInt();
+        if (header.indexLength < HEADER_SIZE || header.indexLength > index.size()) {
+            return null;
+        }
+        return header;
+    }
+
+    private static void writeHeader(FileChannel index, Header header) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        buf.putLong(MAGIC)
+                .putInt(header.fingerprintLength)
+                .putLong(header.fingerprint)
+                .putLong(header.sourceOffset)
+                .putLong(header.lastSecond)
+                .putLong(header.indexLength)
+                .putInt(0);
+        buf.flip();
+        while (buf.hasRemaining()) {
+            index.write(buf, buf.position());
+        }
+    }
+
+    private static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(ByteBuffer buf) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buf.hasRemaining()) {
+                throw new IOException("индекс повреждён: запись обрывается");
+            }
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("индекс повреждён: слишком длинное число");
+    }
+
+    private static final class Header {
+        final int fingerprintLength;
+        final long fingerprint;
+        final long sourceOffset;
+        final long lastSecond;
+        final long indexLength;
+
+        Header(int fingerprintLength, long fingerprint, long sourceOffset, long lastSecond, long indexLength) {
+            this.fingerprintLength = fingerprintLength;
+            this.fingerprint = fingerprint;
+            this.sourceOffset = sourceOffset;
+            this.lastSecond = lastSecond;
+            this.indexLength = indexLength;
+        }
+    }
+
+    /**
+     * Копит строки текущей секунды и дописывает её запись в индекс, когда секунда меняется.
+     */
+    private static final class Writer {
+        private final FileChannel index;
+        private ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        private long position;
+        private long lastSecond;
+
+        private boolean hasSecond = false;
+        private long currentSecond;
+        // Коды строк секунды в порядке лога
+        private int[] codes = new int[1024];
+        private int lineCount;
+
+        Writer(FileChannel index, long position, long lastSecond) {
+            this.index = index;
+            this.position = position;
+            this.lastSecond = lastSecond;
+        }
+
+        void add(long epochSecond, int statusCode, double responseTimeMs) throws IOException {
+            if (!hasSecond || epochSecond != currentSecond) {
+                writeSecond();
+                hasSecond = true;
+                currentSecond = epochSecond;
+            }
+            if (lineCount == codes.length) {
+                codes = Arrays.copyOf(codes, codes.length * 2);
+            }
+            // Ответ 5xx - отказ при любом пороге, его время ответа не нужно
+            codes[lineCount++] = statusCode >= 500 ? 0 : responseTimeBucket(responseTimeMs) + 1;
+        }
+
+        void finish() throws IOException {
+            writeSecond();
+            flush();
+        }
+
+        private void writeSecond() throws IOException {
+            if (!hasSecond) {
+                return;
+            }
+            // Самая длинная запись: 2 числа заголовка и по числу на строку, до 10 байт каждое
+            ensureSpace(10L * (2 + lineCount));
+
+            long delta = currentSecond - lastSecond;
+            writeVarLong((delta << 1) ^ (delta >> 63));
+            writeVarLong(lineCount);
+            for (int i = 0; i < lineCount; i++) {
+                writeVarLong(codes[i] & 0xFFFFFFFFL);
+            }
+
+            lastSecond = currentSecond;
+            hasSecond = false;
+            lineCount = 0;
+        }
+
+        private void ensureSpace(long bytes) throws IOException {
+            if (out.remaining() < bytes) {
+                flush();
+            }
+            if (out.remaining() < bytes) {
+                // Секунда с очень большим числом строк не помещается в буфер
+                out = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, bytes));
+            }
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.put((byte) value);
+        }
+
+        private void flush() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                position += index.write(out, position);
+            }
+            out.clear();
+        }
+    }
+}
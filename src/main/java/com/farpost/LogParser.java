@@ -2,49 +2,529 @@ package com.farpost;
 
 import com.farpost.model.LogEntry;
 
-import java.time.LocalDateTime;
-import java.time.OffsetDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
-import java.util.Locale;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Разбор строк access-лога без регулярных выражений.
+ * <p>
+ * Строка разбирается побайтно за один проход: три поля до {@code [}, временная метка фиксированной
+ * ширины {@code dd/MM/yyyy:HH:mm:ss +ZZZZ}, запрос в кавычках, код ответа и время ответа.
+ * Принимаются и отвергаются ровно те же строки, что и у прежнего шаблона
+ * {@code ^\S+ \S+ \S+ \[(дата)] ".*?" (\d{3}) \S+ (\S+).*$} с разбором даты через {@code DateTimeFormatter}.
+ * <p>
+ * Результат последнего успешного разбора хранится в полях парсера, поэтому экземпляр не потокобезопасен.
+ */
 public class LogParser {
-    // регулярное выражение для захвата нужных полей
-    private static final Pattern LOG_PATTERN = Pattern.compile(
-            "^\\S+ \\S+ \\S+ \\[(\\d{2}/\\d{2}/\\d{4}:\\d{2}:\\d{2}:\\d{2} \\+\\d{4})] \".*?\" (\\d{3}) \\S+ (\\S+).*$"
-    );
+    // Длина временной метки "dd/MM/yyyy:HH:mm:ss +ZZZZ"
+    private static final int TIMESTAMP_LENGTH = 25;
 
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+    // Маркер для символов U+0085, U+2028 и U+2029 из строкового пути: это не пробелы, но и не символы для '.'.
+    // В корректном UTF-8 байт 0xFF не встречается, поэтому с байтовым путём он не конфликтует.
+    private static final byte LINE_TERMINATOR_MARKER = (byte) 0xFF;
+    // Заменитель прочих не-ASCII символов строкового пути: для разбора важно лишь, что это не пробел и не цифра.
+    private static final byte NON_ASCII_PLACEHOLDER = (byte) 0x80;
 
+    // Точные степени десяти: деление мантиссы < 2^53 на них даёт тот же результат, что Double.parseDouble.
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    // Поля результата последнего успешного разбора
+    private long epochSecond;
+    private int statusCode;
+    private double responseTime;
+
+    // Границы поля времени ответа, найденные matchTail
+    private int responseTimeStart;
+    private int responseTimeEnd;
+
+    // Границы полей для группировки: адрес клиента и запрос без кавычек
+    private ByteBuffer lineBuffer;
+    private String lineText;
+    private int clientStart;
+    private int clientEnd;
+    private int requestStart;
+    private int requestEnd;
+    private int lineEnd;
+
+    // Буфер для строкового пути, переиспользуется между вызовами
+    private byte[] scratch = new byte[512];
+    private ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch);
 
     /**
-     * Разбирает строку лога и определяет, является ли она отказом.
+     * Разбирает строку лога и определяет, является ли она отказом. Тот же разбор, что {@link #parseLine(String)}:
+     * пустой результат - ровно у тех строк, которые анализатор считает отвергнутыми
+     * ({@link AnalyzerMetrics#getRejectedLines}). Сам анализатор вызывает {@code parseLine}, чтобы не создавать
+     * объект на каждую строку.
      */
     public Optional<LogEntry> parse(String line, long responseTimeThresholdMs) {
-        Matcher matcher = LOG_PATTERN.matcher(line);
-        if (!matcher.matches()) {
+        if (!parseLine(line)) {
             return Optional.empty();
         }
+        return Optional.of(new LogEntry(epochSecond, isFailure(responseTimeThresholdMs)));
+    }
+
+    /**
+     * Разбирает строку лога, сохраняя поля в парсере.
+     *
+     * @return {@code true}, если строка корректна
+     */
+    public boolean parseLine(String line) {
+        int length = line.length();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+            scratchBuffer = ByteBuffer.wrap(scratch);
+        }
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c < 0x80) {
+                scratch[i] = (byte) c;
+            } else if (c == 0x0085 || c == 0x2028 || c == 0x2029) {
+                scratch[i] = LINE_TERMINATOR_MARKER;
+            } else {
+                scratch[i] = NON_ASCII_PLACEHOLDER;
+            }
+        }
+        boolean parsed = parseBytes(scratchBuffer, 0, length);
+        // Ключи группировки берутся из исходной строки, где не-ASCII символы не заменены
+        lineText = line;
+        return parsed;
+    }
+
+    /**
+     * Разбирает строку лога из диапазона байтов {@code [from, to)} буфера (без символа перевода строки),
+     * не создавая промежуточных объектов. Позиция и лимит буфера не изменяются.
+     *
+     * @return {@code true}, если строка корректна; поля доступны через геттеры до следующего вызова
+     */
+    public boolean parseLine(ByteBuffer buf, int from, int to) {
+        lineText = null;
+        return parseBytes(buf, from, to);
+    }
+
+    private boolean parseBytes(ByteBuffer buf, int from, int to) {
+        lineBuffer = buf;
+        clientStart = from;
+        lineEnd = to;
+
+        // Три поля, разделённые одиночными пробелами: адрес клиента, ident и пользователь
+        int pos = from;
+        for (int field = 0; field < 3; field++) {
+            int fieldStart = pos;
+            while (pos < to && !isWhitespace(buf.get(pos))) {
+                pos++;
+            }
+            if (pos == fieldStart || pos >= to || buf.get(pos) != ' ') {
+                return false;
+            }
+            if (field == 0) {
+                clientEnd = pos;
+            }
+            pos++;
+        }
 
-        try {
+        // [dd/MM/yyyy:HH:mm:ss +ZZZZ] "
+        if (to - pos < TIMESTAMP_LENGTH + 4 || buf.get(pos) != '[') {
+            return false;
+        }
+        int ts = pos + 1;
+        if (!parseTimestamp(buf, ts)) {
+            return false;
+        }
+        pos = ts + TIMESTAMP_LENGTH;
+        if (buf.get(pos) != ']' || buf.get(pos + 1) != ' ' || buf.get(pos + 2) != '"') {
+            return false;
+        }
+        pos += 3;
+        requestStart = pos;
 
-            OffsetDateTime offsetDateTime = OffsetDateTime.parse(matcher.group(1), DATE_FORMATTER);
+        // Запрос в кавычках: как и у ленивого ".*?", закрывающей считается первая кавычка,
+        // после которой удаётся разобрать остаток строки. Символы конца строки запрос не содержит.
+        for (; pos < to; pos++) {
+            byte b = buf.get(pos);
+            if (isLineTerminator(b)) {
+                return false;
+            }
+            if (b == '"' && matchTail(buf, pos + 1, to)) {
+                requestEnd = pos;
+                // Как и раньше, числа разбираются уже после совпадения шаблона:
+                // некорректное время ответа отвергает строку, а не ищет другую кавычку
+                try {
+                    responseTime = parseResponseTime(buf, responseTimeStart, responseTimeEnd);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
 
-            LocalDateTime timestamp = offsetDateTime.toLocalDateTime();
+    public long getEpochSecond() {
+        return epochSecond;
+    }
 
-            int statusCode = Integer.parseInt(matcher.group(2));
-            double responseTime = Double.parseDouble(matcher.group(3));
+    public int getStatusCode() {
+        return statusCode;
+    }
 
-            boolean isFailure = (statusCode >= 500) || (responseTime > responseTimeThresholdMs);
-            return Optional.of(new LogEntry(timestamp, isFailure));
-        } catch (DateTimeParseException | NumberFormatException e) {
+    public double getResponseTime() {
+        return responseTime;
+    }
 
-            return Optional.empty();
-        } catch (Exception e) {
-            return Optional.empty();
+    /**
+     * Значение ключа группировки для последней разобранной строки. В отличие от остального разбора,
+     * создаёт строку. Если в строке лога нужного поля нет, возвращается {@code "-"}, как в самом логе.
+     */
+    public String getGroupKey(GroupKey key) {
+        long range = groupKeyRange(key);
+        if (range < 0) {
+            return "-";
+        }
+        int start = (int) (range >>> 32);
+        int end = (int) range;
+        if (lineText != null) {
+            return lineText.substring(start, end);
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = lineBuffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Копирует ключ группировки последней разобранной строки в {@code target} байтами UTF-8, не создавая объектов.
+     * Ключ длиннее {@code target} не копируется целиком: возвращается его полная длина, и вызывающий повторяет
+     * вызов с буфером побольше.
+     *
+     * @return длина ключа в байтах; {@code "-"}, если поля в строке нет, как у {@link #getGroupKey}
+     */
+    public int copyGroupKey(GroupKey key, byte[] target) {
+        long range = groupKeyRange(key);
+        if (range < 0) {
+            if (target.length > 0) {
+                target[0] = '-';
+            }
+            return 1;
+        }
+        int start = (int) (range >>> 32);
+        int end = (int) range;
+        if (lineText != null) {
+            return encodeUtf8(lineText, start, end, target);
+        }
+        int length = end - start;
+        for (int i = 0; i < length && i < target.length; i++) {
+            target[i] = lineBuffer.get(start + i);
+        }
+        return length;
+    }
+
+    // Границы ключа в строке: начало в старших 32 битах, конец в младших; -1, если поля нет
+    private long groupKeyRange(GroupKey key) {
+        int start;
+        int end;
+        switch (key) {
+            case CLIENT:
+                start = clientStart;
+                end = clientEnd;
+                break;
+            case METHOD:
+                start = requestStart;
+                end = indexOf(' ', requestStart, requestEnd);
+                break;
+            case PATH: {
+                // "GET /path?query HTTP/1.1": второе слово запроса без строки параметров
+                int methodEnd = indexOf(' ', requestStart, requestEnd);
+                start = methodEnd < requestEnd ? methodEnd + 1 : requestStart;
+                end = indexOf(' ', start, requestEnd);
+                end = indexOf('?', start, end);
+                break;
+            }
+            case AGENT: {
+                // Комбинированный формат: после времени ответа идут "referer" "user-agent"
+                start = -1;
+                end = -1;
+                int refererEnd = quotedEnd(responseTimeEnd, lineEnd);
+                if (refererEnd >= 0) {
+                    int agentEnd = quotedEnd(refererEnd + 1, lineEnd);
+                    if (agentEnd >= 0) {
+                        start = refererEnd + 3;
+                        end = agentEnd;
+                    }
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Неизвестный ключ группировки: " + key);
         }
+        if (start < 0 || start >= end) {
+            return -1;
+        }
+        return (long) start << 32 | end;
+    }
+
+    // Как String.getBytes(UTF_8) для подстроки, но без создания массива: пишет в target, сколько поместится
+    private static int encodeUtf8(String text, int from, int to, byte[] target) {
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            int c = text.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, text.charAt(++i));
+            } else if (Character.isSurrogate((char) c)) {
+                // Непарный суррогат кодируется как '?'
+                c = '?';
+            }
+            if (c < 0x80) {
+                length = put(target, length, c);
+            } else if (c < 0x800) {
+                length = put(target, length, 0xC0 | c >> 6);
+                length = put(target, length, 0x80 | c & 0x3F);
+            } else if (c < 0x10000) {
+                length = put(target, length, 0xE0 | c >> 12);
+                length = put(target, length, 0x80 | c >> 6 & 0x3F);
+                length = put(target, length, 0x80 | c & 0x3F);
+            } else {
+                length = put(target, length, 0xF0 | c >> 18);
+                length = put(target, length, 0x80 | c >> 12 & 0x3F);
+                length = put(target, length, 0x80 | c >> 6 & 0x3F);
+                length = put(target, length, 0x80 | c & 0x3F);
+            }
+        }
+        return length;
+    }
+
+    private static int put(byte[] target, int position, int b) {
+        if (position < target.length) {
+            target[position] = (byte) b;
+        }
+        return position + 1;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int pos = from; pos < to; pos++) {
+            if (lineBuffer.get(pos) == c) {
+                return pos;
+            }
+        }
+        return to;
+    }
+
+    // Для ' "..."' начиная с pos возвращает позицию закрывающей кавычки или -1
+    private int quotedEnd(int pos, int to) {
+        if (to - pos < 3 || lineBuffer.get(pos) != ' ' || lineBuffer.get(pos + 1) != '"') {
+            return -1;
+        }
+        int end = indexOf('"', pos + 2, to);
+        return end < to ? end : -1;
+    }
+
+    /**
+     * Является ли последняя разобранная строка отказом: код 5xx или время ответа выше порога.
+     */
+    public boolean isFailure(long responseTimeThresholdMs) {
+        return isFailure(statusCode, responseTime, responseTimeThresholdMs);
+    }
+
+    /**
+     * Отказ ли запрос с HTTP-кодом {@code statusCode} и временем ответа {@code responseTime}: код 5xx
+     * или время ответа больше порога.
+     */
+    public static boolean isFailure(int statusCode, double responseTime, long responseTimeThresholdMs) {
+        return (statusCode >= 500) || (responseTime > responseTimeThresholdMs);
+    }
+
+    // " 200 2 44.510983 ..." после закрывающей кавычки запроса
+    private boolean matchTail(ByteBuffer buf, int pos, int to) {
+        if (to - pos < 8 || buf.get(pos) != ' ') {
+            return false;
+        }
+        int d0 = digit(buf.get(pos + 1));
+        int d1 = digit(buf.get(pos + 2));
+        int d2 = digit(buf.get(pos + 3));
+        if ((d0 | d1 | d2) < 0 || buf.get(pos + 4) != ' ') {
+            return false;
+        }
+        pos += 5;
+
+        // Размер ответа не используется, проверяем только, что он есть
+        int sizeStart = pos;
+        while (pos < to && !isWhitespace(buf.get(pos))) {
+            pos++;
+        }
+        if (pos == sizeStart || pos >= to || buf.get(pos) != ' ') {
+            return false;
+        }
+        pos++;
+
+        int timeStart = pos;
+        while (pos < to && !isWhitespace(buf.get(pos))) {
+            pos++;
+        }
+        if (pos == timeStart) {
+            return false;
+        }
+        int timeEnd = pos;
+        for (; pos < to; pos++) {
+            if (isLineTerminator(buf.get(pos))) {
+                return false;
+            }
+        }
+
+        statusCode = d0 * 100 + d1 * 10 + d2;
+        responseTimeStart = timeStart;
+        responseTimeEnd = timeEnd;
+        return true;
+    }
+
+    /**
+     * Десятичное число вида {@code [-+]?\d*.?\d*} разбирается напрямую, если результат гарантированно совпадает
+     * с {@link Double#parseDouble}. Остальные формы (экспонента, NaN, Infinity, шестнадцатеричные и т.п.)
+     * передаются в {@link Double#parseDouble}.
+     */
+    private static double parseResponseTime(ByteBuffer buf, int from, int to) {
+        int pos = from;
+        boolean negative = false;
+        byte first = buf.get(pos);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; pos < to; pos++) {
+            byte b = buf.get(pos);
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                continue;
+            }
+            int d = digit(b);
+            if (d < 0 || mantissa >= MAX_EXACT_MANTISSA / 10) {
+                return parseResponseTimeSlow(buf, from, to);
+            }
+            mantissa = mantissa * 10 + d;
+            digits++;
+            if (fractionDigits >= 0) {
+                fractionDigits++;
+            }
+        }
+        if (digits == 0 || fractionDigits >= POWERS_OF_TEN.length) {
+            return parseResponseTimeSlow(buf, from, to);
+        }
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : (double) mantissa;
+        return negative ? -value : value;
+    }
+
+    private static double parseResponseTimeSlow(ByteBuffer buf, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(from + i);
+        }
+        return Double.parseDouble(new String(bytes, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Разбирает "dd/MM/yyyy:HH:mm:ss +ZZZZ" с теми же правилами, что и
+     * {@code DateTimeFormatter.ofPattern("dd/MM/yyyy:HH:mm:ss Z")} в режиме SMART:
+     * день месяца приводится к длине месяца, 24:00:00 означает полночь следующего дня.
+     * Смещение только проверяется: в результат идёт локальное время строки.
+     */
+    private boolean parseTimestamp(ByteBuffer buf, int p) {
+        if (buf.get(p + 2) != '/' || buf.get(p + 5) != '/' || buf.get(p + 10) != ':'
+                || buf.get(p + 13) != ':' || buf.get(p + 16) != ':'
+                || buf.get(p + 19) != ' ' || buf.get(p + 20) != '+') {
+            return false;
+        }
+        int day = twoDigits(buf, p);
+        int month = twoDigits(buf, p + 3);
+        int yearHigh = twoDigits(buf, p + 6);
+        int yearLow = twoDigits(buf, p + 8);
+        int hour = twoDigits(buf, p + 11);
+        int minute = twoDigits(buf, p + 14);
+        int second = twoDigits(buf, p + 17);
+        int offsetHours = twoDigits(buf, p + 21);
+        int offsetMinutes = twoDigits(buf, p + 23);
+        if ((day | month | yearHigh | yearLow | hour | minute | second | offsetHours | offsetMinutes) < 0) {
+            return false;
+        }
+        int year = yearHigh * 100 + yearLow;
+
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > 31
+                || minute > 59 || second > 59 || offsetMinutes > 59
+                || offsetHours * 60 + offsetMinutes > 18 * 60) {
+            return false;
+        }
+        boolean nextDay = false;
+        if (hour == 24 && minute == 0 && second == 0) {
+            hour = 0;
+            nextDay = true;
+        } else if (hour > 23) {
+            return false;
+        }
+        day = Math.min(day, monthLength(year, month));
+
+        long epochDay = epochDay(year, month, day) + (nextDay ? 1 : 0);
+        epochSecond = epochDay * 86400 + hour * 3600 + minute * 60 + second;
+        return true;
+    }
+
+    private static int twoDigits(ByteBuffer buf, int p) {
+        int high = digit(buf.get(p));
+        int low = digit(buf.get(p + 1));
+        return (high | low) < 0 ? -1 : high * 10 + low;
+    }
+
+    private static int monthLength(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    // Тот же расчёт, что и LocalDate.toEpochDay()
+    private static long epochDay(int year, int month, int day) {
+        long y = year;
+        long total = 365 * y;
+        total += (y + 3) / 4 - (y + 99) / 100 + (y + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (!isLeapYear(year)) {
+                total--;
+            }
+        }
+        return total - 719528; // дней от 0000-01-01 до 1970-01-01
+    }
+
+    private static int digit(byte b) {
+        int d = b - '0';
+        return (d >= 0 && d <= 9) ? d : -1;
+    }
+
+    // \s в регулярных выражениях Java по умолчанию: [ \t\n\x0B\f\r]
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    // Символы, на которых останавливается '.' в регулярных выражениях Java
+    private static boolean isLineTerminator(byte b) {
+        return b == '\n' || b == '\r' || b == LINE_TERMINATOR_MARKER;
     }
-}
\ No newline at end of file
+}
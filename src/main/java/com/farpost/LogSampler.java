@@ -0,0 +1,289 @@
+package com.farpost;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Приблизительный анализ огромного лога по выборке: читаются только равномерно разнесённые по файлу куски
+ * по {@link #SAMPLE_BYTES} байт, в сумме заданная доля файла. Чтение и разбор растут с размером выборки,
+ * а не с размером файла.
+ * <p>
+ * Кусок - это подряд идущие строки, поэтому внутри него доступность по окну считается точно, как в
+ * {@link Analyzer}, начиная с секунды, для которой окно уже целиком внутри куска. Кусок подозрителен, если
+ * по окну в нём доступность падала ниже порога, а если кусок короче окна - если ниже порога доступность
+ * по всему куску. Подряд идущие подозрительные куски дают кандидата в инциденты: он может начаться после
+ * предыдущего нормального куска и закончиться перед следующим, поэтому границы кандидата - по ним.
+ * Доступность кандидата оценивается по запросам его кусков с 95% интервалом Уилсона. Отказ, который целиком
+ * уместился в промежуток между кусками - {@code SAMPLE_BYTES * (1 / доля - 1)} байт лога, - выборка не замечает.
+ * <p>
+ * Для кандидатов известны и диапазоны байтов между соседними нормальными кусками, их можно
+ * проанализировать точно ({@link Analyzer#runOverRange}).
+ */
+public final class LogSampler {
+    // Размер одного куска выборки
+    static final int SAMPLE_BYTES = 256 * 1024;
+    // Квантиль нормального распределения для 95% доверительного интервала
+    private static final double Z = 1.96;
+
+    /**
+     * Кандидат в инциденты: подряд идущие подозрительные куски выборки; кандидаты, между которыми только один
+     * нормальный кусок, объединяются.
+     */
+    public static final class Candidate {
+        private final long startSecond;
+        private final long endSecond;
+        private final long requests;
+        private final long failures;
+        private final long startOffset;
+        private final long endOffset;
+
+        Candidate(long startSecond, long endSecond, long requests, long failures, long startOffset, long endOffset) {
+            this.startSecond = startSecond;
+            this.endSecond = endSecond;
+            this.requests = requests;
+            this.failures = failures;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+        }
+
+        public long getStartSecond() {
+            return startSecond;
+        }
+
+        public long getEndSecond() {
+            return endSecond;
+        }
+
+        /**
+         * Запросов в кусках выборки кандидата.
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * Начало диапазона байтов для точного анализа; совпадает с началом строки.
+         */
+        public long getStartOffset() {
+            return startOffset;
+        }
+
+        public long getEndOffset() {
+            return endOffset;
+        }
+
+        /**
+         * Доступность по запросам выборки в процентах.
+         */
+        public double getAvailability() {
+            return 100.0 * (requests - failures) / requests;
+        }
+
+        /**
+         * 95% интервал Уилсона для доступности в процентах: {нижняя граница, верхняя граница}.
+         */
+        public double[] getAvailabilityBounds() {
+            return wilsonBounds(requests - failures, requests);
+        }
+    }
+
+    // Итоги одного куска выборки
+    private static final class Sample {
+        long firstLineOffset;
+        long endOffset;
+        long firstSecond = Long.MIN_VALUE;
+        long lastSecond;
+        long requests;
+        long failures;
+        // Наименьшая доступность по окну; MAX_VALUE - окно ни разу не поместилось в кусок целиком
+        double minWindowAvailability = Double.MAX_VALUE;
+    }
+
+    private final Path logFile;
+    private final double availabilityThreshold;
+    private final long responseTimeThresholdMs;
+    private final LogParser parser = new LogParser();
+    private int windowSeconds = 1;
+    private int bucketSeconds = 1;
+
+    public LogSampler(Path logFile, double availabilityThreshold, long responseTimeThresholdMs) {
+        this.logFile = logFile;
+        this.availabilityThreshold = availabilityThreshold;
+        this.responseTimeThresholdMs = responseTimeThresholdMs;
+    }
+
+    /**
+     * Окно анализа, как {@link Analyzer#setWindow}.
+     */
+    public void setWindow(int windowSeconds, int bucketSeconds) {
+        this.windowSeconds = windowSeconds;
+        this.bucketSeconds = bucketSeconds;
+    }
+
+    /**
+     * Читает выборку - долю {@code fraction} файла - и находит кандидатов в инциденты в порядке файла.
+     */
+    public List<Candidate> findCandidates(double fraction) throws IOException {
+        List<Sample> samples = new ArrayList<>();
+        long size;
+        long lastSecond = Long.MIN_VALUE;
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            size = channel.size();
+            long count = Math.max(1, (long) Math.ceil(fraction * size / SAMPLE_BYTES));
+            ByteBuffer buf = ByteBuffer.allocate(SAMPLE_BYTES + 1);
+            for (long i = 0; i < count; i++) {
+                Sample sample = readSample(channel, size * i / count, buf);
+                if (sample != null) {
+                    samples.add(sample);
+                }
+            }
+            // Время конца файла - для кандидата, после которого нормальных кусков нет; в выборку хвост не входит
+            Sample tail = readSample(channel, Math.max(0, size - SAMPLE_BYTES), buf);
+            if (tail != null) {
+                lastSecond = tail.lastSecond;
+            }
+        }
+        return groupCandidates(samples, size, lastSecond);
+    }
+
+    // Кусок с позиции start: с первой строки, которая в нём начинается, до последней, которая в нём кончается
+    private Sample readSample(FileChannel channel, long start, ByteBuffer buf) throws IOException {
+        // Байт перед куском показывает, начинается ли строка прямо с start
+        long readFrom = Math.max(0, start - 1);
+        buf.clear();
+        while (buf.hasRemaining() && channel.read(buf, readFrom + buf.position()) > 0) {
+            // читаем кусок целиком
+        }
+        int limit = buf.position();
+        int pos = 0;
+        if (start > 0) {
+            while (pos < limit && buf.get(pos) != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+        Sample sample = new Sample();
+        sample.firstLineOffset = readFrom + pos;
+        sample.endOffset = sample.firstLineOffset;
+        SlidingWindow window = new SlidingWindow(windowSeconds, bucketSeconds, false);
+        boolean endOfFile = readFrom + limit == channel.size();
+        int lineStart = pos;
+        for (int i = pos; i <= limit; i++) {
+            boolean lineEnds = i < limit ? buf.get(i) == '\n' : endOfFile && i > lineStart;
+            if (!lineEnds) {
+                continue;
+            }
+            int lineEnd = i > lineStart && buf.get(i - 1) == '\r' ? i - 1 : i;
+            if (parser.parseLine(buf, lineStart, lineEnd)) {
+                addRecord(sample, window, parser.getEpochSecond(), parser.isFailure(responseTimeThresholdMs));
+            }
+            sample.endOffset = readFrom + Math.min(i + 1, limit);
+            lineStart = i + 1;
+        }
+        return sample.requests > 0 ? sample : null;
+    }
+
+    private void addRecord(Sample sample, SlidingWindow window, long epochSecond, boolean isFailure) {
+        if (sample.firstSecond == Long.MIN_VALUE) {
+            sample.firstSecond = epochSecond;
+        }
+        sample.lastSecond = Math.max(sample.lastSecond, epochSecond);
+        sample.requests++;
+        if (isFailure) {
+            sample.failures++;
+        }
+        window.add(epochSecond, isFailure);
+        // Первая секунда куска прочитана не с начала: окно, которое её захватывает, неполное
+        if (window.bucketStart(epochSecond) - windowSeconds > sample.firstSecond) {
+            double availability = 100.0 * (window.getTotal() - window.getFailures()) / window.getTotal();
+            sample.minWindowAvailability = Math.min(sample.minWindowAvailability, availability);
+        }
+    }
+
+    private boolean isSuspicious(Sample sample) {
+        if (sample.minWindowAvailability != Double.MAX_VALUE) {
+            return sample.minWindowAvailability < availabilityThreshold;
+        }
+        return 100.0 * (sample.requests - sample.failures) / sample.requests < availabilityThreshold;
+    }
+
+    // Кандидат в конце выборки продолжается до конца файла: size и lastSecond - размер и время последних строк
+    private List<Candidate> groupCandidates(List<Sample> samples, long size, long lastSecond) {
+        List<Candidate> candidates = new ArrayList<>();
+        int i = 0;
+        while (i < samples.size()) {
+            if (!isSuspicious(samples.get(i))) {
+                i++;
+                continue;
+            }
+            int first = i;
+            long requests = 0;
+            long failures = 0;
+            while (i < samples.size() && isSuspicious(samples.get(i))) {
+                requests += samples.get(i).requests;
+                failures += samples.get(i).failures;
+                i++;
+            }
+            int last = i - 1;
+            // Границы - по соседним нормальным кускам: между ними инцидент мог начаться и закончиться
+            Sample before = first > 0 ? samples.get(first - 1) : null;
+            Sample after = i < samples.size() ? samples.get(i) : null;
+            long startSecond = before != null ? before.lastSecond : samples.get(first).firstSecond;
+            long startOffset = before != null ? before.firstLineOffset : 0;
+            Candidate previous = candidates.isEmpty() ? null : candidates.get(candidates.size() - 1);
+            if (previous != null && startOffset < previous.endOffset) {
+                // Между кандидатами один нормальный кусок: диапазоны пересекаются, точный анализ - одним диапазоном
+                candidates.remove(candidates.size() - 1);
+                startSecond = previous.startSecond;
+                startOffset = previous.startOffset;
+                requests += previous.requests;
+                failures += previous.failures;
+            }
+            candidates.add(new Candidate(startSecond,
+                    after != null ? after.firstSecond : Math.max(samples.get(last).lastSecond, lastSecond),
+                    requests, failures, startOffset, after != null ? after.endOffset : size));
+        }
+        return candidates;
+    }
+
+    /**
+     * Печатает кандидатов строками "~начало конец доступность [нижняя-верхняя] n=запросов выборки".
+     */
+    public static void print(List<Candidate> candidates, PrintStream out) {
+        for (Candidate candidate : candidates) {
+            double[] bounds = candidate.getAvailabilityBounds();
+            out.printf(Locale.ROOT, "~%s %s %.1f [%.1f-%.1f] n=%d%n", formatTime(candidate.getStartSecond()),
+                    formatTime(candidate.getEndSecond()), candidate.getAvailability(), bounds[0], bounds[1],
+                    candidate.getRequests());
+        }
+    }
+
+    private static String formatTime(long epochSecond) {
+        long secondOfDay = Math.floorMod(epochSecond, 86400L);
+        return String.format("%02d:%02d:%02d", secondOfDay / 3600, secondOfDay / 60 % 60, secondOfDay % 60);
+    }
+
+    /**
+     * 95% интервал Уилсона для доли {@code successes} из {@code total} в процентах.
+     */
+    static double[] wilsonBounds(long successes, long total) {
+        double n = total;
+        double p = successes / n;
+        double z2 = Z * Z;
+        double denominator = 1 + z2 / n;
+        double center = (p + z2 / (2 * n)) / denominator;
+        double halfWidth = Z * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n)) / denominator;
+        return new double[]{100.0 * Math.max(0, center - halfWidth), 100.0 * Math.min(1, center + halfWidth)};
+    }
+}
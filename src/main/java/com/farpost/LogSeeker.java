@@ -0,0 +1,130 @@
+package com.farpost;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Поиск места в файле лога по времени: двоичный поиск по смещениям в байтах. В каждой пробе читается
+ * {@link #PROBE_BYTES} байт с середины отрезка и разбирается первая корректная строка, которая там начинается,
+ * поэтому до начала анализа читается O(log n) небольших кусков, а не файл.
+ * <p>
+ * Время в логе почти упорядочено: строка может быть раньше предыдущих, но не больше чем на допуск
+ * {@code slackSeconds}. Тогда перед строкой со временем меньше {@code t - slackSeconds} все строки раньше
+ * {@code t}, а после строки со временем больше {@code t + slackSeconds} - все позже {@code t}. По этим строкам
+ * и выбираются границы диапазона, так что строки на границах, пришедшие не по порядку, не теряются.
+ */
+public final class LogSeeker {
+    // Сколько байт читается за одну пробу; строки лога короче, длинная строка дочитывается
+    static final int PROBE_BYTES = 16 * 1024;
+
+    private final FileChannel channel;
+    private final LogParser parser = new LogParser();
+    private ByteBuffer buf = ByteBuffer.allocate(PROBE_BYTES);
+    // Смещение строки, найденной последней пробой, и её время
+    private long lineOffset;
+    private long lineSecond;
+
+    public LogSeeker(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Время первой корректной строки файла; {@code Long.MIN_VALUE}, если таких строк нет.
+     */
+    public long firstSecond() throws IOException {
+        return findLine(0, Long.MAX_VALUE, Long.MIN_VALUE) ? lineSecond : Long.MIN_VALUE;
+    }
+
+    /**
+     * Диапазон байтов {@code {начало, конец}}, в котором все строки со временем от {@code fromSecond} до
+     * {@code toSecond} включительно, если строки опаздывают не больше чем на {@code slackSeconds}.
+     * Границы совпадают с началом строки или концом файла.
+     */
+    public long[] findRange(long fromSecond, long toSecond, int slackSeconds) throws IOException {
+        long start = fromSecond < Long.MIN_VALUE + slackSeconds ? 0 : findFirstLineAtOrAfter(fromSecond - slackSeconds);
+        long end = toSecond > Long.MAX_VALUE - slackSeconds - 1
+                ? channel.size() : findFirstLineAtOrAfter(toSecond + slackSeconds + 1);
+        return new long[]{start, Math.max(start, end)};
+    }
+
+    /**
+     * Смещение первой корректной строки не раньше {@code epochSecond} после строки, найденной двоичным поиском;
+     * размер файла, если такой строки нет. Строки перед ней раньше {@code epochSecond}, если опаздывают не больше
+     * чем на допуск, - раньше {@code epochSecond} плюс допуск.
+     */
+    long findFirstLineAtOrAfter(long epochSecond) throws IOException {
+        // lo - начало строки раньше epochSecond (или начало файла), ответ после неё
+        long lo = 0;
+        long hi = channel.size();
+        while (hi - lo > PROBE_BYTES) {
+            long mid = lo + (hi - lo) / 2;
+            if (findLine(mid, hi, Long.MIN_VALUE) && lineSecond < epochSecond) {
+                lo = lineOffset;
+            } else {
+                hi = mid;
+            }
+        }
+        // Остаток отрезка - несколько строк: просматриваем подряд
+        return findLine(lo, Long.MAX_VALUE, epochSecond) ? lineOffset : channel.size();
+    }
+
+    // Первая корректная строка не раньше minSecond, которая начинается с позиции from или позже, но раньше limit.
+    // Находит смещение и время строки в lineOffset и lineSecond
+    private boolean findLine(long from, long limit, long minSecond) throws IOException {
+        long size = channel.size();
+        long position = from;
+        boolean atLineStart = from == 0;
+        while (position < size && position < limit) {
+            // Байт перед позицией показывает, начинается ли строка прямо с неё
+            long readFrom = atLineStart ? position : position - 1;
+            int filled = read(readFrom);
+            int lineStart = atLineStart ? 0 : -1;
+            for (int i = 0; i < filled; i++) {
+                if (buf.get(i) != '\n') {
+                    continue;
+                }
+                if (lineStart >= 0 && parseLine(lineStart, i, readFrom, minSecond)) {
+                    return true;
+                }
+                lineStart = i + 1;
+                if (readFrom + lineStart >= limit) {
+                    return false;
+                }
+            }
+            if (readFrom + filled == size) {
+                // Последняя строка файла может быть без перевода строки
+                return lineStart >= 0 && lineStart < filled && parseLine(lineStart, filled, readFrom, minSecond);
+            }
+            if (lineStart < 0) {
+                // Начала строки в буфере нет: продолжаем искать дальше
+                position = readFrom + filled;
+            } else if (lineStart == 0) {
+                // Строка не поместилась в буфер: читаем её заново буфером побольше
+                buf = ByteBuffer.allocate(buf.capacity() * 2);
+            } else {
+                position = readFrom + lineStart;
+                atLineStart = true;
+            }
+        }
+        return false;
+    }
+
+    private boolean parseLine(int from, int to, long readFrom, long minSecond) {
+        int end = to > from && buf.get(to - 1) == '\r' ? to - 1 : to;
+        if (!parser.parseLine(buf, from, end) || parser.getEpochSecond() < minSecond) {
+            return false;
+        }
+        lineOffset = readFrom + from;
+        lineSecond = parser.getEpochSecond();
+        return true;
+    }
+
+    private int read(long position) throws IOException {
+        buf.clear();
+        while (buf.hasRemaining() && channel.read(buf, position + buf.position()) > 0) {
+            // читаем буфер целиком или до конца файла
+        }
+        return buf.position();
+    }
+}
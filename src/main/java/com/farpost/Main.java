@@ -2,24 +2,239 @@ package com.farpost;
 
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import javax.management.JMException;
 
 public class Main {
+    // Через сколько секунд незавершённый инцидент в режиме слежения выводится с пометкой "open"
+    private static final long DEFAULT_OPEN_INCIDENT_TIMEOUT_SECONDS = 60;
+    // Допуск опоздания строк разных клиентов в режиме HTTP-сервера, если --lateness не задан
+    private static final int DEFAULT_SERVE_LATENESS_SECONDS = 2;
+    // Как часто сохраняется контрольная точка, если --checkpoint-interval не задан
+    private static final int DEFAULT_CHECKPOINT_INTERVAL_SECONDS = 10;
+    // Насколько строки могут идти не по порядку времени на границах --from и --to, если --lateness не задан
+    private static final int DEFAULT_SEEK_SLACK_SECONDS = 60;
+    // Настройки детекторов по умолчанию: период полураспада EWMA, скорость расхода бюджета и окна для неё
+    private static final int DEFAULT_EWMA_HALF_LIFE_SECONDS = 10;
+    private static final double DEFAULT_BURN_RATE = 14.4;
+    private static final int DEFAULT_BURN_LONG_WINDOW_SECONDS = 3600;
+    private static final int DEFAULT_BURN_SHORT_WINDOW_SECONDS = 300;
+    private static final DateTimeFormatter LOG_TIME_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy:HH:mm:ss");
+    // Сколько разных ключей учитывается при группировке, остальные объединяются в один
+    private static final int DEFAULT_MAX_GROUP_KEYS = 10_000;
+    // Перебор порогов в сообщениях о несовместимых флагах
+    private static final String SWEEP_FLAGS = "--sweep-u/--sweep-t";
+
     public static void main(String[] args) {
-        if (args.length != 4) {
-            printUsageAndExit();
+        if (args.length > 0 && "index".equals(args[0])) {
+            buildIndex(args);
+            return;
         }
-
         double availability = -1;
         long responseTime = -1;
+        String logFile = null;
+        // Остальные -f: несколько файлов допускаются только при слиянии
+        List<String> extraLogFiles = new ArrayList<>();
+        boolean merge = false;
+        boolean perNode = false;
+        int threads = 1;
+        boolean follow = false;
+        InetSocketAddress serveAddress = null;
+        long openIncidentTimeoutSeconds = DEFAULT_OPEN_INCIDENT_TIMEOUT_SECONDS;
+        GroupKey groupKey = null;
+        IncidentFormat format = IncidentFormat.TEXT;
+        LineReaderMode lineReaderMode = LineReaderMode.BYTES;
+        // 0 - по умолчанию: DEFAULT_MAX_GROUP_KEYS, а с бюджетом памяти ключей - без ограничения числа
+        int maxGroupKeys = 0;
+        // 0 - без бюджета памяти ключей группировки
+        long keyMemoryBytes = 0;
+        // 0 - по умолчанию IngestServer.DEFAULT_MAX_BODY_BYTES
+        long maxBodyBytes = 0;
+        boolean incidentPercentiles = false;
+        boolean latencyReport = false;
+        double[] sweepAvailabilities = null;
+        long[] sweepResponseTimes = null;
+        String indexFile = null;
+        long statsPeriodSeconds = 0;
+        // -1 - допуск опоздания выключен, записи анализируются в порядке лога
+        int latenessSeconds = -1;
+        // 0 - окно по умолчанию (Analyzer.ANALYSIS_WINDOW_SECONDS) из интервалов по секунде
+        int windowSeconds = 0;
+        int bucketSeconds = 1;
+        boolean jmx = false;
+        String metricsFile = null;
+        String checkpointFile = null;
+        int checkpointIntervalSeconds = DEFAULT_CHECKPOINT_INTERVAL_SECONDS;
+        // 0 - анализ всего файла, иначе доля файла для приблизительного анализа по выборке
+        double sampleFraction = 0;
+        boolean rescan = false;
+        // null - поиск по окну самого Analyzer со всеми режимами; заданный детектор получает записи через IncidentDetector
+        DetectorType detectorType = null;
+        // 0 и -1 - значения по умолчанию для выбранного детектора
+        int halfLifeSeconds = 0;
+        double burnRate = -1;
+        int burnLongWindowSeconds = 0;
+        int burnShortWindowSeconds = 0;
+        // Границы времени анализа, как заданы; null - без границы
+        String from = null;
+        String to = null;
 
-        for (int i = 0; i < args.length; i += 2) {
+        for (int i = 0; i < args.length; i++) {
             String flag = args[i];
-            String value = args[i + 1];
+            // Флаги без значения
+            if ("--follow".equals(flag)) {
+                follow = true;
+                continue;
+            }
+            if ("--percentiles".equals(flag)) {
+                incidentPercentiles = true;
+                continue;
+            }
+            if ("--latency-report".equals(flag)) {
+                latencyReport = true;
+                continue;
+            }
+            if ("--merge".equals(flag)) {
+                merge = true;
+                continue;
+            }
+            if ("--per-node".equals(flag)) {
+                perNode = true;
+                continue;
+            }
+            if ("--jmx".equals(flag)) {
+                jmx = true;
+                continue;
+            }
+            if ("--rescan".equals(flag)) {
+                rescan = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                printUsageAndExit();
+            }
+            String value = args[++i];
             try {
                 if ("-u".equals(flag)) {
                     availability = Double.parseDouble(value);
                 } else if ("-t".equals(flag)) {
                     responseTime = Long.parseLong(value);
+                } else if ("-f".equals(flag)) {
+                    if (logFile == null) {
+                        logFile = value;
+                    } else {
+                        extraLogFiles.add(value);
+                    }
+                } else if ("--serve".equals(flag)) {
+                    serveAddress = parseServeAddress(value);
+                } else if ("--index".equals(flag)) {
+                    indexFile = value;
+                } else if ("-j".equals(flag)) {
+                    threads = Integer.parseInt(value);
+                } else if ("--open-timeout".equals(flag)) {
+                    openIncidentTimeoutSeconds = Long.parseLong(value);
+                } else if ("--group-by".equals(flag)) {
+                    groupKey = GroupKey.fromName(value);
+                    if (groupKey == null) {
+                        printUsageAndExit();
+                    }
+                } else if ("--format".equals(flag)) {
+                    format = IncidentFormat.fromName(value);
+                    if (format == null) {
+                        printUsageAndExit();
+                    }
+                } else if ("--detector".equals(flag)) {
+                    detectorType = DetectorType.fromName(value);
+                    if (detectorType == null) {
+                        printUsageAndExit();
+                    }
+                } else if ("--half-life".equals(flag)) {
+                    halfLifeSeconds = parseDurationSeconds(value);
+                    if (halfLifeSeconds < 1) {
+                        printUsageAndExit();
+                    }
+                } else if ("--burn-rate".equals(flag)) {
+                    burnRate = Double.parseDouble(value);
+                    if (!(burnRate > 0)) {
+                        printUsageAndExit();
+                    }
+                } else if ("--burn-windows".equals(flag)) {
+                    String[] windows = value.split(",");
+                    if (windows.length != 2) {
+                        printUsageAndExit();
+                    }
+                    burnLongWindowSeconds = parseDurationSeconds(windows[0]);
+                    burnShortWindowSeconds = parseDurationSeconds(windows[1]);
+                    if (burnShortWindowSeconds < 1 || burnShortWindowSeconds > burnLongWindowSeconds) {
+                        printUsageAndExit();
+                    }
+                } else if ("--line-reader".equals(flag)) {
+                    lineReaderMode = LineReaderMode.fromName(value);
+                    if (lineReaderMode == null) {
+                        printUsageAndExit();
+                    }
+                } else if ("--lateness".equals(flag)) {
+                    latenessSeconds = Integer.parseInt(value);
+                    if (latenessSeconds < 0) {
+                        printUsageAndExit();
+                    }
+                } else if ("--window".equals(flag)) {
+                    windowSeconds = parseDurationSeconds(value);
+                } else if ("--bucket".equals(flag)) {
+                    bucketSeconds = parseDurationSeconds(value);
+                } else if ("--stats".equals(flag)) {
+                    statsPeriodSeconds = Long.parseLong(value);
+                } else if ("--metrics-file".equals(flag)) {
+                    metricsFile = value;
+                } else if ("--checkpoint".equals(flag)) {
+                    checkpointFile = value;
+                } else if ("--checkpoint-interval".equals(flag)) {
+                    checkpointIntervalSeconds = parseDurationSeconds(value);
+                } else if ("--from".equals(flag)) {
+                    from = value;
+                } else if ("--to".equals(flag)) {
+                    to = value;
+                } else if ("--sample".equals(flag)) {
+                    sampleFraction = Double.parseDouble(value);
+                    if (!(sampleFraction > 0 && sampleFraction <= 1)) {
+                        printUsageAndExit();
+                    }
+                } else if ("--max-keys".equals(flag)) {
+                    maxGroupKeys = Integer.parseInt(value);
+                    if (maxGroupKeys < 1) {
+                        printUsageAndExit();
+                    }
+                } else if ("--key-memory".equals(flag)) {
+                    keyMemoryBytes = parseSizeBytes(value);
+                    if (keyMemoryBytes < 1) {
+                        printUsageAndExit();
+                    }
+                } else if ("--max-body".equals(flag)) {
+                    maxBodyBytes = parseSizeBytes(value);
+                    if (maxBodyBytes < 1) {
+                        printUsageAndExit();
+                    }
+                } else if ("--sweep-u".equals(flag)) {
+                    sweepAvailabilities = Arrays.stream(value.split(",")).mapToDouble(Double::parseDouble).toArray();
+                } else if ("--sweep-t".equals(flag)) {
+                    sweepResponseTimes = Arrays.stream(value.split(",")).mapToLong(Long::parseLong).toArray();
                 } else {
                     printUsageAndExit();
                 }
@@ -29,22 +244,576 @@ public class Main {
             }
         }
 
-        if (availability < 0 || responseTime < 0) {
+        // Заданные режимы и флаги по именам - для проверки совместимости
+        boolean sweep = sweepAvailabilities != null || sweepResponseTimes != null;
+        Set<String> given = new HashSet<>();
+        addIf(given, logFile != null, "-f");
+        addIf(given, follow, "--follow");
+        addIf(given, threads > 1, "-j");
+        addIf(given, merge, "--merge");
+        addIf(given, serveAddress != null, "--serve");
+        addIf(given, indexFile != null, "--index");
+        addIf(given, groupKey != null, "--group-by");
+        addIf(given, incidentPercentiles, "--percentiles");
+        addIf(given, latencyReport, "--latency-report");
+        addIf(given, sweep, SWEEP_FLAGS);
+        addIf(given, format != IncidentFormat.TEXT, "--format");
+        addIf(given, latenessSeconds >= 0, "--lateness");
+        addIf(given, windowSeconds > 0, "--window");
+        addIf(given, checkpointFile != null, "--checkpoint");
+        addIf(given, sampleFraction > 0, "--sample");
+        addIf(given, detectorType != null, "--detector");
+        addIf(given, from != null || to != null, "--from/--to");
+
+        // Перебор порогов: недостающее измерение сетки берётся из -u или -t
+        if (sweep) {
+            if (sweepAvailabilities == null && availability >= 0) {
+                sweepAvailabilities = new double[]{availability};
+            }
+            if (sweepResponseTimes == null && responseTime >= 0) {
+                sweepResponseTimes = new long[]{responseTime};
+            }
+            check(sweepAvailabilities != null && sweepResponseTimes != null,
+                    "для перебора порогов нужны --sweep-u или -u и --sweep-t или -t");
+            check(Arrays.stream(sweepAvailabilities).allMatch(u -> u >= 0)
+                            && Arrays.stream(sweepResponseTimes).allMatch(t -> t >= 0),
+                    "пороги --sweep-u и --sweep-t не могут быть отрицательными");
+            rejectCombination(given, SWEEP_FLAGS, "--follow", "--group-by", "--percentiles", "--format");
+            availability = sweepAvailabilities[0];
+            responseTime = sweepResponseTimes[0];
+        }
+
+        check(availability >= 0 && responseTime >= 0, "пороги -u и -t обязательны и не могут быть отрицательными");
+        check(threads >= 1, "число потоков -j должно быть не меньше 1");
+        check(openIncidentTimeoutSeconds >= 0, "--open-timeout не может быть отрицательным");
+        check(statsPeriodSeconds >= 0, "период --stats не может быть отрицательным");
+        check(windowSeconds >= 0 && bucketSeconds >= 1, "--window и --bucket должны быть положительными");
+        check(windowSeconds > 0 || bucketSeconds == 1, "--bucket задаётся только вместе с --window");
+        check(windowSeconds == 0 || (windowSeconds >= bucketSeconds && windowSeconds % bucketSeconds == 0),
+                "--window должно быть кратно --bucket");
+
+        // Флаги, которые имеют смысл только с другим режимом
+        check(extraLogFiles.isEmpty() || merge, "несколько -f можно задать только с --merge");
+        check(!perNode || merge, "--per-node работает только с --merge");
+        check(!rescan || sampleFraction > 0, "--rescan работает только с --sample");
+        check((maxGroupKeys == 0 && keyMemoryBytes == 0) || groupKey != null,
+                "--max-keys и --key-memory работают только с --group-by");
+        check(maxBodyBytes == 0 || serveAddress != null, "--max-body работает только с --serve");
+        check(halfLifeSeconds == 0 || detectorType == DetectorType.EWMA, "--half-life работает только с --detector ewma");
+        check((burnRate <= 0 && burnLongWindowSeconds == 0) || detectorType == DetectorType.BURN_RATE,
+                "--burn-rate и --burn-windows работают только с --detector burn-rate");
+
+        // Режимы, которым нужен файл лога, а не stdin
+        check(!follow || logFile != null, "--follow требует файл -f");
+        check(!merge || logFile != null, "--merge требует файлы -f");
+        boolean singleFile = logFile != null && !LogFileSeries.isSeries(logFile);
+        check(checkpointFile == null || singleFile, "--checkpoint требует один файл -f, не каталог и не шаблон");
+        check(sampleFraction == 0 || singleFile, "--sample требует один файл -f, не каталог и не шаблон");
+        check((from == null && to == null) || singleFile, "--from и --to требуют один файл -f, не каталог и не шаблон");
+
+        // Несовместимые режимы
+        rejectCombination(given, "--follow", "-j");
+        rejectCombination(given, "--merge", "--follow", "-j", "--group-by", "--percentiles", "--latency-report",
+                SWEEP_FLAGS, "--index");
+        rejectCombination(given, "--serve", "-f", "--follow", "-j", "--merge", "--group-by", "--percentiles",
+                "--latency-report", SWEEP_FLAGS, "--index");
+        rejectCombination(given, "--index", "-f", "--follow", "-j", "--group-by", "--percentiles", "--latency-report",
+                SWEEP_FLAGS);
+        rejectCombination(given, "-j", "--group-by", "--percentiles", "--latency-report", SWEEP_FLAGS);
+        rejectCombination(given, "--group-by", "--percentiles");
+        rejectCombination(given, "--lateness", "--group-by", SWEEP_FLAGS, "--index");
+        rejectCombination(given, "--checkpoint", "--merge", "-j", "--group-by", "--percentiles", "--latency-report",
+                SWEEP_FLAGS, "--lateness");
+        rejectCombination(given, "--sample", "--follow", "--merge", "-j", "--group-by", "--percentiles",
+                "--latency-report", SWEEP_FLAGS, "--index", "--serve", "--checkpoint", "--lateness");
+        check(windowSeconds == 0 || detectorType == null || detectorType == DetectorType.WINDOW,
+                "--window работает только с окном: без --detector или с --detector window");
+        rejectCombination(given, "--detector", "--follow", "--merge", "-j", "--group-by", "--percentiles",
+                SWEEP_FLAGS, "--index", "--serve", "--sample", "--checkpoint", "--lateness");
+        rejectCombination(given, "--from/--to", "--follow", "--merge", "-j", "--index", "--serve", "--sample",
+                "--checkpoint");
+        if (maxGroupKeys == 0) {
+            maxGroupKeys = keyMemoryBytes > 0 ? Integer.MAX_VALUE : DEFAULT_MAX_GROUP_KEYS;
+        }
+
+        // Слежение возможно только за одним файлом
+        if (follow && LogFileSeries.isSeries(logFile)) {
             printUsageAndExit();
         }
+        // В режиме слежения файл может появиться позже
+        List<String> logSpecs = new ArrayList<>();
+        if (logFile != null) {
+            logSpecs.add(logFile);
+        }
+        logSpecs.addAll(extraLogFiles);
+        for (String spec : logSpecs) {
+            if (!follow && !LogFileSeries.isSeries(spec) && !Files.isRegularFile(Paths.get(spec))) {
+                System.err.println("Ошибка: файл не найден: " + spec);
+                printUsageAndExit();
+            }
+        }
+
+        Checkpointer checkpointer = null;
+        if (checkpointFile != null) {
+            try {
+                // Смещение в сжатом файле не соответствует строке: продолжать не с чего
+                if (!follow && CompressedLogInput.isCompressed(Paths.get(logFile))) {
+                    System.err.println("Ошибка: контрольные точки только для несжатого файла: " + logFile);
+                    printUsageAndExit();
+                }
+            } catch (IOException e) {
+                System.err.println("Ошибка чтения лога: " + e.getMessage());
+                System.exit(1);
+            }
+            checkpointer = new Checkpointer(Paths.get(checkpointFile), checkpointIntervalSeconds * 1000L);
+        }
+
+        long[] timeRange = null;
+        if (from != null || to != null) {
+            timeRange = resolveTimeRange(Paths.get(logFile), from, to);
+        }
+
+        if (sampleFraction > 0) {
+            sample(Paths.get(logFile), sampleFraction, rescan, availability, responseTime, windowSeconds, bucketSeconds,
+                    format);
+            return;
+        }
+
+        AnalyzerMetrics metrics = null;
+        if (statsPeriodSeconds > 0 || jmx || metricsFile != null) {
+            metrics = startMetrics(statsPeriodSeconds, jmx, metricsFile);
+        }
 
         try {
-            Analyzer analyzer = new Analyzer(System.in, availability, responseTime);
-            analyzer.run();
+            if (indexFile != null) {
+                Analyzer analyzer = new Analyzer(availability, responseTime);
+                if (windowSeconds > 0) {
+                    analyzer.setWindow(windowSeconds, bucketSeconds);
+                }
+                analyzer.setIncidentFormat(format);
+                if (metrics != null) {
+                    analyzer.setMetrics(metrics);
+                }
+                analyzer.runOverIndex(Paths.get(indexFile));
+                return;
+            }
+            if (serveAddress != null) {
+                Analyzer analyzer = new Analyzer(availability, responseTime);
+                if (windowSeconds > 0) {
+                    analyzer.setWindow(windowSeconds, bucketSeconds);
+                }
+                analyzer.setIncidentFormat(format);
+                if (metrics != null) {
+                    analyzer.setMetrics(metrics);
+                }
+                serve(serveAddress, analyzer, responseTime,
+                        latenessSeconds >= 0 ? latenessSeconds : DEFAULT_SERVE_LATENESS_SECONDS,
+                        openIncidentTimeoutSeconds * 1000,
+                        maxBodyBytes > 0 ? maxBodyBytes : IngestServer.DEFAULT_MAX_BODY_BYTES, metrics);
+                return;
+            }
+            if (follow) {
+                Analyzer analyzer = new Analyzer(availability, responseTime);
+                if (windowSeconds > 0) {
+                    analyzer.setWindow(windowSeconds, bucketSeconds);
+                }
+                analyzer.setIncidentFormat(format);
+                if (metrics != null) {
+                    analyzer.setMetrics(metrics);
+                }
+                if (latenessSeconds >= 0) {
+                    analyzer.setLateness(latenessSeconds);
+                }
+                if (groupKey != null) {
+                    setGrouping(analyzer, groupKey, maxGroupKeys, keyMemoryBytes);
+                }
+                analyzer.setLatencyPercentiles(incidentPercentiles, false);
+                if (checkpointer != null) {
+                    analyzer.setCheckpoint(checkpointer);
+                }
+                new LogFollower(Paths.get(logFile), analyzer, openIncidentTimeoutSeconds * 1000).run();
+                return;
+            }
+            Analyzer analyzer;
+            if (merge) {
+                // Логи узлов: каждый файл каждого -f - отдельный источник, записи сливаются по времени
+                List<Path> logFiles = new ArrayList<>();
+                for (String spec : logSpecs) {
+                    logFiles.addAll(LogFileSeries.resolve(spec));
+                }
+                // Файл, попавший в несколько -f, учитывается в объединении один раз
+                logFiles = LogFileSeries.distinct(logFiles);
+                if (logFiles.isEmpty()) {
+                    System.err.println("Ошибка: файлы не найдены: " + String.join(", ", logSpecs));
+                    printUsageAndExit();
+                }
+                analyzer = new Analyzer(logFiles, 1, availability, responseTime);
+                analyzer.setMerge(perNode);
+            } else if (logFile != null) {
+                // Каталог или шаблон: ротированные файлы анализируются как один лог в порядке времени
+                List<Path> logFiles = LogFileSeries.resolve(logFile);
+                if (logFiles.isEmpty()) {
+                    System.err.println("Ошибка: файлы не найдены: " + logFile);
+                    printUsageAndExit();
+                }
+                analyzer = new Analyzer(logFiles, threads, availability, responseTime);
+            } else {
+                // По умолчанию читаем из stdin, чтобы анализатор можно было ставить в конвейер
+                analyzer = new Analyzer(System.in, threads, availability, responseTime);
+            }
+            if (windowSeconds > 0) {
+                analyzer.setWindow(windowSeconds, bucketSeconds);
+            }
+            analyzer.setIncidentFormat(format);
+            analyzer.setLineReaderMode(lineReaderMode);
+            if (detectorType != null) {
+                analyzer.setDetector(createDetector(detectorType, availability, responseTime,
+                        windowSeconds > 0 ? windowSeconds : 1, bucketSeconds, halfLifeSeconds, burnRate,
+                        burnLongWindowSeconds, burnShortWindowSeconds, analyzer.getIncidentListener()));
+            }
+            if (groupKey != null) {
+                setGrouping(analyzer, groupKey, maxGroupKeys, keyMemoryBytes);
+            }
+            if (metrics != null) {
+                analyzer.setMetrics(metrics);
+            }
+            if (latenessSeconds >= 0) {
+                analyzer.setLateness(latenessSeconds);
+            }
+            analyzer.setLatencyPercentiles(incidentPercentiles, latencyReport);
+            if (sweep) {
+                analyzer.setThresholdSweep(sweepAvailabilities, sweepResponseTimes);
+            }
+            if (checkpointer != null) {
+                analyzer.setCheckpoint(checkpointer);
+            }
+            if (timeRange != null) {
+                analyzer.runOverTimeRange(timeRange[0], timeRange[1],
+                        latenessSeconds >= 0 ? latenessSeconds : DEFAULT_SEEK_SLACK_SECONDS);
+            } else {
+                analyzer.run();
+            }
+            if (checkpointer != null) {
+                // Последняя точка - на конце файла: дописанный лог анализируется с этого места
+                checkpointer.close();
+            }
         } catch (IOException e) {
-            System.err.println("Ошибка чтения из входного потока: " + e.getMessage());
+            System.err.println("Ошибка чтения лога: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Бюджет памяти ключей проверяется по размеру состояния ключа, который зависит от окна
+    private static void setGrouping(Analyzer analyzer, GroupKey groupKey, int maxKeys, long keyMemoryBytes) {
+        try {
+            analyzer.setGrouping(groupKey, maxKeys, keyMemoryBytes);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ошибка: " + e.getMessage());
             System.exit(1);
         }
     }
 
+    private static void addIf(Set<String> given, boolean condition, String flag) {
+        if (condition) {
+            given.add(flag);
+        }
+    }
+
+    // Неверное сочетание или значение флагов: сообщение и справка
+    private static void check(boolean valid, String message) {
+        if (!valid) {
+            System.err.println("Ошибка: " + message);
+            printUsageAndExit();
+        }
+    }
+
+    // Если задан flag, ни один из others задан быть не может; сообщение называет оба флага
+    private static void rejectCombination(Set<String> given, String flag, String... others) {
+        if (!given.contains(flag)) {
+            return;
+        }
+        for (String other : others) {
+            check(!given.contains(other), flag + " нельзя использовать вместе с " + other);
+        }
+    }
+
+    // Детектор, заданный --detector, вместо окна анализатора; нулевые и отрицательные настройки - по умолчанию
+    private static IncidentDetector createDetector(DetectorType type, double availability, long responseTime,
+                                                   int windowSeconds, int bucketSeconds, int halfLifeSeconds,
+                                                   double burnRate, int longWindowSeconds, int shortWindowSeconds,
+                                                   IncidentListener listener) {
+        switch (type) {
+            case WINDOW:
+                return new WindowIncidentDetector(availability, responseTime, windowSeconds, bucketSeconds, listener);
+            case EWMA:
+                return new EwmaIncidentDetector(availability, responseTime,
+                        halfLifeSeconds > 0 ? halfLifeSeconds : DEFAULT_EWMA_HALF_LIFE_SECONDS, listener);
+            case BURN_RATE:
+                return new BurnRateIncidentDetector(availability, responseTime,
+                        longWindowSeconds > 0 ? longWindowSeconds : DEFAULT_BURN_LONG_WINDOW_SECONDS,
+                        shortWindowSeconds > 0 ? shortWindowSeconds : DEFAULT_BURN_SHORT_WINDOW_SECONDS,
+                        burnRate > 0 ? burnRate : DEFAULT_BURN_RATE, listener);
+            default:
+                throw new IllegalArgumentException("Неизвестный детектор: " + type);
+        }
+    }
+
+    /**
+     * Границы {@code --from} и {@code --to} в секундах лога. Время суток ("16:40", "16:40:30") относится к дню первой
+     * строки файла, а {@code --to} раньше {@code --from} - к следующему дню; для других дней - время как в логе
+     * ("14/06/2017:16:40:00").
+     */
+    private static long[] resolveTimeRange(Path logFile, String from, String to) {
+        try {
+            // Смещение в сжатом файле не соответствует строке: искать по нему нельзя
+            if (CompressedLogInput.isCompressed(logFile)) {
+                System.err.println("Ошибка: --from и --to только для несжатого файла: " + logFile);
+                printUsageAndExit();
+            }
+            long firstDay = 0;
+            if ((from != null && from.indexOf('/') < 0) || (to != null && to.indexOf('/') < 0)) {
+                try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+                    long firstSecond = new LogSeeker(channel).firstSecond();
+                    firstDay = firstSecond == Long.MIN_VALUE ? 0 : Math.floorDiv(firstSecond, 86400L) * 86400;
+                }
+            }
+            long fromSecond = from != null ? parseLogTime(from, firstDay) : Long.MIN_VALUE;
+            long toSecond = to != null ? parseLogTime(to, firstDay) : Long.MAX_VALUE;
+            if (from != null && to != null && to.indexOf('/') < 0 && toSecond < fromSecond) {
+                toSecond += 86400;
+            }
+            if (toSecond < fromSecond) {
+                printUsageAndExit();
+            }
+            return new long[]{fromSecond, toSecond};
+        } catch (DateTimeParseException e) {
+            System.err.println("Ошибка: неверный формат времени: " + e.getParsedString());
+            printUsageAndExit();
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения лога: " + e.getMessage());
+            System.exit(1);
+        }
+        return null;
+    }
+
+    // Время в секундах лога: локальное время как UTC, как в LogParser
+    private static long parseLogTime(String value, long dayStartSecond) {
+        if (value.indexOf('/') >= 0) {
+            return LocalDateTime.parse(value, LOG_TIME_FORMAT).toEpochSecond(ZoneOffset.UTC);
+        }
+        return dayStartSecond + LocalTime.parse(value).toSecondOfDay();
+    }
+
+    /**
+     * Приблизительный анализ по выборке. Без {@code rescan} кандидаты выводятся в stdout, с {@code rescan} -
+     * в stderr, а в stdout - инциденты точного анализа диапазонов кандидатов.
+     */
+    private static void sample(Path logFile, double fraction, boolean rescan, double availability, long responseTime,
+                               int windowSeconds, int bucketSeconds, IncidentFormat format) {
+        try {
+            // Смещение в сжатом файле не соответствует строке: выборку по байтам не сделать
+            if (CompressedLogInput.isCompressed(logFile)) {
+                System.err.println("Ошибка: выборка только из несжатого файла: " + logFile);
+                printUsageAndExit();
+            }
+            LogSampler sampler = new LogSampler(logFile, availability, responseTime);
+            if (windowSeconds > 0) {
+                sampler.setWindow(windowSeconds, bucketSeconds);
+            }
+            List<LogSampler.Candidate> candidates = sampler.findCandidates(fraction);
+            LogSampler.print(candidates, rescan ? System.err : System.out);
+            if (!rescan) {
+                return;
+            }
+            for (LogSampler.Candidate candidate : candidates) {
+                // Диапазоны кандидатов не пересекаются и идут по порядку файла
+                Analyzer analyzer = new Analyzer(logFile, availability, responseTime);
+                if (windowSeconds > 0) {
+                    analyzer.setWindow(windowSeconds, bucketSeconds);
+                }
+                analyzer.setIncidentFormat(format);
+                analyzer.runOverRange(candidate.getStartOffset(), candidate.getEndOffset());
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения лога: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Приём строк по HTTP до завершения процесса; по Ctrl+C накопленные секунды анализируются и сервер останавливается.
+     */
+    private static void serve(InetSocketAddress address, Analyzer analyzer, long responseTime, int latenessSeconds,
+                              long openIncidentTimeoutMs, long maxBodyBytes, AnalyzerMetrics metrics) throws IOException {
+        IngestServer server = new IngestServer(address, analyzer, responseTime, latenessSeconds, openIncidentTimeoutMs);
+        server.setMaxBodyBytes(maxBodyBytes);
+        if (metrics != null) {
+            server.setMetrics(metrics);
+        }
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "ingest-exit"));
+        System.err.println("Приём строк: POST http://" + address.getHostString() + ":" + server.getPort()
+                + IngestServer.INGEST_PATH + ", состояние: GET " + IngestServer.STATUS_PATH);
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // [адрес:]порт; без адреса - только localhost, все интерфейсы - явным адресом 0.0.0.0
+    private static InetSocketAddress parseServeAddress(String value) {
+        int colon = value.lastIndexOf(':');
+        int port = Integer.parseInt(value.substring(colon + 1));
+        if (port < 0 || port > 65535) {
+            throw new NumberFormatException("Порт вне диапазона: " + port);
+        }
+        return colon < 0
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                : new InetSocketAddress(value.substring(0, colon), port);
+    }
+
+    /**
+     * Длительность в секундах: число с необязательным суффиксом s, m или h ("90", "10s", "5m", "1h").
+     * Время в логе с точностью до секунды, поэтому доли секунды не поддерживаются.
+     */
+    static int parseDurationSeconds(String value) {
+        int multiplier = 1;
+        String number = value;
+        if (value.endsWith("ms")) {
+            throw new NumberFormatException("Время в логе с точностью до секунды: " + value);
+        } else if (value.endsWith("s")) {
+            number = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("m")) {
+            multiplier = 60;
+            number = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("h")) {
+            multiplier = 3600;
+            number = value.substring(0, value.length() - 1);
+        }
+        long seconds = (long) Integer.parseInt(number) * multiplier;
+        if (seconds > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Слишком большая длительность: " + value);
+        }
+        return (int) seconds;
+    }
+
+    /**
+     * Размер в байтах: число с необязательным суффиксом k, m или g (по 1024: "65536", "512k", "64m", "2g").
+     */
+    static long parseSizeBytes(String value) {
+        long multiplier = 1;
+        String number = value;
+        char suffix = Character.toLowerCase(value.isEmpty() ? ' ' : value.charAt(value.length() - 1));
+        if (suffix == 'k') {
+            multiplier = 1L << 10;
+        } else if (suffix == 'm') {
+            multiplier = 1L << 20;
+        } else if (suffix == 'g') {
+            multiplier = 1L << 30;
+        }
+        if (multiplier > 1) {
+            number = value.substring(0, value.length() - 1);
+        }
+        long size = Long.parseLong(number);
+        if (size > Long.MAX_VALUE / multiplier) {
+            throw new NumberFormatException("Слишком большой размер: " + value);
+        }
+        return size * multiplier;
+    }
+
+    // index <файл_лога> [<файл_индекса>]: создать или дополнить индекс лога
+    private static void buildIndex(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            printUsageAndExit();
+        }
+        Path logFile = Paths.get(args[1]);
+        Path indexFile = Paths.get(args.length > 2 ? args[2] : args[1] + LogIndex.FILE_SUFFIX);
+        if (!Files.isRegularFile(logFile)) {
+            System.err.println("Ошибка: файл не найден: " + logFile);
+            printUsageAndExit();
+        }
+        try {
+            long indexedBytes = LogIndex.update(logFile, indexFile);
+            System.err.println("Проиндексировано байт лога: " + indexedBytes + ", индекс: " + indexFile);
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения лога: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Включает метрики: периодическую строку в stderr, MBean и файл Prometheus. Итоговая строка и файл
+     * пишутся при завершении, в том числе по Ctrl+C в режиме слежения.
+     */
+    private static AnalyzerMetrics startMetrics(long statsPeriodSeconds, boolean jmx, String metricsFile) {
+        AnalyzerMetrics metrics = new AnalyzerMetrics();
+        if (jmx) {
+            try {
+                metrics.registerMBean();
+            } catch (JMException e) {
+                System.err.println("Ошибка регистрации MBean: " + e.getMessage());
+            }
+        }
+        if (statsPeriodSeconds > 0) {
+            metrics.startReporting(System.err, statsPeriodSeconds);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            metrics.stopReporting();
+            if (statsPeriodSeconds > 0) {
+                System.err.println(metrics.formatStats());
+            }
+            if (metricsFile != null) {
+                try {
+                    metrics.writePrometheus(Paths.get(metricsFile));
+                } catch (IOException e) {
+                    System.err.println("Ошибка записи метрик: " + e.getMessage());
+                }
+            }
+        }, "metrics-exit"));
+        return metrics;
+    }
+
     private static void printUsageAndExit() {
-        System.err.println("Использование: java -jar analyze.jar -u <доступность> -t <время_ответа_мс>");
+        System.err.println("Использование: java -jar analyze.jar -u <доступность> -t <время_ответа_мс> [-f <файл_лога|каталог|шаблон>] [-j <потоки>]");
+        System.err.println("       java -jar analyze.jar -u <доступность> -t <время_ответа_мс> -f <файл_лога> --follow [--open-timeout <секунды>]");
+        System.err.println("       java -jar analyze.jar index <файл_лога> [<файл_индекса>]");
+        System.err.println("       java -jar analyze.jar -u <доступность> -t <время_ответа_мс> --serve [<адрес>:]<порт> [--lateness <секунды>] [--max-body <размер>]");
+        System.err.println("Приём по HTTP: без адреса - только localhost, для всех интерфейсов --serve 0.0.0.0:<порт>;"
+                + " тело запроса по умолчанию до "
+                + IngestServer.DEFAULT_MAX_BODY_BYTES / (1024 * 1024) + "m, строка до " + IngestServer.MAX_LINE_LENGTH / 1024 + "k (больше - ответ 413)");
+        System.err.println("       java -jar analyze.jar -u <доступность> -t <время_ответа_мс> --index <файл_индекса>");
+        System.err.println("Группировка: --group-by path|method|client|agent [--max-keys <число>] [--key-memory <размер>]"
+                + " (например 512m: ключи вне кучи, давние вытесняются; не больше -XX:MaxDirectMemorySize)");
+        System.err.println("Перебор порогов: --sweep-u <u1,u2,...> --sweep-t <t1,t2,...> (таблица итогов по парам)");
+        System.err.println("Логи узлов: --merge [--per-node] -f <файл|каталог|шаблон> [-f ...] (слияние по времени, инциденты по узлам)");
+        System.err.println("Окно анализа: --window <длительность> [--bucket <длительность>] (например 5m и 10s; окно кратно интервалу)");
+        System.err.println("Нарушение порядка времени: --lateness <секунды> (допуск опоздания строк, по умолчанию выключен)");
+        System.err.println("Метрики: --stats <секунды> (строка в stderr), --jmx (MBean " + AnalyzerMetrics.OBJECT_NAME
+                + "), --metrics-file <файл> (Prometheus при выходе)");
+        System.err.println("Контрольные точки: --checkpoint <файл> [--checkpoint-interval <длительность>] (продолжение после перезапуска, по умолчанию раз в "
+                + DEFAULT_CHECKPOINT_INTERVAL_SECONDS + " с)");
+        System.err.println("Формат вывода: --format text|jsonl|csv (jsonl и csv - полное время, длительность, счётчики, худший интервал)");
+        System.err.println("Чтение потока: --line-reader bytes|chars (по умолчанию bytes: ASCII без декодирования, прочее как UTF-8; chars - BufferedReader в кодировке платформы)");
+        System.err.println("Детектор: --detector window|ewma|burn-rate (по умолчанию - окно анализатора; window - то же окно отдельным детектором, с ограничениями других детекторов); ewma: --half-life <длительность> (по умолчанию "
+                + DEFAULT_EWMA_HALF_LIFE_SECONDS + " с); burn-rate: --burn-rate <скорость> --burn-windows <длинное>,<короткое> (по умолчанию "
+                + DEFAULT_BURN_RATE + " в 1h,5m; -u - цель SLO)");
+        System.err.println("Время: --from <время> --to <время> (ЧЧ:ММ[:СС] в день первой строки или дд/ММ/гггг:ЧЧ:ММ:СС; только этот интервал, без чтения остального файла)");
+        System.err.println("Выборка: --sample <доля> [--rescan] (кандидаты в инциденты по доле файла с 95% интервалом доступности; --rescan - точный анализ кандидатов)");
+        System.err.println("Время ответа: --percentiles (p50/p95/p99 для инцидентов), --latency-report (по всему логу)");
         System.err.println("Пример: cat access.log | java -jar analyze.jar -u 99.9 -t 45");
+        System.err.println("Пример: java -jar analyze.jar -u 99.9 -t 45 -f access.log -j 8");
+        System.err.println("Пример: zcat access.log.gz | java -jar analyze.jar -u 99.9 -t 45 -j 4");
+        System.err.println("Пример: java -jar analyze.jar -u 99.9 -t 45 -f '/var/log/nginx/access.log*'");
+        System.err.println("Пример: java -jar analyze.jar -u 99.9 -t 45 -f /var/log/nginx/access.log --follow");
+        System.err.println("Пример: java -jar analyze.jar -u 99.9 -t 45 --merge --per-node -f '/var/log/fleet/*.log'");
+        System.err.println("Пример: cat access.log | java -jar analyze.jar -u 99.9 -t 45 --group-by path");
+        System.err.println("Пример: java -jar analyze.jar -u 99.9 -t 45 --serve 8080, затем curl --data-binary @access.log localhost:8080/ingest");
+        System.err.println("Пример: java -jar analyze.jar -u 99.5 -t 45 -f access.log --window 5m --bucket 10s");
+        System.err.println("Пример: java -jar analyze.jar -u 99.9 -t 45 -f access.log --checkpoint access.ckpt --checkpoint-interval 30s");
+        System.err.println("Пример: java -jar analyze.jar -u 99.9 -t 45 -f huge.log --sample 0.01 --rescan");
+        System.err.println("Пример: java -jar analyze.jar -u 99.9 -t 45 -f huge.log --from 16:40 --to 17:10");
+        System.err.println("Пример: java -jar analyze.jar -u 99.9 -t 45 -f access.log --detector burn-rate --burn-windows 1h,5m");
         System.exit(1);
     }
 }
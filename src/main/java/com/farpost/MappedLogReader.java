@@ -0,0 +1,110 @@
+package com.farpost;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Построчное чтение файла через отображение в память.
+ * <p>
+ * Файл отображается последовательными регионами ограниченного размера, поэтому поддерживаются файлы
+ * больше 2 ГБ. Строки передаются обработчику диапазонами байтов внутри отображённого буфера,
+ * без копирования и декодирования в {@code String}.
+ */
+public class MappedLogReader {
+    // Размер одного отображаемого региона по умолчанию
+    static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Получает очередную строку: байты {@code [from, to)} буфера без {@code \n} и завершающего {@code \r}.
+     * Буфер действителен только во время вызова.
+     */
+    @FunctionalInterface
+    public interface LineHandler {
+        void onLine(ByteBuffer buf, int from, int to);
+    }
+
+    /**
+     * То же, что {@link LineHandler}, и смещение в файле, с которого начинается следующая строка:
+     * до него всё прочитано, с него можно продолжить чтение.
+     */
+    @FunctionalInterface
+    public interface PositionedLineHandler {
+        void onLine(ByteBuffer buf, int from, int to, long nextLineOffset);
+    }
+
+    private final Path path;
+    private final int regionSize;
+
+    public MappedLogReader(Path path) {
+        this(path, DEFAULT_REGION_SIZE);
+    }
+
+    MappedLogReader(Path path, int regionSize) {
+        this.path = path;
+        this.regionSize = regionSize;
+    }
+
+    public void forEachLine(LineHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            forEachLine(channel, 0, channel.size(), regionSize, handler);
+        }
+    }
+
+    /**
+     * Обходит строки в диапазоне байтов {@code [start, end)} канала. Начало диапазона должно совпадать с началом строки.
+     */
+    static void forEachLine(FileChannel channel, long start, long end, int regionSize, LineHandler handler) throws IOException {
+        forEachLine(channel, start, end, regionSize, (buf, from, to, nextLineOffset) -> handler.onLine(buf, from, to));
+    }
+
+    /**
+     * Обходит строки в диапазоне байтов {@code [start, end)} канала со смещением следующей строки.
+     */
+    static void forEachLine(FileChannel channel, long start, long end, int regionSize,
+                            PositionedLineHandler handler) throws IOException {
+        long regionStart = start;
+        int size = regionSize;
+        while (regionStart < end) {
+            int length = (int) Math.min(size, end - regionStart);
+            boolean lastRegion = regionStart + length == end;
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, length);
+
+            int lineStart = 0;
+            for (int i = 0; i < length; i++) {
+                if (buf.get(i) == '\n') {
+                    handleLine(buf, lineStart, i, regionStart + i + 1, handler);
+                    lineStart = i + 1;
+                }
+            }
+            if (lastRegion) {
+                // Последняя строка файла может быть без перевода строки
+                if (lineStart < length) {
+                    handleLine(buf, lineStart, length, end, handler);
+                }
+                return;
+            }
+            if (lineStart == 0) {
+                // Строка не поместилась в регион целиком: отображаем её заново регионом побольше
+                if (size == Integer.MAX_VALUE) {
+                    throw new IOException("Слишком длинная строка в файле " + channel);
+                }
+                size = (int) Math.min(Integer.MAX_VALUE, 2L * size);
+                continue;
+            }
+            // Незавершённая строка в конце региона переходит в следующий регион
+            regionStart += lineStart;
+            size = regionSize;
+        }
+    }
+
+    private static void handleLine(ByteBuffer buf, int from, int to, long nextLineOffset, PositionedLineHandler handler) {
+        if (to > from && buf.get(to - 1) == '\r') {
+            to--;
+        }
+        handler.onLine(buf, from, to, nextLineOffset);
+    }
+}
@@ -0,0 +1,275 @@
+package com.farpost;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Слияние логов нескольких узлов по времени, как {@code sort -m}, но без внешней сортировки.
+ * <p>
+ * У каждого файла свой поток чтения: он разбирает строки в компактные записи (секунда и признак отказа) и
+ * передаёт их пачками через {@link SpscRingBuffer}, поэтому блокировок на строку нет, а файлы читаются
+ * заранее и параллельно. Вызывающий поток сливает пачки через двоичную кучу курсоров по времени текущей
+ * записи: запись с меньшей секундой идёт раньше, при равных секундах - запись файла с меньшим номером, записи
+ * одного файла сохраняют свой порядок. Пока текущий файл не обгоняет остальные, записи берутся из него подряд
+ * без перестройки кучи.
+ * <p>
+ * Если время внутри файла идёт назад, запись выдаётся, когда до неё дойдёт очередь файла; для таких логов
+ * есть допуск опоздания ({@link ReorderBuffer}).
+ */
+public class MergedLogReader {
+    static final int DEFAULT_BATCH_SIZE = 4096;
+    // Сколько пачек на файл может быть в работе одновременно; ограничивает память при сотнях файлов
+    private static final int BATCHES_IN_FLIGHT = 4;
+
+    // Признак конца файла в очереди
+    private static final long[] END_OF_FILE = new long[0];
+
+    /**
+     * Получает записи в порядке времени вместе с номером файла-источника.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void onRecord(int source, long epochSecond, boolean isFailure);
+    }
+
+    private final List<Path> files;
+    private final long responseTimeThresholdMs;
+    private final int batchSize;
+
+    public MergedLogReader(List<Path> files, long responseTimeThresholdMs) {
+        this(files, responseTimeThresholdMs, DEFAULT_BATCH_SIZE);
+    }
+
+    MergedLogReader(List<Path> files, long responseTimeThresholdMs, int batchSize) {
+        this.files = List.copyOf(files);
+        this.responseTimeThresholdMs = responseTimeThresholdMs;
+        this.batchSize = batchSize;
+    }
+
+    public void forEachRecord(RecordHandler handler) throws IOException {
+        int count = files.size();
+        Cursor[] cursors = new Cursor[count];
+        Thread[] readers = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            Cursor cursor = new Cursor(i);
+            cursors[i] = cursor;
+            readers[i] = new Thread(() -> cursor.read(files.get(cursor.source)), "log-merge-reader");
+            readers[i].setDaemon(true);
+            readers[i].start();
+        }
+        try {
+            merge(cursors, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Слияние логов прервано", e);
+        } finally {
+            for (Thread reader : readers) {
+                reader.interrupt();
+            }
+        }
+    }
+
+    private void merge(Cursor[] cursors, RecordHandler handler) throws IOException, InterruptedException {
+        // Куча номеров курсоров, у которых есть текущая запись
+        int[] heap = new int[cursors.length];
+        int heapSize = 0;
+        for (Cursor cursor : cursors) {
+            if (cursor.advance()) {
+                heap[heapSize++] = cursor.source;
+                siftUp(heap, heapSize - 1, cursors);
+            }
+        }
+        while (heapSize > 0) {
+            Cursor top = cursors[heap[0]];
+            boolean hasNext;
+            do {
+                long record = top.current();
+                handler.onRecord(top.source, record >> 1, (record & 1) != 0);
+                hasNext = top.advance();
+            } while (hasNext && !isAfterChild(heap, heapSize, cursors));
+            if (!hasNext) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, 0, cursors);
+        }
+    }
+
+    // Обогнал ли верхний курсор кучи кого-то из своих потомков
+    private static boolean isAfterChild(int[] heap, int heapSize, Cursor[] cursors) {
+        return (heapSize > 1 && less(heap[1], heap[0], cursors))
+                || (heapSize > 2 && less(heap[2], heap[0], cursors));
+    }
+
+    private static boolean less(int a, int b, Cursor[] cursors) {
+        long secondA = cursors[a].current() >> 1;
+        long secondB = cursors[b].current() >> 1;
+        return secondA < secondB || (secondA == secondB && a < b);
+    }
+
+    private static void siftUp(int[] heap, int index, Cursor[] cursors) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!less(heap[index], heap[parent], cursors)) {
+                return;
+            }
+            swap(heap, index, parent);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int heapSize, int index, Cursor[] cursors) {
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < heapSize && less(heap[left], heap[smallest], cursors)) {
+                smallest = left;
+            }
+            if (right < heapSize && less(heap[right], heap[smallest], cursors)) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            swap(heap, index, smallest);
+            index = smallest;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+
+    /**
+     * Чтение одного файла: поток чтения заполняет пачки, поток слияния идёт по ним. Пачка - массив записей,
+     * упакованных как в {@link ParallelLogReader}, с числом записей в последнем элементе.
+     */
+    private final class Cursor {
+        private final int source;
+        private final SpscRingBuffer<long[]> filled = new SpscRingBuffer<>(BATCHES_IN_FLIGHT + 1);
+        private final SpscRingBuffer<long[]> free = new SpscRingBuffer<>(BATCHES_IN_FLIGHT);
+        private volatile IOException failure;
+
+        // Состояние потока чтения
+        private int allocatedBatches = 0;
+        private long[] writing;
+        private int writingSize;
+
+        // Состояние потока слияния
+        private long[] reading;
+        private int readingSize;
+        private int position;
+
+        Cursor(int source) {
+            this.source = source;
+        }
+
+        long current() {
+            return reading[position];
+        }
+
+        // Переходит к следующей записи; false - файл кончился
+        boolean advance() throws IOException, InterruptedException {
+            if (reading != null && ++position < readingSize) {
+                return true;
+            }
+            if (reading != null) {
+                free.offer(reading);
+            }
+            reading = filled.take();
+            if (reading == END_OF_FILE) {
+                reading = null;
+                if (failure != null) {
+                    throw failure;
+                }
+                return false;
+            }
+            readingSize = (int) reading[reading.length - 1];
+            position = 0;
+            return true;
+        }
+
+        void read(Path file) {
+            try {
+                writing = acquire();
+                LogParser parser = new LogParser();
+                if (CompressedLogInput.isCompressed(file)) {
+                    try (InputStream in = CompressedLogInput.decompressIfNeeded(Files.newInputStream(file))) {
+                        new StreamLineReader(in).forEachLine(
+                                (buf, from, to) -> appendParsed(parser, parser.parseLine(buf, from, to)),
+                                (line, byteLength) -> appendParsed(parser, parser.parseLine(line)));
+                    }
+                } else {
+                    new MappedLogReader(file).forEachLine(
+                            (buf, from, to) -> appendParsed(parser, parser.parseLine(buf, from, to)));
+                }
+                publish();
+            } catch (InterruptedException | ReadInterruptedException e) {
+                // Слияние закончилось раньше
+                return;
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException("Ошибка чтения " + file + ": " + e, e);
+            }
+            try {
+                filled.put(END_OF_FILE);
+            } catch (InterruptedException ignored) {
+                // Слияние закончилось, сообщать о конце некому
+            }
+        }
+
+        private void appendParsed(LogParser parser, boolean parsed) {
+            if (parsed) {
+                append(parser.getEpochSecond(), parser.isFailure(responseTimeThresholdMs));
+            }
+        }
+
+        private void append(long epochSecond, boolean isFailure) {
+            writing[writingSize++] = (epochSecond << 1) | (isFailure ? 1 : 0);
+            if (writingSize == batchSize) {
+                try {
+                    publish();
+                    writing = acquire();
+                } catch (InterruptedException e) {
+                    throw new ReadInterruptedException();
+                }
+            }
+        }
+
+        private void publish() throws InterruptedException {
+            if (writingSize > 0) {
+                writing[writing.length - 1] = writingSize;
+                filled.put(writing);
+                writing = null;
+                writingSize = 0;
+            }
+        }
+
+        private long[] acquire() throws InterruptedException {
+            long[] batch = free.poll();
+            if (batch != null) {
+                return batch;
+            }
+            if (allocatedBatches < BATCHES_IN_FLIGHT) {
+                allocatedBatches++;
+                return new long[batchSize + 1];
+            }
+            return free.take();
+        }
+    }
+
+    // Прерывание потока чтения изнутри обработчика строк, который не может бросать проверяемые исключения
+    private static final class ReadInterruptedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ReadInterruptedException() {
+            super(null, null, false, false);
+        }
+    }
+}
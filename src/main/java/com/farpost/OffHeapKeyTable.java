@@ -0,0 +1,543 @@
+package com.farpost;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Хеш-таблица ключей вне кучи: записи и индекс лежат в прямых {@link ByteBuffer}, поэтому число ключей не влияет
+ * на кучу и паузы сборщика мусора. Ключ - байты (например, адрес клиента из {@link LogParser#copyGroupKey})
+ * с заранее посчитанным 64-битным хешем ({@link #hash}); поиск не создаёт объектов.
+ * <p>
+ * Запись - заголовок, ключ и {@code valueBytes} байт значения, которые вызывающий читает и пишет по номеру записи
+ * и смещению ({@link #getLong}, {@link #putLong} и т.п.). Первые {@link #KEY_BYTES} байт ключа лежат в записи,
+ * остаток более длинного ключа - цепочкой блоков по {@link #BLOCK_DATA_BYTES} байт в отдельной области вне кучи;
+ * ключи хранятся и сравниваются целиком. Индекс - открытая адресация с линейным пробированием по номерам
+ * записей, заполненный не больше чем наполовину; при удалении записи следующие за ней в цепочке сдвигаются
+ * назад, так что пометки удалённых ячеек не нужны.
+ * <p>
+ * Число записей ограничено бюджетом памяти, в который входят и блоки длинных ключей. Записи упорядочены
+ * по последнему обращению ({@link #find}, {@link #add}), и когда места нет, новая запись вытесняет самые давние:
+ * перед вытеснением вызывается {@link EvictionListener}, чтобы вызывающий успел обработать значение записи.
+ * Номера вытесненных записей переходят к новым ключам; пока длинный ключ вытеснил больше записей, чем добавлено
+ * новых, среди номеров меньше {@link #getIdLimit()} есть свободные ({@link #isUsed}). Память выделяется кусками
+ * по мере добавления ключей, а не сразу на весь бюджет.
+ */
+public final class OffHeapKeyTable {
+    /**
+     * Вызывается перед вытеснением записи, пока её значение ещё доступно.
+     */
+    public interface EvictionListener {
+        void onEvict(int id);
+    }
+
+    // Сколько байт ключа лежит в самой записи; адреса клиентов, методы и пути обычно короче
+    static final int KEY_BYTES = 64;
+    // Блок остатка длинного ключа: номер следующего блока (-1 - последний), выравнивание и данные
+    private static final int BLOCK_BYTES = 64;
+    private static final int BLOCK_NEXT = 0;
+    private static final int BLOCK_DATA = 8;
+    static final int BLOCK_DATA_BYTES = BLOCK_BYTES - BLOCK_DATA;
+    // Блоков в куске памяти области длинных ключей
+    private static final int BLOCK_CHUNK_SHIFT = 10;
+    // Записей в куске памяти: до 2^12, меньше, если куску с длинными значениями не хватает 2 ГБ
+    private static final int MAX_CHUNK_SHIFT = 12;
+    // Номер записи занимает не больше ID_BITS бит: индекс не длиннее 2^28 int, то есть 1 ГБ,
+    // и заполнен не больше чем наполовину
+    static final int ID_BITS = 27;
+    private static final int MAX_CAPACITY = 1 << ID_BITS;
+    private static final int INITIAL_INDEX_SLOTS = 64;
+    // Ключ хешируется и сравнивается по 8 байт; порядок байтов как у буферов записей
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    // Заголовок записи: хеш, полная длина ключа (-1 - номер свободен), соседи в списке по последнему обращению
+    // (у свободного номера в NEXT - следующий свободный), первый блок остатка ключа (-1 - нет), порядковый номер ключа
+    private static final int HASH = 0;
+    private static final int KEY_LENGTH = 8;
+    private static final int PREVIOUS = 12;
+    private static final int NEXT = 16;
+    private static final int OVERFLOW = 20;
+    private static final int SEQUENCE = 24;
+    private static final int KEY = 32;
+    private static final int VALUE = KEY + KEY_BYTES;
+
+    private final int valueBytes;
+    private final int entryBytes;
+    private final int capacity;
+    private final long memoryBudgetBytes;
+    private final EvictionListener listener;
+    private final int chunkShift;
+    private final int chunkMask;
+    private final ByteBuffer[] chunks;
+
+    // Номер записи + 1 в ячейке, 0 - пустая ячейка
+    private ByteBuffer index;
+    private int indexMask;
+    private final int maxIndexSlots;
+
+    // Область остатков длинных ключей: куски блоков и список свободных блоков
+    private ByteBuffer[] blockChunks = new ByteBuffer[0];
+    private int blockCount = 0;
+    private int freeBlock = -1;
+    private long blocksInUse = 0;
+
+    private int size = 0;
+    // Номера записей меньше idLimit выдавались; свободные из них - в списке freeId
+    private int idLimit = 0;
+    private int freeId = -1;
+    private long nextSequence = 0;
+    private long evictionCount = 0;
+    // Список по последнему обращению: head - самая свежая запись, tail - самая давняя
+    private int head = -1;
+    private int tail = -1;
+
+    /**
+     * @param valueBytes        размер значения записи в байтах
+     * @param maxEntries        сколько записей нужно хранить самое большее
+     * @param memoryBudgetBytes сколько памяти могут занять записи и индекс; 0 - без ограничения, кроме
+     *                          {@code maxEntries}
+     */
+    public OffHeapKeyTable(int valueBytes, int maxEntries, long memoryBudgetBytes, EvictionListener listener) {
+        this.valueBytes = (valueBytes + 7) & ~7;
+        this.entryBytes = VALUE + this.valueBytes;
+        // Сразу после удвоения индекса на запись приходится до четырёх ячеек по 4 байта
+        long byBudget = memoryBudgetBytes > 0 ? memoryBudgetBytes / (entryBytes + 16L) : Long.MAX_VALUE;
+        this.capacity = (int) Math.min(Math.min(maxEntries, byBudget), MAX_CAPACITY);
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Бюджета памяти " + memoryBudgetBytes
+                    + " байт не хватает даже на один ключ: запись занимает " + (entryBytes + 16) + " байт");
+        }
+        int shift = MAX_CHUNK_SHIFT;
+        while (shift > 0 && ((long) entryBytes << shift) > Integer.MAX_VALUE) {
+            shift--;
+        }
+        this.chunkShift = shift;
+        this.chunkMask = (1 << shift) - 1;
+        this.listener = listener;
+        this.chunks = new ByteBuffer[((capacity - 1) >>> chunkShift) + 1];
+        this.maxIndexSlots = Math.max(INITIAL_INDEX_SLOTS, Integer.highestOneBit(capacity - 1) << 2);
+        allocateIndex(Math.min(INITIAL_INDEX_SLOTS, maxIndexSlots));
+    }
+
+    /**
+     * 64-битный хеш ключа из первых {@code length} байт {@code key}: FNV-1a по словам из 8 байт
+     * с перемешиванием битов, чтобы младшие биты годились для номера ячейки индекса.
+     */
+    public static long hash(byte[] key, int length) {
+        long h = 0xcbf29ce484222325L ^ length;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            h = (h ^ (long) LONGS.get(key, i)) * 0x100000001b3L;
+            h ^= h >>> 29;
+        }
+        for (; i < length; i++) {
+            h = (h ^ (key[i] & 0xFF)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Номер записи с ключом из первых {@code length} байт {@code key} или -1, если её нет.
+     * Найденная запись становится самой свежей.
+     */
+    public int find(byte[] key, int length, long hash) {
+        int slot = (int) hash & indexMask;
+        while (true) {
+            int ref = index.getInt(slot << 2);
+            if (ref == 0) {
+                return -1;
+            }
+            int id = ref - 1;
+            if (matches(id, key, length, hash)) {
+                moveToHead(id);
+                return id;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    /**
+     * Добавляет запись для ключа, которого в таблице нет, и возвращает её номер. Значение новой записи
+     * заполнено нулями. Когда записей столько, сколько помещается, или блокам длинного ключа не хватает бюджета,
+     * место освобождается вытеснением самых давних записей; ключ, который один не помещается в бюджет,
+     * всё равно хранится.
+     */
+    public int add(byte[] key, int length, long hash) {
+        int blocks = length > KEY_BYTES ? (length - KEY_BYTES + BLOCK_DATA_BYTES - 1) / BLOCK_DATA_BYTES : 0;
+        while (size > 0 && (size == capacity || !fitsBudget(blocks))) {
+            evict(tail);
+        }
+        int id;
+        if (freeId >= 0) {
+            id = freeId;
+            freeId = getLink(id, NEXT);
+        } else {
+            id = idLimit++;
+            ByteBuffer chunk = chunks[id >>> chunkShift];
+            if (chunk == null) {
+                int entries = Math.min(chunkMask + 1, capacity - (id & ~chunkMask));
+                chunks[id >>> chunkShift] = ByteBuffer.allocateDirect(entries * entryBytes)
+                        .order(ByteOrder.nativeOrder());
+            }
+        }
+        if ((size + 1) * 2L > indexMask + 1 && indexMask + 1 < maxIndexSlots) {
+            allocateIndex((indexMask + 1) * 2);
+        }
+        ByteBuffer chunk = chunks[id >>> chunkShift];
+        int base = (id & chunkMask) * entryBytes;
+        chunk.putLong(base + HASH, hash);
+        chunk.putInt(base + KEY_LENGTH, length);
+        chunk.putLong(base + SEQUENCE, nextSequence++);
+        int stored = Math.min(length, KEY_BYTES);
+        int i = 0;
+        for (; i + 8 <= stored; i += 8) {
+            chunk.putLong(base + KEY + i, (long) LONGS.get(key, i));
+        }
+        for (; i < stored; i++) {
+            chunk.put(base + KEY + i, key[i]);
+        }
+        chunk.putInt(base + OVERFLOW, blocks > 0 ? storeBlocks(key, length, blocks) : -1);
+        for (int offset = 0; offset < valueBytes; offset += 8) {
+            chunk.putLong(base + VALUE + offset, 0);
+        }
+        insertIntoIndex(id, hash);
+        linkAtHead(id);
+        size++;
+        return id;
+    }
+
+    /**
+     * Номер записи ключа; запись добавляется, если её не было. Ключ переводится в байты UTF-8, поэтому
+     * метод создаёт объекты и нужен там, где ключей немного (например, пути файлов).
+     */
+    public int findOrAdd(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(bytes, bytes.length);
+        int id = find(bytes, bytes.length, hash);
+        return id >= 0 ? id : add(bytes, bytes.length, hash);
+    }
+
+    /**
+     * Ключ записи строкой.
+     */
+    public String getKey(int id) {
+        byte[] bytes = new byte[chunks[id >>> chunkShift].getInt((id & chunkMask) * entryBytes + KEY_LENGTH)];
+        copyKey(id, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Копирует байты ключа записи в начало {@code target}, не создавая объектов. Если ключ длиннее
+     * {@code target}, копируется только помещающаяся часть.
+     *
+     * @return длина ключа в байтах
+     */
+    public int copyKey(int id, byte[] target) {
+        ByteBuffer chunk = chunks[id >>> chunkShift];
+        int base = (id & chunkMask) * entryBytes;
+        int length = chunk.getInt(base + KEY_LENGTH);
+        int copied = Math.min(length, target.length);
+        int stored = Math.min(copied, KEY_BYTES);
+        for (int i = 0; i < stored; i++) {
+            target[i] = chunk.get(base + KEY + i);
+        }
+        for (int block = chunk.getInt(base + OVERFLOW), i = stored; block >= 0 && i < copied; block = nextBlock(block)) {
+            ByteBuffer blockChunk = blockChunks[block >>> BLOCK_CHUNK_SHIFT];
+            int blockBase = blockBase(block) + BLOCK_DATA;
+            for (int j = 0; j < BLOCK_DATA_BYTES && i < copied; j++, i++) {
+                target[i] = blockChunk.get(blockBase + j);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Порядковый номер добавления ключа записи: по нему ключи упорядочиваются по появлению,
+     * даже если номера записей переходили от вытесненных ключей.
+     */
+    public long getSequence(int id) {
+        return chunks[id >>> chunkShift].getLong((id & chunkMask) * entryBytes + SEQUENCE);
+    }
+
+    /**
+     * Буфер, в котором лежит значение записи, и смещение значения в нём: для частого обращения к нескольким
+     * полям одной записи без поиска куска на каждом поле.
+     */
+    ByteBuffer valueBuffer(int id) {
+        return chunks[id >>> chunkShift];
+    }
+
+    int valueOffset(int id) {
+        return (id & chunkMask) * entryBytes + VALUE;
+    }
+
+    public long getLong(int id, int offset) {
+        return chunks[id >>> chunkShift].getLong((id & chunkMask) * entryBytes + VALUE + offset);
+    }
+
+    public void putLong(int id, int offset, long value) {
+        chunks[id >>> chunkShift].putLong((id & chunkMask) * entryBytes + VALUE + offset, value);
+    }
+
+    public int getInt(int id, int offset) {
+        return chunks[id >>> chunkShift].getInt((id & chunkMask) * entryBytes + VALUE + offset);
+    }
+
+    public void putInt(int id, int offset, int value) {
+        chunks[id >>> chunkShift].putInt((id & chunkMask) * entryBytes + VALUE + offset, value);
+    }
+
+    public double getDouble(int id, int offset) {
+        return chunks[id >>> chunkShift].getDouble((id & chunkMask) * entryBytes + VALUE + offset);
+    }
+
+    public void putDouble(int id, int offset, double value) {
+        chunks[id >>> chunkShift].putDouble((id & chunkMask) * entryBytes + VALUE + offset, value);
+    }
+
+    /**
+     * Число записей.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Номера записей меньше этого числа; без вытеснения ради длинных ключей - {@link #size()}.
+     */
+    public int getIdLimit() {
+        return idLimit;
+    }
+
+    /**
+     * Занят ли номер записи меньше {@link #getIdLimit()}.
+     */
+    public boolean isUsed(int id) {
+        return chunks[id >>> chunkShift].getInt((id & chunkMask) * entryBytes + KEY_LENGTH) >= 0;
+    }
+
+    /**
+     * Сколько записей помещается в бюджет памяти.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private boolean matches(int id, byte[] key, int length, long hash) {
+        ByteBuffer chunk = chunks[id >>> chunkShift];
+        int base = (id & chunkMask) * entryBytes;
+        if (chunk.getLong(base + HASH) != hash || chunk.getInt(base + KEY_LENGTH) != length) {
+            return false;
+        }
+        int stored = Math.min(length, KEY_BYTES);
+        if (!equalBytes(chunk, base + KEY, key, 0, stored)) {
+            return false;
+        }
+        for (int block = chunk.getInt(base + OVERFLOW), i = stored; block >= 0; block = nextBlock(block)) {
+            int part = Math.min(BLOCK_DATA_BYTES, length - i);
+            if (!equalBytes(blockChunks[block >>> BLOCK_CHUNK_SHIFT], blockBase(block) + BLOCK_DATA, key, i, part)) {
+                return false;
+            }
+            i += part;
+        }
+        return true;
+    }
+
+    // Совпадают ли length байт буфера с offset и массива с from; по 8 байт, пока хватает
+    private static boolean equalBytes(ByteBuffer buffer, int offset, byte[] key, int from, int length) {
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            if (buffer.getLong(offset + i) != (long) LONGS.get(key, from + i)) {
+                return false;
+            }
+        }
+        for (; i < length; i++) {
+            if (buffer.get(offset + i) != key[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean fitsBudget(int blocks) {
+        return memoryBudgetBytes == 0
+                || (size + 1) * (entryBytes + 16L) + (blocksInUse + blocks) * BLOCK_BYTES <= memoryBudgetBytes;
+    }
+
+    // Вытесняет запись: слушатель, затем индекс, список по обращению и блоки ключа; номер становится свободным
+    private void evict(int id) {
+        listener.onEvict(id);
+        removeFromIndex(id);
+        unlink(id);
+        ByteBuffer chunk = chunks[id >>> chunkShift];
+        int base = (id & chunkMask) * entryBytes;
+        freeBlocks(chunk.getInt(base + OVERFLOW));
+        chunk.putInt(base + KEY_LENGTH, -1);
+        setLink(id, NEXT, freeId);
+        freeId = id;
+        size--;
+        evictionCount++;
+    }
+
+    // Записывает остаток ключа после KEY_BYTES в blocks блоков и возвращает номер первого
+    private int storeBlocks(byte[] key, int length, int blocks) {
+        int first = -1;
+        int previous = -1;
+        for (int n = 0, i = KEY_BYTES; n < blocks; n++, i += BLOCK_DATA_BYTES) {
+            int block = allocateBlock();
+            ByteBuffer blockChunk = blockChunks[block >>> BLOCK_CHUNK_SHIFT];
+            int blockBase = blockBase(block);
+            int part = Math.min(BLOCK_DATA_BYTES, length - i);
+            int j = 0;
+            for (; j + 8 <= part; j += 8) {
+                blockChunk.putLong(blockBase + BLOCK_DATA + j, (long) LONGS.get(key, i + j));
+            }
+            for (; j < part; j++) {
+                blockChunk.put(blockBase + BLOCK_DATA + j, key[i + j]);
+            }
+            blockChunk.putInt(blockBase + BLOCK_NEXT, -1);
+            if (previous >= 0) {
+                blockChunks[previous >>> BLOCK_CHUNK_SHIFT].putInt(blockBase(previous) + BLOCK_NEXT, block);
+            } else {
+                first = block;
+            }
+            previous = block;
+        }
+        return first;
+    }
+
+    private int allocateBlock() {
+        blocksInUse++;
+        if (freeBlock >= 0) {
+            int block = freeBlock;
+            freeBlock = nextBlock(block);
+            return block;
+        }
+        if (blockCount >>> BLOCK_CHUNK_SHIFT == blockChunks.length) {
+            blockChunks = Arrays.copyOf(blockChunks, blockChunks.length + 1);
+            blockChunks[blockChunks.length - 1] = ByteBuffer.allocateDirect(BLOCK_BYTES << BLOCK_CHUNK_SHIFT)
+                    .order(ByteOrder.nativeOrder());
+        }
+        return blockCount++;
+    }
+
+    private void freeBlocks(int block) {
+        while (block >= 0) {
+            int next = nextBlock(block);
+            blockChunks[block >>> BLOCK_CHUNK_SHIFT].putInt(blockBase(block) + BLOCK_NEXT, freeBlock);
+            freeBlock = block;
+            blocksInUse--;
+            block = next;
+        }
+    }
+
+    private int nextBlock(int block) {
+        return blockChunks[block >>> BLOCK_CHUNK_SHIFT].getInt(blockBase(block) + BLOCK_NEXT);
+    }
+
+    private static int blockBase(int block) {
+        return (block & ((1 << BLOCK_CHUNK_SHIFT) - 1)) * BLOCK_BYTES;
+    }
+
+    private long hashOf(int id) {
+        return chunks[id >>> chunkShift].getLong((id & chunkMask) * entryBytes + HASH);
+    }
+
+    private void allocateIndex(int slots) {
+        ByteBuffer old = index;
+        int oldSlots = old == null ? 0 : indexMask + 1;
+        index = ByteBuffer.allocateDirect(slots * 4).order(ByteOrder.nativeOrder());
+        indexMask = slots - 1;
+        for (int slot = 0; slot < oldSlots; slot++) {
+            int ref = old.getInt(slot << 2);
+            if (ref != 0) {
+                insertIntoIndex(ref - 1, hashOf(ref - 1));
+            }
+        }
+    }
+
+    private void insertIntoIndex(int id, long hash) {
+        int slot = (int) hash & indexMask;
+        while (index.getInt(slot << 2) != 0) {
+            slot = (slot + 1) & indexMask;
+        }
+        index.putInt(slot << 2, id + 1);
+    }
+
+    private void removeFromIndex(int id) {
+        int hole = (int) hashOf(id) & indexMask;
+        while (index.getInt(hole << 2) != id + 1) {
+            hole = (hole + 1) & indexMask;
+        }
+        // Записи дальше по цепочке, которые могут стоять на месте дыры, сдвигаются в неё
+        int slot = (hole + 1) & indexMask;
+        while (true) {
+            int ref = index.getInt(slot << 2);
+            if (ref == 0) {
+                break;
+            }
+            int home = (int) hashOf(ref - 1) & indexMask;
+            if (((slot - home) & indexMask) >= ((slot - hole) & indexMask)) {
+                index.putInt(hole << 2, ref);
+                hole = slot;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+        index.putInt(hole << 2, 0);
+    }
+
+    private void moveToHead(int id) {
+        if (id != head) {
+            unlink(id);
+            linkAtHead(id);
+        }
+    }
+
+    private void linkAtHead(int id) {
+        setLink(id, PREVIOUS, -1);
+        setLink(id, NEXT, head);
+        if (head >= 0) {
+            setLink(head, PREVIOUS, id);
+        }
+        head = id;
+        if (tail < 0) {
+            tail = id;
+        }
+    }
+
+    private void unlink(int id) {
+        int previous = getLink(id, PREVIOUS);
+        int next = getLink(id, NEXT);
+        if (previous >= 0) {
+            setLink(previous, NEXT, next);
+        } else {
+            head = next;
+        }
+        if (next >= 0) {
+            setLink(next, PREVIOUS, previous);
+        } else {
+            tail = previous;
+        }
+    }
+
+    private int getLink(int id, int field) {
+        return chunks[id >>> chunkShift].getInt((id & chunkMask) * entryBytes + field);
+    }
+
+    private void setLink(int id, int field, int value) {
+        chunks[id >>> chunkShift].putInt((id & chunkMask) * entryBytes + field, value);
+    }
+}
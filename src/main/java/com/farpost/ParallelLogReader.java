@@ -0,0 +1,183 @@
+package com.farpost;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Параллельный разбор файла лога.
+ * <p>
+ * Файл делится на куски по границам строк. Куски разбираются в пуле потоков в компактные записи
+ * (секунда и признак отказа), а обработчик получает записи строго в порядке файла в вызывающем потоке.
+ * Поэтому скользящее окно и инциденты на стыке кусков обрабатываются так же, как при последовательном чтении,
+ * и вывод совпадает с однопоточным побайтно.
+ */
+public class ParallelLogReader {
+    // Размер куска по умолчанию: достаточно крупный, чтобы накладные расходы на задачу были незаметны
+    static final int DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024;
+    // Сколько кусков на поток может быть в работе одновременно; ограничивает расход памяти
+    private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
+    /**
+     * Получает разобранную строку лога.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void onRecord(long epochSecond, boolean isFailure);
+    }
+
+    private final Path path;
+    private final int threads;
+    private final long responseTimeThresholdMs;
+    private final int chunkSize;
+    // null - метрики не собираются
+    private AnalyzerMetrics metrics;
+
+    public ParallelLogReader(Path path, int threads, long responseTimeThresholdMs) {
+        this(path, threads, responseTimeThresholdMs, DEFAULT_CHUNK_SIZE);
+    }
+
+    ParallelLogReader(Path path, int threads, long responseTimeThresholdMs, int chunkSize) {
+        this.path = path;
+        this.threads = threads;
+        this.responseTimeThresholdMs = responseTimeThresholdMs;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Учитывать строки и время в {@code metrics}: разбор меряется по кускам в потоках пула, анализ - по выдаче
+     * записей куска обработчику.
+     */
+    public void setMetrics(AnalyzerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void forEachRecord(RecordHandler handler) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "log-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Deque<Future<RecordChunk>> pending = new ArrayDeque<>();
+            int maxPending = threads * CHUNKS_IN_FLIGHT_PER_THREAD;
+
+            long chunkStart = 0;
+            while (chunkStart < size || !pending.isEmpty()) {
+                // Подаём куски в пул, пока не упрёмся в ограничение
+                while (chunkStart < size && pending.size() < maxPending) {
+                    long start = chunkStart;
+                    long end = nextLineStart(channel, Math.min(size, start + chunkSize), size);
+                    pending.addLast(executor.submit(() -> parseChunk(channel, start, end)));
+                    chunkStart = end;
+                }
+                // Записи отдаём строго в порядке кусков
+                RecordChunk chunk = await(pending.removeFirst());
+                long analyzeStart = metrics != null ? System.nanoTime() : 0;
+                for (int i = 0; i < chunk.size; i++) {
+                    long record = chunk.records[i];
+                    handler.onRecord(record >> 1, (record & 1) != 0);
+                }
+                if (metrics != null) {
+                    metrics.addAnalyzeNanos(System.nanoTime() - analyzeStart);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private RecordChunk parseChunk(FileChannel channel, long start, long end) {
+        long parseStart = System.nanoTime();
+        LogParser parser = new LogParser();
+        RecordChunk chunk = new RecordChunk((int) Math.min(1 << 20, Math.max(16, (end - start) / 128)));
+        try {
+            MappedLogReader.forEachLine(channel, start, end, MappedLogReader.DEFAULT_REGION_SIZE, (buf, from, to) -> {
+                chunk.lines++;
+                if (parser.parseLine(buf, from, to)) {
+                    chunk.add(parser.getEpochSecond(), parser.isFailure(responseTimeThresholdMs));
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (metrics != null) {
+            metrics.addLines(chunk.lines, chunk.lines - chunk.size, end - start);
+            metrics.addParseNanos(System.nanoTime() - parseStart);
+        }
+        return chunk;
+    }
+
+    /**
+     * Находит начало строки, следующей за позицией {@code position} (или сам {@code position}, если он уже
+     * в начале строки).
+     */
+    static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        if (position == 0 || position >= size) {
+            return Math.min(position, size);
+        }
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        long offset = position - 1;
+        while (offset < size) {
+            probe.clear();
+            int read = channel.read(probe, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    private static RecordChunk await(Future<RecordChunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Разбор лога прерван", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("Ошибка разбора лога: " + cause, cause);
+        }
+    }
+
+    /**
+     * Записи одного куска, упакованные в long: секунда, сдвинутая на бит, и признак отказа в младшем бите.
+     */
+    private static final class RecordChunk {
+        private long[] records;
+        private int size;
+        // Строк в куске, включая некорректные
+        private long lines;
+
+        RecordChunk(int capacity) {
+            this.records = new long[capacity];
+        }
+
+        void add(long epochSecond, boolean isFailure) {
+            if (size == records.length) {
+                records = Arrays.copyOf(records, size * 2);
+            }
+            records[size++] = (epochSecond << 1) | (isFailure ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.farpost;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Поток, который читает исходный поток в отдельном потоке выполнения.
+ * <p>
+ * Фоновый поток заполняет крупные буферы из источника (например, распаковывает gzip) и передаёт их через
+ * ограниченную очередь, поэтому чтение источника и разбор строк идут одновременно, а память ограничена
+ * {@code queueCapacity} буферами.
+ */
+public class PipelinedInputStream extends InputStream {
+    static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+    // Признак конца данных в очереди
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final BlockingQueue<byte[]> queue;
+    private final Thread producer;
+    private volatile IOException producerFailure;
+
+    private byte[] current = new byte[0];
+    private int currentLength = 0;
+    private int currentPosition = 0;
+    private boolean finished = false;
+
+    public PipelinedInputStream(InputStream source, String threadName) {
+        this(source, threadName, DEFAULT_BUFFER_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    PipelinedInputStream(InputStream source, String threadName, int bufferSize, int queueCapacity) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.producer = new Thread(() -> produce(source, bufferSize), threadName);
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    private void produce(InputStream source, int bufferSize) {
+        try (InputStream in = source) {
+            while (true) {
+                byte[] buffer = new byte[bufferSize];
+                int filled = 0;
+                int read = 0;
+                while (filled < bufferSize && (read = in.read(buffer, filled, bufferSize - filled)) > 0) {
+                    filled += read;
+                }
+                if (filled > 0) {
+                    // Неполным бывает только последний буфер, его обрезаем копированием
+                    queue.put(filled == bufferSize ? buffer : Arrays.copyOf(buffer, filled));
+                }
+                if (read < 0 || filled < bufferSize) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            producerFailure = e;
+        } catch (InterruptedException e) {
+            // Читатель закрыл поток
+            return;
+        }
+        try {
+            queue.put(END_OF_STREAM);
+        } catch (InterruptedException ignored) {
+            // Читатель закрыл поток, сообщать о конце некому
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current[currentPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int count = Math.min(len, currentLength - currentPosition);
+        System.arraycopy(current, currentPosition, b, off, count);
+        currentPosition += count;
+        return count;
+    }
+
+    private boolean ensureData() throws IOException {
+        while (currentPosition == currentLength) {
+            if (finished) {
+                return false;
+            }
+            byte[] next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Чтение прервано");
+            }
+            if (next == END_OF_STREAM) {
+                finished = true;
+                if (producerFailure != null) {
+                    throw producerFailure;
+                }
+                return false;
+            }
+            current = next;
+            currentLength = next.length;
+            currentPosition = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        producer.interrupt();
+        queue.clear();
+    }
+}
@@ -0,0 +1,282 @@
+package com.farpost;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Разбор лога из потока конвейером: чтение, разбор и анализ в разных потоках выполнения.
+ * <p>
+ * Поток чтения заполняет блоки байтов, обрезая их по последнему переводу строки, и раздаёт блоки по кругу
+ * {@code workers} потокам разбора. Каждый поток разбора превращает строки блока в компактные записи (секунда и
+ * признак отказа) и возвращает блок, а вызывающий поток забирает блоки в том же круговом порядке и отдаёт
+ * записи обработчику строго в порядке потока. Поэтому результат совпадает с последовательным чтением.
+ * <p>
+ * Стадии связаны очередями {@link SpscRingBuffer} с одним писателем и одним читателем: у каждого потока
+ * разбора своя входная и выходная очередь, отработанные блоки возвращаются потоку чтения через отдельную очередь.
+ * Блоков в работе не больше {@code blocksInFlight}, поэтому память ограничена, а блоки и массивы записей
+ * переиспользуются.
+ */
+public class PipelinedLogReader {
+    static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    // Сколько блоков на поток разбора может быть в работе одновременно
+    private static final int BLOCKS_IN_FLIGHT_PER_WORKER = 4;
+
+    // Признак конца данных в очередях
+    private static final Block END_OF_STREAM = new Block(0);
+
+    private final InputStream in;
+    private final int workers;
+    private final long responseTimeThresholdMs;
+    private final int blockSize;
+    private final int blocksInFlight;
+
+    private final SpscRingBuffer<Block>[] workerInputs;
+    private final SpscRingBuffer<Block>[] workerOutputs;
+    private final SpscRingBuffer<Block> freeBlocks;
+    private int allocatedBlocks = 0;
+    // null - метрики не собираются
+    private AnalyzerMetrics metrics;
+
+    private volatile Throwable failure;
+
+    public PipelinedLogReader(InputStream in, int workers, long responseTimeThresholdMs) {
+        this(in, workers, responseTimeThresholdMs, DEFAULT_BLOCK_SIZE);
+    }
+
+    PipelinedLogReader(InputStream in, int workers, long responseTimeThresholdMs, int blockSize) {
+        this.in = in;
+        this.workers = workers;
+        this.responseTimeThresholdMs = responseTimeThresholdMs;
+        this.blockSize = blockSize;
+        this.blocksInFlight = workers * BLOCKS_IN_FLIGHT_PER_WORKER + 2;
+        this.workerInputs = newQueues(workers);
+        this.workerOutputs = newQueues(workers);
+        for (int i = 0; i < workers; i++) {
+            // Блоков в работе не больше blocksInFlight, поэтому запись в очереди никогда не упирается в ёмкость
+            workerInputs[i] = new SpscRingBuffer<>(blocksInFlight + 1);
+            workerOutputs[i] = new SpscRingBuffer<>(blocksInFlight + 1);
+        }
+        this.freeBlocks = new SpscRingBuffer<>(blocksInFlight);
+    }
+
+    // Массив обобщённых очередей создаётся только с подстановочным типом; приведение безопасно, пока массив пуст
+    @SuppressWarnings("unchecked")
+    private static <T> SpscRingBuffer<T>[] newQueues(int count) {
+        return (SpscRingBuffer<T>[]) new SpscRingBuffer<?>[count];
+    }
+
+    /**
+     * Учитывать строки и время в {@code metrics}: разбор меряется по блокам в потоках разбора, анализ - по выдаче
+     * записей блока обработчику.
+     */
+    public void setMetrics(AnalyzerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Читает поток до конца и отдаёт записи обработчику в вызывающем потоке. Поток не закрывается.
+     */
+    public void forEachRecord(ParallelLogReader.RecordHandler handler) throws IOException {
+        Thread[] threads = new Thread[workers + 1];
+        threads[0] = new Thread(this::read, "log-reader");
+        for (int i = 0; i < workers; i++) {
+            int worker = i;
+            threads[i + 1] = new Thread(() -> parse(worker), "log-parser");
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try {
+            for (long blockIndex = 0; ; blockIndex++) {
+                Block block = workerOutputs[(int) (blockIndex % workers)].take();
+                if (block == END_OF_STREAM) {
+                    break;
+                }
+                long analyzeStart = metrics != null ? System.nanoTime() : 0;
+                long[] records = block.records;
+                for (int i = 0; i < block.recordCount; i++) {
+                    long record = records[i];
+                    handler.onRecord(record >> 1, (record & 1) != 0);
+                }
+                if (metrics != null) {
+                    metrics.addAnalyzeNanos(System.nanoTime() - analyzeStart);
+                }
+                freeBlocks.offer(block);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Разбор лога прерван", e);
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+        Throwable cause = failure;
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause != null) {
+            throw new IOException("Ошибка разбора лога: " + cause, cause);
+        }
+    }
+
+    private void read() {
+        try {
+            byte[] carry = new byte[0];
+            int carryLength = 0;
+            boolean endOfStream = false;
+            for (long blockIndex = 0; !endOfStream; blockIndex++) {
+                Block block = acquireBlock();
+                if (block.data.length <= carryLength) {
+                    block.grow(carryLength * 2);
+                }
+                System.arraycopy(carry, 0, block.data, 0, carryLength);
+                int length = carryLength;
+                int cut;
+                while (true) {
+                    int read = 0;
+                    while (length < block.data.length && (read = in.read(block.data, length, block.data.length - length)) >= 0) {
+                        length += read;
+                    }
+                    if (read < 0) {
+                        endOfStream = true;
+                        cut = length;
+                        break;
+                    }
+                    cut = lastLineEnd(block.data, length);
+                    if (cut > 0) {
+                        break;
+                    }
+                    // Строка длиннее блока: расширяем, пока не дочитаем её до конца
+                    block.grow(block.data.length * 2);
+                }
+                carryLength = length - cut;
+                if (carry.length < carryLength) {
+                    carry = new byte[Math.max(carryLength, carry.length * 2)];
+                }
+                System.arraycopy(block.data, cut, carry, 0, carryLength);
+                block.length = cut;
+                // Пустой блок бывает только в конце потока, его просто бросаем
+                if (cut > 0) {
+                    workerInputs[(int) (blockIndex % workers)].put(block);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Обработчик закончил работу раньше
+            return;
+        } catch (Throwable e) {
+            failure = e;
+        }
+        try {
+            for (SpscRingBuffer<Block> input : workerInputs) {
+                input.put(END_OF_STREAM);
+            }
+        } catch (InterruptedException ignored) {
+            // Обработчик закончил работу, сообщать о конце некому
+        }
+    }
+
+    private Block acquireBlock() throws InterruptedException {
+        Block block = freeBlocks.poll();
+        if (block != null) {
+            return block;
+        }
+        if (allocatedBlocks < blocksInFlight) {
+            allocatedBlocks++;
+            return new Block(blockSize);
+        }
+        return freeBlocks.take();
+    }
+
+    // Позиция сразу за последним переводом строки или 0, если его нет
+    private static int lastLineEnd(byte[] data, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (data[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private void parse(int worker) {
+        LogParser parser = new LogParser();
+        SpscRingBuffer<Block> input = workerInputs[worker];
+        SpscRingBuffer<Block> output = workerOutputs[worker];
+        try {
+            while (true) {
+                Block block = input.take();
+                if (block != END_OF_STREAM) {
+                    try {
+                        parseBlock(parser, block);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                        block = END_OF_STREAM;
+                    }
+                }
+                output.put(block);
+                if (block == END_OF_STREAM) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Обработчик закончил работу раньше
+        }
+    }
+
+    private void parseBlock(LogParser parser, Block block) {
+        long parseStart = System.nanoTime();
+        long lines = 0;
+        block.recordCount = 0;
+        byte[] data = block.data;
+        ByteBuffer buffer = block.buffer;
+        int lineStart = 0;
+        while (lineStart < block.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < block.length && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            // Как MappedLogReader: без \n и завершающего \r
+            int to = lineEnd > lineStart && data[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            lines++;
+            if (parser.parseLine(buffer, lineStart, to)) {
+                block.add(parser.getEpochSecond(), parser.isFailure(responseTimeThresholdMs));
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (metrics != null) {
+            metrics.addLines(lines, lines - block.recordCount, block.length);
+            metrics.addParseNanos(System.nanoTime() - parseStart);
+        }
+    }
+
+    /**
+     * Блок байтов с целыми строками и записями, разобранными из них. Записи упакованы в long так же,
+     * как в {@link ParallelLogReader}: секунда, сдвинутая на бит, и признак отказа в младшем бите.
+     */
+    private static final class Block {
+        private byte[] data;
+        private ByteBuffer buffer;
+        private int length;
+        private long[] records = new long[1024];
+        private int recordCount;
+
+        Block(int size) {
+            this.data = new byte[size];
+            this.buffer = ByteBuffer.wrap(data);
+        }
+
+        void grow(int size) {
+            data = Arrays.copyOf(data, size);
+            buffer = ByteBuffer.wrap(data);
+        }
+
+        void add(long epochSecond, boolean isFailure) {
+            if (recordCount == records.length) {
+                records = Arrays.copyOf(records, recordCount * 2);
+            }
+            records[recordCount++] = (epochSecond << 1) | (isFailure ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.farpost;
+
+import java.util.Arrays;
+
+/**
+ * Буфер переупорядочивания записей по секундам с допуском опоздания.
+ * <p>
+ * Записи от нескольких процессов nginx попадают в лог не строго по времени. Буфер держит последние
+ * {@code latenessSeconds + 1} секунд и отдаёт секунду обработчику, только когда водяной знак (наибольшая
+ * встреченная секунда минус допуск) её прошёл: к этому моменту все записи секунды в пределах допуска уже
+ * пришли. Секунды отдаются по возрастанию, записи внутри секунды - в порядке поступления.
+ * <p>
+ * Запись старше водяного знака опоздала больше чем на допуск: её секунда уже отдана, поэтому запись
+ * не учитывается, а только считается в {@link #getLateCount()}. Память ограничена записями
+ * {@code latenessSeconds + 1} секунд, задержка - допуском.
+ */
+public final class ReorderBuffer {
+    /**
+     * Получает записи по возрастанию секунд.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void onRecord(long epochSecond, boolean isFailure, double responseTimeMs);
+    }
+
+    private final int latenessSeconds;
+    private final RecordHandler handler;
+
+    // Ячейка на секунду: секунда и записи в порядке поступления
+    private final long[] slotSeconds;
+    private final int[] slotSizes;
+    private final boolean[][] slotFailures;
+    private final double[][] slotResponseTimes;
+
+    private long newestSecond = Long.MIN_VALUE;
+    // Секунды меньше этой уже отданы
+    private long releasedBefore = Long.MIN_VALUE;
+    private long lateCount = 0;
+
+    public ReorderBuffer(int latenessSeconds, RecordHandler handler) {
+        this.latenessSeconds = latenessSeconds;
+        this.handler = handler;
+        int slots = latenessSeconds + 1;
+        this.slotSeconds = new long[slots];
+        this.slotSizes = new int[slots];
+        this.slotFailures = new boolean[slots][16];
+        this.slotResponseTimes = new double[slots][16];
+        Arrays.fill(slotSeconds, Long.MIN_VALUE);
+    }
+
+    /**
+     * Добавляет запись. Возвращает {@code false}, если запись опоздала больше чем на допуск и не учтена.
+     */
+    public boolean add(long epochSecond, boolean isFailure, double responseTimeMs) {
+        if (epochSecond < releasedBefore) {
+            lateCount++;
+            return false;
+        }
+        if (epochSecond > newestSecond) {
+            releaseBefore(epochSecond - latenessSeconds);
+            newestSecond = epochSecond;
+        }
+        int slot = (int) Math.floorMod(epochSecond, (long) slotSeconds.length);
+        // Прежняя секунда ячейки старше водяного знака и уже отдана
+        slotSeconds[slot] = epochSecond;
+        int size = slotSizes[slot];
+        if (size == slotFailures[slot].length) {
+            slotFailures[slot] = Arrays.copyOf(slotFailures[slot], size * 2);
+            slotResponseTimes[slot] = Arrays.copyOf(slotResponseTimes[slot], size * 2);
+        }
+        slotFailures[slot][size] = isFailure;
+        slotResponseTimes[slot][size] = responseTimeMs;
+        slotSizes[slot] = size + 1;
+        return true;
+    }
+
+    /**
+     * Отдаёт все оставшиеся записи, например в конце лога.
+     */
+    public void flush() {
+        if (newestSecond != Long.MIN_VALUE) {
+            releaseBefore(newestSecond + 1);
+        }
+    }
+
+    public long getLateCount() {
+        return lateCount;
+    }
+
+    // Отдаёт секунды меньше watermark по возрастанию. Секунды в буфере лежат в [newestSecond - latenessSeconds,
+    // newestSecond], поэтому даже после скачка времени перебирается не больше latenessSeconds + 1 секунд
+    private void releaseBefore(long watermark) {
+        if (watermark <= releasedBefore) {
+            return;
+        }
+        if (newestSecond == Long.MIN_VALUE) {
+            releasedBefore = watermark;
+            return;
+        }
+        long from = Math.max(releasedBefore, newestSecond - latenessSeconds);
+        long to = Math.min(watermark, newestSecond + 1);
+        for (long second = from; second < to; second++) {
+            int slot = (int) Math.floorMod(second, (long) slotSeconds.length);
+            if (slotSeconds[slot] == second) {
+                boolean[] failures = slotFailures[slot];
+                double[] responseTimes = slotResponseTimes[slot];
+                for (int i = 0; i < slotSizes[slot]; i++) {
+                    handler.onRecord(second, failures[i], responseTimes[i]);
+                }
+                slotSizes[slot] = 0;
+                slotSeconds[slot] = Long.MIN_VALUE;
+            }
+        }
+        releasedBefore = watermark;
+    }
+}
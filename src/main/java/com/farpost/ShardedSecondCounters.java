@@ -0,0 +1,174 @@
+package com.farpost;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Счётчики запросов и отказов по секундам, которые пополняют одновременно многие потоки, с выдачей секунд
+ * по возрастанию одному обработчику - как {@link ReorderBuffer}, но для потоков, а не для одного читателя.
+ * <p>
+ * Секунды разложены по кольцу ячеек (разбиение по времени), ячейки защищены полосами блокировок: ячейка
+ * {@code slot} под блокировкой {@code slot % STRIPES}. Потоки, пишущие разные секунды, почти не мешают друг другу,
+ * а запись одной секунды - это одна короткая блокировка на пачку строк, а не на строку. Блокировки -
+ * {@link ReentrantLock}, а не {@code synchronized}: виртуальные потоки Java 21 не закрепляются на потоке-носителе.
+ * <p>
+ * Секунда отдаётся, когда водяной знак - самая поздняя секунда минус допуск опоздания - прошёл её.
+ * Выдача идёт под отдельной блокировкой, поэтому обработчик может быть однопоточным. Записи для уже отданной
+ * секунды не учитываются и считаются отдельно.
+ */
+public final class ShardedSecondCounters {
+    private static final int STRIPES = 64;
+    private static final int MIN_SLOTS = 64;
+
+    private final int latenessSeconds;
+    private final LogIndex.SecondHandler handler;
+    private final int slotMask;
+    private final long[] slotSeconds;
+    private final long[] slotTotals;
+    private final long[] slotFailures;
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final ReentrantLock releaseLock = new ReentrantLock();
+
+    private final AtomicLong newestSecond = new AtomicLong(Long.MIN_VALUE);
+    // Все секунды раньше этой отданы; меняется под блокировкой выдачи и полосы ячейки отдаваемой секунды
+    private volatile long releasedBefore = Long.MIN_VALUE;
+    private final AtomicLong lateCount = new AtomicLong();
+
+    public ShardedSecondCounters(int latenessSeconds, LogIndex.SecondHandler handler) {
+        this.latenessSeconds = latenessSeconds;
+        this.handler = handler;
+        // Кольцо вдвое больше допуска: неотданные секунды в нём не сталкиваются
+        int slots = Math.max(MIN_SLOTS, Integer.highestOneBit(Math.max(1, latenessSeconds + 1)) * 4);
+        this.slotMask = slots - 1;
+        this.slotSeconds = new long[slots];
+        this.slotTotals = new long[slots];
+        this.slotFailures = new long[slots];
+        Arrays.fill(slotSeconds, Long.MIN_VALUE);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Добавляет {@code total} запросов секунды, из них {@code failures} отказов. Можно вызывать из любого потока.
+     *
+     * @return false, если секунда уже отдана и запросы не учтены
+     */
+    public boolean add(long epochSecond, long total, long failures) {
+        newestSecond.accumulateAndGet(epochSecond, Math::max);
+        int slot = (int) (epochSecond & slotMask);
+        ReentrantLock stripe = stripes[slot % STRIPES];
+        while (true) {
+            stripe.lock();
+            try {
+                if (epochSecond < releasedBefore) {
+                    lateCount.addAndGet(total);
+                    return false;
+                }
+                if (slotSeconds[slot] == Long.MIN_VALUE || slotSeconds[slot] == epochSecond) {
+                    slotSeconds[slot] = epochSecond;
+                    slotTotals[slot] += total;
+                    slotFailures[slot] += failures;
+                    return true;
+                }
+            } finally {
+                stripe.unlock();
+            }
+            // Ячейку занимает секунда на целое кольцо раньше: она уже за водяным знаком, отдаём её
+            releaseReady();
+        }
+    }
+
+    /**
+     * Отдаёт обработчику по возрастанию все секунды, которые прошёл водяной знак.
+     */
+    public void releaseReady() {
+        long newest = newestSecond.get();
+        if (newest != Long.MIN_VALUE) {
+            releaseBefore(newest - latenessSeconds);
+        }
+    }
+
+    /**
+     * Отдаёт все накопленные секунды, например при остановке. Записи для них дальше считаются опоздавшими.
+     */
+    public void flush() {
+        long newest = newestSecond.get();
+        if (newest != Long.MIN_VALUE) {
+            releaseBefore(newest + 1);
+        }
+    }
+
+    private void releaseBefore(long watermark) {
+        releaseLock.lock();
+        try {
+            long second = releasedBefore;
+            while (second < watermark) {
+                if (second == Long.MIN_VALUE || watermark - second > slotSeconds.length) {
+                    // До водяного знака больше кольца: не перебираем пустые секунды, а переходим к самой ранней
+                    second = skipToEarliestPending(watermark);
+                    if (second >= watermark) {
+                        return;
+                    }
+                }
+                release(second);
+                second++;
+            }
+        } finally {
+            releaseLock.unlock();
+        }
+    }
+
+    private void release(long second) {
+        int slot = (int) (second & slotMask);
+        long total = 0;
+        long failures = 0;
+        ReentrantLock stripe = stripes[slot % STRIPES];
+        stripe.lock();
+        try {
+            if (slotSeconds[slot] == second) {
+                total = slotTotals[slot];
+                failures = slotFailures[slot];
+                slotSeconds[slot] = Long.MIN_VALUE;
+                slotTotals[slot] = 0;
+                slotFailures[slot] = 0;
+            }
+            releasedBefore = second + 1;
+        } finally {
+            stripe.unlock();
+        }
+        if (total > 0) {
+            handler.onSecond(second, total, failures);
+        }
+    }
+
+    // Сдвигает границу отданного к самой ранней неотданной секунде, но не дальше водяного знака.
+    // Под всеми полосами сразу, чтобы запись раньше новой границы не осталась в кольце неотданной
+    private long skipToEarliestPending(long watermark) {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+        try {
+            long earliest = Long.MAX_VALUE;
+            for (long second : slotSeconds) {
+                if (second != Long.MIN_VALUE && second < earliest) {
+                    earliest = second;
+                }
+            }
+            releasedBefore = Math.max(releasedBefore, Math.min(earliest, watermark));
+            return releasedBefore;
+        } finally {
+            for (ReentrantLock stripe : stripes) {
+                stripe.unlock();
+            }
+        }
+    }
+
+    /**
+     * Число запросов, не учтённых из-за опоздания больше допуска.
+     */
+    public long getLateCount() {
+        return lateCount.get();
+    }
+}
@@ -0,0 +1,267 @@
+package com.farpost;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Скользящее окно по интервалам времени на примитивных массивах.
+ * <p>
+ * Время делится на интервалы по {@code bucketSeconds} секунд. Кольцевой буфер на
+ * {@code windowSeconds / bucketSeconds + 1} ячеек (окно включает текущий интервал и
+ * {@code windowSeconds / bucketSeconds} предыдущих) хранит для каждого интервала только число запросов и отказов,
+ * а суммы по окну ведутся нарастающим итогом. Память не зависит от числа запросов в секунду, запись стоит O(1)
+ * при любой длине окна: при переходе к новому интервалу очищаются только ячейки, которые он занимает, то есть
+ * вытеснение стоит O(1) на интервал. Подсчёт с заданной секунды проходит по всем ячейкам, но нужен только
+ * при начале инцидента. Окно в 5 минут по секундам - это 301 ячейка, по 10 секунд - 31.
+ * <p>
+ * По желанию для каждого интервала хранится и {@link LatencyHistogram} времени ответа, чтобы считать процентили
+ * по части окна; память при этом тоже не зависит от числа запросов, но растёт с числом ячеек.
+ * <p>
+ * Время должно идти вперёд. Запись со временем раньше окна (нарушение порядка в логе) учитывается
+ * в последнем интервале окна, чтобы не потерять её в подсчёте доступности.
+ */
+public final class SlidingWindow implements WindowCounts {
+    private final int bucketSeconds;
+    // Число интервалов в окне, не считая текущего
+    private final int windowBuckets;
+    private final long[] slotBuckets;
+    private final int[] slotTotals;
+    private final int[] slotFailures;
+    // null, если время ответа не учитывается
+    private final LatencyHistogram[] slotLatencies;
+
+    private long newestBucket = Long.MIN_VALUE;
+    private long total = 0;
+    private long failures = 0;
+
+    public SlidingWindow(int windowSeconds) {
+        this(windowSeconds, false);
+    }
+
+    public SlidingWindow(int windowSeconds, boolean trackLatency) {
+        this(windowSeconds, 1, trackLatency);
+    }
+
+    /**
+     * Окно из интервалов по {@code bucketSeconds} секунд; {@code windowSeconds} должно делиться на
+     * {@code bucketSeconds} без остатка.
+     */
+    public SlidingWindow(int windowSeconds, int bucketSeconds, boolean trackLatency) {
+        if (bucketSeconds < 1 || windowSeconds < bucketSeconds || windowSeconds % bucketSeconds != 0) {
+            throw new IllegalArgumentException("Длина окна " + windowSeconds
+                    + " с должна быть кратна длине интервала " + bucketSeconds + " с");
+        }
+        this.bucketSeconds = bucketSeconds;
+        this.windowBuckets = windowSeconds / bucketSeconds;
+        int slots = windowBuckets + 1;
+        this.slotBuckets = new long[slots];
+        this.slotTotals = new int[slots];
+        this.slotFailures = new int[slots];
+        Arrays.fill(slotBuckets, Long.MIN_VALUE);
+        if (trackLatency) {
+            slotLatencies = new LatencyHistogram[slots];
+            for (int slot = 0; slot < slots; slot++) {
+                slotLatencies[slot] = new LatencyHistogram();
+            }
+        } else {
+            slotLatencies = null;
+        }
+    }
+
+    /**
+     * Добавляет запись и вытесняет секунды, вышедшие за окно.
+     */
+    public void add(long epochSecond, boolean isFailure) {
+        add(epochSecond, isFailure, 0);
+    }
+
+    /**
+     * Добавляет запись со временем ответа; время учитывается, только если окно создано с {@code trackLatency}.
+     */
+    public void add(long epochSecond, boolean isFailure, double responseTimeMs) {
+        int slot = slotFor(epochSecond);
+        slotTotals[slot]++;
+        total++;
+        if (isFailure) {
+            slotFailures[slot]++;
+            failures++;
+        }
+        if (slotLatencies != null) {
+            slotLatencies[slot].record(responseTimeMs);
+        }
+    }
+
+    /**
+     * Добавляет сразу все записи секунды: {@code count} запросов, из них {@code failureCount} отказов.
+     */
+    public void addSecond(long epochSecond, long count, long failureCount) {
+        int slot = slotFor(epochSecond);
+        slotTotals[slot] += (int) count;
+        slotFailures[slot] += (int) failureCount;
+        total += count;
+        failures += failureCount;
+    }
+
+    // Ячейка интервала записи; интервалы, вышедшие за окно, вытесняются
+    private int slotFor(long epochSecond) {
+        long bucket = Math.floorDiv(epochSecond, bucketSeconds);
+        if (bucket > newestBucket) {
+            advanceTo(bucket);
+        } else if (bucket < newestBucket - windowBuckets) {
+            bucket = newestBucket;
+        }
+        int slot = slotIndex(bucket);
+        slotBuckets[slot] = bucket;
+        return slot;
+    }
+
+    // Новые интервалы (newestBucket, bucket] занимают ровно те ячейки, интервалы которых вышли за окно
+    private void advanceTo(long bucket) {
+        long newIntervals = newestBucket == Long.MIN_VALUE
+                ? slotBuckets.length
+                : Math.min(bucket - newestBucket, slotBuckets.length);
+        for (long b = bucket - newIntervals + 1; b <= bucket; b++) {
+            int slot = slotIndex(b);
+            if (slotBuckets[slot] != Long.MIN_VALUE) {
+                total -= slotTotals[slot];
+                failures -= slotFailures[slot];
+                slotTotals[slot] = 0;
+                slotFailures[slot] = 0;
+                slotBuckets[slot] = Long.MIN_VALUE;
+                if (slotLatencies != null) {
+                    slotLatencies[slot].reset();
+                }
+            }
+        }
+        newestBucket = bucket;
+    }
+
+    private int slotIndex(long bucket) {
+        return (int) Math.floorMod(bucket, (long) slotBuckets.length);
+    }
+
+    @Override
+    public long getTotal() {
+        return total;
+    }
+
+    @Override
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * Число запросов в интервале, в который попадает секунда {@code epochSecond}; 0, если интервала нет в окне.
+     */
+    @Override
+    public long getTotalAt(long epochSecond) {
+        long bucket = Math.floorDiv(epochSecond, bucketSeconds);
+        int slot = slotIndex(bucket);
+        return slotBuckets[slot] == bucket ? slotTotals[slot] : 0;
+    }
+
+    /**
+     * Число отказов в интервале, в который попадает секунда {@code epochSecond}; 0, если интервала нет в окне.
+     */
+    @Override
+    public long getFailuresAt(long epochSecond) {
+        long bucket = Math.floorDiv(epochSecond, bucketSeconds);
+        int slot = slotIndex(bucket);
+        return slotBuckets[slot] == bucket ? slotFailures[slot] : 0;
+    }
+
+    /**
+     * Первая секунда интервала, в который попадает секунда {@code epochSecond}.
+     */
+    @Override
+    public long bucketStart(long epochSecond) {
+        return Math.floorDiv(epochSecond, bucketSeconds) * bucketSeconds;
+    }
+
+    /**
+     * Попадают ли секунды в один интервал.
+     */
+    @Override
+    public boolean isSameBucket(long epochSecond, long otherEpochSecond) {
+        return Math.floorDiv(epochSecond, bucketSeconds) == Math.floorDiv(otherEpochSecond, bucketSeconds);
+    }
+
+    /**
+     * Число запросов в окне, начиная с интервала, в который попадает секунда {@code epochSecond}.
+     */
+    @Override
+    public long getTotalSince(long epochSecond) {
+        long fromBucket = Math.floorDiv(epochSecond, bucketSeconds);
+        long sum = 0;
+        for (int slot = 0; slot < slotBuckets.length; slot++) {
+            if (slotBuckets[slot] >= fromBucket) {
+                sum += slotTotals[slot];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Число отказов в окне, начиная с интервала, в который попадает секунда {@code epochSecond}.
+     */
+    @Override
+    public long getFailuresSince(long epochSecond) {
+        long fromBucket = Math.floorDiv(epochSecond, bucketSeconds);
+        long sum = 0;
+        for (int slot = 0; slot < slotBuckets.length; slot++) {
+            if (slotBuckets[slot] >= fromBucket) {
+                sum += slotFailures[slot];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Добавляет в {@code target} время ответа запросов окна, начиная с интервала, в который попадает
+     * секунда {@code epochSecond}.
+     */
+    public void addLatenciesSince(long epochSecond, LatencyHistogram target) {
+        long fromBucket = Math.floorDiv(epochSecond, bucketSeconds);
+        for (int slot = 0; slot < slotBuckets.length; slot++) {
+            if (slotBuckets[slot] >= fromBucket) {
+                target.add(slotLatencies[slot]);
+            }
+        }
+    }
+
+    /**
+     * Сохраняет счётчики окна для контрольной точки ({@link Checkpointer}). Время ответа не сохраняется.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(slotBuckets.length);
+        out.writeLong(newestBucket);
+        for (int slot = 0; slot < slotBuckets.length; slot++) {
+            out.writeLong(slotBuckets[slot]);
+            out.writeInt(slotTotals[slot]);
+            out.writeInt(slotFailures[slot]);
+        }
+    }
+
+    /**
+     * Восстанавливает счётчики, сохранённые {@link #writeTo} окном той же длины и с теми же интервалами.
+     *
+     * @throws IOException если сохранено окно другого размера
+     */
+    public void readFrom(DataInput in) throws IOException {
+        if (in.readInt() != slotBuckets.length) {
+            throw new IOException("Сохранено окно другого размера");
+        }
+        newestBucket = in.readLong();
+        total = 0;
+        failures = 0;
+        for (int slot = 0; slot < slotBuckets.length; slot++) {
+            slotBuckets[slot] = in.readLong();
+            slotTotals[slot] = in.readInt();
+            slotFailures[slot] = in.readInt();
+            total += slotTotals[slot];
+            failures += slotFailures[slot];
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.farpost;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ограниченная очередь без блокировок для одного писателя и одного читателя.
+ * <p>
+ * Писатель меняет только {@code tail}, читатель только {@code head}, поэтому достаточно упорядоченной
+ * публикации счётчиков без CAS. Ожидание в {@link #put} и {@link #take} сначала крутится, затем уступает
+ * процессор и засыпает на растущее время, чтобы не занимать ядро, когда соседняя стадия не успевает.
+ */
+public final class SpscRingBuffer<T> {
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long MIN_PARK_NANOS = 50_000;
+    // Сон удваивается до этого предела: сотни ждущих потоков (например, при слиянии логов) не будят процессор зря
+    private static final long MAX_PARK_NANOS = 2_000_000;
+
+    private final Object[] items;
+    private final int mask;
+    // Следующая позиция для чтения и для записи; растут неограниченно
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity ёмкость, округляется вверх до степени двойки
+     */
+    public SpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.items = new Object[size];
+        this.mask = size - 1;
+    }
+
+    public boolean offer(T item) {
+        long currentTail = tail.get();
+        if (currentTail - head.get() == items.length) {
+            return false;
+        }
+        items[(int) currentTail & mask] = item;
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long currentHead = head.get();
+        if (currentHead == tail.get()) {
+            return null;
+        }
+        int index = (int) currentHead & mask;
+        T item = (T) items[index];
+        items[index] = null;
+        head.lazySet(currentHead + 1);
+        return item;
+    }
+
+    public void put(T item) throws InterruptedException {
+        for (int attempt = 0; !offer(item); attempt++) {
+            backOff(attempt);
+        }
+    }
+
+    public T take() throws InterruptedException {
+        T item;
+        for (int attempt = 0; (item = poll()) == null; attempt++) {
+            backOff(attempt);
+        }
+        return item;
+    }
+
+    private static void backOff(int attempt) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (attempt < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (attempt < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            int doublings = Math.min(attempt - SPIN_TRIES - YIELD_TRIES, 6);
+            LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << doublings, MAX_PARK_NANOS));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.farpost;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Построчное чтение потока по байтам, без декодирования в символы.
+ * <p>
+ * Перевод строки ищется по 8 байт за раз (SWAR): слово из буфера сравнивается сразу со всеми {@code \n} и
+ * {@code \r}, а старшие биты байтов заодно показывают, есть ли в строке байты вне ASCII. Строки только из ASCII -
+ * почти весь лог - передаются обработчику диапазоном байтов буфера, как у {@link MappedLogReader}. Строка с байтами
+ * вне ASCII (UTF-8 в адресе или user-agent) декодируется как UTF-8 - только она, а не весь поток, и не в кодировке
+ * платформы.
+ * <p>
+ * Строки делятся так же, как у {@link java.io.BufferedReader#readLine()}: по {@code \n}, {@code \r} и
+ * {@code \r\n}; последняя строка может быть без перевода строки.
+ */
+public final class StreamLineReader {
+    static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long NEWLINES = ONES * '\n';
+    private static final long CARRIAGE_RETURNS = ONES * '\r';
+
+    /**
+     * Получает строку с байтами вне ASCII, декодированную как UTF-8; {@code byteLength} - её длина в байтах
+     * без перевода строки.
+     */
+    @FunctionalInterface
+    public interface DecodedLineHandler {
+        void onLine(String line, int byteLength);
+    }
+
+    private final InputStream in;
+    private final int bufferSize;
+
+    public StreamLineReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    StreamLineReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Читает поток до конца. Строки только из ASCII получает {@code asciiLines} (буфер действителен только во время
+     * вызова), остальные - {@code decodedLines}.
+     */
+    public void forEachLine(MappedLogReader.LineHandler asciiLines, DecodedLineHandler decodedLines) throws IOException {
+        byte[] buf = new byte[bufferSize];
+        ByteBuffer view = ByteBuffer.wrap(buf);
+        int filled = 0;
+        int lineStart = 0;
+        int scanPos = 0;
+        // Старшие биты байтов текущей строки, уже просмотренных
+        long highBits = 0;
+        // Предыдущий кусок кончился на \r: \n в начале следующего - часть того же перевода строки
+        boolean skipNewline = false;
+        while (true) {
+            int read = in.read(buf, filled, buf.length - filled);
+            if (read < 0) {
+                break;
+            }
+            filled += read;
+            if (skipNewline && scanPos < filled) {
+                skipNewline = false;
+                if (buf[scanPos] == '\n') {
+                    scanPos++;
+                    lineStart = scanPos;
+                }
+            }
+            while (scanPos < filled) {
+                int end;
+                if (scanPos + Long.BYTES <= filled) {
+                    long word = (long) LONGS.get(buf, scanPos);
+                    long terminators = zeroBytes(word ^ NEWLINES) | zeroBytes(word ^ CARRIAGE_RETURNS);
+                    if (terminators == 0) {
+                        highBits |= word;
+                        scanPos += Long.BYTES;
+                        continue;
+                    }
+                    // Младший отмеченный байт - первый перевод строки в слове; отметки выше него могут быть ложными
+                    int offset = Long.numberOfTrailingZeros(terminators) >>> 3;
+                    highBits |= word & ((1L << (offset << 3)) - 1);
+                    end = scanPos + offset;
+                } else {
+                    byte b = buf[scanPos];
+                    if (b != '\n' && b != '\r') {
+                        highBits |= b;
+                        scanPos++;
+                        continue;
+                    }
+                    end = scanPos;
+                }
+                handleLine(view, lineStart, end, highBits, asciiLines, decodedLines);
+                highBits = 0;
+                scanPos = end + 1;
+                if (buf[end] == '\r') {
+                    if (scanPos < filled) {
+                        if (buf[scanPos] == '\n') {
+                            scanPos++;
+                        }
+                    } else {
+                        skipNewline = true;
+                    }
+                }
+                lineStart = scanPos;
+            }
+            // Незавершённая строка переносится в начало буфера; не поместилась - буфер растёт
+            System.arraycopy(buf, lineStart, buf, 0, filled - lineStart);
+            filled -= lineStart;
+            scanPos -= lineStart;
+            lineStart = 0;
+            if (filled == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+                view = ByteBuffer.wrap(buf);
+            }
+        }
+        if (lineStart < filled) {
+            handleLine(view, lineStart, filled, highBits, asciiLines, decodedLines);
+        }
+    }
+
+    private static void handleLine(ByteBuffer view, int from, int to, long highBits,
+                                   MappedLogReader.LineHandler asciiLines, DecodedLineHandler decodedLines) {
+        if ((highBits & HIGH_BITS) == 0) {
+            asciiLines.onLine(view, from, to);
+        } else {
+            decodedLines.onLine(new String(view.array(), from, to - from, StandardCharsets.UTF_8), to - from);
+        }
+    }
+
+    // Старший бит в каждом нулевом байте слова; выше первого нулевого байта возможны ложные отметки
+    private static long zeroBytes(long word) {
+        return (word - ONES) & ~word & HIGH_BITS;
+    }
+}
@@ -0,0 +1,117 @@
+package com.farpost;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Перебор сетки порогов доступности и времени ответа за один проход по логу.
+ * <p>
+ * Отказ зависит только от порога времени ответа, поэтому скользящее окно заводится одно на каждый порог
+ * {@code t}, а на каждую пару (u, t) - только состояние инцидента {@link WindowIncidentState} над окном своего
+ * {@code t}. Для каждой пары инциденты те же, что выдал бы {@link Analyzer} с этими {@code -u} и {@code -t};
+ * вместо самих инцидентов копятся их число, суммарная длительность и худшая доступность.
+ */
+public class ThresholdSweep {
+    private final double[] availabilityThresholds;
+    private final long[] responseTimeThresholdsMs;
+    private final SlidingWindow[] windows;
+    // Состояние пары с индексом ti * availabilityThresholds.length + ui
+    private final WindowIncidentState[] states;
+
+    // Итоги по парам
+    private final int[] incidentCounts;
+    private final long[] downtimeSeconds;
+    private final double[] worstAvailability;
+
+    public ThresholdSweep(int windowSeconds, double[] availabilityThresholds, long[] responseTimeThresholdsMs) {
+        this(windowSeconds, 1, availabilityThresholds, responseTimeThresholdsMs);
+    }
+
+    /**
+     * Перебор с окном из интервалов по {@code bucketSeconds} секунд, как в {@link SlidingWindow}.
+     */
+    public ThresholdSweep(int windowSeconds, int bucketSeconds,
+                          double[] availabilityThresholds, long[] responseTimeThresholdsMs) {
+        this.availabilityThresholds = availabilityThresholds.clone();
+        this.responseTimeThresholdsMs = responseTimeThresholdsMs.clone();
+        this.windows = new SlidingWindow[responseTimeThresholdsMs.length];
+        int pairs = availabilityThresholds.length * responseTimeThresholdsMs.length;
+        states = new WindowIncidentState[pairs];
+        incidentCounts = new int[pairs];
+        downtimeSeconds = new long[pairs];
+        worstAvailability = new double[pairs];
+        Arrays.fill(worstAvailability, 100.0);
+        for (int ti = 0; ti < windows.length; ti++) {
+            windows[ti] = new SlidingWindow(windowSeconds, bucketSeconds, false);
+            for (int ui = 0; ui < availabilityThresholds.length; ui++) {
+                int pair = ti * availabilityThresholds.length + ui;
+                states[pair] = new WindowIncidentState(windows[ti], windowSeconds, bucketSeconds,
+                        availabilityThresholds[ui],
+                        (startSecond, endSecond, requests, failures, worstSecond, worstBucketAvailability) ->
+                                countIncident(pair, startSecond, endSecond, requests, failures));
+            }
+        }
+    }
+
+    public void add(long epochSecond, int statusCode, double responseTimeMs) {
+        int uCount = availabilityThresholds.length;
+        for (int ti = 0; ti < responseTimeThresholdsMs.length; ti++) {
+            // Как LogParser.isFailure, но с порогом пары
+            boolean isFailure = statusCode >= 500 || responseTimeMs > responseTimeThresholdsMs[ti];
+            int firstPair = ti * uCount;
+            for (int pair = firstPair; pair < firstPair + uCount; pair++) {
+                states[pair].beforeAdd(epochSecond);
+            }
+            windows[ti].add(epochSecond, isFailure);
+            for (int pair = firstPair; pair < firstPair + uCount; pair++) {
+                states[pair].afterAdd(epochSecond, 1, isFailure ? 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * Закрывает инциденты, не завершившиеся к концу лога.
+     */
+    public void finish() {
+        for (WindowIncidentState state : states) {
+            state.finish();
+        }
+    }
+
+    public int getIncidentCount(int ui, int ti) {
+        return incidentCounts[ti * availabilityThresholds.length + ui];
+    }
+
+    public long getDowntimeSeconds(int ui, int ti) {
+        return downtimeSeconds[ti * availabilityThresholds.length + ui];
+    }
+
+    /**
+     * Таблица итогов: строка на пару порогов, пары упорядочены по {@code -t}, затем по {@code -u}.
+     * Дробные числа - с разделителем локали {@code locale}.
+     */
+    public void printTable(PrintStream out, Locale locale) {
+        out.printf(locale, "%-10s %-10s %10s %10s %10s%n", "u", "t", "инцидентов", "простой_с", "худшая_u");
+        for (int ti = 0; ti < responseTimeThresholdsMs.length; ti++) {
+            for (int ui = 0; ui < availabilityThresholds.length; ui++) {
+                int pair = ti * availabilityThresholds.length + ui;
+                out.printf(locale, "%-10s %-10d %10d %10d %10.1f%n",
+                        availabilityThresholds[ui],
+                        responseTimeThresholdsMs[ti],
+                        incidentCounts[pair],
+                        downtimeSeconds[pair],
+                        worstAvailability[pair]
+                );
+            }
+        }
+    }
+
+    // Состояние пары сообщает инцидент так же, как Analyzer его выводит: без перекрытий и без инцидентов нулевой длины
+    private void countIncident(int pair, long startSecond, long endSecond, long requests, long failures) {
+        incidentCounts[pair]++;
+        downtimeSeconds[pair] += endSecond - startSecond;
+        double availability = WindowIncidentState.calculateAvailability(requests, failures);
+        worstAvailability[pair] = Math.min(worstAvailability[pair], availability);
+    }
+}
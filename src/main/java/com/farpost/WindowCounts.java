@@ -0,0 +1,41 @@
+package com.farpost;
+
+/**
+ * Счётчики скользящего окна по интервалам времени, по которым {@link WindowIncidentState} ищет инциденты:
+ * {@link SlidingWindow} и окно ключа {@link KeyedIncidentDetector} вне кучи.
+ */
+interface WindowCounts {
+    long getTotal();
+
+    long getFailures();
+
+    /**
+     * Число запросов в интервале, в который попадает секунда {@code epochSecond}; 0, если интервала нет в окне.
+     */
+    long getTotalAt(long epochSecond);
+
+    /**
+     * Число отказов в интервале, в который попадает секунда {@code epochSecond}; 0, если интервала нет в окне.
+     */
+    long getFailuresAt(long epochSecond);
+
+    /**
+     * Первая секунда интервала, в который попадает секунда {@code epochSecond}.
+     */
+    long bucketStart(long epochSecond);
+
+    /**
+     * Попадают ли секунды в один интервал.
+     */
+    boolean isSameBucket(long epochSecond, long otherEpochSecond);
+
+    /**
+     * Число запросов в окне, начиная с интервала, в который попадает секунда {@code epochSecond}.
+     */
+    long getTotalSince(long epochSecond);
+
+    /**
+     * Число отказов в окне, начиная с интервала, в который попадает секунда {@code epochSecond}.
+     */
+    long getFailuresSince(long epochSecond);
+}
@@ -0,0 +1,157 @@
+package com.farpost;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Поиск инцидентов по доступности в скользящем окне ({@link SlidingWindow}): инцидент начинается, когда доступность
+ * в окне на очередной записи падает ниже порога, и кончается, когда она восстанавливается. Начало инцидента - начало
+ * окна, в котором доступность упала, но не раньше конца предыдущего инцидента; инциденты нулевой длительности
+ * не сообщаются.
+ * <p>
+ * Этим же детектором ищет инциденты {@link Analyzer} - при чтении файла, слежении и приёме по HTTP; ему нужны
+ * и операции сверх {@link IncidentDetector}: записи целой секундой, процентили времени ответа в инциденте,
+ * незавершённый инцидент и сохранение состояния для контрольной точки.
+ * <p>
+ * Доступность пересчитывается на каждой записи, поэтому отметки времени ({@link #onTick}) ему не нужны.
+ */
+public final class WindowIncidentDetector implements IncidentDetector {
+    private final long responseTimeThresholdMs;
+    private final SlidingWindow window;
+    private final WindowIncidentState state;
+    // Время ответа запросов текущего инцидента; null - не считается
+    private final LatencyHistogram incidentLatency;
+
+    // Когда инцидент обнаружен и сообщалось ли уже, что он открыт
+    private long incidentDetectedAtMillis = 0;
+    private boolean isOpenIncidentReported = false;
+
+    /**
+     * Окно из текущего интервала и {@code windowSeconds} секунд перед ним по интервалам {@code bucketSeconds} секунд,
+     * как {@link Analyzer#setWindow}.
+     */
+    public WindowIncidentDetector(double availabilityThreshold, long responseTimeThresholdMs,
+                                  int windowSeconds, int bucketSeconds, IncidentListener listener) {
+        this(availabilityThreshold, responseTimeThresholdMs, windowSeconds, bucketSeconds, null, listener);
+    }
+
+    /**
+     * То же, но время ответа запросов инцидента копится в {@code incidentLatency}: к моменту вызова слушателя
+     * в нём ровно запросы сообщаемого инцидента.
+     */
+    WindowIncidentDetector(double availabilityThreshold, long responseTimeThresholdMs, int windowSeconds,
+                           int bucketSeconds, LatencyHistogram incidentLatency, IncidentListener listener) {
+        this.responseTimeThresholdMs = responseTimeThresholdMs;
+        this.window = new SlidingWindow(windowSeconds, bucketSeconds, incidentLatency != null);
+        this.state = new WindowIncidentState(window, windowSeconds, bucketSeconds, availabilityThreshold, listener);
+        this.incidentLatency = incidentLatency;
+    }
+
+    @Override
+    public void onRecord(long epochSecond, double latencyMs, int status) {
+        add(epochSecond, LogParser.isFailure(status, latencyMs, responseTimeThresholdMs), latencyMs);
+    }
+
+    /**
+     * Учитывает запрос, отказ по которому уже определён.
+     */
+    void add(long epochSecond, boolean isFailure, double responseTimeMs) {
+        state.beforeAdd(epochSecond);
+        window.add(epochSecond, isFailure, responseTimeMs);
+        boolean wasIncidentActive = state.isIncidentActive();
+        if (wasIncidentActive && incidentLatency != null) {
+            incidentLatency.record(responseTimeMs);
+        }
+        state.afterAdd(epochSecond, 1, isFailure ? 1 : 0);
+        if (!wasIncidentActive && state.isIncidentActive()) {
+            incidentStarted();
+        }
+    }
+
+    /**
+     * Учитывает сразу все запросы секунды: {@code total} запросов, из них {@code failures} отказов.
+     */
+    void addSecond(long epochSecond, long total, long failures) {
+        state.beforeAdd(epochSecond);
+        window.addSecond(epochSecond, total, failures);
+        boolean wasIncidentActive = state.isIncidentActive();
+        state.afterAdd(epochSecond, total, failures);
+        if (!wasIncidentActive && state.isIncidentActive()) {
+            incidentStarted();
+        }
+    }
+
+    private void incidentStarted() {
+        isOpenIncidentReported = false;
+        incidentDetectedAtMillis = System.currentTimeMillis();
+        if (incidentLatency != null) {
+            incidentLatency.reset();
+            window.addLatenciesSince(state.getIncidentStartSecond(), incidentLatency);
+        }
+    }
+
+    @Override
+    public void onTick(long epochSecond) {
+        // Доступность пересчитывается на записях: без новых записей инцидент не начинается и не кончается
+    }
+
+    @Override
+    public void finish() {
+        state.finish();
+    }
+
+    /**
+     * Записывает незавершённый инцидент строкой с пометкой "open", если он длится дольше {@code timeoutMs}.
+     * О каждом инциденте сообщается не больше одного раза; по завершении он сообщается слушателю, как обычно.
+     *
+     * @return записана ли строка
+     */
+    boolean reportOpenIncident(IncidentWriter writer, long nowMillis, long timeoutMs) {
+        if (!state.isIncidentActive() || isOpenIncidentReported || nowMillis - incidentDetectedAtMillis < timeoutMs) {
+            return false;
+        }
+        isOpenIncidentReported = true;
+        writeOpenIncident(writer);
+        return true;
+    }
+
+    /**
+     * Записывает незавершённый инцидент, если он есть, строкой с пометкой "open" и концом на последней записи.
+     */
+    void writeOpenIncident(IncidentWriter writer) {
+        state.writeOpenIncident(writer, incidentLatency);
+    }
+
+    /**
+     * Доступность по текущему окну в процентах.
+     */
+    double getWindowAvailability() {
+        return WindowIncidentState.calculateAvailability(window.getTotal(), window.getFailures());
+    }
+
+    long getWindowRequests() {
+        return window.getTotal();
+    }
+
+    /**
+     * Сохраняет состояние инцидента и счётчики окна для контрольной точки. Время ответа не сохраняется.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        state.writeTo(out);
+        window.writeTo(out);
+    }
+
+    /**
+     * Восстанавливает состояние, сохранённое {@link #writeTo} детектором с тем же окном. Незавершённый инцидент
+     * отсчитывается от момента восстановления: время обнаружения до перезапуска неизвестно.
+     *
+     * @throws IOException если состояние повреждено или сохранено окно другого размера
+     */
+    void readFrom(DataInput in) throws IOException {
+        state.readFrom(in);
+        window.readFrom(in);
+        incidentDetectedAtMillis = System.currentTimeMillis();
+        isOpenIncidentReported = false;
+    }
+}
@@ -0,0 +1,264 @@
+package com.farpost;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Состояние инцидента для одного порога доступности над скользящим окном - переходы, общие для всех поисков
+ * по окну: {@link WindowIncidentDetector} (и через него {@link Analyzer}) и {@link ThresholdSweep}.
+ * <p>
+ * Окно ведёт вызывающий код, поэтому одно окно могут разделять состояния с разными порогами доступности.
+ * Запись учитывается в два шага: {@link #beforeAdd} до добавления в окно и {@link #afterAdd} после.
+ * <p>
+ * Состояние можно хранить и вне объекта: {@link KeyedIncidentDetector} держит состояния ключей в записях
+ * {@link OffHeapKeyTable} по {@link #BYTES} байт и загружает их в один объект на время шага ({@link #load},
+ * {@link #store}).
+ */
+final class WindowIncidentState {
+    // Смещения полей состояния в буфере
+    private static final int LAST_REPORTED_END_SECOND = 0;
+    private static final int INCIDENT_START_SECOND = 8;
+    private static final int LAST_PROCESSED_SECOND = 16;
+    private static final int TOTAL_REQUESTS_IN_INCIDENT = 24;
+    private static final int FAILED_REQUESTS_IN_INCIDENT = 32;
+    private static final int INCIDENT_WORST_SECOND = 40;
+    private static final int INCIDENT_WORST_AVAILABILITY = 48;
+    private static final int INCIDENT_CURRENT_SECOND = 56;
+    // Биты: инцидент идёт, записи были
+    private static final int FLAGS = 64;
+    private static final int FLAG_INCIDENT_ACTIVE = 1;
+    private static final int FLAG_HAS_RECORDS = 2;
+    /**
+     * Размер состояния в буфере, см. {@link #store}.
+     */
+    static final int BYTES = 72;
+
+    private final WindowCounts window;
+    private final int windowSeconds;
+    private final int bucketSeconds;
+    private final double availabilityThreshold;
+    private final IncidentListener listener;
+
+    // Конец последнего сообщённого инцидента: следующий не начинается раньше. Long.MIN_VALUE - инцидентов не было
+    private long lastReportedEndSecond = Long.MIN_VALUE;
+    private boolean isIncidentActive = false;
+    private long incidentStartSecond = 0;
+    private long lastProcessedSecond = 0;
+    private boolean hasRecords = false;
+    private long totalRequestsInIncident = 0;
+    private long failedRequestsInIncident = 0;
+
+    // Интервал окна с наименьшей доступностью в текущем инциденте. Интервал проверяется, когда записи
+    // пошли в следующий: incidentCurrentSecond - секунда интервала, который ещё заполняется
+    private long incidentWorstSecond = Long.MIN_VALUE;
+    private double incidentWorstAvailability = Double.MAX_VALUE;
+    private long incidentCurrentSecond = 0;
+
+    /**
+     * Состояние над окном {@code window} из текущего интервала и {@code windowSeconds} секунд перед ним
+     * по интервалам {@code bucketSeconds} секунд.
+     */
+    WindowIncidentState(WindowCounts window, int windowSeconds, int bucketSeconds, double availabilityThreshold,
+                        IncidentListener listener) {
+        this.window = window;
+        this.windowSeconds = windowSeconds;
+        this.bucketSeconds = bucketSeconds;
+        this.availabilityThreshold = availabilityThreshold;
+        this.listener = listener;
+    }
+
+    /**
+     * Шаг перед добавлением записей секунды {@code epochSecond} в окно: интервал, который они закрывают, ещё в окне.
+     */
+    void beforeAdd(long epochSecond) {
+        lastProcessedSecond = epochSecond;
+        hasRecords = true;
+        if (isIncidentActive && epochSecond > incidentCurrentSecond) {
+            // Записи пошли в следующий интервал: текущий заполнен
+            if (!window.isSameBucket(epochSecond, incidentCurrentSecond)) {
+                checkWorstBucket(incidentCurrentSecond);
+            }
+            incidentCurrentSecond = epochSecond;
+        }
+    }
+
+    /**
+     * Переходы после добавления в окно {@code total} записей секунды {@code epochSecond}, из них {@code failures}
+     * отказов: завершившийся инцидент передаётся слушателю.
+     */
+    void afterAdd(long epochSecond, long total, long failures) {
+        double availability = calculateAvailability(window.getTotal(), window.getFailures());
+        if (isIncidentActive) {
+            totalRequestsInIncident += total;
+            failedRequestsInIncident += failures;
+            if (availability >= availabilityThreshold) {
+                report(incidentStartSecond, epochSecond);
+                isIncidentActive = false;
+                totalRequestsInIncident = 0;
+                failedRequestsInIncident = 0;
+            }
+        } else if (availability < availabilityThreshold && window.getTotal() > 0) {
+            isIncidentActive = true;
+            // Начало окна, в котором упала доступность, но не раньше конца предыдущего инцидента
+            incidentStartSecond = Math.max(epochSecond - (windowSeconds - 1), lastReportedEndSecond);
+            totalRequestsInIncident = window.getTotalSince(incidentStartSecond);
+            failedRequestsInIncident = window.getFailuresSince(incidentStartSecond);
+            // Интервалы окна с начала инцидента до текущего уже заполнены: ищем худший среди них
+            incidentWorstSecond = Long.MIN_VALUE;
+            incidentWorstAvailability = Double.MAX_VALUE;
+            for (long second = incidentStartSecond;
+                 second < epochSecond && !window.isSameBucket(second, epochSecond);
+                 second += bucketSeconds) {
+                checkWorstBucket(second);
+            }
+            incidentCurrentSecond = epochSecond;
+        }
+    }
+
+    /**
+     * Записей больше не будет: незавершённый инцидент передаётся слушателю с концом на последней записи.
+     */
+    void finish() {
+        if (isIncidentActive && hasRecords) {
+            report(incidentStartSecond, lastProcessedSecond);
+            isIncidentActive = false;
+        }
+    }
+
+    boolean isIncidentActive() {
+        return isIncidentActive;
+    }
+
+    long getIncidentStartSecond() {
+        return incidentStartSecond;
+    }
+
+    /**
+     * Записывает незавершённый инцидент, если он есть, строкой с пометкой "open" и концом на последней записи.
+     */
+    void writeOpenIncident(IncidentWriter writer, LatencyHistogram latency) {
+        if (!isIncidentActive) {
+            return;
+        }
+        long startSecond = Math.max(incidentStartSecond, lastReportedEndSecond);
+        // Текущий интервал ещё заполняется: учитываем его только для этой строки
+        long worstSecond = incidentWorstSecond;
+        double worstAvailability = incidentWorstAvailability;
+        checkWorstBucket(incidentCurrentSecond);
+        writer.write(startSecond, lastProcessedSecond, totalRequestsInIncident, failedRequestsInIncident,
+                incidentWorstSecond, incidentWorstAvailability, latency, null, true);
+        incidentWorstSecond = worstSecond;
+        incidentWorstAvailability = worstAvailability;
+    }
+
+    private void checkWorstBucket(long epochSecond) {
+        long total = window.getTotalAt(epochSecond);
+        if (total > 0) {
+            double availability = calculateAvailability(total, window.getFailuresAt(epochSecond));
+            if (availability < incidentWorstAvailability) {
+                incidentWorstAvailability = availability;
+                incidentWorstSecond = window.bucketStart(epochSecond);
+            }
+        }
+    }
+
+    private void report(long startSecond, long endSecond) {
+        startSecond = Math.max(startSecond, lastReportedEndSecond);
+        // Инциденты нулевой длительности не сообщаются
+        if (startSecond >= endSecond) {
+            return;
+        }
+        checkWorstBucket(incidentCurrentSecond);
+        listener.onIncident(startSecond, endSecond, totalRequestsInIncident, failedRequestsInIncident,
+                incidentWorstSecond, incidentWorstAvailability);
+        lastReportedEndSecond = endSecond;
+    }
+
+    /**
+     * Начальное состояние: инцидентов и записей не было.
+     */
+    void reset() {
+        lastReportedEndSecond = Long.MIN_VALUE;
+        isIncidentActive = false;
+        incidentStartSecond = 0;
+        lastProcessedSecond = 0;
+        hasRecords = false;
+        totalRequestsInIncident = 0;
+        failedRequestsInIncident = 0;
+        incidentWorstSecond = Long.MIN_VALUE;
+        incidentWorstAvailability = Double.MAX_VALUE;
+        incidentCurrentSecond = 0;
+    }
+
+    /**
+     * Загружает состояние, сохранённое {@link #store} в {@code buffer} с позиции {@code offset}.
+     */
+    void load(ByteBuffer buffer, int offset) {
+        lastReportedEndSecond = buffer.getLong(offset + LAST_REPORTED_END_SECOND);
+        incidentStartSecond = buffer.getLong(offset + INCIDENT_START_SECOND);
+        lastProcessedSecond = buffer.getLong(offset + LAST_PROCESSED_SECOND);
+        totalRequestsInIncident = buffer.getLong(offset + TOTAL_REQUESTS_IN_INCIDENT);
+        failedRequestsInIncident = buffer.getLong(offset + FAILED_REQUESTS_IN_INCIDENT);
+        incidentWorstSecond = buffer.getLong(offset + INCIDENT_WORST_SECOND);
+        incidentWorstAvailability = buffer.getDouble(offset + INCIDENT_WORST_AVAILABILITY);
+        incidentCurrentSecond = buffer.getLong(offset + INCIDENT_CURRENT_SECOND);
+        int flags = buffer.getInt(offset + FLAGS);
+        isIncidentActive = (flags & FLAG_INCIDENT_ACTIVE) != 0;
+        hasRecords = (flags & FLAG_HAS_RECORDS) != 0;
+    }
+
+    /**
+     * Сохраняет состояние в {@code buffer} с позиции {@code offset}: {@link #BYTES} байт.
+     */
+    void store(ByteBuffer buffer, int offset) {
+        buffer.putLong(offset + LAST_REPORTED_END_SECOND, lastReportedEndSecond);
+        buffer.putLong(offset + INCIDENT_START_SECOND, incidentStartSecond);
+        buffer.putLong(offset + LAST_PROCESSED_SECOND, lastProcessedSecond);
+        buffer.putLong(offset + TOTAL_REQUESTS_IN_INCIDENT, totalRequestsInIncident);
+        buffer.putLong(offset + FAILED_REQUESTS_IN_INCIDENT, failedRequestsInIncident);
+        buffer.putLong(offset + INCIDENT_WORST_SECOND, incidentWorstSecond);
+        buffer.putDouble(offset + INCIDENT_WORST_AVAILABILITY, incidentWorstAvailability);
+        buffer.putLong(offset + INCIDENT_CURRENT_SECOND, incidentCurrentSecond);
+        buffer.putInt(offset + FLAGS,
+                (isIncidentActive ? FLAG_INCIDENT_ACTIVE : 0) | (hasRecords ? FLAG_HAS_RECORDS : 0));
+    }
+
+    /**
+     * Сохраняет состояние для контрольной точки; окно сохраняется отдельно.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(lastReportedEndSecond);
+        out.writeBoolean(isIncidentActive);
+        out.writeLong(incidentStartSecond);
+        out.writeLong(lastProcessedSecond);
+        out.writeBoolean(hasRecords);
+        out.writeLong(totalRequestsInIncident);
+        out.writeLong(failedRequestsInIncident);
+        out.writeLong(incidentWorstSecond);
+        out.writeDouble(incidentWorstAvailability);
+        out.writeLong(incidentCurrentSecond);
+    }
+
+    /**
+     * Восстанавливает состояние, сохранённое {@link #writeTo}.
+     */
+    void readFrom(DataInput in) throws IOException {
+        lastReportedEndSecond = in.readLong();
+        isIncidentActive = in.readBoolean();
+        incidentStartSecond = in.readLong();
+        lastProcessedSecond = in.readLong();
+        hasRecords = in.readBoolean();
+        totalRequestsInIncident = in.readLong();
+        failedRequestsInIncident = in.readLong();
+        incidentWorstSecond = in.readLong();
+        incidentWorstAvailability = in.readDouble();
+        incidentCurrentSecond = in.readLong();
+    }
+
+    static double calculateAvailability(long total, long failures) {
+        if (total == 0) return 100.0;
+        return 100.0 * (total - failures) / total;
+    }
+}
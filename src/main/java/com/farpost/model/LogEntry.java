@@ -2,19 +2,34 @@ package com.farpost.model;
 
 
 import java.time.LocalDateTime;
-import java.util.Objects;
+import java.time.ZoneOffset;
 
+/**
+ * Разобранная запись лога: локальное время строки в секундах от эпохи и признак отказа.
+ */
 public final class LogEntry {
-    private final LocalDateTime timestamp;
+    private final long epochSecond;
     private final boolean isFailure;
 
-    public LogEntry(LocalDateTime timestamp, boolean isFailure) {
-        this.timestamp = timestamp;
+    public LogEntry(long epochSecond, boolean isFailure) {
+        this.epochSecond = epochSecond;
         this.isFailure = isFailure;
     }
 
+    public LogEntry(LocalDateTime timestamp, boolean isFailure) {
+        this(timestamp.toEpochSecond(ZoneOffset.UTC), isFailure);
+    }
+
+    public long getEpochSecond() {
+        return epochSecond;
+    }
+
+    /**
+     * Время записи в виде {@link LocalDateTime}; создаётся при каждом вызове, в горячем цикле лучше
+     * использовать {@link #getEpochSecond()}.
+     */
     public LocalDateTime getTimestamp() {
-        return timestamp;
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
     }
 
     public boolean isFailure() {
@@ -26,12 +41,12 @@ public final class LogEntry {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         LogEntry logEntry = (LogEntry) o;
-        return isFailure == logEntry.isFailure && timestamp.equals(logEntry.timestamp);
+        return isFailure == logEntry.isFailure && epochSecond == logEntry.epochSecond;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(timestamp, isFailure);
+        return 31 * Long.hashCode(epochSecond) + Boolean.hashCode(isFailure);
     }
 }
-//cat access.log | java -jar target/log-analyzer-1.0-SNAPSHOT.jar -u 99.9 -t 45
\ No newline at end of file
+//cat access.log | java -jar target/log-analyzer-1.0-SNAPSHOT.jar -u 99.9 -t 45
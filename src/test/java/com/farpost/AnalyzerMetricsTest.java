@@ -0,0 +1,124 @@
+package com.farpost;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса AnalyzerMetrics")
+class AnalyzerMetricsTest {
+
+    private PrintStream originalOut;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        originalOut = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    // 200 строк, из них 4 некорректные, и один инцидент с 16:47:10 по 16:47:20
+    private static byte[] log() {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 196; i++) {
+            if (i % 50 == 0) {
+                log.append("некорректная строка\n");
+            }
+            int second = i / 4;
+            int status = second >= 10 && second < 20 ? 500 : 200;
+            log.append(String.format(
+                    "192.168.32.181 - - [14/06/2017:16:47:%02d +1000] \"GET /test HTTP/1.1\" %d 2 10.5 \"-\" \"agent\" prio:0\n",
+                    second, status
+            ));
+        }
+        return log.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void assertCounts(AnalyzerMetrics metrics, long bytes) {
+        assertEquals(200, metrics.getLines());
+        assertEquals(4, metrics.getRejectedLines());
+        assertEquals(bytes, metrics.getBytes());
+        assertEquals(1, metrics.getIncidents());
+    }
+
+    @Test
+    @DisplayName("Должен считать строки, байты, отброшенные строки и инциденты при любом способе чтения")
+    void shouldCountLinesInEveryReadingMode() throws Exception {
+        byte[] log = log();
+        Path file = tempDir.resolve("access.log");
+        Files.write(file, log);
+
+        AnalyzerMetrics streamMetrics = new AnalyzerMetrics();
+        Analyzer streamAnalyzer = new Analyzer(new ByteArrayInputStream(log), 99.0, 100);
+        streamAnalyzer.setMetrics(streamMetrics);
+        streamAnalyzer.run();
+        assertCounts(streamMetrics, log.length);
+
+        AnalyzerMetrics mappedMetrics = new AnalyzerMetrics();
+        Analyzer mappedAnalyzer = new Analyzer(file, 99.0, 100);
+        mappedAnalyzer.setMetrics(mappedMetrics);
+        mappedAnalyzer.run();
+        assertCounts(mappedMetrics, log.length);
+
+        AnalyzerMetrics parallelMetrics = new AnalyzerMetrics();
+        Analyzer parallelAnalyzer = new Analyzer(file, 3, 99.0, 100);
+        parallelAnalyzer.setMetrics(parallelMetrics);
+        parallelAnalyzer.run();
+        assertCounts(parallelMetrics, log.length);
+
+        AnalyzerMetrics pipelinedMetrics = new AnalyzerMetrics();
+        Analyzer pipelinedAnalyzer = new Analyzer(new ByteArrayInputStream(log), 3, 99.0, 100);
+        pipelinedAnalyzer.setMetrics(pipelinedMetrics);
+        pipelinedAnalyzer.run();
+        assertCounts(pipelinedMetrics, log.length);
+    }
+
+    @Test
+    @DisplayName("Должен писать метрики в формате Prometheus")
+    void shouldWritePrometheusTextFile() throws Exception {
+        AnalyzerMetrics metrics = new AnalyzerMetrics();
+        Analyzer analyzer = new Analyzer(new ByteArrayInputStream(log()), 99.0, 100);
+        analyzer.setMetrics(metrics);
+        analyzer.run();
+
+        Path file = tempDir.resolve("analyzer.prom");
+        metrics.writePrometheus(file);
+        String text = Files.readString(file);
+
+        assertTrue(text.contains("# TYPE farpost_analyzer_lines_total counter\nfarpost_analyzer_lines_total 200\n"), text);
+        assertTrue(text.contains("farpost_analyzer_rejected_lines_total 4\n"), text);
+        assertTrue(text.contains("farpost_analyzer_incidents_total 1\n"), text);
+        assertTrue(text.contains("# TYPE farpost_analyzer_window_requests gauge\n"), text);
+        assertFalse(Files.exists(tempDir.resolve("analyzer.prom.tmp")), "Временный файл должен быть переименован");
+    }
+
+    @Test
+    @DisplayName("Строка статистики должна содержать счётчики")
+    void shouldFormatStatsLine() {
+        AnalyzerMetrics metrics = new AnalyzerMetrics();
+        metrics.addLines(10, 2, 2_000_000);
+        metrics.incidentReported();
+
+        String stats = metrics.formatStats();
+        assertTrue(stats.startsWith("Статистика: строк 10 ("), stats);
+        assertTrue(stats.contains("2.0 МБ"), stats);
+        assertTrue(stats.contains("отброшено 2, опоздало 0, инцидентов 1"), stats);
+    }
+}
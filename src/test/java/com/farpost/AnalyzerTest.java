@@ -4,13 +4,24 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.lang.reflect.Field;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -242,4 +253,517 @@ class AnalyzerTest {
         String output = outputStream.toString().trim();
         assertFalse(output.isEmpty(), "Все HTTP 5xx коды должны считаться отказами");
     }
+
+    @Test
+    @DisplayName("Тест чтения файла через отображение в память - вывод совпадает с чтением из потока")
+    void testMappedFileMatchesStreamOutput(@TempDir Path tempDir) throws Exception {
+        StringBuilder logBuilder = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            int status = (i / 5) % 2 == 1 ? 500 : 200;
+            logBuilder.append(String.format(
+                    "192.168.32.181 - - [14/06/2017:16:47:%02d +1000] \"GET /test HTTP/1.1\" %d 2 10.5 \"-\" \"user-agent\" prio:0\n",
+                    i, status
+            ));
+        }
+        byte[] log = logBuilder.toString().getBytes(StandardCharsets.UTF_8);
+
+        new Analyzer(new ByteArrayInputStream(log), 99.0, 100).run();
+        String streamOutput = outputStream.toString();
+        outputStream.reset();
+
+        Path logFile = tempDir.resolve("access.log");
+        Files.write(logFile, log);
+        new Analyzer(logFile, 99.0, 100).run();
+
+        assertFalse(streamOutput.isEmpty(), "Должны быть выведены инциденты");
+        assertEquals(streamOutput, outputStream.toString(), "Вывод для файла должен совпадать с выводом для потока");
+    }
+
+    @Test
+    @DisplayName("Тест сжатого лога - gzip в потоке и в файле распознаётся, вывод совпадает с несжатым")
+    void testGzipInputMatchesPlainOutput(@TempDir Path tempDir) throws Exception {
+        byte[] log = incidentLog(0, 30).getBytes(StandardCharsets.UTF_8);
+        new Analyzer(new ByteArrayInputStream(log), 99.0, 100).run();
+        String plainOutput = outputStream.toString();
+        outputStream.reset();
+
+        new Analyzer(new ByteArrayInputStream(gzip(log)), 99.0, 100).run();
+        assertEquals(plainOutput, outputStream.toString(), "Вывод для сжатого потока должен совпадать с несжатым");
+        outputStream.reset();
+
+        Path logFile = tempDir.resolve("access.log.1.gz");
+        Files.write(logFile, gzip(log));
+        new Analyzer(logFile, 99.0, 100).run();
+        assertEquals(plainOutput, outputStream.toString(), "Вывод для сжатого файла должен совпадать с несжатым");
+    }
+
+    @Test
+    @DisplayName("Тест конвейерного разбора потока - вывод совпадает с последовательным, в том числе для gzip")
+    void testPipelinedStreamMatchesSequentialOutput() throws Exception {
+        byte[] log = (incidentLog(0, 30) + incidentLog(40, 59)).getBytes(StandardCharsets.UTF_8);
+        new Analyzer(new ByteArrayInputStream(log), 99.0, 100).run();
+        String sequentialOutput = outputStream.toString();
+        outputStream.reset();
+
+        new Analyzer(new ByteArrayInputStream(log), 4, 99.0, 100).run();
+        assertEquals(sequentialOutput, outputStream.toString(), "Вывод конвейера должен совпадать с последовательным");
+        outputStream.reset();
+
+        new Analyzer(new ByteArrayInputStream(gzip(log)), 4, 99.0, 100).run();
+        assertEquals(sequentialOutput, outputStream.toString(), "Вывод конвейера для gzip должен совпадать с последовательным");
+    }
+
+    @Test
+    @DisplayName("Тест допуска опоздания - перемешанный в пределах допуска лог даёт тот же вывод, что упорядоченный")
+    void testLatenessRestoresOrder() throws Exception {
+        String[] lines = (incidentLog(0, 30) + incidentLog(40, 59)).split("\n");
+        byte[] sorted = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        new Analyzer(new ByteArrayInputStream(sorted), 99.0, 100).run();
+        String sortedOutput = outputStream.toString();
+        outputStream.reset();
+
+        // Соседние строки меняются местами: время идёт назад не больше чем на секунду
+        for (int i = 0; i + 1 < lines.length; i += 2) {
+            String line = lines[i];
+            lines[i] = lines[i + 1];
+            lines[i + 1] = line;
+        }
+        byte[] shuffled = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        Analyzer analyzer = new Analyzer(new ByteArrayInputStream(shuffled), 99.0, 100);
+        analyzer.setLateness(1);
+        analyzer.run();
+        assertFalse(sortedOutput.isEmpty(), "Должны быть выведены инциденты");
+        assertEquals(sortedOutput, outputStream.toString(), "С допуском вывод должен совпадать с упорядоченным логом");
+    }
+
+    @Test
+    @DisplayName("Тест длинного окна - чередование отказов сливается в один инцидент, интервалы его не меняют")
+    void testLongWindowMergesFlappingIncidents() throws Exception {
+        byte[] log = incidentLog(0, 59).getBytes(StandardCharsets.UTF_8);
+        new Analyzer(new ByteArrayInputStream(log), 99.0, 100).run();
+        assertTrue(outputStream.toString().trim().split("\n").length > 1, "С окном в секунду инцидентов несколько");
+        outputStream.reset();
+
+        Analyzer longWindow = new Analyzer(new ByteArrayInputStream(log), 99.0, 100);
+        longWindow.setWindow(20, 1);
+        longWindow.run();
+        String longWindowOutput = outputStream.toString();
+        assertEquals(1, longWindowOutput.trim().split("\n").length, longWindowOutput);
+        // Начало инцидента - начало окна, в котором доступность упала
+        assertTrue(longWindowOutput.startsWith("16:46:46 16:47:58 "), longWindowOutput);
+        outputStream.reset();
+
+        Analyzer bucketed = new Analyzer(new ByteArrayInputStream(log), 99.0, 100);
+        bucketed.setWindow(20, 10);
+        bucketed.run();
+        assertEquals(longWindowOutput, outputStream.toString(), "Инцидент не восстанавливается ни в одном окне");
+    }
+
+    @Test
+    @DisplayName("Тест вывода JSONL - те же инциденты, что в тексте, с датой, счётчиками и худшей секундой")
+    void testJsonLinesOutputMatchesText() throws Exception {
+        byte[] log = incidentLog(0, 30).getBytes(StandardCharsets.UTF_8);
+        new Analyzer(new ByteArrayInputStream(log), 99.0, 100).run();
+        String[] textLines = outputStream.toString().trim().split("\\R");
+        outputStream.reset();
+
+        Analyzer analyzer = new Analyzer(new ByteArrayInputStream(log), 99.0, 100);
+        analyzer.setIncidentFormat(IncidentFormat.JSONL);
+        analyzer.run();
+        String[] jsonLines = outputStream.toString().trim().split("\n");
+
+        assertEquals(textLines.length, jsonLines.length);
+        for (int i = 0; i < textLines.length; i++) {
+            String[] fields = textLines[i].split(" ");
+            assertTrue(jsonLines[i].startsWith("{\"start\":\"2017-06-14T" + fields[0] + "\",\"end\":\"2017-06-14T" + fields[1] + "\""),
+                    jsonLines[i]);
+            // Отказы идут целыми секундами: худшая секунда инцидента без успешных запросов
+            assertTrue(jsonLines[i].contains(",\"worst_availability\":0.000}"), jsonLines[i]);
+        }
+    }
+
+    @Test
+    @DisplayName("Тест чтения потока по байтам - те же инциденты и ключи, что через BufferedReader, в том числе для UTF-8")
+    void testByteLineReaderMatchesCharReader() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            int status = (i / 5) % 2 == 1 ? 500 : 200;
+            String agent = i % 3 == 0 ? "Мобильный клиент/2.0 😀" : "user-agent";
+            String lineEnd = i % 7 == 0 ? "\r\n" : "\n";
+            log.append(String.format(
+                    "192.168.32.181 - - [14/06/2017:16:47:%02d +1000] \"GET /тест HTTP/1.1\" %d 2 10.5 \"-\" \"%s\" prio:0%s",
+                    i, status, agent, lineEnd));
+        }
+        byte[] bytes = log.toString().getBytes(StandardCharsets.UTF_8);
+        for (GroupKey groupKey : new GroupKey[]{null, GroupKey.AGENT, GroupKey.PATH}) {
+            String[] outputs = new String[2];
+            for (LineReaderMode mode : LineReaderMode.values()) {
+                Analyzer analyzer = new Analyzer(new ByteArrayInputStream(bytes), 99.0, 100);
+                analyzer.setLineReaderMode(mode);
+                if (groupKey != null) {
+                    analyzer.setGrouping(groupKey, 100);
+                }
+                analyzer.run();
+                outputs[mode.ordinal()] = outputStream.toString(StandardCharsets.UTF_8);
+                outputStream.reset();
+            }
+            assertFalse(outputs[0].isEmpty());
+            if (Charset.defaultCharset().equals(StandardCharsets.UTF_8)) {
+                assertEquals(outputs[LineReaderMode.CHARS.ordinal()], outputs[LineReaderMode.BYTES.ordinal()],
+                        "Группировка: " + groupKey);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Тест контрольной точки - дописанный лог продолжается с места остановки, как без перерыва")
+    void testCheckpointResumesGrownLog(@TempDir Path tempDir) throws Exception {
+        for (int windowSeconds : new int[]{1, 10}) {
+            String log = incidentLog(0, 60);
+            Path logFile = tempDir.resolve("access-" + windowSeconds + ".log");
+            Path checkpointFile = tempDir.resolve("access-" + windowSeconds + ".ckpt");
+            Files.write(logFile, log.getBytes(StandardCharsets.UTF_8));
+            runWithCheckpoint(logFile, null, windowSeconds);
+            String uninterrupted = outputStream.toString();
+            outputStream.reset();
+
+            // Обрываем лог посреди инцидента (секунды 25-29 - отказы), затем дописываем остаток в тот же файл
+            int cut = log.indexOf("16:47:28");
+            cut = log.lastIndexOf('\n', cut) + 1;
+            Files.write(logFile, log.substring(0, cut).getBytes(StandardCharsets.UTF_8));
+            runWithCheckpoint(logFile, checkpointFile, windowSeconds);
+            String beforeCut = outputStream.toString();
+            outputStream.reset();
+            Files.write(logFile, log.substring(cut).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            runWithCheckpoint(logFile, checkpointFile, windowSeconds);
+            String afterCut = outputStream.toString();
+            outputStream.reset();
+
+            // Последняя строка до обрыва - незавершённый инцидент, выведенный при завершении анализа
+            String printedBeforeCut = beforeCut.substring(0, beforeCut.lastIndexOf(System.lineSeparator(),
+                    beforeCut.length() - System.lineSeparator().length() - 1) + System.lineSeparator().length());
+            assertFalse(afterCut.isEmpty());
+            assertEquals(uninterrupted, printedBeforeCut + afterCut, "Окно " + windowSeconds + " с");
+        }
+    }
+
+    @Test
+    @DisplayName("Тест контрольной точки - для другого лога или других порогов анализ идёт с начала")
+    void testCheckpointIgnoredForOtherLogOrSettings(@TempDir Path tempDir) throws Exception {
+        Path logFile = tempDir.resolve("access.log");
+        Path checkpointFile = tempDir.resolve("access.ckpt");
+        Files.write(logFile, incidentLog(0, 30).getBytes(StandardCharsets.UTF_8));
+        runWithCheckpoint(logFile, checkpointFile, 1);
+        String fromStart = outputStream.toString();
+        outputStream.reset();
+
+        // Другой лог под тем же именем: начало файла не совпадает с сохранённым
+        Files.delete(logFile);
+        Files.write(logFile, incidentLog(0, 30).replace("GET /test", "GET /other").getBytes(StandardCharsets.UTF_8));
+        runWithCheckpoint(logFile, checkpointFile, 1);
+        assertEquals(fromStart, outputStream.toString());
+        outputStream.reset();
+
+        Analyzer otherThreshold = new Analyzer(logFile, 95.0, 100);
+        try (Checkpointer checkpointer = new Checkpointer(checkpointFile, 0)) {
+            otherThreshold.setCheckpoint(checkpointer);
+            otherThreshold.run();
+        }
+        assertFalse(outputStream.toString().isEmpty(), "Пороги другие: лог анализируется с начала");
+    }
+
+    private static void runWithCheckpoint(Path logFile, Path checkpointFile, int windowSeconds) throws IOException {
+        Analyzer analyzer = new Analyzer(logFile, 99.0, 100);
+        analyzer.setWindow(windowSeconds, 1);
+        if (checkpointFile == null) {
+            analyzer.run();
+            return;
+        }
+        try (Checkpointer checkpointer = new Checkpointer(checkpointFile, 0)) {
+            analyzer.setCheckpoint(checkpointer);
+            analyzer.run();
+        }
+    }
+
+    @Test
+    @DisplayName("Тест слияния логов узлов - вывод совпадает с анализом заранее слитого лога")
+    void testMergedNodeLogsMatchPreMergedLog(@TempDir Path tempDir) throws Exception {
+        String[] lines = incidentLog(0, 30).split("\n");
+        StringBuilder first = new StringBuilder();
+        StringBuilder second = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            (i % 2 == 0 ? first : second).append(lines[i]).append('\n');
+        }
+        Path firstNode = tempDir.resolve("node1.log");
+        Path secondNode = tempDir.resolve("node2.log");
+        Files.writeString(firstNode, first);
+        Files.writeString(secondNode, second);
+
+        new Analyzer(new ByteArrayInputStream(incidentLog(0, 30).getBytes(StandardCharsets.UTF_8)), 99.0, 100).run();
+        String expectedOutput = outputStream.toString();
+        outputStream.reset();
+
+        Analyzer analyzer = new Analyzer(List.of(firstNode, secondNode), 1, 99.0, 100);
+        analyzer.setMerge(false);
+        analyzer.run();
+        assertFalse(expectedOutput.isEmpty(), "Должны быть выведены инциденты");
+        assertEquals(expectedOutput, outputStream.toString(), "Вывод слияния должен совпадать с выводом слитого лога");
+        outputStream.reset();
+
+        analyzer = new Analyzer(List.of(firstNode, secondNode), 1, 99.0, 100);
+        analyzer.setMerge(true);
+        analyzer.run();
+        String output = outputStream.toString();
+        assertTrue(output.contains(expectedOutput.split("\n")[0]), "Общие инциденты должны выводиться и с разбивкой по узлам");
+        assertTrue(output.contains(" " + firstNode + System.lineSeparator()), "Должны быть инциденты первого узла");
+        assertTrue(output.contains(" " + secondNode + System.lineSeparator()), "Должны быть инциденты второго узла");
+    }
+
+    @Test
+    @DisplayName("Тест слияния по узлам - окно применяется к узлам независимо от порядка настройки")
+    void testMergedPerNodeUsesWindowSetAfterMerge(@TempDir Path tempDir) throws Exception {
+        String[] lines = incidentLog(0, 30).split("\n");
+        StringBuilder first = new StringBuilder();
+        StringBuilder second = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            (i % 2 == 0 ? first : second).append(lines[i]).append('\n');
+        }
+        Path firstNode = tempDir.resolve("node1.log");
+        Path secondNode = tempDir.resolve("node2.log");
+        Files.writeString(firstNode, first);
+        Files.writeString(secondNode, second);
+
+        Analyzer analyzer = new Analyzer(List.of(firstNode, secondNode), 1, 99.0, 100);
+        analyzer.setMerge(true);
+        analyzer.run();
+        String defaultWindowOutput = outputStream.toString();
+        outputStream.reset();
+
+        analyzer = new Analyzer(List.of(firstNode, secondNode), 1, 99.0, 100);
+        analyzer.setWindow(20, 1);
+        analyzer.setMerge(true);
+        analyzer.run();
+        String expectedOutput = outputStream.toString();
+        outputStream.reset();
+
+        analyzer = new Analyzer(List.of(firstNode, secondNode), 1, 99.0, 100);
+        analyzer.setMerge(true);
+        analyzer.setWindow(20, 1);
+        analyzer.run();
+        assertNotEquals(defaultWindowOutput, expectedOutput, "Длинное окно должно менять инциденты");
+        assertEquals(expectedOutput, outputStream.toString(), "Окно должно применяться и к инцидентам по узлам");
+    }
+
+    @Test
+    @DisplayName("Тест ошибки чтения - найденные до неё инциденты выводятся")
+    void testIncidentsFlushedOnReadError(@TempDir Path tempDir) throws Exception {
+        // Инциденты в начале, дальше много разных успешных строк, чтобы ошибка проявилась не в первом блоке чтения
+        StringBuilder log = new StringBuilder(incidentLog(0, 30));
+        Random random = new Random(1);
+        for (int i = 0; i < 20_000; i++) {
+            log.append("192.168.32.181 - - [14/06/2017:16:47:40 +1000] \"GET /test/").append(random.nextLong())
+                    .append(" HTTP/1.1\" 200 2 10.5 \"-\" \"user-agent\" prio:0\n");
+        }
+        byte[] compressed = gzip(log.toString().getBytes(StandardCharsets.UTF_8));
+        // Испорченная контрольная сумма: ошибка обнаруживается только после чтения всех строк
+        compressed[compressed.length - 8] ^= 0x55;
+        Path logFile = tempDir.resolve("access.log.gz");
+        Files.write(logFile, compressed);
+
+        Analyzer analyzer = new Analyzer(List.of(logFile), 1, 99.0, 100);
+        assertThrows(IOException.class, analyzer::run);
+        assertFalse(outputStream.toString().isEmpty(), "Инциденты до ошибки чтения не должны теряться");
+    }
+
+    @Test
+    @DisplayName("Тест серии файлов - инцидент на стыке файлов не разрывается")
+    void testFileSeriesKeepsStateAcrossFiles(@TempDir Path tempDir) throws Exception {
+        String log = incidentLog(0, 30);
+        new Analyzer(new ByteArrayInputStream(log.getBytes(StandardCharsets.UTF_8)), 99.0, 100).run();
+        String wholeOutput = outputStream.toString();
+        outputStream.reset();
+
+        // Разрез посередине инцидента (секунды 5-9 с отказами)
+        String[] lines = log.split("(?<=\n)");
+        Path older = tempDir.resolve("access.log.1.gz");
+        Path newer = tempDir.resolve("access.log");
+        Files.write(older, gzip(String.join("", Arrays.copyOfRange(lines, 0, 7)).getBytes(StandardCharsets.UTF_8)));
+        Files.write(newer, String.join("", Arrays.copyOfRange(lines, 7, lines.length)).getBytes(StandardCharsets.UTF_8));
+
+        new Analyzer(List.of(older, newer), 1, 99.0, 100).run();
+        assertEquals(wholeOutput, outputStream.toString(), "Серия файлов должна анализироваться как один лог");
+    }
+
+    @Test
+    @DisplayName("Тест процентилей времени ответа - добавляются к строке инцидента и в итог по логу")
+    void testLatencyPercentiles() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            // Секунды 3-5: ответы по 200 мс, остальные по 10 мс
+            double responseTime = i >= 3 && i < 6 ? 200 : 10;
+            log.append(String.format(Locale.ROOT,
+                    "192.168.32.181 - - [14/06/2017:16:47:%02d +1000] \"GET /test HTTP/1.1\" 200 2 %.1f \"-\" \"agent\" prio:0\n",
+                    i, responseTime));
+        }
+        Analyzer analyzer = new Analyzer(new ByteArrayInputStream(log.toString().getBytes(StandardCharsets.UTF_8)), 99.0, 100);
+        analyzer.setLatencyPercentiles(true, true);
+        analyzer.run();
+
+        String[] lines = outputStream.toString().trim().split(System.lineSeparator());
+        assertEquals(2, lines.length, "Должны быть строка инцидента и итог: " + outputStream);
+        assertTrue(lines[0].replace(',', '.').startsWith("16:47:03 16:47:07 40.0 p50="), lines[0]);
+        // Процентили приближённые: середина корзины отличается от точного значения меньше чем на процент
+        assertArrayEquals(new double[]{200, 200, 200}, percentiles(lines[0]), 2);
+        assertArrayEquals(new double[]{10, 200, 200}, percentiles(lines[1]), 2);
+    }
+
+    @Test
+    @DisplayName("Тест процентилей времени ответа - окно можно задать после их включения")
+    void testLatencyPercentilesBeforeWindow() throws Exception {
+        String log = incidentLog(0, 30);
+        Analyzer analyzer = new Analyzer(new ByteArrayInputStream(log.getBytes(StandardCharsets.UTF_8)), 99.0, 100);
+        analyzer.setWindow(10, 1);
+        analyzer.setLatencyPercentiles(true, false);
+        analyzer.run();
+        String expectedOutput = outputStream.toString();
+        outputStream.reset();
+
+        analyzer = new Analyzer(new ByteArrayInputStream(log.getBytes(StandardCharsets.UTF_8)), 99.0, 100);
+        analyzer.setLatencyPercentiles(true, false);
+        analyzer.setWindow(10, 1);
+        analyzer.run();
+        assertTrue(expectedOutput.contains("p50="), expectedOutput);
+        assertEquals(expectedOutput, outputStream.toString(), "Порядок настройки не должен менять вывод");
+    }
+
+    @Test
+    @DisplayName("Тест итога по логу при JSONL - идёт в stderr с точкой в дробях, stdout остаётся JSONL")
+    void testLatencyReportKeepsJsonlOutputClean() throws Exception {
+        PrintStream originalErr = System.err;
+        Locale originalLocale = Locale.getDefault(Locale.Category.FORMAT);
+        ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errorStream));
+        Locale.setDefault(Locale.Category.FORMAT, Locale.forLanguageTag("ru-RU"));
+        try {
+            String log = incidentLog(0, 30);
+            Analyzer analyzer = new Analyzer(new ByteArrayInputStream(log.getBytes(StandardCharsets.UTF_8)), 99.0, 100);
+            analyzer.setIncidentFormat(IncidentFormat.JSONL);
+            analyzer.setLatencyPercentiles(false, true);
+            analyzer.run();
+        } finally {
+            System.setErr(originalErr);
+            Locale.setDefault(Locale.Category.FORMAT, originalLocale);
+        }
+
+        List<String> lines = outputStream.toString().lines().toList();
+        assertFalse(lines.isEmpty());
+        for (String line : lines) {
+            assertTrue(line.startsWith("{") && line.endsWith("}"), "Не JSONL: " + line);
+        }
+        assertTrue(errorStream.toString().contains("Весь лог: 30 запросов, p50=10."), errorStream.toString());
+    }
+
+    private static double[] percentiles(String line) {
+        String[] fields = line.replace(',', '.').split(" ");
+        double[] values = new double[3];
+        for (int i = 0; i < 3; i++) {
+            String field = fields[fields.length - 3 + i];
+            values[i] = Double.parseDouble(field.substring(field.indexOf('=') + 1));
+        }
+        return values;
+    }
+
+    @Test
+    @DisplayName("Тест анализа по индексу - совпадает с построчным для любых -u и -t при многих строках в секунду")
+    void testIndexMatchesLineAnalysis(@TempDir Path tempDir) throws Exception {
+        // Отказы вперемешку с успехами внутри секунды: доступность восстанавливается и падает посреди секунды
+        Random random = new Random(11);
+        StringBuilder logBuilder = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            for (int line = 0; line < 20; line++) {
+                int status = random.nextInt(i % 7 == 3 ? 3 : 40) == 0 ? 500 : 200;
+                logBuilder.append(String.format(Locale.ROOT,
+                        "192.168.32.181 - - [14/06/2017:16:47:%02d +1000] \"GET /test HTTP/1.1\" %d 2 %.3f \"-\" \"user-agent\" prio:0\n",
+                        i, status, random.nextDouble() * 60));
+            }
+        }
+        byte[] log = logBuilder.toString().getBytes(StandardCharsets.UTF_8);
+        Path logFile = Files.write(tempDir.resolve("access.log"), log);
+        Path indexFile = tempDir.resolve("access.log.idx");
+        LogIndex.update(logFile, indexFile);
+
+        int incidents = 0;
+        for (double availability : new double[]{90.0, 99.0, 99.9}) {
+            for (long responseTime : new long[]{20, 45, 100}) {
+                new Analyzer(new ByteArrayInputStream(log), availability, responseTime).run();
+                String lineOutput = outputStream.toString();
+                incidents += lineOutput.lines().count();
+                outputStream.reset();
+
+                new Analyzer(availability, responseTime).runOverIndex(indexFile);
+                assertEquals(lineOutput, outputStream.toString(), "-u " + availability + " -t " + responseTime);
+                outputStream.reset();
+            }
+        }
+        assertTrue(incidents > 20, "Инцидентов слишком мало для проверки: " + incidents);
+    }
+
+    @Test
+    @DisplayName("Тест анализа диапазона байтов - как анализ только строк этого диапазона")
+    void testRangeMatchesAnalysisOfItsLines(@TempDir Path tempDir) throws Exception {
+        String log = incidentLog(0, 60);
+        Path logFile = Files.write(tempDir.resolve("access.log"), log.getBytes(StandardCharsets.UTF_8));
+        new Analyzer(new ByteArrayInputStream(incidentLog(30, 50).getBytes(StandardCharsets.UTF_8)), 99.0, 100).run();
+        String expected = outputStream.toString();
+        outputStream.reset();
+
+        // Строки одной длины: диапазон - секунды с 30 по 49
+        int lineLength = log.indexOf('\n') + 1;
+        new Analyzer(logFile, 99.0, 100).runOverRange(30L * lineLength, 50L * lineLength);
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, outputStream.toString());
+    }
+
+    @Test
+    @DisplayName("Тест анализа интервала времени - как анализ строк интервала, включая строки не по порядку")
+    void testTimeRangeMatchesAnalysisOfItsLines(@TempDir Path tempDir) throws Exception {
+        // Строка секунды 20 после секунды 22 и строка секунды 41 после секунды 42
+        String log = incidentLog(0, 20) + incidentLog(21, 23) + incidentLog(20, 21) + incidentLog(23, 42)
+                + incidentLog(42, 43) + incidentLog(41, 42) + incidentLog(43, 60);
+        String inRange = incidentLog(21, 23) + incidentLog(20, 21) + incidentLog(23, 42) + incidentLog(41, 42);
+        new Analyzer(new ByteArrayInputStream(inRange.getBytes(StandardCharsets.UTF_8)), 99.0, 100).run();
+        String expected = outputStream.toString();
+        outputStream.reset();
+
+        Path logFile = Files.write(tempDir.resolve("access.log"), log.getBytes(StandardCharsets.UTF_8));
+        LogParser parser = new LogParser();
+        assertTrue(parser.parseLine(incidentLog(20, 21).trim()));
+        long fromSecond = parser.getEpochSecond();
+        new Analyzer(logFile, 99.0, 100).runOverTimeRange(fromSecond, fromSecond + 21, 2);
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, outputStream.toString());
+    }
+
+    private static String incidentLog(int fromSecond, int toSecond) {
+        StringBuilder logBuilder = new StringBuilder();
+        for (int i = fromSecond; i < toSecond; i++) {
+            int status = (i / 5) % 2 == 1 ? 500 : 200;
+            logBuilder.append(String.format(
+                    "192.168.32.181 - - [14/06/2017:16:47:%02d +1000] \"GET /test HTTP/1.1\" %d 2 10.5 \"-\" \"user-agent\" prio:0\n",
+                    i, status
+            ));
+        }
+        return logBuilder.toString();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(data);
+        }
+        return compressed.toByteArray();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса BurnRateIncidentDetector")
+class BurnRateIncidentDetectorTest {
+
+    private static final long START = 1_497_458_400L;
+    private static final int REQUESTS_PER_SECOND = 10;
+
+    // Инциденты: {начало, конец, запросов, отказов} от начала записей
+    private final List<long[]> incidents = new ArrayList<>();
+
+    // SLO 99%, скорость 10: инцидент, пока отказов больше 10% и за 10 минут, и за минуту
+    private BurnRateIncidentDetector detector(double availabilityThreshold) {
+        return new BurnRateIncidentDetector(availabilityThreshold, 45, 600, 60, 10.0,
+                (start, end, requests, failures, worstSecond, worstAvailability) ->
+                        incidents.add(new long[]{start - START, end - START, requests, failures}));
+    }
+
+    private static void feed(IncidentDetector detector, int from, int to, boolean failing) {
+        for (int second = from; second < to; second++) {
+            for (int i = 0; i < REQUESTS_PER_SECOND; i++) {
+                detector.onRecord(START + second, 10.0, failing ? 500 : 200);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Короткий всплеск не тратит бюджет длинного окна")
+    void shouldIgnoreShortBurst() {
+        IncidentDetector detector = detector(99.0);
+        feed(detector, 0, 900, false);
+        feed(detector, 900, 930, true);
+        feed(detector, 930, 1800, false);
+        detector.finish();
+        assertTrue(incidents.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Затяжной отказ: инцидент с начала короткого окна до его восстановления")
+    void shouldDetectSustainedBurn() {
+        IncidentDetector detector = detector(99.0);
+        feed(detector, 0, 900, false);
+        feed(detector, 900, 1020, true);
+        feed(detector, 1020, 1800, false);
+        detector.finish();
+
+        assertEquals(1, incidents.size());
+        long[] incident = incidents.get(0);
+        // В длинном окне 601 с отказов больше 10% с 61-й секунды отказа (960-й)
+        assertEquals(960 - 59, incident[0]);
+        // В коротком окне 61 с отказов не больше 10% на 55-й секунде после восстановления
+        assertEquals(1020 + 54, incident[1]);
+        assertEquals((incident[1] - incident[0] + 1) * REQUESTS_PER_SECOND, incident[2]);
+        assertEquals((1020 - incident[0]) * REQUESTS_PER_SECOND, incident[3]);
+    }
+
+    @Test
+    @DisplayName("Без бюджета ошибок (100%) инцидент - любой отказ")
+    void shouldTreatAnyFailureAsBurnWithoutBudget() {
+        IncidentDetector detector = detector(100.0);
+        feed(detector, 0, 100, false);
+        detector.onRecord(START + 100, 10.0, 200);
+        detector.onRecord(START + 100, 100.0, 200);
+        feed(detector, 101, 200, false);
+        detector.finish();
+
+        assertEquals(1, incidents.size());
+        assertEquals(41, incidents.get(0)[0]);
+        assertEquals(161, incidents.get(0)[1]);
+    }
+}
@@ -0,0 +1,86 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса EwmaIncidentDetector")
+class EwmaIncidentDetectorTest {
+
+    private static final long START = 1_497_458_400L;
+    private static final int REQUESTS_PER_SECOND = 10;
+
+    // Инциденты: {начало, конец, запросов, отказов} от начала записей
+    private final List<long[]> incidents = new ArrayList<>();
+
+    private EwmaIncidentDetector detector(int halfLifeSeconds) {
+        return new EwmaIncidentDetector(90.0, 45, halfLifeSeconds,
+                (start, end, requests, failures, worstSecond, worstAvailability) ->
+                        incidents.add(new long[]{start - START, end - START, requests, failures}));
+    }
+
+    // Секунды с from по to - 1: все запросы успешны или все отказы
+    private static void feed(IncidentDetector detector, int from, int to, boolean failing) {
+        for (int second = from; second < to; second++) {
+            for (int i = 0; i < REQUESTS_PER_SECOND; i++) {
+                detector.onRecord(START + second, 10.0, failing ? 503 : 200);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Затяжной отказ даёт инцидент, который кончается после восстановления")
+    void shouldDetectSustainedOutage() {
+        IncidentDetector detector = detector(10);
+        feed(detector, 0, 100, false);
+        feed(detector, 100, 160, true);
+        feed(detector, 160, 300, false);
+        detector.finish();
+
+        assertEquals(1, incidents.size());
+        long[] incident = incidents.get(0);
+        // Взвешенная доступность падает ниже 90% на второй секунде отказа
+        assertEquals(101, incident[0]);
+        assertTrue(incident[1] > 160 && incident[1] < 200, "конец " + incident[1]);
+        assertEquals((incident[1] - incident[0] + 1) * REQUESTS_PER_SECOND, incident[2]);
+        assertEquals((160 - incident[0]) * REQUESTS_PER_SECOND, incident[3]);
+    }
+
+    @Test
+    @DisplayName("Короткий всплеск отказов сглаживается, но не при малом периоде полураспада")
+    void shouldSmoothShortBurst() {
+        IncidentDetector slow = detector(30);
+        feed(slow, 0, 100, false);
+        feed(slow, 100, 102, true);
+        feed(slow, 102, 200, false);
+        slow.finish();
+        assertTrue(incidents.isEmpty());
+
+        IncidentDetector fast = detector(1);
+        feed(fast, 0, 100, false);
+        feed(fast, 100, 102, true);
+        feed(fast, 102, 200, false);
+        fast.finish();
+        assertEquals(1, incidents.size());
+        assertEquals(100, incidents.get(0)[0]);
+    }
+
+    @Test
+    @DisplayName("Отметка времени завершает секунду без новых записей")
+    void shouldCompleteSecondOnTick() {
+        IncidentDetector detector = detector(1);
+        feed(detector, 0, 10, false);
+        feed(detector, 10, 12, true);
+        detector.onTick(START + 12);
+        feed(detector, 12, 13, false);
+        detector.onTick(START + 13);
+        // Инцидент с 10 по 12: 12-я секунда успешна, но взвешенная доступность ещё ниже порога
+        detector.finish();
+        assertEquals(1, incidents.size());
+        assertEquals(10, incidents.get(0)[0]);
+    }
+}
@@ -0,0 +1,130 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса IncidentWriter")
+class IncidentWriterTest {
+
+    private static final long START = LocalDateTime.of(2017, 6, 14, 23, 59, 58).toEpochSecond(ZoneOffset.UTC);
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private String written(IncidentWriter writer) {
+        writer.flush();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Текст должен совпадать с printf, в том числе при округлении половины")
+    void shouldMatchPrintfInTextFormat() {
+        IncidentWriter writer = new IncidentWriter(out, IncidentFormat.TEXT);
+        StringBuilder expected = new StringBuilder();
+        Random random = new Random(3);
+        for (int i = 0; i < 20_000; i++) {
+            long total = 1 + random.nextInt(i % 2 == 0 ? 40 : 100_000);
+            long failures = random.nextInt((int) total + 1);
+            writer.write(START, START + 5, total, failures, Long.MIN_VALUE, 0, null, null, false);
+            expected.append(String.format("%s %s %.1f%n", "23:59:58", "00:00:03", 100.0 * (total - failures) / total));
+        }
+        // Половины, которые двоичное представление сдвигает в разные стороны
+        for (long[] tf : new long[][]{{2000, 1999}, {20, 3}, {2000, 3}, {200, 1}, {40, 1}}) {
+            writer.write(START, START + 1, tf[0], tf[1], Long.MIN_VALUE, 0, null, null, false);
+            expected.append(String.format("23:59:58 23:59:59 %.1f%n", 100.0 * (tf[0] - tf[1]) / tf[0]));
+        }
+        assertEquals(expected.toString(), written(writer));
+    }
+
+    @Test
+    @DisplayName("Текст должен дописывать процентили, ключ и пометку open в прежнем порядке")
+    void shouldAppendLatencyKeyAndOpenInText() {
+        LatencyHistogram latency = new LatencyHistogram();
+        latency.record(10.5);
+        latency.record(100);
+        IncidentWriter writer = new IncidentWriter(out, IncidentFormat.TEXT);
+        writer.write(START, START + 2, 3, 2, START, 0.0, latency, null, true);
+        writer.write(START, START + 2, 3, 2, START, 0.0, null, "Mozilla/5.0 (X11)", false);
+
+        String expected = String.format("23:59:58 00:00:00 33.3 p50=%.1f p95=%.1f p99=%.1f open%n",
+                latency.getValueAtQuantile(0.50), latency.getValueAtQuantile(0.95), latency.getValueAtQuantile(0.99))
+                + String.format("23:59:58 00:00:00 33.3 Mozilla/5.0 (X11)%n");
+        assertEquals(expected, written(writer));
+    }
+
+    @Test
+    @DisplayName("JSONL должен содержать полное время, длительность, счётчики и худший интервал")
+    void shouldWriteJsonLines() {
+        IncidentWriter writer = new IncidentWriter(out, IncidentFormat.JSONL);
+        writer.write(START, START + 65, 1000, 3, START + 60, 87.5, null, "/api \"v2\"\\ключ\t", false);
+        writer.write(START, START + 1, 10, 10, START, 0.0, null, null, true);
+
+        assertEquals("{\"start\":\"2017-06-14T23:59:58\",\"end\":\"2017-06-15T00:01:03\",\"duration_s\":65,"
+                        + "\"requests\":1000,\"failures\":3,\"availability\":99.700,"
+                        + "\"worst_second\":\"2017-06-15T00:00:58\",\"worst_availability\":87.500,"
+                        + "\"key\":\"/api \\\"v2\\\"\\\\ключ\\u0009\"}\n"
+                        + "{\"start\":\"2017-06-14T23:59:58\",\"end\":\"2017-06-14T23:59:59\",\"duration_s\":1,"
+                        + "\"requests\":10,\"failures\":10,\"availability\":0.000,"
+                        + "\"worst_second\":\"2017-06-14T23:59:58\",\"worst_availability\":0.000,\"open\":true}\n",
+                written(writer));
+    }
+
+    @Test
+    @DisplayName("CSV должен начинаться с заголовка и экранировать ключ")
+    void shouldWriteCsvWithHeader() {
+        IncidentWriter writer = new IncidentWriter(out, IncidentFormat.CSV);
+        writer.write(START, START + 2, 4, 1, START + 1, 50.0, null, "a,\"b\"", false);
+        writer.write(START, START + 2, 4, 1, Long.MIN_VALUE, 0, null, "😀", false);
+
+        assertEquals(IncidentWriter.CSV_HEADER + "\n"
+                        + "2017-06-14T23:59:58,2017-06-15T00:00:00,2,4,1,75.000,2017-06-14T23:59:59,50.000,,,,\"a,\"\"b\"\"\",false\n"
+                        + "2017-06-14T23:59:58,2017-06-15T00:00:00,2,4,1,75.000,,,,,,😀,false\n",
+                written(writer));
+    }
+
+    @Test
+    @DisplayName("Ключ байтами должен выводиться как строка, в которую декодируются эти байты")
+    void shouldWriteByteKeyLikeDecodedString() {
+        // Кавычка и управляющий символ, лишний байт продолжения, неполная последовательность и ключ, обрезанный
+        // посреди символа: байт после длины ключа дополнил бы его до "ж"
+        byte[] key = "/api\"ж\t".getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[key.length + 5];
+        System.arraycopy(key, 0, bytes, 0, key.length);
+        bytes[key.length] = (byte) 0x80;
+        bytes[key.length + 1] = (byte) 0xE2;
+        bytes[key.length + 2] = (byte) 0x82;
+        bytes[key.length + 3] = (byte) 0xD0;
+        bytes[key.length + 4] = (byte) 0xB6;
+        int length = key.length + 4;
+        String decoded = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        for (IncidentFormat format : IncidentFormat.values()) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            IncidentWriter stringWriter = new IncidentWriter(expected, format);
+            stringWriter.write(START, START + 2, 4, 1, START, 50.0, null, decoded, false);
+            stringWriter.flush();
+            out.reset();
+            IncidentWriter writer = new IncidentWriter(out, format);
+            writer.write(START, START + 2, 4, 1, START, 50.0, null, bytes, length, false);
+            assertEquals(expected.toString(StandardCharsets.UTF_8), written(writer), format.name());
+        }
+    }
+
+    @Test
+    @DisplayName("Строки больше буфера должны выводиться целиком")
+    void shouldFlushWhenBufferIsFull() {
+        IncidentWriter writer = new IncidentWriter(out, IncidentFormat.TEXT);
+        String key = "ж".repeat(100_000);
+        for (int i = 0; i < 3; i++) {
+            writer.write(START, START + 1, 1, 1, START, 0.0, null, key, false);
+        }
+        String line = String.format("23:59:58 23:59:59 0.0 %s%n", key);
+        assertEquals(line.repeat(3), written(writer));
+    }
+}
@@ -0,0 +1,195 @@
+package com.farpost;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса IngestServer")
+class IngestServerTest {
+
+    private ByteArrayOutputStream outputStream;
+    private PrintStream originalOut;
+    private IngestServer server;
+    private HttpClient client;
+
+    @BeforeEach
+    void setUp() {
+        outputStream = new ByteArrayOutputStream();
+        originalOut = System.out;
+        System.setOut(new PrintStream(outputStream));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+        System.setOut(originalOut);
+    }
+
+    private void startServer(int latenessSeconds) throws IOException {
+        server = new IngestServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                new Analyzer(99.0, 100), 100, latenessSeconds, 60_000);
+        server.start();
+        client = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+    }
+
+    private HttpResponse<String> post(byte[] body, boolean gzip) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri(IngestServer.INGEST_PATH))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(gzip ? gzip(body) : body));
+        if (gzip) {
+            request.header("Content-Encoding", "gzip");
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.getPort() + path);
+    }
+
+    @Test
+    @DisplayName("Строки от многих клиентов одновременно должны давать те же инциденты, что и анализ по итогам секунд индекса")
+    void shouldMatchIndexAnalysisForConcurrentClients(@TempDir Path tempDir) throws Exception {
+        List<String> lines = flappingLog(1_800, 7);
+        Path logFile = Files.write(tempDir.resolve("access.log"), String.join("", lines).getBytes(StandardCharsets.UTF_8));
+        Path indexFile = tempDir.resolve("access.log.idx");
+        LogIndex.update(logFile, indexFile);
+        // Сервер считает секунды целиком, как и анализ по итогам секунд
+        Analyzer reference = new Analyzer(99.0, 100);
+        LogIndex.forEachSecond(indexFile, 100, reference::processSecond);
+        reference.finish();
+        String indexOutput = outputStream.toString();
+        outputStream.reset();
+
+        startServer(100_000);
+        int clients = 200;
+        List<byte[]> bodies = new ArrayList<>();
+        int chunk = (lines.size() + clients - 1) / clients;
+        for (int from = 0; from < lines.size(); from += chunk) {
+            bodies.add(String.join("", lines.subList(from, Math.min(lines.size(), from + chunk)))
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        try (ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < bodies.size(); i++) {
+                byte[] body = bodies.get(i);
+                boolean gzip = i % 2 == 0;
+                responses.add(senders.submit(() -> post(body, gzip)));
+            }
+            for (Future<HttpResponse<String>> response : responses) {
+                assertEquals(200, response.get().statusCode());
+                assertTrue(response.get().body().contains("\"late\":0"), response.get().body());
+            }
+        }
+        server.stop();
+        server = null;
+
+        assertFalse(indexOutput.isEmpty());
+        assertEquals(indexOutput, outputStream.toString());
+    }
+
+    @Test
+    @DisplayName("Статус должен показывать счётчики строк и доступность по окну")
+    void shouldReportStatus() throws Exception {
+        startServer(0);
+        String body = String.join("", flappingLog(10, 1)) + "мусор\n";
+        HttpResponse<String> ingest = post(body.getBytes(StandardCharsets.UTF_8), false);
+        assertEquals("{\"accepted\":10,\"rejected\":1,\"late\":0}\n", ingest.body());
+
+        HttpResponse<String> status = client.send(HttpRequest.newBuilder(uri(IngestServer.STATUS_PATH)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, status.statusCode());
+        assertTrue(status.body().contains("\"lines\":11,\"rejected_lines\":1,\"late_records\":0"), status.body());
+        assertTrue(status.body().contains("\"open_incidents\":["), status.body());
+    }
+
+    @Test
+    @DisplayName("Приём строк должен отвечать 405 на запросы кроме POST")
+    void shouldRejectGetOnIngest() throws Exception {
+        startServer(0);
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri(IngestServer.INGEST_PATH)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(405, response.statusCode());
+        assertEquals("POST", response.headers().firstValue("Allow").orElse(null));
+    }
+
+    @Test
+    @DisplayName("Битое сжатое тело должно давать 400")
+    void shouldRejectBrokenGzip() throws Exception {
+        startServer(0);
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri(IngestServer.INGEST_PATH))
+                        .header("Content-Encoding", "gzip")
+                        .POST(HttpRequest.BodyPublishers.ofString("не gzip"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(400, response.statusCode());
+    }
+
+    @Test
+    @DisplayName("Строка без перевода длиннее предела должна давать 413, а не расти в памяти")
+    void shouldRejectTooLongLine() throws Exception {
+        startServer(0);
+        HttpResponse<String> response = post(new byte[IngestServer.MAX_LINE_LENGTH * 4], false);
+        assertEquals(413, response.statusCode());
+        assertTrue(response.body().contains("line too long"), response.body());
+    }
+
+    @Test
+    @DisplayName("Тело больше предела должно давать 413, в том числе после распаковки")
+    void shouldRejectTooLargeBody() throws Exception {
+        startServer(0);
+        server.setMaxBodyBytes(10_000);
+        byte[] body = String.join("", flappingLog(100, 1)).getBytes(StandardCharsets.UTF_8);
+        assertEquals(413, post(body, false).statusCode());
+        assertEquals(413, post(body, true).statusCode());
+        assertEquals(200, post(String.join("", flappingLog(10, 1)).getBytes(StandardCharsets.UTF_8), true).statusCode());
+    }
+
+    // Несколько строк в секунду, отказы идут волнами по минуте
+    private static List<String> flappingLog(int seconds, int linesPerSecond) {
+        Random random = new Random(19);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < seconds; i++) {
+            boolean badMinute = (i / 60) % 3 == 1;
+            for (int j = 0; j < linesPerSecond; j++) {
+                int status = badMinute && random.nextInt(10) == 0 ? 500 : 200;
+                lines.add(String.format(
+                        "192.168.32.181 - - [14/06/2017:%02d:%02d:%02d +1000] \"GET /test HTTP/1.1\" %d 2 %.1f \"-\" \"user-agent\" prio:0\n",
+                        16 + i / 3600, (i / 60) % 60, i % 60, status, 10.0 + random.nextInt(50)));
+            }
+        }
+        return lines;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(data);
+        }
+        return compressed.toByteArray();
+    }
+}
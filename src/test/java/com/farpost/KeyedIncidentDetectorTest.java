@@ -0,0 +1,184 @@
+package com.farpost;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса KeyedIncidentDetector")
+class KeyedIncidentDetectorTest {
+
+    private static final long START = LocalDateTime.of(2017, 6, 14, 16, 47, 0).toEpochSecond(ZoneOffset.UTC);
+
+    private ByteArrayOutputStream outputStream;
+    private PrintStream originalOut;
+
+    @BeforeEach
+    void setUp() {
+        outputStream = new ByteArrayOutputStream();
+        originalOut = System.out;
+        System.setOut(new PrintStream(outputStream));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    private static String line(int second, String path, int status) {
+        return String.format(
+                "192.168.32.181 - - [14/06/2017:16:47:%02d +1000] \"GET %s?x=1 HTTP/1.1\" %d 2 10.5 \"-\" \"agent\" prio:0\n",
+                second, path, status
+        );
+    }
+
+    @Test
+    @DisplayName("Для единственного ключа инциденты совпадают с общим анализом")
+    void shouldMatchGlobalAnalysisForSingleKey() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            log.append(line(i, "/api", (i / 5) % 3 == 1 || i % 7 == 0 ? 500 : 200));
+        }
+        byte[] bytes = log.toString().getBytes(StandardCharsets.UTF_8);
+
+        new Analyzer(new ByteArrayInputStream(bytes), 99.0, 100).run();
+        String expected = outputStream.toString().replace(System.lineSeparator(), " /api" + System.lineSeparator());
+        outputStream.reset();
+
+        Analyzer analyzer = new Analyzer(new ByteArrayInputStream(bytes), 99.0, 100);
+        analyzer.setGrouping(GroupKey.PATH, 100);
+        analyzer.run();
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, outputStream.toString());
+    }
+
+    @Test
+    @DisplayName("Отказы одного ключа не влияют на доступность другого")
+    void shouldDetectIncidentsPerKeyIndependently() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            log.append(line(i, "/healthy", 200));
+            log.append(line(i, "/degraded", i >= 3 && i < 6 ? 503 : 200));
+        }
+
+        Analyzer analyzer = new Analyzer(new ByteArrayInputStream(log.toString().getBytes(StandardCharsets.UTF_8)), 99.0, 100);
+        analyzer.setGrouping(GroupKey.PATH, 100);
+        analyzer.run();
+
+        String output = outputStream.toString().trim();
+        // Окно включает предыдущую секунду, поэтому инцидент заканчивается через секунду после последнего отказа
+        assertEquals("16:47:03 16:47:07 40.0 /degraded", output);
+    }
+
+    @Test
+    @DisplayName("Ключи сверх лимита объединяются в общий ключ")
+    void shouldPutKeysOverLimitIntoOverflow() {
+        KeyedIncidentDetector detector = new KeyedIncidentDetector(1, 2, 99.0);
+        int a = detector.keyId("a");
+        int b = detector.keyId("b");
+        int c = detector.keyId("c");
+        int d = detector.keyId("d");
+
+        assertNotEquals(a, b);
+        assertEquals(c, d, "Все ключи сверх лимита должны попадать в один общий ключ");
+        assertEquals(a, detector.keyId("a"));
+        assertEquals(3, detector.getKeyCount());
+
+        detector.add(c, START, true);
+        detector.add(d, START + 1, false);
+        detector.add(c, START + 2, false);
+        detector.finish();
+        assertEquals("16:47:00 16:47:02 66.7 " + KeyedIncidentDetector.OVERFLOW_KEY, outputStream.toString().trim());
+    }
+
+    @Test
+    @DisplayName("Должен расширять хранилище при росте числа ключей")
+    void shouldGrowStorageForManyKeys() {
+        KeyedIncidentDetector detector = new KeyedIncidentDetector(1, 1000, 99.0);
+        for (int i = 0; i < 1000; i++) {
+            int id = detector.keyId("key" + i);
+            assertEquals(i, id);
+            detector.add(id, START, i % 2 == 0);
+        }
+        detector.finish();
+        assertEquals(1000, detector.getKeyCount());
+        // Отказ в единственной секунде ключа даёт инцидент нулевой длины, он не выводится
+        assertEquals("", outputStream.toString());
+    }
+
+    @Test
+    @DisplayName("При нехватке памяти давний ключ вытесняется, и его незавершённый инцидент выводится")
+    void shouldReportIncidentOfEvictedKey() {
+        // Окно 2 с: на ключ - заголовок, ключ, 96 байт состояния и 3 ячейки окна по 16 байт, плюс индекс
+        long keyMemory = 32 + OffHeapKeyTable.KEY_BYTES + 96 + 3 * 16 + 16;
+        KeyedIncidentDetector detector = new KeyedIncidentDetector(2, 1, Integer.MAX_VALUE, 2 * keyMemory, 99.0);
+        detector.add(detector.keyId("a"), START, false);
+        detector.add(detector.keyId("a"), START + 1, true);
+        detector.add(detector.keyId("a"), START + 2, true);
+        detector.add(detector.keyId("b"), START + 2, false);
+        detector.add(detector.keyId("c"), START + 3, false);
+        assertEquals(2, detector.getKeyCount());
+        assertEquals(1, detector.getEvictedKeyCount());
+
+        // Вернувшийся ключ начинает окно заново, его прежний инцидент уже выведен
+        detector.add(detector.keyId("a"), START + 4, false);
+        detector.finish();
+        assertEquals("16:47:00 16:47:02 33.3 a", outputStream.toString().trim());
+        assertEquals(2, detector.getEvictedKeyCount());
+    }
+
+    @Test
+    @DisplayName("Длинные ключи с общим началом - разные ключи и выводятся целиком")
+    void shouldKeepLongAgentsApart() throws Exception {
+        // Агенты длиннее части ключа в записи таблицы, различаются только в конце
+        String agent = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36 Build/";
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            log.append(String.format(
+                    "192.168.32.181 - - [14/06/2017:16:47:%02d +1000] \"GET /api HTTP/1.1\" %d 2 10.5 \"-\" \"%s\" prio:0\n",
+                    i, i >= 5 && i < 10 ? 500 : 200, agent + "A"));
+            log.append(String.format(
+                    "192.168.32.181 - - [14/06/2017:16:47:%02d +1000] \"GET /api HTTP/1.1\" 200 2 10.5 \"-\" \"%s\" prio:0\n",
+                    i, agent + "B"));
+        }
+        assertTrue(agent.length() > OffHeapKeyTable.KEY_BYTES);
+
+        Analyzer analyzer = new Analyzer(new ByteArrayInputStream(log.toString().getBytes(StandardCharsets.UTF_8)), 99.0, 100);
+        analyzer.setGrouping(GroupKey.AGENT, 100);
+        analyzer.run();
+
+        String output = outputStream.toString();
+        assertTrue(output.contains(" " + agent + "A" + System.lineSeparator()), output);
+        assertFalse(output.contains(agent + "B"), "У второго агента отказов нет: " + output);
+    }
+
+    @Test
+    @DisplayName("Длинный ключ вытесняет несколько давних ключей, незавершённые инциденты остальных выводятся в конце")
+    void shouldFinishAfterEvictionForLongKey() {
+        long keyMemory = 32 + OffHeapKeyTable.KEY_BYTES + 96 + 3 * 16 + 16;
+        KeyedIncidentDetector detector = new KeyedIncidentDetector(2, 1, Integer.MAX_VALUE, 3 * keyMemory, 99.0);
+        String longKey = "/" + "p".repeat(OffHeapKeyTable.KEY_BYTES);
+        detector.add(detector.keyId("a"), START, false);
+        detector.add(detector.keyId("b"), START, false);
+        detector.add(detector.keyId("c"), START, false);
+        detector.add(detector.keyId("c"), START + 1, true);
+        detector.add(detector.keyId(longKey), START + 1, false);
+        detector.add(detector.keyId(longKey), START + 2, true);
+        assertEquals(2, detector.getEvictedKeyCount());
+        assertEquals(2, detector.getKeyCount());
+
+        detector.finish();
+        assertEquals("16:47:00 16:47:01 50.0 c" + System.lineSeparator()
+                + "16:47:01 16:47:02 50.0 " + longKey, outputStream.toString().trim());
+    }
+}
@@ -0,0 +1,87 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса LatencyHistogram")
+class LatencyHistogramTest {
+
+    private static double exactQuantile(double[] sorted, double quantile) {
+        int rank = Math.max(1, (int) Math.ceil(quantile * sorted.length));
+        return sorted[rank - 1];
+    }
+
+    @Test
+    @DisplayName("Процентили должны совпадать с точными с относительной погрешностью меньше процента")
+    void shouldApproximateQuantiles() {
+        Random random = new Random(1);
+        double[] values = new double[100_000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // Логнормальное распределение, похожее на время ответа в access.log
+            values[i] = Math.exp(3 + random.nextGaussian());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double quantile : new double[]{0.01, 0.5, 0.9, 0.95, 0.99, 0.999, 1.0}) {
+            double exact = exactQuantile(values, quantile);
+            double approximate = histogram.getValueAtQuantile(quantile);
+            assertEquals(exact, approximate, exact * 0.01, "Квантиль " + quantile);
+        }
+        assertEquals(values.length, histogram.getCount());
+    }
+
+    @Test
+    @DisplayName("Сумма гистограмм должна совпадать с гистограммой всех значений")
+    void shouldMergeWithoutLoss() {
+        Random random = new Random(2);
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        LatencyHistogram all = new LatencyHistogram();
+        for (int i = 0; i < 10_000; i++) {
+            double value = random.nextDouble() * 500;
+            (i % 3 == 0 ? first : second).record(value);
+            all.record(value);
+        }
+
+        first.add(second);
+        assertEquals(all.getCount(), first.getCount());
+        for (double quantile = 0.05; quantile <= 1.0; quantile += 0.05) {
+            assertEquals(all.getValueAtQuantile(quantile), first.getValueAtQuantile(quantile));
+        }
+    }
+
+    @Test
+    @DisplayName("Должен учитывать отрицательные, нулевые и огромные значения без ошибок")
+    void shouldClampOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-10.5);
+        histogram.record(Double.NaN);
+        histogram.record(0);
+        assertEquals(0, histogram.getValueAtQuantile(1.0));
+
+        histogram.record(Double.POSITIVE_INFINITY);
+        assertTrue(histogram.getValueAtQuantile(1.0) > 1e9, "Огромные значения учитываются как максимум");
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+    }
+
+    @Test
+    @DisplayName("Номера корзин должны расти монотонно без пропусков")
+    void shouldMapValuesToContiguousBuckets() {
+        int previous = LatencyHistogram.bucketIndex(0);
+        for (long micros = 1; micros < 1 << 20; micros++) {
+            int index = LatencyHistogram.bucketIndex(micros);
+            assertTrue(index == previous || index == previous + 1, "Корзина для " + micros);
+            previous = index;
+        }
+    }
+}
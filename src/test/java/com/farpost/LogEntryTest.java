@@ -5,6 +5,7 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -83,4 +84,16 @@ class LogEntryTest {
         Object other = new Object();
         assertFalse(entry.equals(other), "Сравнение с объектом другого типа должно возвращать false");
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Записи из секунд от эпохи и из LocalDateTime должны совпадать")
+    void epochSecondAndLocalDateTimeConstructorsShouldAgree() {
+        LocalDateTime timestamp = LocalDateTime.of(2017, 6, 14, 16, 47, 2);
+        LogEntry fromTimestamp = new LogEntry(timestamp, true);
+        LogEntry fromEpochSecond = new LogEntry(timestamp.toEpochSecond(ZoneOffset.UTC), true);
+
+        assertEquals(fromTimestamp, fromEpochSecond, "Записи должны быть равны");
+        assertEquals(fromTimestamp.hashCode(), fromEpochSecond.hashCode(), "Хэш-коды должны совпадать");
+        assertEquals(timestamp, fromEpochSecond.getTimestamp(), "Временная метка должна восстанавливаться без потерь");
+    }
+}
@@ -0,0 +1,83 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса LogFileSeries")
+class LogFileSeriesTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static String line(int hour) {
+        return String.format(
+                "192.168.32.181 - - [14/06/2017:%02d:00:00 +1000] \"GET /test HTTP/1.1\" 200 2 10.5 \"-\" \"agent\" prio:0\n",
+                hour
+        );
+    }
+
+    private Path write(String name, String content, boolean compress) throws IOException {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        if (compress) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(data);
+            }
+            data = compressed.toByteArray();
+        }
+        return Files.write(tempDir.resolve(name), data);
+    }
+
+    @Test
+    @DisplayName("Должен упорядочивать ротированные файлы по времени, а не по имени")
+    void shouldOrderByFirstTimestamp() throws IOException {
+        Path current = write("access.log", line(12), false);
+        Path first = write("access.log.1", line(11), false);
+        Path second = write("access.log.2.gz", line(10), true);
+        Path tenth = write("access.log.10.gz", "мусор\n" + line(1), true);
+        write("error.log", line(0), false);
+
+        assertEquals(List.of(tenth, second, first, current), LogFileSeries.resolve(tempDir.resolve("access.log*").toString()));
+    }
+
+    @Test
+    @DisplayName("Должен помещать файлы без корректных строк в конец")
+    void shouldPutUntimedFilesLast() throws IOException {
+        Path empty = write("b.log", "", false);
+        Path garbage = write("a.log", "мусор\n", false);
+        Path timed = write("c.log", line(5), false);
+
+        assertEquals(List.of(timed, garbage, empty), LogFileSeries.resolve(tempDir.toString()));
+        assertTrue(LogFileSeries.isSeries(tempDir.toString()));
+    }
+
+    @Test
+    @DisplayName("Должен возвращать одиночный файл как есть")
+    void shouldReturnSingleFile() throws IOException {
+        Path file = write("access.log", line(5), false);
+
+        assertFalse(LogFileSeries.isSeries(file.toString()));
+        assertEquals(List.of(file), LogFileSeries.resolve(file.toString()));
+    }
+
+    @Test
+    @DisplayName("Должен убирать повторы одного файла, указанного по-разному")
+    void shouldDropDuplicateFiles() throws IOException {
+        Path a = write("a.log", line(5), false);
+        Path b = write("b.log", line(6), false);
+        Path aliased = tempDir.resolve(".").resolve("a.log");
+
+        assertEquals(List.of(a, b), LogFileSeries.distinct(List.of(a, b, aliased, b)));
+    }
+}
@@ -0,0 +1,129 @@
+package com.farpost;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса LogFollower")
+class LogFollowerTest {
+
+    private static final long WAIT_TIMEOUT_MS = 10_000;
+
+    @TempDir
+    Path tempDir;
+
+    private ByteArrayOutputStream outputStream;
+    private PrintStream originalOut;
+    private LogFollower follower;
+    private Thread followerThread;
+
+    @BeforeEach
+    void setUp() {
+        outputStream = new ByteArrayOutputStream();
+        originalOut = System.out;
+        System.setOut(new PrintStream(outputStream, true));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (follower != null) {
+            follower.stop();
+            followerThread.join(WAIT_TIMEOUT_MS);
+        }
+        System.setOut(originalOut);
+    }
+
+    private static String line(int minute, int second, int status) {
+        return String.format(
+                "192.168.32.181 - - [14/06/2017:16:%02d:%02d +1000] \"GET /test HTTP/1.1\" %d 2 10.5 \"-\" \"agent\" prio:0\n",
+                minute, second, status
+        );
+    }
+
+    private static void append(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void startFollowing(Path file, long openIncidentTimeoutMs) {
+        follower = new LogFollower(file, new Analyzer(99.0, 100), openIncidentTimeoutMs);
+        followerThread = new Thread(() -> {
+            try {
+                follower.run();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        followerThread.start();
+    }
+
+    private void awaitOutput(String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_MS;
+        while (!outputStream.toString().contains(expected)) {
+            assertTrue(System.currentTimeMillis() < deadline,
+                    "Не дождались вывода '" + expected + "', есть: " + outputStream);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    @DisplayName("Должен выводить инцидент сразу после восстановления доступности в дописанных строках")
+    void shouldReportIncidentFromAppendedLines() throws Exception {
+        Path file = tempDir.resolve("access.log");
+        append(file, line(47, 0, 200));
+        startFollowing(file, Long.MAX_VALUE);
+
+        append(file, line(47, 1, 500) + line(47, 2, 500));
+        append(file, line(47, 5, 200) + line(47, 6, 200));
+
+        awaitOutput("16:47:01 16:47:05 ");
+    }
+
+    @Test
+    @DisplayName("Должен продолжать анализ после ротации переименованием и после усечения")
+    void shouldSurviveRenameAndTruncateRotation() throws Exception {
+        Path file = tempDir.resolve("access.log");
+        append(file, line(47, 0, 200));
+        startFollowing(file, Long.MAX_VALUE);
+
+        // Инцидент начинается в старом файле, последняя строка без перевода строки
+        String failures = line(47, 1, 500) + line(47, 2, 500);
+        append(file, failures.substring(0, failures.length() - 1));
+        Thread.sleep(100);
+        Files.move(file, tempDir.resolve("access.log.1"));
+        // ...и заканчивается в новом
+        append(file, line(47, 5, 200));
+        awaitOutput("16:47:01 16:47:05 ");
+
+        // copytruncate: файл усечён и пишется заново
+        Thread.sleep(100);
+        Files.write(file, new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+        // Усечение замечается только пока файл короче прочитанного, как и у tail -F
+        Thread.sleep(500);
+        append(file, line(48, 0, 503));
+        append(file, line(48, 3, 200));
+        awaitOutput("16:48:00 16:48:03 ");
+    }
+
+    @Test
+    @DisplayName("Должен сообщать о незавершённом инциденте после таймаута")
+    void shouldReportOpenIncidentAfterTimeout() throws Exception {
+        Path file = tempDir.resolve("access.log");
+        append(file, line(47, 0, 200) + line(47, 1, 500) + line(47, 2, 500));
+        startFollowing(file, 0);
+
+        awaitOutput("16:47:01 16:47:02 0.0 open");
+        assertEquals(1, outputStream.toString().split("open", -1).length - 1, "Об открытом инциденте сообщается один раз");
+    }
+}
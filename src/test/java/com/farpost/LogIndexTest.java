@@ -0,0 +1,172 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса LogIndex")
+class LogIndexTest {
+
+    private static final long[] THRESHOLDS = {0, 10, 45, 100, 1000};
+
+    @TempDir
+    Path tempDir;
+
+    private static String randomLog(long seed, int seconds) {
+        Random random = new Random(seed);
+        StringBuilder log = new StringBuilder();
+        for (int second = 0; second < seconds; second++) {
+            int lines = random.nextInt(8);
+            for (int i = 0; i < lines; i++) {
+                int status = random.nextInt(20) == 0 ? 500 + random.nextInt(4) : 200;
+                // Целые значения на границе порога, дробные, нулевые и отрицательные
+                double responseTime;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        responseTime = THRESHOLDS[random.nextInt(THRESHOLDS.length)];
+                        break;
+                    case 1:
+                        responseTime = -random.nextDouble();
+                        break;
+                    default:
+                        responseTime = random.nextDouble() * 150;
+                }
+                // Изредка строка из прошлой секунды - нарушение порядка в логе
+                int lineSecond = second > 0 && random.nextInt(50) == 0 ? second - 1 : second;
+                log.append(String.format(Locale.ROOT,
+                        "192.168.32.181 - - [14/06/2017:16:%02d:%02d +1000] \"GET /test HTTP/1.1\" %d 2 %s \"-\" \"agent\" prio:0\n",
+                        lineSecond / 60, lineSecond % 60, status, responseTime));
+            }
+            if (random.nextInt(30) == 0) {
+                log.append("некорректная строка\n");
+            }
+        }
+        return log.toString();
+    }
+
+    // Секунды по порядку лога, соседние строки одной секунды объединены: {секунда, запросов, отказов}
+    private static List<long[]> expectedSeconds(String log, long threshold) {
+        List<long[]> seconds = new ArrayList<>();
+        LogParser parser = new LogParser();
+        for (String line : log.split("\n")) {
+            if (!parser.parseLine(line)) {
+                continue;
+            }
+            long[] last = seconds.isEmpty() ? null : seconds.get(seconds.size() - 1);
+            if (last == null || last[0] != parser.getEpochSecond()) {
+                last = new long[]{parser.getEpochSecond(), 0, 0};
+                seconds.add(last);
+            }
+            last[1]++;
+            if (parser.isFailure(threshold)) {
+                last[2]++;
+            }
+        }
+        return seconds;
+    }
+
+    private static List<long[]> indexedSeconds(Path indexFile, long threshold) throws IOException {
+        List<long[]> seconds = new ArrayList<>();
+        LogIndex.forEachSecond(indexFile, threshold, (epochSecond, total, failures) ->
+                seconds.add(new long[]{epochSecond, total, failures}));
+        return seconds;
+    }
+
+    private static void assertSameSeconds(List<long[]> expected, List<long[]> actual, String message) {
+        assertEquals(expected.size(), actual.size(), message);
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i), message + ", запись " + i);
+        }
+    }
+
+    @Test
+    @DisplayName("Число отказов по индексу должно точно совпадать с разбором лога для любого целого порога")
+    void shouldRestoreExactCountsForAnyThreshold() throws IOException {
+        String log = randomLog(3, 400);
+        Path logFile = Files.write(tempDir.resolve("access.log"), log.getBytes(StandardCharsets.UTF_8));
+        Path indexFile = tempDir.resolve("access.log.idx");
+
+        assertEquals(Files.size(logFile), LogIndex.update(logFile, indexFile));
+        for (long threshold : THRESHOLDS) {
+            assertSameSeconds(expectedSeconds(log, threshold), indexedSeconds(indexFile, threshold), "порог " + threshold);
+        }
+        assertTrue(Files.size(indexFile) < Files.size(logFile) / 5, "Индекс должен быть намного меньше лога");
+    }
+
+    @Test
+    @DisplayName("Должен дополнять индекс при росте лога, незавершённая строка индексируется позже")
+    void shouldUpdateIncrementally() throws IOException {
+        String log = randomLog(5, 300);
+        Path logFile = tempDir.resolve("access.log");
+        Path indexFile = tempDir.resolve("access.log.idx");
+
+        // Лог пишется кусками, граница проходит посреди секунды и посреди строки
+        int[] cuts = {0, log.length() / 3 + 17, log.length() / 2 + 5, log.length()};
+        for (int i = 1; i < cuts.length; i++) {
+            byte[] part = log.substring(cuts[i - 1], cuts[i]).getBytes(StandardCharsets.UTF_8);
+            Files.write(logFile, part, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            LogIndex.update(logFile, indexFile);
+        }
+        assertEquals(0, LogIndex.update(logFile, indexFile), "Неизменившийся лог не переиндексируется");
+
+        for (long threshold : THRESHOLDS) {
+            assertSameSeconds(expectedSeconds(log, threshold), indexedSeconds(indexFile, threshold), "порог " + threshold);
+        }
+    }
+
+    @Test
+    @DisplayName("Должен перестраивать индекс, если лог заменён другим")
+    void shouldRebuildForReplacedLog() throws IOException {
+        Path logFile = tempDir.resolve("access.log");
+        Path indexFile = tempDir.resolve("access.log.idx");
+        Files.write(logFile, randomLog(7, 100).getBytes(StandardCharsets.UTF_8));
+        LogIndex.update(logFile, indexFile);
+
+        String replacement = randomLog(8, 200);
+        Files.write(logFile, replacement.getBytes(StandardCharsets.UTF_8));
+        LogIndex.update(logFile, indexFile);
+
+        assertSameSeconds(expectedSeconds(replacement, 45), indexedSeconds(indexFile, 45), "после замены лога");
+    }
+
+    @Test
+    @DisplayName("Должен индексировать сжатый лог")
+    void shouldIndexCompressedLog() throws IOException {
+        String log = randomLog(9, 200);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(log.getBytes(StandardCharsets.UTF_8));
+        }
+        Path logFile = Files.write(tempDir.resolve("access.log.1.gz"), compressed.toByteArray());
+        Path indexFile = tempDir.resolve("access.log.1.gz.idx");
+
+        LogIndex.update(logFile, indexFile);
+        assertEquals(0, LogIndex.update(logFile, indexFile));
+        assertSameSeconds(expectedSeconds(log, 45), indexedSeconds(indexFile, 45), "сжатый лог");
+    }
+
+    @Test
+    @DisplayName("Корзина времени ответа должна давать то же сравнение с целым порогом")
+    void shouldBucketResponseTimesConsistentlyWithThreshold() {
+        double[] values = {-5, -0.0, 0, 0.0001, 0.5, 1, 1.0000001, 44.999, 45, 45.000001, 99.5, 1e12, Double.NaN};
+        for (double value : values) {
+            for (long threshold : THRESHOLDS) {
+                assertEquals(value > threshold, LogIndex.responseTimeBucket(value) > threshold, value + " > " + threshold);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.farpost;
+
+import com.farpost.model.LogEntry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Сравнение LogParser с прежним разбором через регулярное выражение")
+class LogParserEquivalenceTest {
+
+    // Прежняя реализация LogParser.parse, оставлена здесь как эталон
+    private static final Pattern LOG_PATTERN = Pattern.compile(
+            "^\\S+ \\S+ \\S+ \\[(\\d{2}/\\d{2}/\\d{4}:\\d{2}:\\d{2}:\\d{2} \\+\\d{4})] \".*?\" (\\d{3}) \\S+ (\\S+).*$"
+    );
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+
+    private static final long[] THRESHOLDS = {0, 45, 50};
+
+    private final LogParser parser = new LogParser();
+
+    private static Optional<LogEntry> referenceParse(String line, long responseTimeThresholdMs) {
+        Matcher matcher = LOG_PATTERN.matcher(line);
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+        try {
+            LocalDateTime timestamp = OffsetDateTime.parse(matcher.group(1), DATE_FORMATTER).toLocalDateTime();
+            int statusCode = Integer.parseInt(matcher.group(2));
+            double responseTime = Double.parseDouble(matcher.group(3));
+            boolean isFailure = (statusCode >= 500) || (responseTime > responseTimeThresholdMs);
+            return Optional.of(new LogEntry(timestamp, isFailure));
+        } catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    private void assertSameResult(String line) {
+        for (long threshold : THRESHOLDS) {
+            assertEquals(referenceParse(line, threshold), parser.parse(line, threshold), "Строка: " + line);
+        }
+    }
+
+    @Test
+    @DisplayName("Строки из LogParserTest разбираются так же, как эталоном")
+    void shouldMatchReferenceOnLogParserTestLines() {
+        String[] lines = {
+                "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"PUT /rest/v1.4/documents?zone=default&_rid=6076537c HTTP/1.1\" 200 2 44.510983 \"-\" \"@list-item-updater\" prio:0",
+                "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"GET /api HTTP/1.1\" 500 10 10.000 \"-\" \"user\" prio:0",
+                "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"GET /api HTTP/1.1\" 200 10 50.001 \"-\" \"user\" prio:0",
+                "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"GET /api HTTP/1.1\" 503 10 100.000 \"-\" \"user\" prio:0",
+                "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"GET /api HTTP/1.1\" 200",
+                "192.168.32.181 - - [14-06-2017:16:47:02 +1000] \"GET /api HTTP/1.1\" 200 2 44.510983 \"-\" \"@list-item-updater\" prio:0",
+                "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"GET /api HTTP/1.1\" ABC 2 44.510983 \"-\" \"@list-item-updater\" prio:0",
+                "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"GET /api HTTP/1.1\" 200 2 ABC \"-\" \"@list-item-updater\" prio:0",
+                "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"GET /api HTTP/1.1\" 200 2 0.0 \"-\" \"@list-item-updater\" prio:0",
+                "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"GET /api HTTP/1.1\" 200 2 -10.5 \"-\" \"@list-item-updater\" prio:0"
+        };
+        for (String line : lines) {
+            assertSameResult(line);
+        }
+    }
+
+    @Test
+    @DisplayName("Граничные случаи даты, запроса и времени ответа разбираются так же, как эталоном")
+    void shouldMatchReferenceOnEdgeCases() {
+        String prefix = "1.2.3.4 - - [";
+        String request = "] \"GET / HTTP/1.1\" 200 2 ";
+        String[] timestamps = {
+                "31/02/2017:16:47:02 +1000", "29/02/2016:16:47:02 +1000", "29/02/1900:16:47:02 +1000",
+                "29/02/2000:00:00:00 +0000", "32/01/2017:16:47:02 +1000", "00/01/2017:16:47:02 +1000",
+                "01/13/2017:16:47:02 +1000", "01/00/2017:16:47:02 +1000", "01/01/0000:16:47:02 +1000",
+                "01/01/0001:00:00:00 +0000", "31/12/9999:23:59:59 +0000", "31/12/2017:24:00:00 +1000",
+                "01/01/2017:24:00:01 +1000", "01/01/2017:23:60:00 +1000", "01/01/2017:23:59:60 +1000",
+                "01/01/2017:23:59:59 +1900", "01/01/2017:23:59:59 +1800", "01/01/2017:23:59:59 +1801",
+                "01/01/2017:23:59:59 +1060", "01/01/2017:23:59:59 -1000", "01/01/2017:23:59:59 +100"
+        };
+        for (String timestamp : timestamps) {
+            assertSameResult(prefix + timestamp + request + "10.5 \"-\" \"agent\" prio:0");
+        }
+
+        String head = "1.2.3.4 - - [14/06/2017:16:47:02 +1000] ";
+        String[] tails = {
+                "\"GET /a\" 200 2 1.5\" 500 3 99.0 \"-\"",
+                "\"GET /a\" 20 2 1.5\" 500 3 99.0",
+                "\"GET /a\" 200 2 NaN \"-\"",
+                "\"GET /a\" 200 2 Infinity",
+                "\"GET /a\" 200 2 1e3",
+                "\"GET /a\" 200 2 0x1p5",
+                "\"GET /a\" 200 2 45d",
+                "\"GET /a\" 200 2 +45.0000000000000000000000001",
+                "\"GET /a\" 200 2 12345678901234567890.5",
+                "\"GET /a\" 200 2 .5",
+                "\"GET /a\" 200 2 5.",
+                "\"GET /a\" 200 2 .",
+                "\"GET /a\" 200 2 -",
+                "\"GET /a\" 200 2 1.2.3",
+                "\"GET /a\" 200 2 \u000145",
+                "\"GET /a\" 200 2 45 ",
+                "\"GET /a\" 200 2 4\u0085 tail",
+                "\"GET /a\" 200 2 45 tail ",
+                "\"GET  /a\" 200 2 45",
+                "\"GET /a\" 200\t2 45",
+                "\"GET /a\" 200 2  45",
+                "\"\" 200 2 45",
+                "\"GET /a\"200 2 45",
+                "\"GET /a\" 200 2 ",
+                "\"GET /a\" 200 2"
+        };
+        for (String tail : tails) {
+            assertSameResult(head + tail);
+        }
+
+        assertSameResult("");
+        assertSameResult("a b c");
+        assertSameResult("a  b c [14/06/2017:16:47:02 +1000] \"GET /a\" 200 2 45");
+        assertSameResult("a\tb c d [14/06/2017:16:47:02 +1000] \"GET /a\" 200 2 45");
+        assertSameResult("a b c d [14/06/2017:16:47:02 +1000] \"GET /a\" 200 2 45");
+        assertSameResult("клиент - - [14/06/2017:16:47:02 +1000] \"GET /документ\" 200 2 45 \"агент\"");
+    }
+
+    @Test
+    @DisplayName("Строки access.log и их случайные искажения разбираются так же, как эталоном")
+    void shouldMatchReferenceOnAccessLogAndMutations() throws IOException {
+        List<String> lines = new ArrayList<>();
+        Path accessLog = Paths.get("access.log");
+        if (Files.exists(accessLog)) {
+            lines.addAll(Files.readAllLines(accessLog, StandardCharsets.UTF_8));
+        }
+        lines.add("192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"PUT /rest/v1.4/documents?zone=default&_rid=6076537c HTTP/1.1\" 200 2 44.510983 \"-\" \"@list-item-updater\" prio:0");
+
+        for (String line : lines) {
+            assertSameResult(line);
+        }
+
+        char[] alphabet = {' ', '"', '[', ']', '/', ':', '+', '-', '.', '0', '5', '9', 'a', '\t', 'e', 'N'};
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            char[] chars = lines.get(random.nextInt(lines.size())).toCharArray();
+            int mutations = 1 + random.nextInt(3);
+            for (int m = 0; m < mutations; m++) {
+                chars[random.nextInt(chars.length)] = alphabet[random.nextInt(alphabet.length)];
+            }
+            assertSameResult(new String(chars));
+        }
+    }
+
+    @Test
+    @DisplayName("Байтовый путь даёт те же поля, что и строковый")
+    void byteRangeParsingShouldMatchStringParsing() {
+        String line = "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"GET /api HTTP/1.1\" 503 10 100.25 \"-\" \"user\" prio:0";
+        byte[] bytes = ("garbage\n" + line + "\nmore").getBytes(StandardCharsets.US_ASCII);
+        int from = "garbage\n".length();
+
+        assertTrue(parser.parseLine(ByteBuffer.wrap(bytes), from, from + line.length()));
+        long epochSecond = parser.getEpochSecond();
+        assertEquals(503, parser.getStatusCode());
+        assertEquals(100.25, parser.getResponseTime());
+
+        assertTrue(parser.parseLine(line));
+        assertEquals(epochSecond, parser.getEpochSecond());
+        assertEquals(LocalDateTime.of(2017, 6, 14, 16, 47, 2).toEpochSecond(java.time.ZoneOffset.UTC), epochSecond);
+    }
+}
@@ -4,8 +4,11 @@ import com.farpost.model.LogEntry;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.Month;
+import java.util.Arrays;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -117,4 +120,51 @@ class LogParserTest {
         assertTrue(entryOpt.isPresent(), "Парсер должен вернуть LogEntry для отрицательного времени ответа");
         assertFalse(entryOpt.get().isFailure(), "Запрос с отрицательным временем ответа не должен быть отказом (если в пределах порога)");
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Должен извлекать ключи группировки из строки и из байтов")
+    void shouldExtractGroupKeys() {
+        String logLine = "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"PUT /rest/v1.4/documents?zone=default&_rid=6076537c HTTP/1.1\" 200 2 44.510983 \"-\" \"@list-item-updater\" prio:0";
+        assertTrue(parser.parseLine(logLine));
+        assertEquals("/rest/v1.4/documents", parser.getGroupKey(GroupKey.PATH));
+        assertEquals("PUT", parser.getGroupKey(GroupKey.METHOD));
+        assertEquals("192.168.32.181", parser.getGroupKey(GroupKey.CLIENT));
+        assertEquals("@list-item-updater", parser.getGroupKey(GroupKey.AGENT));
+
+        byte[] bytes = ("xx" + logLine.replace("@list-item-updater", "Агент 1.0") + "\n").getBytes(StandardCharsets.UTF_8);
+        assertTrue(parser.parseLine(ByteBuffer.wrap(bytes), 2, bytes.length - 1));
+        assertEquals("192.168.32.181", parser.getGroupKey(GroupKey.CLIENT));
+        assertEquals("Агент 1.0", parser.getGroupKey(GroupKey.AGENT), "Не-ASCII символы ключа должны сохраняться");
+    }
+
+    @Test
+    @DisplayName("Должен возвращать '-' для отсутствующих полей группировки")
+    void shouldReturnDashForMissingGroupKeys() {
+        String logLine = "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"-\" 400 0 0.001";
+        assertTrue(parser.parseLine(logLine));
+        assertEquals("-", parser.getGroupKey(GroupKey.AGENT));
+        assertEquals("-", parser.getGroupKey(GroupKey.METHOD));
+        assertEquals("-", parser.getGroupKey(GroupKey.PATH));
+    }
+
+    @Test
+    @DisplayName("Должен копировать ключ группировки байтами UTF-8 так же из строки, как из байтов")
+    void shouldCopyGroupKeyBytes() {
+        String logLine = "192.168.32.181 - - [14/06/2017:16:47:02 +1000] \"PUT /rest/v1.4/documents HTTP/1.1\" 200 2 44.510983 \"-\" \"Агент \uD83D\uDE00\"";
+        byte[] expected = "Агент \uD83D\uDE00".getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = logLine.getBytes(StandardCharsets.UTF_8);
+        byte[] target = new byte[64];
+
+        assertTrue(parser.parseLine(logLine));
+        int length = parser.copyGroupKey(GroupKey.AGENT, target);
+        assertArrayEquals(expected, Arrays.copyOf(target, length));
+
+        assertTrue(parser.parseLine(ByteBuffer.wrap(bytes), 0, bytes.length));
+        length = parser.copyGroupKey(GroupKey.AGENT, target);
+        assertArrayEquals(expected, Arrays.copyOf(target, length));
+
+        // В маленький буфер ключ не помещается: возвращается полная длина
+        assertEquals(expected.length, parser.copyGroupKey(GroupKey.AGENT, new byte[4]));
+        assertEquals("192.168.32.181".length(), parser.copyGroupKey(GroupKey.CLIENT, new byte[0]));
+    }
+}
@@ -0,0 +1,111 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса LogSampler")
+class LogSamplerTest {
+
+    private static final int SECONDS = 4 * 3600;
+    private static final int LINES_PER_SECOND = 10;
+    // Отказ половины запросов с 12:00:00 по 12:04:59
+    private static final int OUTAGE_START = 2 * 3600;
+    private static final int OUTAGE_END = OUTAGE_START + 300;
+
+    @TempDir
+    Path tempDir;
+
+    private Path writeLog(boolean withOutage) throws IOException {
+        return withOutage ? writeLog(OUTAGE_START, OUTAGE_END) : writeLog(0, 0);
+    }
+
+    // Отказ половины запросов в секунды [outageStart, outageEnd) от начала лога
+    private Path writeLog(int outageStart, int outageEnd) throws IOException {
+        Path logFile = tempDir.resolve("access.log");
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(logFile)) {
+            for (int second = 0; second < SECONDS; second++) {
+                boolean outage = second >= outageStart && second < outageEnd;
+                for (int i = 0; i < LINES_PER_SECOND; i++) {
+                    int status = outage && random.nextBoolean() ? 500 : 200;
+                    int secondOfDay = 10 * 3600 + second;
+                    writer.write(String.format(Locale.ROOT,
+                            "192.168.32.181 - - [14/06/2017:%02d:%02d:%02d +1000] \"GET /test HTTP/1.1\" %d 2 %.1f \"-\" \"agent\" prio:0\n",
+                            secondOfDay / 3600, secondOfDay / 60 % 60, secondOfDay % 60, status, random.nextDouble() * 40));
+                }
+            }
+        }
+        return logFile;
+    }
+
+    @Test
+    @DisplayName("Выборка находит отказ: кандидат накрывает его по времени и по байтам")
+    void testFindsOutage() throws Exception {
+        Path logFile = writeLog(true);
+        // Промежуток между кусками при половине файла - один кусок, около 270 секунд лога: короче отказа
+        List<LogSampler.Candidate> candidates = new LogSampler(logFile, 99.0, 45).findCandidates(0.5);
+
+        assertEquals(1, candidates.size());
+        LogSampler.Candidate candidate = candidates.get(0);
+        assertTrue(Math.floorMod(candidate.getStartSecond(), 86400) <= 10 * 3600 + OUTAGE_START);
+        assertTrue(Math.floorMod(candidate.getEndSecond(), 86400) >= 10 * 3600 + OUTAGE_END - 1);
+        double[] bounds = candidate.getAvailabilityBounds();
+        assertTrue(bounds[0] <= candidate.getAvailability() && candidate.getAvailability() <= bounds[1]);
+        assertTrue(bounds[1] < 99.0);
+
+        // Весь отказ внутри диапазона байтов кандидата
+        long lineLength = Files.size(logFile) / ((long) SECONDS * LINES_PER_SECOND);
+        assertTrue(candidate.getStartOffset() <= (long) OUTAGE_START * LINES_PER_SECOND * lineLength);
+        assertTrue(candidate.getEndOffset() >= (long) OUTAGE_END * LINES_PER_SECOND * lineLength);
+    }
+
+    @Test
+    @DisplayName("Отказ в конце файла: кандидат продолжается до конца файла, а не до последнего куска выборки")
+    void testOutageAtEndOfFile() throws Exception {
+        Path logFile = writeLog(SECONDS - 1800, SECONDS);
+        List<LogSampler.Candidate> candidates = new LogSampler(logFile, 99.0, 45).findCandidates(0.3);
+
+        assertEquals(1, candidates.size());
+        LogSampler.Candidate candidate = candidates.get(0);
+        assertEquals(Files.size(logFile), candidate.getEndOffset());
+        assertEquals(10 * 3600 + SECONDS - 1, Math.floorMod(candidate.getEndSecond(), 86400));
+    }
+
+    @Test
+    @DisplayName("Без отказов кандидатов нет, в том числе при выборке меньше одного куска")
+    void testNoCandidatesInHealthyLog() throws Exception {
+        Path logFile = writeLog(false);
+        assertTrue(new LogSampler(logFile, 99.0, 45).findCandidates(0.2).isEmpty());
+        assertTrue(new LogSampler(logFile, 99.0, 45).findCandidates(1e-9).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Интервал Уилсона: содержит долю, не выходит за 0-100 и сужается с ростом выборки")
+    void testWilsonBounds() {
+        double[] none = LogSampler.wilsonBounds(0, 10);
+        assertEquals(0.0, none[0], 1e-9);
+        assertEquals(27.75, none[1], 0.01);
+
+        double[] all = LogSampler.wilsonBounds(10, 10);
+        assertEquals(100.0, all[1], 1e-9);
+        assertEquals(72.25, all[0], 0.01);
+
+        double[] small = LogSampler.wilsonBounds(50, 100);
+        double[] large = LogSampler.wilsonBounds(5000, 10000);
+        assertEquals(40.38, small[0], 0.01);
+        assertEquals(59.62, small[1], 0.01);
+        assertTrue(large[0] > small[0] && large[1] < small[1]);
+        assertTrue(large[0] < 50 && 50 < large[1]);
+    }
+}
@@ -0,0 +1,129 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса LogSeeker")
+class LogSeekerTest {
+
+    private static final int SLACK_SECONDS = 5;
+
+    @TempDir
+    Path tempDir;
+
+    // Смещения начала строк лога и их секунды от начала лога; некорректные строки - с секундой -1
+    private final List<Long> offsets = new ArrayList<>();
+    private final List<Integer> seconds = new ArrayList<>();
+    private long logBytes = 0;
+
+    private Path writeLog(long seed, int logSeconds, boolean trailingNewline) throws Exception {
+        Random random = new Random(seed);
+        StringBuilder log = new StringBuilder();
+        for (int second = 0; second < logSeconds; second++) {
+            int lines = random.nextInt(6);
+            for (int i = 0; i < lines; i++) {
+                // Строки опаздывают не больше допуска
+                int lineSecond = Math.max(0, second - (random.nextInt(20) == 0 ? random.nextInt(SLACK_SECONDS + 1) : 0));
+                // Изредка длинный user-agent: строка длиннее пробы
+                String agent = random.nextInt(500) == 0 ? "x".repeat(LogSeeker.PROBE_BYTES * 2) : "agent";
+                append(log, lineSecond, String.format(Locale.ROOT,
+                        "192.168.32.181 - - [14/06/2017:%02d:%02d:%02d +1000] \"GET /test HTTP/1.1\" 200 2 10.5 \"-\" \"%s\" prio:0",
+                        10 + lineSecond / 3600, lineSecond / 60 % 60, lineSecond % 60, agent));
+            }
+            if (random.nextInt(30) == 0) {
+                append(log, -1, "некорректная строка");
+            }
+        }
+        if (!trailingNewline) {
+            log.setLength(log.length() - 1);
+        }
+        return Files.write(tempDir.resolve("access.log"), log.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void append(StringBuilder log, int second, String line) {
+        offsets.add(logBytes);
+        seconds.add(second);
+        log.append(line).append('\n');
+        logBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+    }
+
+    @Test
+    @DisplayName("Диапазон содержит все строки интервала, в том числе опоздавшие, и начинается со строки")
+    void testRangeContainsAllLinesOfInterval() throws Exception {
+        Path logFile = writeLog(1, 2 * 3600, true);
+        long day = epochSecondOf(0);
+        Random random = new Random(2);
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            LogSeeker seeker = new LogSeeker(channel);
+            for (int attempt = 0; attempt < 50; attempt++) {
+                int from = random.nextInt(2 * 3600 + 20) - 10;
+                int to = from + random.nextInt(600);
+                long[] range = seeker.findRange(day + from, day + to, SLACK_SECONDS);
+                assertTrue(range[0] == channel.size() || offsets.contains(range[0]));
+                assertTrue(range[1] == channel.size() || offsets.contains(range[1]));
+                for (int i = 0; i < offsets.size(); i++) {
+                    if (seconds.get(i) >= from && seconds.get(i) <= to) {
+                        assertTrue(offsets.get(i) >= range[0] && offsets.get(i) < range[1],
+                                "строка " + i + " вне диапазона для " + from + "-" + to);
+                    }
+                }
+                // Читается интервал с запасом, а не файл
+                if (from > 0 && to - from < 300) {
+                    assertTrue(range[1] - range[0] < channel.size() / 4);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Интервал вне лога даёт пустой диапазон; последняя строка без перевода строки находится; открытое начало - с начала файла")
+    void testBoundaries() throws Exception {
+        Path logFile = writeLog(3, 600, false);
+        long day = epochSecondOf(0);
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            LogSeeker seeker = new LogSeeker(channel);
+            assertEquals(day, seeker.firstSecond());
+
+            long[] after = seeker.findRange(day + 3600, day + 7200, SLACK_SECONDS);
+            assertEquals(channel.size(), after[0]);
+            assertEquals(channel.size(), after[1]);
+            long[] before = seeker.findRange(day - 7200, day - 3600, SLACK_SECONDS);
+            assertEquals(0, before[0]);
+            assertEquals(0, before[1]);
+
+            int last = seconds.size() - 1;
+            while (seconds.get(last) < 0) {
+                last--;
+            }
+            long[] tail = seeker.findRange(day + seconds.get(last), Long.MAX_VALUE, 0);
+            assertTrue(tail[0] <= offsets.get(last));
+            assertEquals(channel.size(), tail[1]);
+
+            // Без начала интервала (только --to) диапазон с начала файла
+            long[] head = seeker.findRange(Long.MIN_VALUE, day + 300, SLACK_SECONDS);
+            assertEquals(0, head[0]);
+            assertTrue(head[1] > 0 && head[1] < channel.size());
+        }
+    }
+
+    private static long epochSecondOf(int second) {
+        LogParser parser = new LogParser();
+        assertTrue(parser.parseLine(String.format(Locale.ROOT,
+                "192.168.32.181 - - [14/06/2017:%02d:%02d:%02d +1000] \"GET /test HTTP/1.1\" 200 2 10.5 \"-\" \"agent\" prio:0",
+                10 + second / 3600, second / 60 % 60, second % 60)));
+        return parser.getEpochSecond();
+    }
+}
@@ -0,0 +1,90 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса MappedLogReader")
+class MappedLogReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private List<String> readLines(Path file, int regionSize) throws IOException {
+        List<String> lines = new ArrayList<>();
+        new MappedLogReader(file, regionSize).forEachLine((buf, from, to) -> {
+            byte[] bytes = new byte[to - from];
+            for (int i = from; i < to; i++) {
+                bytes[i - from] = buf.get(i);
+            }
+            lines.add(new String(bytes, StandardCharsets.UTF_8));
+        });
+        return lines;
+    }
+
+    @Test
+    @DisplayName("Должен выдавать те же строки, что и построчное чтение, при любом размере региона")
+    void shouldSplitLinesAcrossRegions() throws IOException {
+        StringBuilder content = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String line = "line-" + i + "-" + "x".repeat(i % 37);
+            expected.add(line);
+            content.append(line).append('\n');
+        }
+        Path file = tempDir.resolve("access.log");
+        Files.writeString(file, content.toString());
+
+        for (int regionSize : new int[]{8, 13, 64, 1000, MappedLogReader.DEFAULT_REGION_SIZE}) {
+            assertEquals(expected, readLines(file, regionSize), "Размер региона: " + regionSize);
+        }
+    }
+
+    @Test
+    @DisplayName("Должен обрабатывать строку длиннее региона, CRLF и последнюю строку без перевода строки")
+    void shouldHandleLongLinesCrLfAndMissingFinalNewline() throws IOException {
+        String longLine = "y".repeat(100);
+        Path file = tempDir.resolve("access.log");
+        Files.writeString(file, "first\r\n" + longLine + "\n\nlast");
+
+        assertEquals(Arrays.asList("first", longLine, "", "last"), readLines(file, 16));
+    }
+
+    @Test
+    @DisplayName("Пустой файл не должен выдавать строк")
+    void shouldHandleEmptyFile() throws IOException {
+        Path file = tempDir.resolve("empty.log");
+        Files.createFile(file);
+
+        assertTrue(readLines(file, 16).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Смещение следующей строки должно указывать сразу за переводом строки при любом размере региона")
+    void shouldReportNextLineOffsets() throws IOException {
+        String content = "a\r\nbb\n\nccc\n" + "d".repeat(40) + "\nlast";
+        Path file = tempDir.resolve("access.log");
+        Files.writeString(file, content);
+
+        for (int regionSize : new int[]{4, 16, 1000}) {
+            List<Long> offsets = new ArrayList<>();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedLogReader.forEachLine(channel, 3, channel.size(), regionSize,
+                        (buf, from, to, nextLineOffset) -> offsets.add(nextLineOffset));
+            }
+            assertEquals(Arrays.asList(6L, 7L, 11L, 52L, (long) content.length()), offsets, "Размер региона: " + regionSize);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса MergedLogReader")
+class MergedLogReaderTest {
+
+    private static final long RESPONSE_TIME_THRESHOLD_MS = 45;
+
+    @TempDir
+    Path tempDir;
+
+    // Запись в том виде, в каком её отдаёт MergedLogReader
+    private static String record(int source, long epochSecond, boolean isFailure) {
+        return source + ":" + epochSecond + (isFailure ? "!" : "");
+    }
+
+    private static String line(int second, int status) {
+        return String.format(
+                "192.168.32.181 - - [14/06/2017:16:%02d:%02d +1000] \"GET /test HTTP/1.1\" %d 2 10.5 \"-\" \"agent\" prio:0\n",
+                47 + second / 60, second % 60, status
+        );
+    }
+
+    private static long epochSecond(int second) {
+        LogParser parser = new LogParser();
+        assertTrue(parser.parseLine(line(second, 200).trim()));
+        return parser.getEpochSecond();
+    }
+
+    /**
+     * Пишет {@code count} файлов со случайными возрастающими секундами и возвращает ожидаемый результат
+     * слияния: записи по возрастанию секунды, при равных секундах - по номеру файла, внутри файла - по порядку.
+     */
+    private List<String> writeNodeLogs(List<Path> files, int count, boolean gzipSome) throws IOException {
+        Random random = new Random(7);
+        List<int[]> all = new ArrayList<>();
+        for (int source = 0; source < count; source++) {
+            StringBuilder log = new StringBuilder();
+            int second = random.nextInt(5);
+            for (int i = 0; i < 40; i++) {
+                second += random.nextInt(3);
+                int status = random.nextInt(10) == 0 ? 503 : 200;
+                log.append(line(second, status));
+                if (i == 20) {
+                    log.append("некорректная строка\n");
+                }
+                all.add(new int[]{source, second, status, all.size()});
+            }
+            byte[] bytes = log.toString().getBytes(StandardCharsets.UTF_8);
+            Path file;
+            if (gzipSome && source % 3 == 0) {
+                file = tempDir.resolve("node" + source + ".log.gz");
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                    out.write(bytes);
+                }
+                bytes = compressed.toByteArray();
+            } else {
+                file = tempDir.resolve("node" + source + ".log");
+            }
+            Files.write(file, bytes);
+            files.add(file);
+        }
+        all.sort(Comparator.<int[]>comparingInt(r -> r[1]).thenComparingInt(r -> r[0]).thenComparingInt(r -> r[3]));
+        List<String> expected = new ArrayList<>();
+        for (int[] r : all) {
+            expected.add(record(r[0], epochSecond(r[1]), r[2] >= 500));
+        }
+        return expected;
+    }
+
+    @Test
+    @DisplayName("Должен сливать файлы по времени, при равном времени - по номеру файла")
+    void shouldMergeByTimestamp() throws IOException {
+        List<Path> files = new ArrayList<>();
+        List<String> expected = writeNodeLogs(files, 5, true);
+
+        for (int batchSize : new int[]{1, 3, MergedLogReader.DEFAULT_BATCH_SIZE}) {
+            List<String> actual = new ArrayList<>();
+            new MergedLogReader(files, RESPONSE_TIME_THRESHOLD_MS, batchSize)
+                    .forEachRecord((source, epochSecond, isFailure) -> actual.add(record(source, epochSecond, isFailure)));
+            assertEquals(expected, actual, "Размер пачки: " + batchSize);
+        }
+    }
+
+    @Test
+    @DisplayName("Должен сливать сотни файлов")
+    void shouldMergeManyFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        List<String> expected = writeNodeLogs(files, 150, false);
+
+        List<String> actual = new ArrayList<>();
+        new MergedLogReader(files, RESPONSE_TIME_THRESHOLD_MS, 8)
+                .forEachRecord((source, epochSecond, isFailure) -> actual.add(record(source, epochSecond, isFailure)));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    @DisplayName("Ошибка чтения одного из файлов должна передаваться вызывающему")
+    void shouldPropagateReadFailure() throws IOException {
+        List<Path> files = new ArrayList<>();
+        writeNodeLogs(files, 2, false);
+        files.add(tempDir.resolve("missing.log"));
+
+        assertThrows(IOException.class, () ->
+                new MergedLogReader(files, RESPONSE_TIME_THRESHOLD_MS).forEachRecord((source, epochSecond, isFailure) -> { }));
+    }
+}
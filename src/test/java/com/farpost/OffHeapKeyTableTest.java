@@ -0,0 +1,179 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса OffHeapKeyTable")
+class OffHeapKeyTableTest {
+
+    // Значение записи в тестах - один long
+    private static final int VALUE_BYTES = 8;
+    private static final long ENTRY_MEMORY = 32 + OffHeapKeyTable.KEY_BYTES + VALUE_BYTES + 16;
+
+    private static int find(OffHeapKeyTable table, String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return table.find(bytes, bytes.length, OffHeapKeyTable.hash(bytes, bytes.length));
+    }
+
+    @Test
+    @DisplayName("Должен находить добавленные ключи и хранить их значения")
+    void shouldFindAddedKeys() {
+        OffHeapKeyTable table = new OffHeapKeyTable(VALUE_BYTES, 10_000, 0, id -> fail("Вытеснение без нехватки памяти"));
+        for (int i = 0; i < 10_000; i++) {
+            int id = table.findOrAdd("10.0." + i / 256 + "." + i % 256);
+            assertEquals(i, id);
+            table.putLong(id, 0, i * 7L);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            int id = find(table, "10.0." + i / 256 + "." + i % 256);
+            assertEquals(i, id);
+            assertEquals(i * 7L, table.getLong(id, 0));
+        }
+        assertEquals(-1, find(table, "10.1.0.0"));
+        assertEquals(10_000, table.size());
+        assertEquals("10.0.1.2", table.getKey(258));
+    }
+
+    @Test
+    @DisplayName("Длинные ключи с общим началом различаются")
+    void shouldDistinguishLongKeysWithSamePrefix() {
+        OffHeapKeyTable table = new OffHeapKeyTable(VALUE_BYTES, 10, 0, id -> { });
+        String prefix = "/" + "a".repeat(OffHeapKeyTable.KEY_BYTES);
+        int first = table.findOrAdd(prefix + "/first");
+        int second = table.findOrAdd(prefix + "/second");
+
+        assertNotEquals(first, second);
+        assertEquals(first, table.findOrAdd(prefix + "/first"));
+        assertEquals(second, find(table, prefix + "/second"));
+        assertEquals(prefix + "/first", table.getKey(first));
+    }
+
+    @Test
+    @DisplayName("Длинные ключи хранятся и сравниваются целиком, включая последние байты")
+    void shouldStoreLongKeysInFull() {
+        OffHeapKeyTable table = new OffHeapKeyTable(VALUE_BYTES, 10_000, 0, id -> fail("Вытеснение без нехватки памяти"));
+        Random random = new Random(7);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            // Общее начало и одинаковая длина: ключи различаются только в конце
+            int length = 1 + random.nextInt(400);
+            String key = "x".repeat(length) + (char) ('a' + random.nextInt(26)) + i;
+            keys.add(key);
+            table.putLong(table.findOrAdd(key), 0, i);
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            int id = find(table, keys.get(i));
+            assertEquals(i, table.getLong(id, 0));
+            assertEquals(keys.get(i), table.getKey(id));
+        }
+        String key = keys.get(0);
+        assertEquals(-1, find(table, key.substring(0, key.length() - 1) + "?"));
+    }
+
+    @Test
+    @DisplayName("Блоки длинного ключа входят в бюджет: ради них вытесняются самые давние ключи")
+    void shouldEvictForLongKeyBlocks() {
+        List<String> evicted = new ArrayList<>();
+        OffHeapKeyTable[] holder = new OffHeapKeyTable[1];
+        OffHeapKeyTable table = new OffHeapKeyTable(VALUE_BYTES, Integer.MAX_VALUE, 3 * ENTRY_MEMORY,
+                id -> evicted.add(holder[0].getKey(id)));
+        holder[0] = table;
+        for (String key : new String[]{"a", "b", "c"}) {
+            table.findOrAdd(key);
+        }
+        String longKey = "/" + "p".repeat(OffHeapKeyTable.KEY_BYTES + OffHeapKeyTable.BLOCK_DATA_BYTES - 1);
+        int id = table.findOrAdd(longKey);
+
+        assertEquals(List.of("a", "b"), evicted);
+        assertEquals(2, table.size());
+        assertEquals(3, table.getIdLimit());
+        assertEquals(longKey, table.getKey(id));
+        int used = 0;
+        for (int i = 0; i < table.getIdLimit(); i++) {
+            used += table.isUsed(i) ? 1 : 0;
+        }
+        assertEquals(2, used);
+
+        // Освободившиеся блоки и номер переходят следующим ключам
+        evicted.clear();
+        int next = table.findOrAdd("d");
+        assertEquals(List.of("c"), evicted);
+        assertTrue(next < table.getIdLimit());
+        assertEquals(longKey, table.getKey(find(table, longKey)));
+    }
+
+    @Test
+    @DisplayName("При нехватке бюджета памяти вытесняется ключ, к которому обращались давнее всех")
+    void shouldEvictLeastRecentlyUsedKey() {
+        List<String> evicted = new ArrayList<>();
+        OffHeapKeyTable[] holder = new OffHeapKeyTable[1];
+        OffHeapKeyTable table = new OffHeapKeyTable(VALUE_BYTES, Integer.MAX_VALUE, 3 * ENTRY_MEMORY,
+                id -> evicted.add(holder[0].getKey(id) + "=" + holder[0].getLong(id, 0)));
+        holder[0] = table;
+        assertEquals(3, table.getCapacity());
+
+        for (String key : new String[]{"a", "b", "c"}) {
+            table.putLong(table.findOrAdd(key), 0, key.charAt(0));
+        }
+        // "a" становится свежее "b"
+        assertTrue(find(table, "a") >= 0);
+        int id = table.findOrAdd("d");
+
+        assertEquals(List.of("b=98"), evicted);
+        assertEquals(0, table.getLong(id, 0), "Значение новой записи должно быть обнулено");
+        assertEquals(-1, find(table, "b"));
+        assertTrue(find(table, "a") >= 0 && find(table, "c") >= 0 && find(table, "d") >= 0);
+        assertEquals(3, table.size());
+        assertEquals(1, table.getEvictionCount());
+    }
+
+    @Test
+    @DisplayName("Должен совпадать с LinkedHashMap в порядке доступа при случайных обращениях и вытеснениях")
+    void shouldMatchAccessOrderedMap() {
+        int capacity = 100;
+        Map<String, Long> expected = new LinkedHashMap<>(16, 0.75f, true);
+        OffHeapKeyTable table = new OffHeapKeyTable(VALUE_BYTES, capacity, 0, id -> { });
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            String key = "k" + random.nextInt(300);
+            int id = find(table, key);
+            assertEquals(expected.containsKey(key), id >= 0, key);
+            if (id < 0) {
+                if (expected.size() == capacity) {
+                    Iterator<String> eldest = expected.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+                id = table.findOrAdd(key);
+                expected.put(key, 0L);
+            } else {
+                assertEquals(expected.get(key), table.getLong(id, 0));
+                expected.get(key);
+            }
+            table.putLong(id, 0, i);
+            expected.put(key, (long) i);
+        }
+        assertEquals(expected.size(), table.size());
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            int id = find(table, entry.getKey());
+            assertTrue(id >= 0);
+            assertEquals(entry.getValue(), table.getLong(id, 0));
+        }
+    }
+
+    @Test
+    @DisplayName("Должен отклонять бюджет памяти меньше одной записи")
+    void shouldRejectTooSmallBudget() {
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapKeyTable(VALUE_BYTES, 10, ENTRY_MEMORY - 1, id -> { }));
+    }
+}
@@ -0,0 +1,81 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса ParallelLogReader")
+class ParallelLogReaderTest {
+
+    private static final long RESPONSE_TIME_THRESHOLD_MS = 45;
+
+    @TempDir
+    Path tempDir;
+
+    private Path writeLog() throws IOException {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            if (i % 97 == 0) {
+                log.append("некорректная строка\n");
+            }
+            int status = (i / 20) % 3 == 1 ? 502 : 200;
+            log.append(String.format(
+                    "192.168.32.181 - - [14/06/2017:16:%02d:%02d +1000] \"GET /test?i=%d HTTP/1.1\" %d 2 %d.5 \"-\" \"agent\" prio:0\n",
+                    47 + i / 60, i % 60, i, status, i % 60
+            ));
+        }
+        Path file = tempDir.resolve("access.log");
+        Files.writeString(file, log.toString());
+        return file;
+    }
+
+    private static List<Long> sequentialRecords(Path file) throws IOException {
+        List<Long> records = new ArrayList<>();
+        LogParser parser = new LogParser();
+        new MappedLogReader(file).forEachLine((buf, from, to) -> {
+            if (parser.parseLine(buf, from, to)) {
+                records.add(parser.getEpochSecond() * 2 + (parser.isFailure(RESPONSE_TIME_THRESHOLD_MS) ? 1 : 0));
+            }
+        });
+        return records;
+    }
+
+    @Test
+    @DisplayName("Должен выдавать записи в том же порядке, что и последовательное чтение")
+    void shouldEmitRecordsInFileOrder() throws IOException {
+        Path file = writeLog();
+        List<Long> expected = sequentialRecords(file);
+
+        for (int chunkSize : new int[]{1, 100, 1000, 1 << 20}) {
+            List<Long> actual = new ArrayList<>();
+            new ParallelLogReader(file, 4, RESPONSE_TIME_THRESHOLD_MS, chunkSize)
+                    .forEachRecord((epochSecond, isFailure) -> actual.add(epochSecond * 2 + (isFailure ? 1 : 0)));
+            assertEquals(expected, actual, "Размер куска: " + chunkSize);
+        }
+    }
+
+    @Test
+    @DisplayName("Граница куска должна сдвигаться на начало следующей строки")
+    void nextLineStartShouldAlignToLineBoundary() throws IOException {
+        Path file = tempDir.resolve("lines.log");
+        Files.writeString(file, "aaa\nbbbb\ncc");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            assertEquals(0, ParallelLogReader.nextLineStart(channel, 0, size));
+            assertEquals(4, ParallelLogReader.nextLineStart(channel, 1, size));
+            assertEquals(4, ParallelLogReader.nextLineStart(channel, 4, size));
+            assertEquals(9, ParallelLogReader.nextLineStart(channel, 5, size));
+            assertEquals(size, ParallelLogReader.nextLineStart(channel, 10, size));
+        }
+    }
+}
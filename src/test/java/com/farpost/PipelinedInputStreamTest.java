@@ -0,0 +1,56 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса PipelinedInputStream")
+class PipelinedInputStreamTest {
+
+    @Test
+    @DisplayName("Должен передавать данные без изменений при буферах меньше данных и короткой очереди")
+    void shouldPassDataUnchanged() throws IOException {
+        byte[] data = new byte[100_003];
+        new Random(7).nextBytes(data);
+
+        try (InputStream in = new PipelinedInputStream(new ByteArrayInputStream(data), "test-reader", 1000, 2)) {
+            assertArrayEquals(data, in.readAllBytes());
+            assertEquals(-1, in.read(), "После конца данных должен возвращаться -1");
+        }
+    }
+
+    @Test
+    @DisplayName("Должен возвращать конец данных для пустого источника")
+    void shouldHandleEmptySource() throws IOException {
+        try (InputStream in = new PipelinedInputStream(new ByteArrayInputStream(new byte[0]), "test-reader")) {
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    @DisplayName("Должен передавать ошибку чтения источника читателю")
+    void shouldPropagateSourceFailure() {
+        InputStream failing = new InputStream() {
+            private int remaining = 10;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining == 0) {
+                    throw new IOException("сбой источника");
+                }
+                remaining--;
+                return 'a';
+            }
+        };
+
+        InputStream in = new PipelinedInputStream(failing, "test-reader", 4, 2);
+        IOException e = assertThrows(IOException.class, in::readAllBytes);
+        assertEquals("сбой источника", e.getMessage());
+    }
+}
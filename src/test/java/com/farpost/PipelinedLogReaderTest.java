@@ -0,0 +1,133 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса PipelinedLogReader")
+class PipelinedLogReaderTest {
+
+    private static final long RESPONSE_TIME_THRESHOLD_MS = 45;
+
+    private static byte[] log() {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            if (i % 97 == 0) {
+                log.append("некорректная строка\n");
+            }
+            if (i == 250) {
+                // Строка длиннее любого из проверяемых блоков
+                log.append("x".repeat(5000)).append('\n');
+            }
+            int status = (i / 20) % 3 == 1 ? 502 : 200;
+            log.append(String.format(
+                    "192.168.32.181 - - [14/06/2017:16:%02d:%02d +1000] \"GET /test?i=%d HTTP/1.1\" %d 2 %d.5 \"-\" \"agent\" prio:0%s",
+                    47 + i / 60, i % 60, i, status, i % 60, i % 7 == 0 ? "\r\n" : "\n"
+            ));
+        }
+        // Последняя строка без перевода строки
+        log.append("192.168.32.181 - - [14/06/2017:16:55:00 +1000] \"GET / HTTP/1.1\" 500 2 1.0 \"-\" \"agent\" prio:0");
+        return log.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<Long> sequentialRecords(byte[] log) {
+        List<Long> records = new ArrayList<>();
+        LogParser parser = new LogParser();
+        ByteBuffer buffer = ByteBuffer.wrap(log);
+        int lineStart = 0;
+        while (lineStart < log.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < log.length && log[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int to = lineEnd > lineStart && log[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            if (parser.parseLine(buffer, lineStart, to)) {
+                records.add(parser.getEpochSecond() * 2 + (parser.isFailure(RESPONSE_TIME_THRESHOLD_MS) ? 1 : 0));
+            }
+            lineStart = lineEnd + 1;
+        }
+        return records;
+    }
+
+    @Test
+    @DisplayName("Должен выдавать записи в том же порядке, что и последовательное чтение")
+    void shouldEmitRecordsInStreamOrder() throws IOException {
+        byte[] log = log();
+        List<Long> expected = sequentialRecords(log);
+        assertEquals(501, expected.size());
+
+        for (int workers : new int[]{1, 3}) {
+            for (int blockSize : new int[]{1, 100, 1000, 1 << 20}) {
+                List<Long> actual = new ArrayList<>();
+                new PipelinedLogReader(new ByteArrayInputStream(log), workers, RESPONSE_TIME_THRESHOLD_MS, blockSize)
+                        .forEachRecord((epochSecond, isFailure) -> actual.add(epochSecond * 2 + (isFailure ? 1 : 0)));
+                assertEquals(expected, actual, "Потоков: " + workers + ", размер блока: " + blockSize);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Пустой поток не должен давать записей")
+    void shouldHandleEmptyStream() throws IOException {
+        List<Long> actual = new ArrayList<>();
+        new PipelinedLogReader(new ByteArrayInputStream(new byte[0]), 2, RESPONSE_TIME_THRESHOLD_MS)
+                .forEachRecord((epochSecond, isFailure) -> actual.add(epochSecond));
+        assertTrue(actual.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Ошибка чтения должна передаваться вызывающему")
+    void shouldPropagateReadFailure() {
+        byte[] log = log();
+        InputStream failing = new InputStream() {
+            private int position = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (position == 3000) {
+                    throw new IOException("диск отвалился");
+                }
+                return log[position++];
+            }
+        };
+
+        IOException e = assertThrows(IOException.class, () ->
+                new PipelinedLogReader(failing, 2, RESPONSE_TIME_THRESHOLD_MS, 1000).forEachRecord((s, f) -> { }));
+        assertEquals("диск отвалился", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Очередь должна отдавать элементы в порядке записи и не переполняться")
+    void ringBufferShouldKeepOrderAndCapacity() throws InterruptedException {
+        SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(3);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4), "Ёмкость округляется до степени двойки");
+
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 4; i < 10_000; i++) {
+                    ring.put(i);
+                }
+            } catch (InterruptedException ignored) {
+                // Тест завершён
+            }
+        });
+        producer.start();
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, ring.take());
+        }
+        producer.join();
+        assertNull(ring.poll());
+    }
+}
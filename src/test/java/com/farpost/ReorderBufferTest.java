@@ -0,0 +1,77 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса ReorderBuffer")
+class ReorderBufferTest {
+
+    private final List<String> released = new ArrayList<>();
+    private final ReorderBuffer.RecordHandler collector =
+            (epochSecond, isFailure, responseTimeMs) -> released.add(epochSecond + (isFailure ? "!" : "") + "/" + (int) responseTimeMs);
+
+    @Test
+    @DisplayName("Должен отдавать секунды по возрастанию, а записи секунды - в порядке поступления")
+    void shouldReleaseInSecondOrder() {
+        ReorderBuffer buffer = new ReorderBuffer(2, collector);
+        buffer.add(10, false, 1);
+        buffer.add(12, true, 2);
+        buffer.add(11, false, 3);
+        buffer.add(10, true, 4);
+        assertTrue(released.isEmpty(), "Водяной знак 10 ещё не прошёл ни одну секунду");
+
+        buffer.add(13, false, 5);
+        assertEquals(List.of("10/1", "10!/4"), released);
+
+        buffer.flush();
+        assertEquals(List.of("10/1", "10!/4", "11/3", "12!/2", "13/5"), released);
+        assertEquals(0, buffer.getLateCount());
+    }
+
+    @Test
+    @DisplayName("Запись, опоздавшая больше допуска, не должна учитываться")
+    void shouldCountRecordsLaterThanAllowance() {
+        ReorderBuffer buffer = new ReorderBuffer(1, collector);
+        buffer.add(10, false, 1);
+        buffer.add(12, false, 2);
+        assertTrue(buffer.add(11, false, 3), "Опоздание на секунду в пределах допуска");
+        assertFalse(buffer.add(10, true, 4), "Секунда 10 уже отдана");
+        buffer.flush();
+
+        assertEquals(List.of("10/1", "11/3", "12/2"), released);
+        assertEquals(1, buffer.getLateCount());
+    }
+
+    @Test
+    @DisplayName("Без допуска секунда отдаётся с приходом следующей")
+    void shouldReleaseImmediatelyWithoutAllowance() {
+        ReorderBuffer buffer = new ReorderBuffer(0, collector);
+        buffer.add(10, false, 1);
+        buffer.add(10, false, 2);
+        assertTrue(released.isEmpty());
+        buffer.add(11, false, 3);
+        assertEquals(List.of("10/1", "10/2"), released);
+        assertFalse(buffer.add(10, false, 4));
+    }
+
+    @Test
+    @DisplayName("Скачок времени вперёд должен отдать все накопленные секунды")
+    void shouldReleaseEverythingOnTimeJump() {
+        ReorderBuffer buffer = new ReorderBuffer(3, collector);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(100 + i % 3, false, i);
+        }
+        buffer.add(1_000_000, false, 0);
+
+        assertEquals(100, released.size());
+        assertTrue(released.get(0).startsWith("100/"));
+        assertTrue(released.get(99).startsWith("102/"));
+        buffer.flush();
+        assertEquals("1000000/0", released.get(100));
+    }
+}
@@ -0,0 +1,106 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса ShardedSecondCounters")
+class ShardedSecondCountersTest {
+
+    private final List<long[]> released = new ArrayList<>();
+    private final LogIndex.SecondHandler collector =
+            (epochSecond, total, failures) -> released.add(new long[]{epochSecond, total, failures});
+
+    @Test
+    @DisplayName("Должен отдавать секунды по возрастанию, когда их прошёл водяной знак")
+    void shouldReleaseSecondsBehindWatermark() {
+        ShardedSecondCounters counters = new ShardedSecondCounters(2, collector);
+        counters.add(12, 5, 1);
+        counters.add(10, 3, 0);
+        counters.add(11, 1, 1);
+        counters.add(10, 2, 2);
+        counters.releaseReady();
+        assertTrue(released.isEmpty(), "Секунда 10 опаздывает на допуск и ещё может пополниться");
+
+        counters.add(13, 1, 0);
+        counters.releaseReady();
+        assertEquals(1, released.size(), "Водяной знак 11: отдана только секунда раньше него");
+        assertArrayEquals(new long[]{10, 5, 2}, released.get(0));
+
+        counters.flush();
+        assertEquals(4, released.size());
+        assertArrayEquals(new long[]{11, 1, 1}, released.get(1));
+        assertArrayEquals(new long[]{12, 5, 1}, released.get(2));
+        assertArrayEquals(new long[]{13, 1, 0}, released.get(3));
+    }
+
+    @Test
+    @DisplayName("Запросы для отданной секунды не должны учитываться")
+    void shouldCountLateRequests() {
+        ShardedSecondCounters counters = new ShardedSecondCounters(0, collector);
+        counters.add(10, 1, 0);
+        counters.add(11, 1, 0);
+        counters.releaseReady();
+        assertFalse(counters.add(10, 4, 4));
+        assertEquals(4, counters.getLateCount());
+        assertEquals(1, released.size());
+    }
+
+    @Test
+    @DisplayName("Скачок времени дальше кольца должен отдать накопленное, не перебирая пустые секунды")
+    void shouldReleaseAcrossJumpLongerThanRing() {
+        ShardedSecondCounters counters = new ShardedSecondCounters(1, collector);
+        counters.add(100, 1, 0);
+        counters.add(101, 1, 0);
+        // Ячейка секунды 100 + 64 совпадает с ячейкой секунды 100
+        counters.add(100 + 64, 1, 0);
+        counters.add(1_000_000_000L, 1, 1);
+        counters.flush();
+
+        assertEquals(4, released.size());
+        assertEquals(100, released.get(0)[0]);
+        assertEquals(164, released.get(2)[0]);
+        assertEquals(1_000_000_000L, released.get(3)[0]);
+    }
+
+    @Test
+    @DisplayName("Запросы из многих потоков должны учитываться без потерь")
+    void shouldSumConcurrentAdds() throws Exception {
+        ShardedSecondCounters counters = new ShardedSecondCounters(1_000, collector);
+        int threads = 16;
+        int seconds = 500;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int s = 0; s < seconds; s++) {
+                    counters.add(1_000 + s, 2, 1);
+                    counters.releaseReady();
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        counters.flush();
+
+        assertEquals(seconds, released.size());
+        for (int s = 0; s < seconds; s++) {
+            assertArrayEquals(new long[]{1_000 + s, 2L * threads, threads}, released.get(s));
+        }
+        assertEquals(0, counters.getLateCount());
+    }
+}
@@ -0,0 +1,169 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса SlidingWindow")
+class SlidingWindowTest {
+
+    @Test
+    @DisplayName("Окно должно содержать текущую секунду и windowSeconds предыдущих")
+    void shouldKeepCurrentAndPreviousSeconds() {
+        SlidingWindow window = new SlidingWindow(1);
+        window.add(100, false);
+        window.add(100, true);
+        window.add(101, false);
+
+        assertEquals(3, window.getTotal());
+        assertEquals(1, window.getFailures());
+
+        window.add(102, true);
+        assertEquals(2, window.getTotal(), "Секунда 100 должна быть вытеснена");
+        assertEquals(1, window.getFailures());
+
+        window.add(110, false);
+        assertEquals(1, window.getTotal(), "После разрыва во времени окно должно содержать только новую секунду");
+        assertEquals(0, window.getFailures());
+    }
+
+    @Test
+    @DisplayName("Подсчёт с заданной секунды должен учитывать только секунды окна не раньше неё")
+    void shouldCountSinceGivenSecond() {
+        SlidingWindow window = new SlidingWindow(3);
+        window.add(10, true);
+        window.add(11, false);
+        window.add(12, true);
+        window.add(12, false);
+        window.add(13, true);
+
+        assertEquals(5, window.getTotalSince(10));
+        assertEquals(3, window.getTotalSince(12));
+        assertEquals(2, window.getFailuresSince(12));
+        assertEquals(0, window.getTotalSince(14));
+    }
+
+    @Test
+    @DisplayName("Запись раньше окна должна учитываться в последней секунде окна")
+    void shouldAttributeLateRecordToNewestSecond() {
+        SlidingWindow window = new SlidingWindow(1);
+        window.add(100, false);
+        window.add(101, false);
+        window.add(50, true);
+        window.add(100, true);
+
+        assertEquals(4, window.getTotal());
+        assertEquals(2, window.getFailures());
+        assertEquals(2, window.getTotalSince(101));
+
+        window.add(102, false);
+        assertEquals(3, window.getTotal(), "Поздняя запись уходит из окна вместе с секундой, к которой отнесена");
+    }
+
+    @Test
+    @DisplayName("Время ответа должно учитываться по секундам и вытесняться вместе с ними")
+    void shouldTrackLatenciesPerSecond() {
+        SlidingWindow window = new SlidingWindow(1, true);
+        window.add(100, false, 1000);
+        window.add(101, false, 10);
+        window.add(101, false, 20);
+
+        LatencyHistogram since101 = new LatencyHistogram();
+        window.addLatenciesSince(101, since101);
+        assertEquals(2, since101.getCount());
+        assertEquals(20, since101.getValueAtQuantile(1.0), 0.2);
+
+        window.add(102, false, 30);
+        LatencyHistogram all = new LatencyHistogram();
+        window.addLatenciesSince(Long.MIN_VALUE + 1, all);
+        assertEquals(3, all.getCount(), "Секунда 100 должна уйти из окна вместе со временем ответа");
+        assertEquals(30, all.getValueAtQuantile(1.0), 0.3);
+    }
+
+    @Test
+    @DisplayName("Интервалы по несколько секунд должны вытесняться целиком")
+    void shouldEvictWholeBuckets() {
+        SlidingWindow window = new SlidingWindow(20, 10, false);
+        window.add(100, true);
+        window.add(109, false);
+        window.add(115, false);
+        window.add(125, true);
+        assertEquals(4, window.getTotal(), "Интервалы 100-109, 110-119 и 120-129 в окне");
+        assertEquals(4, window.getTotalSince(105), "Подсчёт идёт с начала интервала секунды 105");
+        assertEquals(2, window.getTotalSince(110));
+
+        window.add(130, false);
+        assertEquals(3, window.getTotal(), "Интервал 100-109 должен быть вытеснен");
+        assertEquals(1, window.getFailures());
+    }
+
+    @Test
+    @DisplayName("Длинное окно должно давать те же суммы, что прямой подсчёт по записям")
+    void shouldMatchBruteForceOnLongWindow() {
+        int windowSeconds = 300;
+        int bucketSeconds = 10;
+        SlidingWindow window = new SlidingWindow(windowSeconds, bucketSeconds, false);
+        Random random = new Random(17);
+        long[] seconds = new long[20_000];
+        boolean[] failed = new boolean[seconds.length];
+        long second = 1_000;
+        for (int i = 0; i < seconds.length; i++) {
+            // Иногда скачок дальше окна
+            second += random.nextInt(50) == 0 ? random.nextInt(1_000) : random.nextInt(3);
+            seconds[i] = second;
+            failed[i] = random.nextBoolean();
+            window.add(second, failed[i]);
+
+            long newestBucket = Math.floorDiv(second, bucketSeconds);
+            long total = 0;
+            long failures = 0;
+            for (int j = i; j >= 0 && Math.floorDiv(seconds[j], bucketSeconds) >= newestBucket - windowSeconds / bucketSeconds; j--) {
+                total++;
+                failures += failed[j] ? 1 : 0;
+            }
+            assertEquals(total, window.getTotal(), "Запись " + i);
+            assertEquals(failures, window.getFailures(), "Запись " + i);
+        }
+    }
+
+    @Test
+    @DisplayName("Окно должно быть кратно интервалу")
+    void shouldRejectWindowNotMultipleOfBucket() {
+        assertThrows(IllegalArgumentException.class, () -> new SlidingWindow(25, 10, false));
+        assertThrows(IllegalArgumentException.class, () -> new SlidingWindow(5, 10, false));
+    }
+
+    @Test
+    @DisplayName("Восстановленное окно должно продолжать счёт так же, как исходное")
+    void shouldRestoreSavedCounters() throws IOException {
+        SlidingWindow original = new SlidingWindow(30, 10, false);
+        for (int second = 100; second < 135; second++) {
+            original.add(second, second % 3 == 0);
+        }
+        ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        original.writeTo(new DataOutputStream(saved));
+
+        SlidingWindow restored = new SlidingWindow(30, 10, false);
+        restored.readFrom(new DataInputStream(new ByteArrayInputStream(saved.toByteArray())));
+        assertEquals(original.getTotal(), restored.getTotal());
+        assertEquals(original.getFailures(), restored.getFailures());
+        for (int second = 135; second < 160; second++) {
+            original.add(second, true);
+            restored.add(second, true);
+            assertEquals(original.getTotal(), restored.getTotal(), "Секунда " + second);
+            assertEquals(original.getFailuresSince(120), restored.getFailuresSince(120), "Секунда " + second);
+        }
+
+        SlidingWindow otherSize = new SlidingWindow(60, 10, false);
+        assertThrows(IOException.class,
+                () -> otherSize.readFrom(new DataInputStream(new ByteArrayInputStream(saved.toByteArray()))));
+    }
+}
@@ -0,0 +1,91 @@
+package com.farpost;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса StreamLineReader")
+class StreamLineReaderTest {
+
+    // Строка ASCII помечается префиксом, чтобы проверить, каким путём она пришла
+    private static List<String> readLines(byte[] content, int bufferSize) throws IOException {
+        List<String> lines = new ArrayList<>();
+        new StreamLineReader(new ByteArrayInputStream(content), bufferSize).forEachLine(
+                (buf, from, to) -> {
+                    byte[] bytes = new byte[to - from];
+                    for (int i = from; i < to; i++) {
+                        bytes[i - from] = buf.get(i);
+                    }
+                    lines.add("ascii:" + new String(bytes, StandardCharsets.US_ASCII));
+                },
+                (line, byteLength) -> lines.add("decoded:" + line));
+        return lines;
+    }
+
+    private static List<String> readLinesWithBufferedReader(byte[] content) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                boolean ascii = line.chars().allMatch(c -> c < 0x80);
+                lines.add((ascii ? "ascii:" : "decoded:") + line);
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    @DisplayName("Должен делить строки как BufferedReader.readLine: \\n, \\r, \\r\\n и последняя строка без перевода")
+    void shouldSplitLinesLikeBufferedReader() throws IOException {
+        byte[] content = "first\r\nsecond\rthird\n\nпятая строка\r\n\r\rlast".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(Arrays.asList("ascii:first", "ascii:second", "ascii:third", "ascii:", "decoded:пятая строка",
+                "ascii:", "ascii:", "ascii:last"), readLines(content, 1024));
+        assertTrue(readLines(new byte[0], 16).isEmpty());
+        assertEquals(List.of("ascii:one"), readLines("one\r\n".getBytes(StandardCharsets.US_ASCII), 16));
+    }
+
+    @Test
+    @DisplayName("Случайное содержимое должно читаться как BufferedReader при любом размере буфера")
+    void shouldMatchBufferedReaderOnRandomContent() throws IOException {
+        String[] pieces = {"a", "bcdefgh", "0123456789abcdef", "\n", "\r", "\r\n", "ж", "€", "😀", " ", "\"GET /\""};
+        Random random = new Random(21);
+        for (int round = 0; round < 200; round++) {
+            StringBuilder content = new StringBuilder();
+            int length = random.nextInt(200);
+            for (int i = 0; i < length; i++) {
+                content.append(pieces[random.nextInt(pieces.length)]);
+            }
+            byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+            List<String> expected = readLinesWithBufferedReader(bytes);
+            for (int bufferSize : new int[]{1, 3, 8, 17, 4096}) {
+                assertEquals(expected, readLines(bytes, bufferSize), "Раунд " + round + ", буфер " + bufferSize);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Некорректный UTF-8 должен декодироваться только в своей строке")
+    void shouldDecodeMalformedBytesPerLine() throws IOException {
+        byte[] content = {'o', 'k', '\n', 'b', (byte) 0xFF, 'a', 'd', '\n', 'o', 'k', '2'};
+
+        assertEquals(Arrays.asList("ascii:ok", "decoded:b�ad", "ascii:ok2"), readLines(content, 4));
+
+        List<Integer> byteLengths = new ArrayList<>();
+        new StreamLineReader(new ByteArrayInputStream(content), 4).forEachLine(
+                (buf, from, to) -> { }, (line, byteLength) -> byteLengths.add(byteLength));
+        assertEquals(List.of(4), byteLengths, "Длина строки в байтах, а не в символах");
+    }
+}
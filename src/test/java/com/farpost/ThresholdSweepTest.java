@@ -0,0 +1,100 @@
+package com.farpost;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса ThresholdSweep")
+class ThresholdSweepTest {
+
+    private static final double[] AVAILABILITIES = {90.0, 99.0, 99.9};
+    private static final long[] RESPONSE_TIMES = {20, 45, 100};
+
+    private ByteArrayOutputStream outputStream;
+    private PrintStream originalOut;
+
+    @BeforeEach
+    void setUp() {
+        outputStream = new ByteArrayOutputStream();
+        originalOut = System.out;
+        System.setOut(new PrintStream(outputStream));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    private static byte[] randomLog() {
+        Random random = new Random(11);
+        StringBuilder log = new StringBuilder();
+        for (int second = 0; second < 600; second++) {
+            int lines = 1 + random.nextInt(6);
+            for (int i = 0; i < lines; i++) {
+                int status = random.nextInt(40) == 0 ? 503 : 200;
+                double responseTime = random.nextDouble() * (random.nextInt(10) == 0 ? 150 : 40);
+                log.append(String.format(Locale.ROOT,
+                        "192.168.32.181 - - [14/06/2017:16:%02d:%02d +1000] \"GET /test HTTP/1.1\" %d 2 %.3f \"-\" \"agent\" prio:0\n",
+                        second / 60, second % 60, status, responseTime));
+            }
+        }
+        return log.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Итоги каждой пары порогов должны совпадать с отдельным запуском анализа")
+    void shouldMatchSeparateRunsForEveryPair() throws Exception {
+        byte[] log = randomLog();
+
+        Analyzer sweepAnalyzer = new Analyzer(new ByteArrayInputStream(log), AVAILABILITIES[0], RESPONSE_TIMES[0]);
+        ThresholdSweep sweep = new ThresholdSweep(1, AVAILABILITIES, RESPONSE_TIMES);
+        sweepAnalyzer.setThresholdSweep(AVAILABILITIES, RESPONSE_TIMES);
+        sweepAnalyzer.run();
+        String table = outputStream.toString();
+
+        // Те же строки, поданные напрямую, для проверки итогов по парам
+        LogParser parser = new LogParser();
+        for (String line : new String(log, StandardCharsets.UTF_8).split("\n")) {
+            assertTrue(parser.parseLine(line));
+            sweep.add(parser.getEpochSecond(), parser.getStatusCode(), parser.getResponseTime());
+        }
+        sweep.finish();
+
+        int nonEmptyPairs = 0;
+        for (int ui = 0; ui < AVAILABILITIES.length; ui++) {
+            for (int ti = 0; ti < RESPONSE_TIMES.length; ti++) {
+                outputStream.reset();
+                new Analyzer(new ByteArrayInputStream(log), AVAILABILITIES[ui], RESPONSE_TIMES[ti]).run();
+                String output = outputStream.toString().trim();
+
+                int incidents = 0;
+                long downtime = 0;
+                if (!output.isEmpty()) {
+                    for (String incident : output.split(System.lineSeparator())) {
+                        String[] fields = incident.split(" ");
+                        downtime += LocalTime.parse(fields[1]).toSecondOfDay() - LocalTime.parse(fields[0]).toSecondOfDay();
+                        incidents++;
+                    }
+                    nonEmptyPairs++;
+                }
+                String pair = "u=" + AVAILABILITIES[ui] + " t=" + RESPONSE_TIMES[ti];
+                assertEquals(incidents, sweep.getIncidentCount(ui, ti), pair);
+                assertEquals(downtime, sweep.getDowntimeSeconds(ui, ti), pair);
+                assertTrue(table.contains(String.format("%-10s %-10d %10d %10d",
+                        AVAILABILITIES[ui], RESPONSE_TIMES[ti], incidents, downtime)), pair + " в таблице:\n" + table);
+            }
+        }
+        assertTrue(nonEmptyPairs > 3, "Лог должен давать инциденты для большинства пар");
+    }
+}
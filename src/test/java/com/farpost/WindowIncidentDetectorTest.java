@@ -0,0 +1,101 @@
+package com.farpost;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты для класса WindowIncidentDetector")
+class WindowIncidentDetectorTest {
+
+    private ByteArrayOutputStream outputStream;
+    private PrintStream originalOut;
+
+    @BeforeEach
+    void setUp() {
+        outputStream = new ByteArrayOutputStream();
+        originalOut = System.out;
+        System.setOut(new PrintStream(outputStream));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    private static String randomLog(long seed, int seconds) {
+        Random random = new Random(seed);
+        StringBuilder log = new StringBuilder();
+        for (int second = 0; second < seconds; second++) {
+            // Отказы идут сериями, чтобы доступность то падала, то восстанавливалась
+            boolean degraded = (second / 20) % 3 == 1;
+            int lines = random.nextInt(5);
+            for (int i = 0; i < lines; i++) {
+                int status = random.nextInt(degraded ? 2 : 30) == 0 ? 500 : 200;
+                int lineSecond = second > 0 && random.nextInt(40) == 0 ? second - 1 : second;
+                log.append(String.format(Locale.ROOT,
+                        "192.168.32.181 - - [14/06/2017:16:%02d:%02d +1000] \"GET /test HTTP/1.1\" %d 2 %.1f \"-\" \"agent\" prio:0\n",
+                        lineSecond / 60, lineSecond % 60, status, random.nextDouble() * 60));
+            }
+        }
+        return log.toString();
+    }
+
+    @Test
+    @DisplayName("Инциденты совпадают с выводом Analyzer при разных окнах")
+    void shouldMatchAnalyzer() throws Exception {
+        int[][] windows = {{1, 1}, {10, 1}, {30, 10}};
+        for (int seed = 0; seed < 5; seed++) {
+            byte[] log = randomLog(seed, 600).getBytes(StandardCharsets.UTF_8);
+            for (int[] window : windows) {
+                outputStream.reset();
+                Analyzer analyzer = new Analyzer(new ByteArrayInputStream(log), 95.0, 45);
+                analyzer.setWindow(window[0], window[1]);
+                analyzer.setIncidentFormat(IncidentFormat.JSONL);
+                analyzer.run();
+                String expected = outputStream.toString(StandardCharsets.UTF_8);
+
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                IncidentWriter writer = new IncidentWriter(actual, IncidentFormat.JSONL);
+                WindowIncidentDetector detector = new WindowIncidentDetector(95.0, 45, window[0], window[1],
+                        (start, end, requests, failures, worstSecond, worstAvailability) -> writer.write(
+                                start, end, requests, failures, worstSecond, worstAvailability, null, null, false));
+                LogParser parser = new LogParser();
+                for (String line : new String(log, StandardCharsets.UTF_8).split("\n")) {
+                    assertTrue(parser.parseLine(line));
+                    detector.onRecord(parser.getEpochSecond(), parser.getResponseTime(), parser.getStatusCode());
+                }
+                detector.finish();
+                writer.flush();
+
+                assertFalse(expected.isEmpty());
+                assertEquals(expected, actual.toString(StandardCharsets.UTF_8),
+                        "seed " + seed + ", окно " + window[0] + "/" + window[1]);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Анализатор с детектором окна выводит то же, что без него")
+    void shouldWorkAsAnalyzerDetector() throws Exception {
+        byte[] log = randomLog(7, 600).getBytes(StandardCharsets.UTF_8);
+        new Analyzer(new ByteArrayInputStream(log), 95.0, 45).run();
+        String expected = outputStream.toString(StandardCharsets.UTF_8);
+        outputStream.reset();
+
+        Analyzer analyzer = new Analyzer(new ByteArrayInputStream(log), 95.0, 45);
+        analyzer.setDetector(new WindowIncidentDetector(95.0, 45, 1, 1, analyzer.getIncidentListener()));
+        analyzer.run();
+
+        assertEquals(expected, outputStream.toString(StandardCharsets.UTF_8));
+    }
+}